@@ -65,6 +65,11 @@ tasks.runClient {
     jvmArgs("-ea:com.ventooth.swansong...")
 }
 
+tasks.test {
+    useJUnitPlatform()
+    jvmArgs("-ea:com.ventooth.swansong...")
+}
+
 val venterceptorVersion = "2.0.0-rc4"
 
 tasks.processResources {
@@ -105,6 +110,12 @@ dependencies {
     compileOnly("it.unimi.dsi:fastutil:8.5.16")
     compileOnly("net.java.dev.jna:jna:5.17.0")
 
+    testImplementation(platform("org.junit:junit-bom:5.11.4"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+    testImplementation("org.joml:joml:1.10.8")
+    testImplementation("it.unimi.dsi:fastutil:8.5.16")
+
     val testOpenBlocks = false
     val testBiomesOPlenty = false
     val testThaumcraft = false
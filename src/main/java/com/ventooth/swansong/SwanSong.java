@@ -18,6 +18,7 @@ import com.ventooth.swansong.resources.ShaderPackManager;
 import com.ventooth.swansong.resources.pack.ModJarContainer;
 import com.ventooth.swansong.shader.ShaderEngine;
 import com.ventooth.swansong.shader.ShaderTypes;
+import com.ventooth.swansong.tessellator.VertexArrayPool;
 import com.ventooth.swansong.zoom.FunkyZoom;
 import lombok.NoArgsConstructor;
 import lombok.val;
@@ -34,6 +35,7 @@ import cpw.mods.fml.common.Loader;
 import cpw.mods.fml.common.Mod;
 import cpw.mods.fml.common.SidedProxy;
 import cpw.mods.fml.common.event.FMLInitializationEvent;
+import cpw.mods.fml.common.event.FMLModIdMappingEvent;
 import cpw.mods.fml.common.event.FMLPostInitializationEvent;
 import cpw.mods.fml.common.event.FMLPreInitializationEvent;
 import cpw.mods.fml.common.event.FMLServerStartingEvent;
@@ -67,6 +69,11 @@ public final class SwanSong {
         proxy.postInit(event);
     }
 
+    @Mod.EventHandler
+    public void idMappingChanged(FMLModIdMappingEvent event) {
+        proxy.idMappingChanged(event);
+    }
+
     @Mod.EventHandler
     public void serverStarting(FMLServerStartingEvent evt) {
         evt.registerServerCommand(new DebugCommandServer());
@@ -115,6 +122,11 @@ public final class SwanSong {
             ShaderEngine.firstInit();
         }
 
+        @Override
+        public void idMappingChanged(FMLModIdMappingEvent event) {
+            ShaderEngine.onIdsRemapped();
+        }
+
         @SubscribeEvent
         public void onDebugGuiText(RenderGameOverlayEvent.Text text) {
             if (!Minecraft.getMinecraft().gameSettings.showDebugInfo) {
@@ -128,6 +140,14 @@ public final class SwanSong {
             text.right.add("§bPack §9" + ShaderPackManager.currentShaderPackName);
             text.right.add("§bShadows " + (ShaderEngine.shadowPassExists() ? "§aEnabled" : "§4Disabled"));
             text.right.add("§bShader switches: " + "§r" + ShaderEngine.prevFrameShaderSwitches);
+            text.right.add("§bTess arrays: " +
+                           "§r" +
+                           VertexArrayPool.allocatedArrays() +
+                           " new (" +
+                           VertexArrayPool.allocatedBytes() / (1024 * 1024) +
+                           " MiB), " +
+                           VertexArrayPool.reusedArrays() +
+                           " reused");
             if (ShaderEngine.DO_GRAPH_LOG) {
                 text.right.add("Graph log:");
                 for (val node : ShaderEngine.graphLog) {
@@ -139,7 +159,7 @@ public final class SwanSong {
         @SubscribeEvent
         public void onDimensionChange(EntityJoinWorldEvent event) {
             if (event.world.isRemote && event.entity instanceof EntityPlayerSP) {
-                ShaderEngine.scheduleShaderPackReload();
+                ShaderEngine.scheduleDimensionReload();
             }
         }
 
@@ -149,7 +169,7 @@ public final class SwanSong {
                 Keyboard.isKeyDown(Keyboard.KEY_F3) &&
                 Keyboard.getEventKeyState() &&
                 !Keyboard.isRepeatEvent()) {
-                ShaderEngine.scheduleShaderPackReload();
+                ShaderEngine.scheduleExplicitShaderPackReload();
             }
         }
     }
@@ -171,5 +191,8 @@ public final class SwanSong {
 
         default void postInit(FMLPostInitializationEvent event) {
         }
+
+        default void idMappingChanged(FMLModIdMappingEvent event) {
+        }
     }
 }
\ No newline at end of file
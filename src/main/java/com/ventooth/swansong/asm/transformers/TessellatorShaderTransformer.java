@@ -37,7 +37,8 @@ import org.objectweb.asm.tree.VarInsnNode;
  * <p>
  * <code>void addVertex(double, double, double)</code>
  * <p>
- * <code>TessellatorVertexState getVertexState(float, float, float)</code>  -- IF <code>rawBufferIndex < 1</code>
+ * <code>TessellatorVertexState getVertexState(float, float, float)</code>  -- IF <code>rawBufferIndex < 1</code>,
+ * or sorting without the vanilla comparator
  */
 @SuppressWarnings("UnstableApiUsage")
 public class TessellatorShaderTransformer implements TurboClassTransformer {
@@ -128,6 +129,20 @@ public class TessellatorShaderTransformer implements TurboClassTransformer {
         instructions.add(new InsnNode(Opcodes.ARETURN));
         instructions.add(new FrameNode(Opcodes.F_SAME, 0, null, 0, null));
         instructions.add(endLabel);
+        instructions.add(new MethodInsnNode(Opcodes.INVOKESTATIC, SHADER_TESS_INTERNAL, "sortsQuads", "()Z", false));
+        instructions.add(new JumpInsnNode(Opcodes.IFEQ, end));
+        getShaderTess(instructions);
+        methodNode.maxStack = Math.max(methodNode.maxStack, 4);
+        instructions.add(new VarInsnNode(Opcodes.FLOAD, 1));
+        instructions.add(new VarInsnNode(Opcodes.FLOAD, 2));
+        instructions.add(new VarInsnNode(Opcodes.FLOAD, 3));
+        instructions.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
+                                            SHADER_TESS_INTERNAL,
+                                            "getVertexState",
+                                            "(FFF)" + TVS_DESC,
+                                            false));
+        instructions.add(new InsnNode(Opcodes.ARETURN));
+        instructions.add(new FrameNode(Opcodes.F_SAME, 0, null, 0, null));
         instructions.add(end);
         methodNode.instructions.insert(instructions);
     }
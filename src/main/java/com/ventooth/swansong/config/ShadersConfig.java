@@ -98,6 +98,59 @@ public final class ShadersConfig {
     @Config.DefaultBoolean(false)
     public static boolean enableReferenceShaderPack;
 
+    @Config.Name("CacheShaderSources")
+    @Config.Comment({
+            "Keeps the preprocessed shader sources on disk, so reloading an unchanged shader pack",
+            "with the same settings can skip most of the preprocessing."
+    })
+    @Config.LangKey("config.swansong.shaders.CacheShaderSources")
+    @Config.DefaultBoolean(false)
+    public static boolean CacheShaderSources;
+
+    @Config.Name("BackgroundReload")
+    @Config.Comment({
+            "Prepares shader pack reloads on a background thread while the current shaders keep rendering.",
+            "Only compiling the shaders still happens on the render thread."
+    })
+    @Config.LangKey("config.swansong.shaders.BackgroundReload")
+    @Config.DefaultBoolean(true)
+    public static boolean BackgroundReload;
+
+    @Config.Name("ShadowCullBudgetMicros")
+    @Config.Comment({
+            "How many microseconds per frame may be spent retesting the shadow culling of chunks that cast shadows.",
+            "Chunks that are culled from the shadow pass always get retested."
+    })
+    @Config.LangKey("config.swansong.shaders.ShadowCullBudgetMicros")
+    @Config.DefaultInt(500)
+    @Config.RangeInt(min = 0,
+                     max = 100000)
+    public static int ShadowCullBudgetMicros;
+
+    @Config.Name("ShadowCullFullRecheckOnJump")
+    @Config.Comment("Retests the shadow culling of every chunk when the sun or moon angle jumps, like after /time set.")
+    @Config.LangKey("config.swansong.shaders.ShadowCullFullRecheckOnJump")
+    @Config.DefaultBoolean(true)
+    public static boolean ShadowCullFullRecheckOnJump;
+
+    @Config.Name("CompactVertexFormat")
+    @Config.Comment({
+            "Stores the normals, tangents and mid/edge texture coordinates of shaded geometry as normalised integers.",
+            "Shrinks every vertex from 80 to 52 bytes, at a slight loss of precision. Applies on shader pack reload."
+    })
+    @Config.LangKey("config.swansong.shaders.CompactVertexFormat")
+    @Config.DefaultBoolean(false)
+    public static boolean CompactVertexFormat;
+
+    @Config.Name("StreamVertexBuffer")
+    @Config.Comment({
+            "Draws shaded geometry that is not part of a display list from a streaming vertex buffer,",
+            "instead of client side arrays the driver has to copy on every draw. Applies on shader pack reload."
+    })
+    @Config.LangKey("config.swansong.shaders.StreamVertexBuffer")
+    @Config.DefaultBoolean(false)
+    public static boolean StreamVertexBuffer;
+
     @RequiredArgsConstructor
     @Accessors(fluent = true,
                chain = false)
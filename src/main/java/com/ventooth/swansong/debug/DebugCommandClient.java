@@ -46,7 +46,7 @@ public final class DebugCommandClient extends CommandBase {
                 ShaderEngine.scheduleFramebufferResize();
             }
         });
-        this.optionMap.put("sh_reset", ShaderEngine::scheduleShaderPackReload);
+        this.optionMap.put("sh_reset", ShaderEngine::scheduleExplicitShaderPackReload);
 
         this.optionList = new ArrayList<>(optionMap.keySet());
     }
@@ -16,4 +16,8 @@ public interface WorldRendererExt {
     void swan$restoreFrustum();
 
     boolean swan$initialized();
+
+    double swan$shadowTestStamp();
+
+    void swan$shadowTestStamp(double stamp);
 }
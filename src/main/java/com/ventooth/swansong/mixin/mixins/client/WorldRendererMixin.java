@@ -11,11 +11,18 @@
 package com.ventooth.swansong.mixin.mixins.client;
 
 import com.ventooth.swansong.mixin.extensions.WorldRendererExt;
+import com.ventooth.swansong.tessellator.PooledVertexState;
+import com.ventooth.swansong.tessellator.ShaderTess;
+import org.objectweb.asm.Opcodes;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import net.minecraft.client.renderer.WorldRenderer;
+import net.minecraft.client.shader.TesselatorVertexState;
 
 @Mixin(WorldRenderer.class)
 public abstract class WorldRendererMixin implements WorldRendererExt {
@@ -23,10 +30,14 @@ public abstract class WorldRendererMixin implements WorldRendererExt {
     public boolean isInFrustum;
     @Shadow
     private boolean isInitialized;
+    @Shadow
+    private TesselatorVertexState vertexState;
     @Unique
     private boolean swan$frustumBackup;
     @Unique
     private boolean swan$shadowFrustum;
+    @Unique
+    private double swan$shadowTestStamp;
 
     @Override
     public void swan$backupFrustum() {
@@ -44,4 +55,46 @@ public abstract class WorldRendererMixin implements WorldRendererExt {
     public boolean swan$initialized() {
         return isInitialized;
     }
+
+    @Override
+    public double swan$shadowTestStamp() {
+        return swan$shadowTestStamp;
+    }
+
+    @Override
+    public void swan$shadowTestStamp(double stamp) {
+        swan$shadowTestStamp = stamp;
+    }
+
+    // Mods that replace the chunk compile only miss out on drawing from client memory while compiling
+    @Inject(method = "preRenderBlocks",
+            at = @At(value = "INVOKE",
+                     target = "Lorg/lwjgl/opengl/GL11;glNewList(II)V",
+                     shift = At.Shift.AFTER,
+                     remap = false),
+            require = 0)
+    private void swan$beginDisplayList(CallbackInfo ci) {
+        ShaderTess.compilingDisplayList(true);
+    }
+
+    @Inject(method = "postRenderBlocks",
+            at = @At(value = "INVOKE",
+                     target = "Lorg/lwjgl/opengl/GL11;glEndList()V",
+                     remap = false),
+            require = 0)
+    private void swan$endDisplayList(CallbackInfo ci) {
+        ShaderTess.compilingDisplayList(false);
+    }
+
+    // The state is only kept to resort the translucent pass, nothing references the old one once it gets replaced
+    @Inject(method = {"updateRenderer", "postRenderBlocks"},
+            at = @At(value = "FIELD",
+                     target = "Lnet/minecraft/client/renderer/WorldRenderer;vertexState:Lnet/minecraft/client/shader/TesselatorVertexState;",
+                     opcode = Opcodes.PUTFIELD),
+            require = 0)
+    private void swan$releaseVertexState(CallbackInfo ci) {
+        if (vertexState instanceof PooledVertexState pooled) {
+            pooled.release();
+        }
+    }
 }
@@ -58,7 +58,7 @@ public abstract class MinecraftMixin {
               require = 1)
     private void hook_ReloadShaderPack(RenderGlobal rg) {
         // We will call loadRenderers() ourselves later when the shader reloads
-        ShaderEngine.scheduleShaderPackReload();
+        ShaderEngine.scheduleExplicitShaderPackReload();
     }
 
     @Inject(method = "updateFramebufferSize",
@@ -11,6 +11,7 @@
 package com.ventooth.swansong.mixin.mixins.client.hooks;
 
 import com.ventooth.swansong.shader.ShaderEngine;
+import com.ventooth.swansong.tessellator.ShaderTess;
 import org.lwjgl.opengl.GL11;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
@@ -57,4 +58,23 @@ public abstract class ModelRendererMixin {
     private void hook_MarkDisplayListState(float scale, CallbackInfo ci) {
         swansong$compiledWithShaderTess = ShaderEngine.isInitialized();
     }
+
+    @Inject(method = "compileDisplayList",
+            at = @At(value = "INVOKE",
+                     target = "Lorg/lwjgl/opengl/GL11;glNewList(II)V",
+                     shift = At.Shift.AFTER,
+                     remap = false),
+            require = 1)
+    private void hook_BeginDisplayList(float scale, CallbackInfo ci) {
+        ShaderTess.compilingDisplayList(true);
+    }
+
+    @Inject(method = "compileDisplayList",
+            at = @At(value = "INVOKE",
+                     target = "Lorg/lwjgl/opengl/GL11;glEndList()V",
+                     remap = false),
+            require = 1)
+    private void hook_EndDisplayList(float scale, CallbackInfo ci) {
+        ShaderTess.compilingDisplayList(false);
+    }
 }
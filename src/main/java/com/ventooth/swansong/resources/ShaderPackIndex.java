@@ -0,0 +1,194 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.resources;
+
+import com.ventooth.swansong.Share;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which zip files in the shaderpacks folder are shader packs, so refreshing the list does not have to open
+ * every archive again.
+ * <p>
+ * Results are keyed by the real path of the archive, and only count as long as its size and modification time stay the
+ * same. Entries for archives that were not looked up during a scan get dropped on {@link #save()}, which takes care of
+ * deleted and renamed files.
+ */
+final class ShaderPackIndex {
+    private static final int MAGIC = 0x53575049;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    /**
+     * An empty path, size, modification time and the result
+     */
+    private static final int MIN_ENTRY_BYTES = Short.BYTES + 2 * Long.BYTES + 1;
+
+    private final Path file;
+    private final Object2ObjectMap<String, Entry> entries;
+    private final Object2ObjectMap<String, Entry> seen = new Object2ObjectOpenHashMap<>();
+    private boolean dirty;
+
+    private ShaderPackIndex(Path file, Object2ObjectMap<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /**
+     * Never fails, a missing or broken index just starts out empty.
+     */
+    public static ShaderPackIndex load(Path file) {
+        final byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return new ShaderPackIndex(file, new Object2ObjectOpenHashMap<>());
+        } catch (IOException e) {
+            Share.log.warn("Failed to read shader pack index {}", file, e);
+            return new ShaderPackIndex(file, new Object2ObjectOpenHashMap<>());
+        }
+        val entries = decode(data);
+        if (entries == null) {
+            Share.log.warn("Discarding invalid shader pack index {}", file);
+            return new ShaderPackIndex(file, new Object2ObjectOpenHashMap<>());
+        }
+        return new ShaderPackIndex(file, entries);
+    }
+
+    /**
+     * @return the remembered result, or null if the archive is unknown or changed since
+     */
+    public @Nullable Boolean lookup(Path archive) {
+        val key = archive.toString();
+        val stamp = stamp(archive);
+        if (stamp == null) {
+            return null;
+        }
+        val entry = entries.get(key);
+        if (entry == null || entry.size != stamp[0] || entry.modified != stamp[1]) {
+            return null;
+        }
+        seen.put(key, entry);
+        return entry.valid;
+    }
+
+    public void put(Path archive, boolean valid) {
+        val stamp = stamp(archive);
+        if (stamp == null) {
+            return;
+        }
+        seen.put(archive.toString(), new Entry(stamp[0], stamp[1], valid));
+        dirty = true;
+    }
+
+    /**
+     * Writes the results of this scan, if anything changed.
+     */
+    public void save() {
+        if (!dirty && seen.size() == entries.size()) {
+            return;
+        }
+        val temp = file.resolveSibling(file.getFileName() + ".new");
+        try {
+            Files.createDirectories(file.getParent());
+            Files.write(temp, encode(seen));
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Share.log.warn("Failed to write shader pack index {}", file, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static long @Nullable [] stamp(Path archive) {
+        try {
+            return new long[]{Files.size(archive),
+                              Files.getLastModifiedTime(archive)
+                                   .to(TimeUnit.NANOSECONDS)};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] encode(Object2ObjectMap<String, Entry> entries) throws IOException {
+        val bytes = new ByteArrayOutputStream();
+        val out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(entries.size());
+        for (val entry : entries.object2ObjectEntrySet()) {
+            out.writeUTF(entry.getKey());
+            val value = entry.getValue();
+            out.writeLong(value.size);
+            out.writeLong(value.modified);
+            out.writeBoolean(value.valid);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static @Nullable Object2ObjectMap<String, Entry> decode(byte[] data) {
+        try {
+            val in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            val count = in.readInt();
+            // Checked against what the data could hold, so a broken count cannot blow up the allocation
+            if (count < 0 || count > (data.length - HEADER_BYTES) / MIN_ENTRY_BYTES) {
+                return null;
+            }
+            val entries = new Object2ObjectOpenHashMap<String, Entry>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                val key = in.readUTF();
+                entries.put(key, new Entry(in.readLong(), in.readLong(), in.readBoolean()));
+            }
+            if (in.available() != 0) {
+                return null;
+            }
+            return entries;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    //TODO convert to record
+    private static final class Entry {
+        private final long size;
+        private final long modified;
+        private final boolean valid;
+
+        private Entry(long size, long modified, boolean valid) {
+            this.size = size;
+            this.modified = modified;
+            this.valid = valid;
+        }
+    }
+}
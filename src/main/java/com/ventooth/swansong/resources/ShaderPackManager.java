@@ -59,6 +59,9 @@ public final class ShaderPackManager {
 
     private static Path shaderpacksDir;
     private static Path shaderpacksDebugDir;
+    private static Path shaderpacksCacheDir;
+
+    private static final String INDEX_FILE_NAME = "shaderpacks.idx";
 
     private static List<String> detectedShaderpacks = ShadersConfig.enableReferenceShaderPack
                                                       ? Arrays.asList(DISABLED_SHADER_PACK_NAME, DefaultShaderPack.NAME)
@@ -68,6 +71,7 @@ public final class ShaderPackManager {
         val minecraftDir = Minecraft.getMinecraft().mcDataDir.toPath();
         shaderpacksDir = minecraftDir.resolve("shaderpacks");
         shaderpacksDebugDir = shaderpacksDir.resolve("debug");
+        shaderpacksCacheDir = shaderpacksDir.resolve("cache");
 
         ensureDirExists("Shader Pack", shaderpacksDir);
 
@@ -83,6 +87,11 @@ public final class ShaderPackManager {
         return shaderpacksDir.resolve(name);
     }
 
+    public static Path shaderCacheDir() {
+        ensureDirExists("Shader Pack Cache", shaderpacksCacheDir);
+        return shaderpacksCacheDir;
+    }
+
     public static void cleanDebugDir() throws IOException {
         ensureDirExists("Shader Pack Debug output", shaderpacksDebugDir);
         FileUtils.cleanDirectory(shaderpacksDebugDir.toFile());
@@ -155,32 +164,31 @@ public final class ShaderPackManager {
             currentShaderPackName = DISABLED_SHADER_PACK_NAME;
         }
         ShadersConfig.CurrentShaderPack = currentShaderPackName;
+        ResolvedShaderPack.forgetSharedIncludeCache();
         saveShaderSettings();
     }
 
     public static void refreshShaderPackNames() {
         val newShaders = new ArrayList<String>();
+        val index = ShaderPackIndex.load(shaderpacksCacheDir.resolve(INDEX_FILE_NAME));
         try {
             @Cleanup val shadersDir = Files.list(shaderpacksDir);
             shadersDir.forEach(subPath -> {
-                if (Objects.equals(subPath, shaderpacksDebugDir)) {
+                if (Objects.equals(subPath, shaderpacksDebugDir) || Objects.equals(subPath, shaderpacksCacheDir)) {
                     return;
                 }
                 try {
                     val realPath = subPath.toRealPath();
                     if (Files.isRegularFile(realPath)) {
-                        try(val zip = new ZipFile(realPath.toFile())) {
-                            val entries = zip.entries();
-                            while (entries.hasMoreElements()) {
-                                val entry = entries.nextElement();
-                                val name = entry.getName();
-                                if ("shaders".equals(name) || name.startsWith("shaders/")) {
-                                    newShaders.add(subPath.getFileName()
-                                                          .toString());
-                                    break;
-                                }
-                            }
-                        } catch (IOException ignored) {}
+                        var valid = index.lookup(realPath);
+                        if (valid == null) {
+                            valid = isZipShaderPack(realPath);
+                            index.put(realPath, valid);
+                        }
+                        if (valid) {
+                            newShaders.add(subPath.getFileName()
+                                                  .toString());
+                        }
                     } else if (Files.isDirectory(realPath)) {
                         val nestDir = realPath.resolve("shaders").toRealPath();
                         if (Files.isDirectory(nestDir)) {
@@ -193,6 +201,7 @@ public final class ShaderPackManager {
                     Share.log.error("Stacktrace:", e);
                 }
             });
+            index.save();
             newShaders.sort(Comparator.naturalOrder());
 
             if (ShadersConfig.enableReferenceShaderPack) {
@@ -206,40 +215,73 @@ public final class ShaderPackManager {
         }
     }
 
+    private static boolean isZipShaderPack(Path file) {
+        try (val zip = new ZipFile(file.toFile())) {
+            val entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                val name = entries.nextElement()
+                                  .getName();
+                if ("shaders".equals(name) || name.startsWith("shaders/")) {
+                    return true;
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        return false;
+    }
+
     @UnmodifiableView
     public static List<String> getShaderPackNames() {
         return Collections.unmodifiableList(detectedShaderpacks); //TODO: Should include the internal shader pack on top, but ONLY if it is active.
     }
 
-    public static @Nullable ShaderPack createShaderPack() {
-        if (DISABLED_SHADER_PACK_NAME.equals(currentShaderPackName)) {
+    /**
+     * Does not touch any global state, safe to call off the render thread.
+     *
+     * @return null if the name does not refer to a pack that should be loaded, like the disabled one
+     *
+     * @throws IOException if the pack could not be loaded
+     */
+    public static @Nullable ShaderPack loadShaderPack(String name) throws IOException {
+        if (DISABLED_SHADER_PACK_NAME.equals(name)) {
             return null;
         }
-        if (DefaultShaderPack.NAME.equals(currentShaderPackName)) {
+        if (DefaultShaderPack.NAME.equals(name)) {
             if (ShadersConfig.enableReferenceShaderPack) {
                 return DefaultShaderPack.INSTANCE;
             } else {
                 return null;
             }
         }
-        val builder = new ResolvedShaderPack.Builder(currentShaderPackName);
-        boolean successful = false;
+        val builder = new ResolvedShaderPack.Builder(name);
+        ResolvedShaderPack pack = null;
         try {
-            val theFile = shaderpacksDir.resolve(currentShaderPackName).toRealPath();
+            boolean successful = false;
+            val theFile = shaderpacksDir.resolve(name).toRealPath();
             if (Files.isDirectory(theFile)) {
                 successful = createDirShaderPack(theFile, builder);
             } else if (Files.isRegularFile(theFile)) {
                 successful = createFileShaderPack(theFile, builder);
             }
-        } catch (IOException e) {
-            log.error("Exception in loading shader pack:", e);
-        }
-        if (successful) {
-            return builder.build();
+            if (!successful) {
+                throw new IOException("Not a shader pack: " + name);
+            }
+            pack = builder.build();
+            return pack;
+        } finally {
+            if (pack == null) {
+                builder.discard();
+            }
         }
+    }
+
+    /**
+     * Switches to the disabled pack after the current one failed to load, render thread only.
+     */
+    public static void disableBrokenShaderPack(IOException e) {
+        log.error("Exception in loading shader pack:", e);
         log.error("Failed to load shader pack named \"" + currentShaderPackName + "\"");
         setShaderPackByName(DISABLED_SHADER_PACK_NAME);
-        return null;
     }
 
     public static void saveShaderPackConfig(List<String> dataz) {
@@ -271,13 +313,12 @@ public final class ShaderPackManager {
                 if (!Files.isRegularFile(file)) {
                     return super.visitFile(file, attrs);
                 }
-                @Cleanup val input = Files.newInputStream(file);
                 var rPath = theFile.relativize(file)
                                    .toString();
                 if (File.separatorChar != '/') {
                     rPath = rPath.replace(File.separatorChar, '/');
                 }
-                builder.add(rPath, input);
+                builder.addFile(rPath, file, attrs);
                 return super.visitFile(file, attrs);
             }
 
@@ -316,7 +357,8 @@ public final class ShaderPackManager {
         if (!fileName.endsWith(".zip")) {
             return false;
         }
-        @Cleanup val zipFile = new ZipFile(theFile.toFile());
+        val zipFile = new ZipFile(theFile.toFile());
+        builder.archive(theFile, zipFile);
         val entries = zipFile.entries();
         while (entries.hasMoreElements()) {
             val entry = entries.nextElement();
@@ -337,7 +379,7 @@ public final class ShaderPackManager {
                 }
                 continue;
             }
-            builder.add(name, zipFile.getInputStream(entry));
+            builder.addArchiveEntry(entry);
         }
         return true;
     }
@@ -11,6 +11,7 @@
 package com.ventooth.swansong.resources.pack;
 
 import com.ventooth.swansong.Share;
+import com.ventooth.swansong.shader.preprocessor.util.IncludeCache;
 import lombok.val;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -26,6 +27,8 @@ public final class InternalShaderPack extends ShaderPack {
     public static final String NAME = "(internal)";
     public static final InternalShaderPack INSTANCE = new InternalShaderPack();
 
+    private final IncludeCache includeCache = new IncludeCache();
+
     private InternalShaderPack() {
         super(NAME);
     }
@@ -48,6 +51,16 @@ public final class InternalShaderPack extends ShaderPack {
         return ModJarContainer.getEntry(fixPath(path)) != null;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public @NotNull IncludeCache includeCache() {
+        return includeCache;
+    }
+
     private static String fixPath(String path) {
         return "assets/swansong" + path;
     }
@@ -10,10 +10,13 @@
 
 package com.ventooth.swansong.resources.pack;
 
-import it.unimi.dsi.fastutil.objects.Object2LongMap;
-import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import com.ventooth.swansong.Share;
+import com.ventooth.swansong.shader.preprocessor.util.IncludeCache;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectList;
+import lombok.Cleanup;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
@@ -24,48 +27,124 @@ import org.jetbrains.annotations.Nullable;
 import net.minecraft.world.WorldProvider;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
 import java.util.Properties;
-
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A shader pack read from a directory or a zip file.
+ * <p>
+ * Only the file listing is read up front, contents are read when something asks for them. Large files in directories
+ * are read into direct buffers instead of onto the heap, zip entries are read straight from the archive.
+ */
 public class ResolvedShaderPack extends ShaderPack {
-    private final byte[] storage;
+    /**
+     * Files at least this large get read into a direct buffer, smaller ones are cheaper to keep on the heap.
+     * <p>
+     * They used to be memory mapped, but a mapping keeps the file locked on Windows until it gets garbage collected,
+     * so the pack could not be edited or deleted while the game was running.
+     */
+    private static final long DIRECT_THRESHOLD = 256 * 1024;
+
+    private final Object2ObjectMap<String, Entry> entries;
 
-    private final Object2LongMap<String> offsets;
+    private final @Nullable Archive archive;
 
     private final List<WorldSpecializationPredicate> specializations;
 
     private final boolean hasWorld0;
 
-    public ResolvedShaderPack(String name,
-                              byte[] storage,
-                              Object2LongMap<String> offsets,
-                              List<WorldSpecializationPredicate> specializations,
-                              boolean hasWorld0) {
+    /**
+     * Outlives the packs, which get rebuilt on every reload and dimension change, see {@link #includeCache()}
+     */
+    private static @Nullable SharedIncludeCache sharedIncludeCache;
+
+    private volatile @Nullable IncludeCache includeCache;
+
+    private ResolvedShaderPack(String name,
+                               Object2ObjectMap<String, Entry> entries,
+                               @Nullable Archive archive,
+                               List<WorldSpecializationPredicate> specializations,
+                               boolean hasWorld0) {
         super(name);
-        this.storage = storage;
-        this.offsets = offsets;
+        this.entries = entries;
+        this.archive = archive;
         this.specializations = specializations;
         this.hasWorld0 = hasWorld0;
     }
 
     @Override
     public @NotNull InputStream get(String path) throws IOException {
-        val region = offsets.getOrDefault(path, -1);
-        if (region == -1) {
+        val entry = entries.get(path);
+        if (entry == null) {
             throw new FileNotFoundException(path);
         }
-        val offset = (int) ((region >>> 32) & 0xFFFFFFFFL);
-        val length = (int) (region & 0xFFFFFFFFL);
-        return new ByteArrayInputStream(storage, offset, length);
+        return entry.open();
     }
 
     @Override
     public boolean has(String path) {
-        return offsets.containsKey(path);
+        return entries.containsKey(path);
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    /**
+     * Shared with every later instance of the same pack, until {@link #forgetSharedIncludeCache()} is called. Each
+     * instance checks the cached files against their current contents once, as the files may have been edited since.
+     */
+    @Override
+    public @NotNull IncludeCache includeCache() {
+        var cache = includeCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = includeCache;
+                if (cache == null) {
+                    cache = sharedIncludeCache(name());
+                    cache.revalidate();
+                    includeCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private static synchronized IncludeCache sharedIncludeCache(String name) {
+        val shared = sharedIncludeCache;
+        if (shared != null && shared.name.equals(name)) {
+            return shared.cache;
+        }
+        val cache = new IncludeCache();
+        sharedIncludeCache = new SharedIncludeCache(name, cache);
+        return cache;
+    }
+
+    /**
+     * Called when switching packs, or when the player explicitly asks for the pack to be reloaded. Packs that already
+     * picked up the shared cache keep using it.
+     */
+    public static synchronized void forgetSharedIncludeCache() {
+        sharedIncludeCache = null;
+    }
+
+    @Override
+    public void close() {
+        if (archive != null) {
+            archive.close();
+        }
     }
 
     @Override
@@ -86,13 +165,12 @@ public class ResolvedShaderPack extends ShaderPack {
     @RequiredArgsConstructor
     public static class Builder {
         private final String name;
-        private final ExposedByteArrayOutputStream out = new ExposedByteArrayOutputStream();
-        private final Object2LongMap<String> offsets = new Object2LongOpenHashMap<>();
+        private final Object2ObjectMap<String, Entry> entries = new Object2ObjectOpenHashMap<>();
         private final ObjectList<WorldSpecializationPredicate> specializations = new ObjectArrayList<>();
         private final ObjectList<WorldSpecializationPredicate> specializationsIris = new ObjectArrayList<>();
         private final ObjectList<WorldSpecializationPredicate> specializationsSwansong = new ObjectArrayList<>();
         private boolean hasWorld0 = false;
-        private final byte[] copyBuf = new byte[4096];
+        private @Nullable Archive archive;
 
         public void addSpecialization(WorldSpecializationPredicate specialization) {
             specializations.add(specialization);
@@ -102,25 +180,41 @@ public class ResolvedShaderPack extends ShaderPack {
             this.hasWorld0 = true;
         }
 
-        public void add(String path, InputStream data) throws IOException {
-            val offset = out.size();
-            val size = copyFrom(data);
-            if ("shaders/dimensions.properties".equals(path)) {
-                parseDimensionProperties(offset, size, DimensionPropertiesVariant.Iris);
-            } else if ("shaders/dimensions_swansong.properties".equals(path)) {
-                parseDimensionProperties(offset, size, DimensionPropertiesVariant.Swansong);
+        public void addFile(String path, Path file, BasicFileAttributes attrs) {
+            put(path, new FileEntry(file, attrs.size()));
+        }
+
+        /**
+         * Takes over the zip file, entries get read from it on demand.
+         */
+        public void archive(Path file, ZipFile zip) {
+            if (archive != null) {
+                throw new IllegalStateException("Archive already set");
             }
-            val packed = (((long) offset & 0xFFFFFFFFL) << 32) | ((long) size & 0xFFFFFFFFL);
+            archive = new Archive(file, zip);
+        }
+
+        public void addArchiveEntry(ZipEntry entry) {
+            if (archive == null) {
+                throw new IllegalStateException("No archive set");
+            }
+            put(entry.getName(), new ArchiveEntry(archive, entry));
+        }
+
+        private void put(String path, Entry entry) {
             if (path.charAt(0) != '/') {
                 path = "/" + path;
             }
-            offsets.put(path, packed);
+            entries.put(path, entry);
         }
 
-        private void parseDimensionProperties(int offset, int size, DimensionPropertiesVariant variant)
-                throws IOException {
+        private void parseDimensionProperties(String path, DimensionPropertiesVariant variant) throws IOException {
+            val entry = entries.get(path);
+            if (entry == null) {
+                return;
+            }
             val properties = new Properties();
-            val in = new ByteArrayInputStream(out.buf(), offset, size);
+            @Cleanup val in = entry.open();
             properties.load(in);
             for (val name : properties.stringPropertyNames()) {
                 if (!name.startsWith("dimension.")) {
@@ -187,31 +281,162 @@ public class ResolvedShaderPack extends ShaderPack {
             }
         }
 
-        private int copyFrom(InputStream data) throws IOException {
-            int totalRead = 0;
-            int read;
-            while ((read = data.read(copyBuf)) >= 0) {
-                out.write(copyBuf, 0, read);
-                totalRead += read;
+        /**
+         * Releases the archive, if the pack never gets built.
+         */
+        public void discard() {
+            if (archive != null) {
+                archive.close();
             }
-            return totalRead;
         }
 
-        public ResolvedShaderPack build() {
+        public ResolvedShaderPack build() throws IOException {
+            parseDimensionProperties("/shaders/dimensions.properties", DimensionPropertiesVariant.Iris);
+            parseDimensionProperties("/shaders/dimensions_swansong.properties", DimensionPropertiesVariant.Swansong);
             val spec = new ObjectArrayList<WorldSpecializationPredicate>();
             spec.addAll(specializationsSwansong);
             spec.addAll(specializationsIris);
             spec.addAll(specializations);
-            return new ResolvedShaderPack(name, out.toByteArray(), offsets, spec, hasWorld0);
+            return new ResolvedShaderPack(name, entries, archive, spec, hasWorld0);
         }
+    }
+
+    //TODO convert to record
+    private static final class SharedIncludeCache {
+        private final String name;
+        private final IncludeCache cache;
+
+        private SharedIncludeCache(String name, IncludeCache cache) {
+            this.name = name;
+            this.cache = cache;
+        }
+    }
+
+    private interface Entry {
+        InputStream open() throws IOException;
+    }
 
-        private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
-            public byte[] buf() {
-                return buf;
+    //TODO convert to record
+    private static final class FileEntry implements Entry {
+        private final Path file;
+        private final long size;
+
+        private FileEntry(Path file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            if (size < DIRECT_THRESHOLD) {
+                return new ByteArrayInputStream(Files.readAllBytes(file));
+            }
+            @Cleanup val channel = FileChannel.open(file, StandardOpenOption.READ);
+            val length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + file);
+            }
+            val buf = ByteBuffer.allocateDirect((int) length);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    break;
+                }
+            }
+            buf.flip();
+            return new BufferInputStream(buf);
+        }
+
+    }
+
+    //TODO convert to record
+    private static final class ArchiveEntry implements Entry {
+        private final Archive archive;
+        private final ZipEntry entry;
+
+        private ArchiveEntry(Archive archive, ZipEntry entry) {
+            this.archive = archive;
+            this.entry = entry;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return archive.zip()
+                          .getInputStream(entry);
+        }
+    }
+
+    /**
+     * The zip file stays open while the pack is being loaded, and gets reopened if something reads it after closing.
+     */
+    private static final class Archive {
+        private final Path file;
+        private @Nullable ZipFile zip;
+
+        private Archive(Path file, ZipFile zip) {
+            this.file = file;
+            this.zip = zip;
+        }
+
+        synchronized ZipFile zip() throws IOException {
+            var zip = this.zip;
+            if (zip == null) {
+                this.zip = zip = new ZipFile(file.toFile());
+            }
+            return zip;
+        }
+
+        synchronized void close() {
+            val zip = this.zip;
+            if (zip == null) {
+                return;
+            }
+            this.zip = null;
+            try {
+                zip.close();
+            } catch (IOException e) {
+                Share.log.warn("Failed to close shader pack {}", file, e);
             }
         }
     }
 
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        private BufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            val skipped = (int) Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+
     public interface WorldSpecializationPredicate {
         boolean matches(@NotNull WorldProvider dimension);
 
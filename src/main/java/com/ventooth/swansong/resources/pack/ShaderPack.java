@@ -39,4 +39,10 @@ public abstract class ShaderPack implements FSProvider {
     }
 
     public abstract @Nullable String getWorldSpecialization(@Nullable WorldProvider dimension);
+
+    /**
+     * Releases open file handles. The pack stays usable, reading from it again reopens them.
+     */
+    public void close() {
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader;
+
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Hands the result of work done on a background thread over to the thread that polls it.
+ * <p>
+ * Only the most recent request counts: requesting again while a previous request is still running cancels it, and the
+ * outdated result gets passed to the discard callback instead of being handed over. Every result is either taken or
+ * discarded exactly once.
+ * <p>
+ * Not thread-safe, all methods must be called from the same thread, only the tasks run elsewhere.
+ */
+final class BackgroundReload<T> {
+    private static final Object CANCELLED = new Object();
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final String threadName;
+    private final Consumer<T> discard;
+    private @Nullable ExecutorService executor;
+    private @Nullable Request pending;
+    /**
+     * Task of the most recently cancelled request. The worker runs tasks in order, so earlier ones are done once it is.
+     */
+    private @Nullable Future<?> cancelled;
+
+    /**
+     * @param discard called with results that will never be handed over, may run on the worker thread
+     */
+    BackgroundReload(String threadName, Consumer<T> discard) {
+        this.threadName = threadName;
+        this.discard = discard;
+    }
+
+    /**
+     * Starts the task on the worker thread, cancelling the previous request.
+     */
+    public void request(Supplier<@Nullable T> task) {
+        cancel();
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                val thread = new Thread(runnable);
+                thread.setName(threadName + " " + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        val request = new Request();
+        request.future = executor.submit(() -> {
+            if (request.result.get() == CANCELLED) {
+                return;
+            }
+            val result = task.get();
+            if (result != null && !request.result.compareAndSet(null, result)) {
+                discard.accept(result);
+            }
+        });
+        pending = request;
+    }
+
+    public boolean isPending() {
+        return pending != null;
+    }
+
+    public boolean isDone() {
+        val request = pending;
+        return request != null && request.future.isDone();
+    }
+
+    /**
+     * Takes the result of a finished request, see {@link #isDone()}.
+     *
+     * @return null if the task returned null
+     * @throws RuntimeException whatever the task threw
+     */
+    public @Nullable T take() {
+        val request = pending;
+        if (request == null || !request.future.isDone()) {
+            throw new IllegalStateException("No finished request");
+        }
+        pending = null;
+        try {
+            request.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                  .interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            val cause = e.getCause();
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            if (cause instanceof Error err) {
+                throw err;
+            }
+            throw new IllegalStateException(cause);
+        }
+        val result = request.result.getAndSet(CANCELLED);
+        if (result == null || result == CANCELLED) {
+            return null;
+        }
+        //noinspection unchecked
+        return (T) result;
+    }
+
+    /**
+     * Cancels the current request, if there is one. A result that is already there gets discarded right away,
+     * otherwise the worker discards it once the task finishes. Does not wait for that, see {@link #awaitCancelled()}.
+     */
+    public void cancel() {
+        val request = pending;
+        if (request == null) {
+            return;
+        }
+        pending = null;
+        cancelled = request.future;
+        val result = request.result.getAndSet(CANCELLED);
+        if (result != null && result != CANCELLED) {
+            //noinspection unchecked
+            discard.accept((T) result);
+        }
+    }
+
+    /**
+     * Blocks until the tasks of all cancelled requests have finished, for work that must not run alongside them.
+     */
+    public void awaitCancelled() {
+        val future = cancelled;
+        if (future == null) {
+            return;
+        }
+        cancelled = null;
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                  .interrupt();
+        } catch (ExecutionException | CancellationException ignored) {
+            // The result of a cancelled request does not matter
+        }
+    }
+
+    private static final class Request {
+        private final AtomicReference<Object> result = new AtomicReference<>();
+        private Future<?> future;
+    }
+}
@@ -10,8 +10,9 @@
 
 package com.ventooth.swansong.shader;
 
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import lombok.val;
-import org.apache.commons.lang3.ArrayUtils;
 import org.jetbrains.annotations.Nullable;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL30;
@@ -23,13 +24,21 @@ public final class BufferNameUtil {
     private BufferNameUtil() {
     }
 
-    public static @Nullable CompositeTextureData gbufferIndexFromName(String name) {
-        for (val data: CompositeTextureData.values()) {
-            if (ArrayUtils.contains(data.names(), name)) {
-                return data;
+    /**
+     * Every name and alias, like {@code gaux1} for {@code colortex4}.
+     */
+    private static final Object2ObjectMap<String, CompositeTextureData> gbufferNames = new Object2ObjectOpenHashMap<>();
+
+    static {
+        for (val data : CompositeTextureData.values()) {
+            for (val name : data.names()) {
+                gbufferNames.putIfAbsent(name, data);
             }
         }
-        return null;
+    }
+
+    public static @Nullable CompositeTextureData gbufferIndexFromName(String name) {
+        return gbufferNames.get(name);
     }
 
     public static int gbufferFormatFromName(String name) {
@@ -10,36 +10,71 @@
 
 package com.ventooth.swansong.shader;
 
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import lombok.val;
 import org.joml.Matrix4f;
-import org.joml.Vector3f;
 
 import net.minecraft.client.renderer.WorldRenderer;
 import net.minecraft.client.renderer.culling.ClippingHelper;
 import net.minecraft.util.AxisAlignedBB;
 
+import java.util.Arrays;
+
+/**
+ * Culls shadow casters that cannot throw a shadow onto anything visible.
+ * <p>
+ * Receivers get grouped into clusters by the grid cell of {@link #CELL_SIZE} blocks their center falls into, and every
+ * cluster keeps its own bounds. In light space, the bounds of each cluster get swept towards the light, and a caster
+ * is visible if its bounds overlap any of those volumes. Compared to a single box around every receiver, this keeps
+ * casters that only hang over empty parts of the view from being rendered.
+ */
 public class ClippingHelperShadow extends ClippingHelper {
+    private static final int CELL_SHIFT = 6;
+    /**
+     * Clusters span 4x4 chunk columns.
+     */
+    public static final int CELL_SIZE = 1 << CELL_SHIFT;
+
+    private static final int WORLD_STRIDE = 6;
+    private static final int LIGHT_STRIDE = 5;
+    private static final int L_MIN_X = 0;
+    private static final int L_MAX_X = 1;
+    private static final int L_MIN_Y = 2;
+    private static final int L_MAX_Y = 3;
+    private static final int L_MIN_Z = 4;
+
+    private final Long2IntOpenHashMap clusterByCell = new Long2IntOpenHashMap();
+    // minX, minY, minZ, maxX, maxY, maxZ per cluster
+    private float[] worldBounds = new float[WORLD_STRIDE * 64];
+    // minX, maxX, minY, maxY, minZ per cluster, there is no upper bound towards the light
+    private float[] lightBounds = new float[LIGHT_STRIDE * 64];
+    private int clusterCount;
 
     private float minCamX, minCamY, minCamZ;
-    private float maxCamX, maxCamY, maxCamZ;
-    private float minX, minY, minZ;
-    private float maxX, maxY, maxZ;
+    private float maxCamX, maxCamY;
     private boolean hasReceiver = false;
-    private final Vector3f scratch = new Vector3f();
+    private final float[] transformed = new float[6];
+    // Light space bounds of the current batch
+    private float[] batchMinX = new float[0];
+    private float[] batchMaxX = new float[0];
+    private float[] batchMinY = new float[0];
+    private float[] batchMaxY = new float[0];
+    private float[] batchMaxZ = new float[0];
+    private int[] batchCandidates = new int[0];
     public final Matrix4f shadowModelViewMatrix = new Matrix4f();
 
+    public ClippingHelperShadow() {
+        clusterByCell.defaultReturnValue(-1);
+    }
+
     public void begin() {
+        clusterByCell.clear();
+        clusterCount = 0;
         minCamX = Float.POSITIVE_INFINITY;
         minCamY = Float.POSITIVE_INFINITY;
         minCamZ = Float.POSITIVE_INFINITY;
         maxCamX = Float.NEGATIVE_INFINITY;
         maxCamY = Float.NEGATIVE_INFINITY;
-        maxCamZ = Float.NEGATIVE_INFINITY;
-        minX = Float.POSITIVE_INFINITY;
-        minY = Float.POSITIVE_INFINITY;
-        minZ = Float.POSITIVE_INFINITY;
-        maxX = Float.NEGATIVE_INFINITY;
-        maxY = Float.NEGATIVE_INFINITY;
-        maxZ = Float.NEGATIVE_INFINITY;
         hasReceiver = false;
     }
 
@@ -58,12 +93,34 @@ public class ClippingHelperShadow extends ClippingHelper {
 
     public void addShadowReceiver(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
         hasReceiver = true;
-        this.minX = Math.min(this.minX, minX);
-        this.minY = Math.min(this.minY, minY);
-        this.minZ = Math.min(this.minZ, minZ);
-        this.maxX = Math.max(this.maxX, maxX);
-        this.maxY = Math.max(this.maxY, maxY);
-        this.maxZ = Math.max(this.maxZ, maxZ);
+        val cellX = (int) Math.floor((minX + maxX) * 0.5F) >> CELL_SHIFT;
+        val cellZ = (int) Math.floor((minZ + maxZ) * 0.5F) >> CELL_SHIFT;
+        val cell = ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+        var cluster = clusterByCell.get(cell);
+        if (cluster < 0) {
+            cluster = newCluster();
+            clusterByCell.put(cell, cluster);
+        }
+        val b = worldBounds;
+        val i = cluster * WORLD_STRIDE;
+        b[i] = Math.min(b[i], minX);
+        b[i + 1] = Math.min(b[i + 1], minY);
+        b[i + 2] = Math.min(b[i + 2], minZ);
+        b[i + 3] = Math.max(b[i + 3], maxX);
+        b[i + 4] = Math.max(b[i + 4], maxY);
+        b[i + 5] = Math.max(b[i + 5], maxZ);
+    }
+
+    private int newCluster() {
+        val cluster = clusterCount++;
+        if (cluster * WORLD_STRIDE == worldBounds.length) {
+            worldBounds = Arrays.copyOf(worldBounds, worldBounds.length * 2);
+            lightBounds = Arrays.copyOf(lightBounds, lightBounds.length * 2);
+        }
+        val i = cluster * WORLD_STRIDE;
+        Arrays.fill(worldBounds, i, i + 3, Float.POSITIVE_INFINITY);
+        Arrays.fill(worldBounds, i + 3, i + 6, Float.NEGATIVE_INFINITY);
+        return cluster;
     }
 
     public void end() {
@@ -72,45 +129,33 @@ public class ClippingHelperShadow extends ClippingHelper {
         minCamZ = Float.POSITIVE_INFINITY;
         maxCamX = Float.NEGATIVE_INFINITY;
         maxCamY = Float.NEGATIVE_INFINITY;
-        maxCamZ = Float.NEGATIVE_INFINITY;
         if (!hasReceiver) {
             return;
         }
-        for (int i = 0; i < 8; i++) {
-            float x = (i & 1) == 0 ? minX : maxX;
-            float y = (i & 2) == 0 ? minY : maxY;
-            float z = (i & 4) == 0 ? minZ : maxZ;
-            shadowModelViewMatrix.transformPosition(x, y, z, scratch);
-            x = scratch.x;
-            y = scratch.y;
-            z = scratch.z;
-            minCamX = Math.min(minCamX, x);
-            minCamY = Math.min(minCamY, y);
-            minCamZ = Math.min(minCamZ, z);
-            maxCamX = Math.max(maxCamX, x);
-            maxCamY = Math.max(maxCamY, y);
-            maxCamZ = Math.max(maxCamZ, z);
-        }
-        if (Float.isNaN(minCamX)) {
-            minCamX = Float.NEGATIVE_INFINITY;
-        }
-        if (Float.isNaN(minCamY)) {
-            minCamY = Float.NEGATIVE_INFINITY;
-        }
-        if (Float.isNaN(minCamZ)) {
-            minCamZ = Float.NEGATIVE_INFINITY;
-        }
-        if (Float.isNaN(maxCamX)) {
-            maxCamX = Float.POSITIVE_INFINITY;
-        }
-        if (Float.isNaN(maxCamY)) {
-            maxCamY = Float.POSITIVE_INFINITY;
-        }
-        if (Float.isNaN(maxCamZ)) {
-            maxCamZ = Float.POSITIVE_INFINITY;
+        val w = worldBounds;
+        val l = lightBounds;
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            val i = cluster * WORLD_STRIDE;
+            toLightSpace(w[i], w[i + 1], w[i + 2], w[i + 3], w[i + 4], w[i + 5]);
+            val t = transformed;
+            val o = cluster * LIGHT_STRIDE;
+            l[o + L_MIN_X] = Float.isNaN(t[0]) ? Float.NEGATIVE_INFINITY : t[0];
+            l[o + L_MIN_Y] = Float.isNaN(t[1]) ? Float.NEGATIVE_INFINITY : t[1];
+            l[o + L_MIN_Z] = Float.isNaN(t[2]) ? Float.NEGATIVE_INFINITY : t[2];
+            l[o + L_MAX_X] = Float.isNaN(t[3]) ? Float.POSITIVE_INFINITY : t[3];
+            l[o + L_MAX_Y] = Float.isNaN(t[4]) ? Float.POSITIVE_INFINITY : t[4];
+            minCamX = Math.min(minCamX, l[o + L_MIN_X]);
+            minCamY = Math.min(minCamY, l[o + L_MIN_Y]);
+            minCamZ = Math.min(minCamZ, l[o + L_MIN_Z]);
+            maxCamX = Math.max(maxCamX, l[o + L_MAX_X]);
+            maxCamY = Math.max(maxCamY, l[o + L_MAX_Y]);
         }
     }
 
+    public int clusterCount() {
+        return clusterCount;
+    }
+
     @Override
     public boolean isBoxInFrustum(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
         if (!hasReceiver) {
@@ -119,25 +164,170 @@ public class ClippingHelperShadow extends ClippingHelper {
         return isShadowVisible((float) minX, (float) minY, (float) minZ, (float) maxX, (float) maxY, (float) maxZ);
     }
 
-
     private boolean isShadowVisible(float mX, float mY, float mZ, float MX, float MY, float MZ) {
-        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
-        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
-        for (int i = 0; i < 8; i++) {
-            float x = ((i & 1) == 0 ? mX : MX);
-            float y = ((i & 2) == 0 ? mY : MY);
-            float z = ((i & 4) == 0 ? mZ : MZ);
-            shadowModelViewMatrix.transformPosition(x, y, z, scratch);
-            x = scratch.x;
-            y = scratch.y;
-            z = scratch.z;
-            minX = Math.min(minX, x);
-            minY = Math.min(minY, y);
-            minZ = Math.min(minZ, z);
-            maxX = Math.max(maxX, x);
-            maxY = Math.max(maxY, y);
-            maxZ = Math.max(maxZ, z);
+        toLightSpace(mX, mY, mZ, MX, MY, MZ);
+        val t = transformed;
+        val minX = t[0];
+        val minY = t[1];
+        val maxX = t[3];
+        val maxY = t[4];
+        val maxZ = t[5];
+        // Bounds of all clusters combined, most casters outside the view get rejected here
+        if (!(maxX > minCamX && minX < maxCamX && maxY > minCamY && minY < maxCamY && maxZ > minCamZ)) {
+            return false;
+        }
+        val l = lightBounds;
+        for (int o = 0, end = clusterCount * LIGHT_STRIDE; o < end; o += LIGHT_STRIDE) {
+            if (maxX > l[o + L_MIN_X] &&
+                minX < l[o + L_MAX_X] &&
+                maxY > l[o + L_MIN_Y] &&
+                minY < l[o + L_MAX_Y] &&
+                maxZ > l[o + L_MIN_Z]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests a batch of boxes at once, the same as calling {@link #isBoxInFrustum} for each of them.
+     * <p>
+     * The bounds are passed as one array per component, only the first {@code count} entries are read. Bit {@code i}
+     * of {@code visible} gets set if box {@code i} is visible, and cleared otherwise.
+     */
+    public void testShadowVisible(float[] minX,
+                                  float[] minY,
+                                  float[] minZ,
+                                  float[] maxX,
+                                  float[] maxY,
+                                  float[] maxZ,
+                                  int count,
+                                  long[] visible) {
+        Arrays.fill(visible, 0, (count + 63) >>> 6, 0L);
+        if (!hasReceiver || count == 0) {
+            return;
+        }
+        ensureBatchCapacity(count);
+        val lMinX = batchMinX;
+        val lMaxX = batchMaxX;
+        val lMinY = batchMinY;
+        val lMaxY = batchMaxY;
+        val lMaxZ = batchMaxZ;
+        val candidateIndices = batchCandidates;
+
+        val m = shadowModelViewMatrix;
+        val m00 = m.m00();
+        val m01 = m.m01();
+        val m02 = m.m02();
+        val m10 = m.m10();
+        val m11 = m.m11();
+        val m12 = m.m12();
+        val m20 = m.m20();
+        val m21 = m.m21();
+        val m22 = m.m22();
+        val m30 = m.m30();
+        val m31 = m.m31();
+        val m32 = m.m32();
+        val a00 = Math.abs(m00);
+        val a01 = Math.abs(m01);
+        val a02 = Math.abs(m02);
+        val a10 = Math.abs(m10);
+        val a11 = Math.abs(m11);
+        val a12 = Math.abs(m12);
+        val a20 = Math.abs(m20);
+        val a21 = Math.abs(m21);
+        val a22 = Math.abs(m22);
+        // Plain loop over arrays without calls or branches, so it can be vectorized
+        for (int i = 0; i < count; i++) {
+            val cx = (minX[i] + maxX[i]) * 0.5F;
+            val cy = (minY[i] + maxY[i]) * 0.5F;
+            val cz = (minZ[i] + maxZ[i]) * 0.5F;
+            val ex = (maxX[i] - minX[i]) * 0.5F;
+            val ey = (maxY[i] - minY[i]) * 0.5F;
+            val ez = (maxZ[i] - minZ[i]) * 0.5F;
+            val lcx = m00 * cx + m10 * cy + m20 * cz + m30;
+            val lcy = m01 * cx + m11 * cy + m21 * cz + m31;
+            val lcz = m02 * cx + m12 * cy + m22 * cz + m32;
+            val lex = a00 * ex + a10 * ey + a20 * ez;
+            val ley = a01 * ex + a11 * ey + a21 * ez;
+            val lez = a02 * ex + a12 * ey + a22 * ez;
+            lMinX[i] = lcx - lex;
+            lMaxX[i] = lcx + lex;
+            lMinY[i] = lcy - ley;
+            lMaxY[i] = lcy + ley;
+            lMaxZ[i] = lcz + lez;
         }
-        return maxX > minCamX && minX < maxCamX && maxY > minCamY && minY < maxCamY && maxZ > minCamZ && minZ < maxCamZ;
+        // Bounds of all clusters combined, collects the indices of the boxes that pass
+        var candidates = 0;
+        for (int i = 0; i < count; i++) {
+            candidateIndices[candidates] = i;
+            candidates += (lMaxX[i] > minCamX ? 1 : 0) &
+                          (lMinX[i] < maxCamX ? 1 : 0) &
+                          (lMaxY[i] > minCamY ? 1 : 0) &
+                          (lMinY[i] < maxCamY ? 1 : 0) &
+                          (lMaxZ[i] > minCamZ ? 1 : 0);
+        }
+        val l = lightBounds;
+        val end = clusterCount * LIGHT_STRIDE;
+        for (int j = 0; j < candidates; j++) {
+            val i = candidateIndices[j];
+            val bMinX = lMinX[i];
+            val bMaxX = lMaxX[i];
+            val bMinY = lMinY[i];
+            val bMaxY = lMaxY[i];
+            val bMaxZ = lMaxZ[i];
+            for (int o = 0; o < end; o += LIGHT_STRIDE) {
+                if (bMaxX > l[o + L_MIN_X] &&
+                    bMinX < l[o + L_MAX_X] &&
+                    bMaxY > l[o + L_MIN_Y] &&
+                    bMinY < l[o + L_MAX_Y] &&
+                    bMaxZ > l[o + L_MIN_Z]) {
+                    visible[i >>> 6] |= 1L << i;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void ensureBatchCapacity(int count) {
+        if (batchCandidates.length >= count) {
+            return;
+        }
+        val size = Math.max(count, batchCandidates.length * 2);
+        batchMinX = new float[size];
+        batchMaxX = new float[size];
+        batchMinY = new float[size];
+        batchMaxY = new float[size];
+        batchMaxZ = new float[size];
+        batchCandidates = new int[size];
+    }
+
+    /**
+     * Writes the light space bounds of the box to {@link #transformed}, as min xyz followed by max xyz.
+     * <p>
+     * Transforms the center and the extents instead of all 8 corners, which gives the same bounds for the rotation and
+     * translation the shadow model view matrix is made of.
+     */
+    private void toLightSpace(float mX, float mY, float mZ, float MX, float MY, float MZ) {
+        val m = shadowModelViewMatrix;
+        val cx = (mX + MX) * 0.5F;
+        val cy = (mY + MY) * 0.5F;
+        val cz = (mZ + MZ) * 0.5F;
+        val ex = (MX - mX) * 0.5F;
+        val ey = (MY - mY) * 0.5F;
+        val ez = (MZ - mZ) * 0.5F;
+        val lcx = m.m00() * cx + m.m10() * cy + m.m20() * cz + m.m30();
+        val lcy = m.m01() * cx + m.m11() * cy + m.m21() * cz + m.m31();
+        val lcz = m.m02() * cx + m.m12() * cy + m.m22() * cz + m.m32();
+        val lex = Math.abs(m.m00()) * ex + Math.abs(m.m10()) * ey + Math.abs(m.m20()) * ez;
+        val ley = Math.abs(m.m01()) * ex + Math.abs(m.m11()) * ey + Math.abs(m.m21()) * ez;
+        val lez = Math.abs(m.m02()) * ex + Math.abs(m.m12()) * ey + Math.abs(m.m22()) * ez;
+        val t = transformed;
+        t[0] = lcx - lex;
+        t[1] = lcy - ley;
+        t[2] = lcz - lez;
+        t[3] = lcx + lex;
+        t[4] = lcy + ley;
+        t[5] = lcz + lez;
     }
 }
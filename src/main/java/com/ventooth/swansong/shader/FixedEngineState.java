@@ -20,14 +20,20 @@ import com.ventooth.swansong.resources.pack.InternalShaderPack;
 import com.ventooth.swansong.resources.pack.ShaderPack;
 import com.ventooth.swansong.shader.config.ConfigEntry;
 import com.ventooth.swansong.shader.loader.MultiShaderPool;
+import com.ventooth.swansong.shader.loader.RetainedPrograms;
+import com.ventooth.swansong.shader.loader.RetainedSources;
 import com.ventooth.swansong.shader.loader.ShaderLoader;
 import com.ventooth.swansong.shader.loader.ShaderLoaderInParams;
 import com.ventooth.swansong.shader.loader.ShaderLoaderOutParams;
 import com.ventooth.swansong.shader.mappings.BlockIDRemapper;
+import com.ventooth.swansong.shader.mappings.EntityIDRemapper;
+import com.ventooth.swansong.shader.mappings.ItemIDRemapper;
+import com.ventooth.swansong.shader.shaderobjects.ManagedShader;
 import com.ventooth.swansong.shader.texbuf.BufferConfig;
 import com.ventooth.swansong.shader.uniform.CompiledUniforms;
 import com.ventooth.swansong.shader.uniform.GeneralUniforms;
 import com.ventooth.swansong.shader.uniform.UniformGetterDanglingWires;
+import com.ventooth.swansong.tessellator.ShaderVert;
 import com.ventooth.swansong.todo.tess.DanglingWiresTess;
 import it.unimi.dsi.fastutil.objects.Object2ObjectMaps;
 import it.unimi.dsi.fastutil.objects.ObjectList;
@@ -45,6 +51,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 
 @Builder(access = AccessLevel.PRIVATE)
@@ -58,6 +65,13 @@ class FixedEngineState {
     public final @NotNull Map<CompositeTextureData, BufferConfig> colorDrawBufferConfigs;
 
     public final @Nullable BlockIDRemapper remapper;
+    public final @Nullable ItemIDRemapper itemRemapper;
+    public final @Nullable EntityIDRemapper entityRemapper;
+
+    /**
+     * Whether the shaders were compiled for the compact {@link ShaderVert} layout
+     */
+    public final boolean compactVertices;
 
     public final @Nullable DepthSampler depthSampler;
 
@@ -75,14 +89,19 @@ class FixedEngineState {
     public final ConfigEntry.RootScreen configScreen;
     public final Locale locale;
 
-    private static ShaderLoader createLoader(ShaderPack pack, @Nullable WorldProvider dimension) {
+    private static ShaderLoader createLoader(ShaderPack pack,
+                                             @Nullable WorldProvider dimension,
+                                             boolean compactVertices,
+                                             @Nullable RetainedSources retainedSources) {
         val loader = new ShaderLoader(pack, dimension);
+        loader.inRetainedSources = retainedSources;
         loader.inExpectedShaders = ShaderTypes.general;
         loader.inAttribs = DanglingWiresTess.attribs;
         loader.inParams = ShaderLoaderInParams.builder()
                                               .handDepth(ShadersConfig.HandDepth.get())
                                               .renderQuality(ShadersConfig.RenderQuality.get())
                                               .shadowQuality(ShadersConfig.ShadowQuality.get())
+                                              .compactVertices(compactVertices)
                                               .build();
         loader.inShaderConfig = ShaderPackManager.readShaderPackConfig();
         loader.inEnvInfo = EnvInfo.get();
@@ -90,46 +109,71 @@ class FixedEngineState {
         return loader;
     }
 
-    public static @Nullable FixedEngineState init(@Nullable WorldProvider dimension, @Nullable Report report) {
-        val b = builder();
-        b.dimension = dimension;
-        try {
-            ShaderPackManager.cleanDebugDir();
-        } catch (IOException ignored) {
+    /**
+     * @param retained        programs of the previous state, unchanged ones skip GL compile and link
+     * @param retainedSources preprocessed sources of the previous states, see {@link #prepare}
+     */
+    public static @Nullable FixedEngineState init(@Nullable WorldProvider dimension,
+                                                  @Nullable Report report,
+                                                  @Nullable RetainedPrograms retained,
+                                                  @Nullable RetainedSources retainedSources) {
+        val prepared = prepare(dimension, ShaderPackManager.getCurrentShaderPackName(), report, retainedSources);
+        if (prepared == null) {
+            return null;
         }
+        return prepared.finish(retained);
+    }
 
-        val pack = ShaderPackManager.createShaderPack();
+    /**
+     * Everything {@link #init} does before touching GL or any global state, safe to run off the render thread.
+     *
+     * @param retainedSources preprocessed sources of the previous states, files whose options did not change skip the
+     *                        macro interpreter
+     *
+     * @return null if there is no shader pack to load
+     */
+    public static @Nullable Prepared prepare(@Nullable WorldProvider dimension,
+                                             String packName,
+                                             @Nullable Report report,
+                                             @Nullable RetainedSources retainedSources) {
+        final ShaderPack pack;
+        try {
+            pack = ShaderPackManager.loadShaderPack(packName);
+        } catch (IOException e) {
+            return new Prepared(e, report);
+        }
         if (pack == null) {
             return null;
         }
+        val b = builder();
+        b.dimension = dimension;
         b.pack = pack;
-        b.remapper = BlockIDRemapper.createRemapper(pack);
+        b.compactVertices = ShadersConfig.CompactVertexFormat;
+        if (b.compactVertices && DanglingWiresTess.useMultiTexCoord3Attrib) {
+            // Texture coordinate arrays cannot be normalised, so multiTexCoord3 needs the full float layout
+            Share.log.info("Compact vertex format disabled, multiTexCoord3 needs the full vertex layout");
+            b.compactVertices = false;
+        }
 
         if (report != null) {
             report.name = pack.name();
         }
 
-        val mainLoader = createLoader(pack, dimension);
+        val mainLoader = createLoader(pack, dimension, b.compactVertices, retainedSources);
 
         val loaders = new ArrayList<ShaderLoader>();
         if (pack != DefaultShaderPack.INSTANCE) {
-            loaders.add(createLoader(DefaultShaderPack.INSTANCE, dimension));
+            loaders.add(createLoader(DefaultShaderPack.INSTANCE, dimension, b.compactVertices, retainedSources));
         }
-        loaders.add(createLoader(InternalShaderPack.INSTANCE, dimension));
+        loaders.add(createLoader(InternalShaderPack.INSTANCE, dimension, b.compactVertices, retainedSources));
 
-        mainLoader.load(report);
+        mainLoader.prepare(report);
 
         b.configScreen = mainLoader.outConfigScreen;
         b.locale = mainLoader.outLocale;
 
         b.compiledUniforms = mainLoader.outCompiledUniforms;
 
-        if (b.compiledUniforms != null) {
-            UniformGetterDanglingWires.customUniforms = b.compiledUniforms.wrapUniforms();
-        } else {
-            UniformGetterDanglingWires.customUniforms = null;
-        }
-
         val outParams = mainLoader.outParams;
 
         if (report != null) {
@@ -141,110 +185,204 @@ class FixedEngineState {
         b.noiseTexPath = outParams.noiseTexture;
         b.noiseTexSize = outParams.noiseTextureResolution;
 
-        PBRTextureEngine.init();
+        return new Prepared(b, mainLoader, loaders, report);
+    }
 
-        // TODO: Check if the shader actually needs center depth before populating, this call is not free.
-        if (ShadersConfig.LetMeUseDepthOfFieldPlease) {
-            b.depthSampler = new DepthSampler();
-            b.depthSampler.init();
+    /**
+     * A shader pack that went through everything but the GL side of loading, or failed to load.
+     * <p>
+     * Must either be finished or discarded.
+     */
+    public static final class Prepared {
+        private final @Nullable FixedEngineStateBuilder b;
+        private final @Nullable ShaderLoader mainLoader;
+        private final List<ShaderLoader> loaders;
+        private final @Nullable IOException failure;
+        private final @Nullable Report report;
+
+        private Prepared(FixedEngineStateBuilder b,
+                         ShaderLoader mainLoader,
+                         List<ShaderLoader> loaders,
+                         @Nullable Report report) {
+            this.b = b;
+            this.mainLoader = mainLoader;
+            this.loaders = loaders;
+            this.failure = null;
+            this.report = report;
         }
 
-        try (val shaderPool = new MultiShaderPool(mainLoader.borrowOutShaderPool(), loaders, report)) {
-            b.manager = ShaderBinding.init(shaderPool, dimension);
+        private Prepared(IOException failure, @Nullable Report report) {
+            this.b = null;
+            this.mainLoader = null;
+            this.loaders = Collections.emptyList();
+            this.failure = failure;
+            this.report = report;
+        }
 
-            if (b.manager.shadow != null) {
-                b.shadow = ShadowProperties.from(outParams, ShadersConfig.ShadowQuality.get());
-            }
-            ShaderState.applyParams(outParams);
-        } catch (ShaderException e) {
-            throw new AssertionError(e);
+        public @Nullable Report report() {
+            return report;
         }
 
-        val configBuilders = new EnumMap<CompositeTextureData, BufferConfig.Builder>(CompositeTextureData.class);
-
-        for (val shader : b.manager.loadedShaders) {
-            val renderTargets = shader.renderTargets();
-            val size = renderTargets.size();
-            val info = report == null ? null : report.foundShaders.computeIfAbsent(shader.srcPath(),
-                                                                                   path -> new Report.ShaderInfo());
-            for (var i = 0; i < size; i++) {
-                val renderTargetIndex = renderTargets.getInt(i);
-                val renderTarget = DrawBuffers.textureFromColorTexIndex(renderTargetIndex);
-                if (renderTarget == null) {
-                    Share.log.warn("Invalid render target index: {}", renderTargetIndex);
-                    continue;
-                }
-                val configBuilder = configBuilders.computeIfAbsent(renderTarget,
-                                                                   index -> BufferConfig.builder()
-                                                                                        .name(index.name()));
-                if (info != null) {
-                    info.renderTargets.add(configBuilder.name);
-                }
+        /**
+         * Compiles the shaders and creates the GL resources, render thread only.
+         *
+         * @param retained programs of the previous state, unchanged ones skip GL compile and link
+         *
+         * @return null if the shader pack failed to load, it got disabled in that case
+         */
+        public @Nullable FixedEngineState finish(@Nullable RetainedPrograms retained) {
+            val b = this.b;
+            val mainLoader = this.mainLoader;
+            if (b == null || mainLoader == null) {
+                assert failure != null;
+                ShaderPackManager.disableBrokenShaderPack(failure);
+                return null;
             }
-        }
+            try {
+                ShaderPackManager.cleanDebugDir();
+            } catch (IOException ignored) {
+            }
+            // Resolved on the render thread, which is also where ShaderEngine.onIdsRemapped rebuilds them
+            b.remapper = BlockIDRemapper.createRemapper(b.pack);
+            b.itemRemapper = ItemIDRemapper.createRemapper(b.pack);
+            b.entityRemapper = EntityIDRemapper.createRemapper(b.pack);
+
+            mainLoader.inRetainedPrograms = retained;
+            for (val loader : loaders) {
+                loader.inRetainedPrograms = retained;
+            }
+            mainLoader.compile(report);
 
-        for (val disabled : outParams.bufferClearDisabled) {
-            val index = BufferNameUtil.gbufferIndexFromName(disabled);
-            if (index == null) {
-                Share.log.info("INVALID color gbuffer name: {} tried to set disabled clear", disabled);
-                continue;
+            if (b.compiledUniforms != null) {
+                UniformGetterDanglingWires.customUniforms = b.compiledUniforms.wrapUniforms();
+            } else {
+                UniformGetterDanglingWires.customUniforms = null;
             }
-            val builder = configBuilders.get(index);
-            if (builder == null) {
-                Share.log.info("Ignored gbuffer color thing: {}  clear (not used?)", disabled);
-                continue;
+
+            val outParams = mainLoader.outParams;
+
+            PBRTextureEngine.init();
+
+            // TODO: Check if the shader actually needs center depth before populating, this call is not free.
+            if (ShadersConfig.LetMeUseDepthOfFieldPlease) {
+                b.depthSampler = new DepthSampler();
+                b.depthSampler.init();
             }
-            builder.clear(false);
-        }
 
-        for (val entry : Object2ObjectMaps.fastIterable(outParams.bufferFormat)) {
-            val nameStr = entry.getKey();
-            val formatStr = entry.getValue();
+            try (val shaderPool = new MultiShaderPool(mainLoader.borrowOutShaderPool(), loaders, report)) {
+                b.manager = ShaderBinding.init(shaderPool, b.dimension, retained);
 
-            val index = BufferNameUtil.gbufferIndexFromName(nameStr);
-            if (index == null) {
-                Share.log.warn("INVALID color gbuffer name: {} tried to set format={}", nameStr, formatStr);
-                continue;
+                if (b.manager.shadow != null) {
+                    b.shadow = ShadowProperties.from(outParams, ShadersConfig.ShadowQuality.get());
+                }
+                ShaderState.applyParams(outParams);
+            } catch (ShaderException e) {
+                throw new AssertionError(e);
             }
 
-            val builder = configBuilders.get(index);
-            if (builder == null) {
-                if (report != null) {
-                    report.drawBuffers.put(index.name(), new Report.DrawBufferInfo(true, formatStr));
+            val configBuilders = new EnumMap<CompositeTextureData, BufferConfig.Builder>(CompositeTextureData.class);
+
+            for (val shader : b.manager.loadedShaders) {
+                val renderTargets = shader.renderTargets();
+                val size = renderTargets.size();
+                val info = report == null ? null : report.foundShaders.computeIfAbsent(shader.srcPath(),
+                                                                                       path -> new Report.ShaderInfo());
+                for (var i = 0; i < size; i++) {
+                    val renderTargetIndex = renderTargets.getInt(i);
+                    val renderTarget = DrawBuffers.textureFromColorTexIndex(renderTargetIndex);
+                    if (renderTarget == null) {
+                        Share.log.warn("Invalid render target index: {}", renderTargetIndex);
+                        continue;
+                    }
+                    val configBuilder = configBuilders.computeIfAbsent(renderTarget,
+                                                                       index -> BufferConfig.builder()
+                                                                                            .name(index.name()));
+                    if (info != null) {
+                        info.renderTargets.add(configBuilder.name);
+                    }
                 }
-                continue;
             }
 
-            val format = BufferNameUtil.gbufferFormatFromName(formatStr);
-            if (format == -1) {
-                Share.log.warn("Color gbuffer: {} tried to set INVALID format={}", formatStr, nameStr);
-                continue;
+            for (val disabled : outParams.bufferClearDisabled) {
+                val index = BufferNameUtil.gbufferIndexFromName(disabled);
+                if (index == null) {
+                    Share.log.info("INVALID color gbuffer name: {} tried to set disabled clear", disabled);
+                    continue;
+                }
+                val builder = configBuilders.get(index);
+                if (builder == null) {
+                    Share.log.info("Ignored gbuffer color thing: {}  clear (not used?)", disabled);
+                    continue;
+                }
+                builder.clear(false);
             }
-            if (report != null) {
-                report.drawBuffers.put(index.name(), new Report.DrawBufferInfo(false, formatStr));
+
+            for (val entry : Object2ObjectMaps.fastIterable(outParams.bufferFormat)) {
+                val nameStr = entry.getKey();
+                val formatStr = entry.getValue();
+
+                val index = BufferNameUtil.gbufferIndexFromName(nameStr);
+                if (index == null) {
+                    Share.log.warn("INVALID color gbuffer name: {} tried to set format={}", nameStr, formatStr);
+                    continue;
+                }
+
+                val builder = configBuilders.get(index);
+                if (builder == null) {
+                    if (report != null) {
+                        report.drawBuffers.put(index.name(), new Report.DrawBufferInfo(true, formatStr));
+                    }
+                    continue;
+                }
+
+                val format = BufferNameUtil.gbufferFormatFromName(formatStr);
+                if (format == -1) {
+                    Share.log.warn("Color gbuffer: {} tried to set INVALID format={}", formatStr, nameStr);
+                    continue;
+                }
+                if (report != null) {
+                    report.drawBuffers.put(index.name(), new Report.DrawBufferInfo(false, formatStr));
+                }
+                builder.format(format);
             }
-            builder.format(format);
-        }
 
-        val bufferConfigs = new EnumMap<CompositeTextureData, BufferConfig>(CompositeTextureData.class);
+            val bufferConfigs = new EnumMap<CompositeTextureData, BufferConfig>(CompositeTextureData.class);
+
+            configBuilders.forEach((tex, builder) -> {
+                bufferConfigs.put(tex, builder.build());
+            });
 
-        configBuilders.forEach((tex, builder) -> {
-            bufferConfigs.put(tex, builder.build());
-        });
+            b.colorDrawBufferConfigs = Collections.unmodifiableMap(bufferConfigs);
 
-        b.colorDrawBufferConfigs = Collections.unmodifiableMap(bufferConfigs);
+            loaders.forEach(ShaderLoader::reset);
 
-        loaders.forEach(ShaderLoader::reset);
+            return b.build();
+        }
 
-        return b.build();
+        /**
+         * Throws away a prepared state that will not be finished. Does not touch GL, safe on any thread.
+         */
+        public void discard() {
+            if (b == null || mainLoader == null) {
+                return;
+            }
+            mainLoader.reset();
+            loaders.forEach(ShaderLoader::reset);
+            b.pack.close();
+        }
     }
 
-    public void deinit() {
+    /**
+     * @param retained if present, the shader programs are handed over to it instead of being deleted
+     */
+    public void deinit(@Nullable RetainedPrograms retained) {
         if (depthSampler != null) {
             depthSampler.deinit();
         }
 
         PBRTextureEngine.deinit();
-        manager.deinit();
+        manager.deinit(retained);
+        UniformGetterDanglingWires.customUniforms = null;
+        ManagedShader.forgetCustomUniforms();
     }
 }
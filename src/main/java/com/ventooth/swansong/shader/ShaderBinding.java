@@ -14,6 +14,7 @@ import com.ventooth.swansong.EnvInfo;
 import com.ventooth.swansong.debug.DebugMarker;
 import com.ventooth.swansong.resources.pack.InternalShaderPack;
 import com.ventooth.swansong.shader.loader.IShaderPool;
+import com.ventooth.swansong.shader.loader.RetainedPrograms;
 import com.ventooth.swansong.shader.loader.ShaderLoader;
 import com.ventooth.swansong.shader.loader.ShaderLoaderInParams;
 import com.ventooth.swansong.shader.shaderobjects.BlitShader;
@@ -81,7 +82,9 @@ public class ShaderBinding {
     public final @Nullable ObjectList<CompositeShader> compositeList;
     public final @Nullable CompositeShader _final;
 
-    public static ShaderBinding init(IShaderPool shaderPool, @Nullable WorldProvider dimension) throws ShaderException {
+    public static ShaderBinding init(IShaderPool shaderPool,
+                                     @Nullable WorldProvider dimension,
+                                     @Nullable RetainedPrograms retained) throws ShaderException {
         val b = builder();
         try {
             b.basic(b.gBuffer(shaderPool, ShaderTypes.gbuffers_basic));
@@ -120,6 +123,7 @@ public class ShaderBinding {
                 internalLoader.inShaderConfig = null;
                 internalLoader.inEnvInfo = EnvInfo.get();
                 internalLoader.inMcUniforms = GeneralUniforms.getFuncRegistry();
+                internalLoader.inRetainedPrograms = retained;
 
                 internalLoader.load(null);
                 @Cleanup val internalPool = internalLoader.borrowOutShaderPool();
@@ -142,18 +146,21 @@ public class ShaderBinding {
             b._final(b.composite(shaderPool, ShaderTypes._final));
             return b.lockAndBuild();
         } catch (Throwable t) {
-            safeDeinit(b.loadedShaders);
+            safeDeinit(b.loadedShaders, null);
             throw t;
         }
     }
 
-    public void deinit() {
+    /**
+     * @param retained if present, the programs are handed over to it instead of being deleted
+     */
+    public void deinit(@Nullable RetainedPrograms retained) {
         if (current != null) {
             current.end(true);
             current = null;
         }
 
-        safeDeinit(loadedShaders);
+        safeDeinit(loadedShaders, retained);
     }
 
     public boolean use(@Nullable ManagedShader shader) {
@@ -232,13 +239,13 @@ public class ShaderBinding {
         }
     }
 
-    private static void safeDeinit(List<? extends ManagedShader> shaders) {
+    private static void safeDeinit(List<? extends ManagedShader> shaders, @Nullable RetainedPrograms retained) {
         if (shaders == null) {
             return;
         }
         for (val shader : shaders) {
             if (shader != null) {
-                shader.deinit();
+                shader.deinit(retained);
             }
         }
     }
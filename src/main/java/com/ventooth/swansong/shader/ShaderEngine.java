@@ -12,22 +12,28 @@ package com.ventooth.swansong.shader;
 
 import com.ventooth.swansong.Share;
 import com.ventooth.swansong.api.SwanSongLifecycleEvent;
+import com.ventooth.swansong.config.ShadersConfig;
 import com.ventooth.swansong.debug.DebugMarker;
 import com.ventooth.swansong.debug.GLDebugGroups;
 import com.ventooth.swansong.mixin.extensions.WorldRendererExt;
 import com.ventooth.swansong.mixin.interfaces.ShaderGameSettings;
 import com.ventooth.swansong.resources.ShaderPackManager;
+import com.ventooth.swansong.resources.pack.ResolvedShaderPack;
 import com.ventooth.swansong.shader.StateGraph.Node;
 import com.ventooth.swansong.shader.config.ConfigEntry;
+import com.ventooth.swansong.shader.loader.RetainedPrograms;
+import com.ventooth.swansong.shader.loader.RetainedSources;
 import com.ventooth.swansong.shader.shaderobjects.CompositeShader;
 import com.ventooth.swansong.shader.shaderobjects.GBufferShader;
 import com.ventooth.swansong.shader.shaderobjects.ManagedShader;
 import com.ventooth.swansong.shader.shaderobjects.ShadowShader;
 import com.ventooth.swansong.shader.texbuf.CompositePipeline;
+import com.ventooth.swansong.shader.uniform.Uniform;
 import com.ventooth.swansong.sufrace.CustomTexture2D;
 import com.ventooth.swansong.sufrace.Framebuffer;
 import com.ventooth.swansong.sufrace.HFNoiseTexture2D;
 import com.ventooth.swansong.sufrace.Texture2D;
+import com.ventooth.swansong.tessellator.ShaderTess;
 import com.ventooth.swansong.uniforms.StatefulBuiltins;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
@@ -58,6 +64,7 @@ import net.minecraft.client.renderer.Tessellator;
 import net.minecraft.client.renderer.WorldRenderer;
 import net.minecraft.client.renderer.culling.Frustrum;
 import net.minecraft.client.renderer.texture.TextureMap;
+import net.minecraft.client.renderer.tileentity.TileEntityRendererDispatcher;
 import net.minecraft.client.resources.Locale;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityList;
@@ -94,6 +101,12 @@ public final class ShaderEngine {
     private static final DoubleBuffer tempDoubleBuffer = BufferUtils.createDoubleBuffer(16);
 
     static @Nullable FixedEngineState state;
+    private static final BackgroundReload<FixedEngineState.Prepared> backgroundReload =
+            new BackgroundReload<>("SwanSong Reload", FixedEngineState.Prepared::discard);
+    // Outlives reloads, so dimension changes can pick up programs from the previous dimensions
+    private static final RetainedPrograms retainedPrograms = new RetainedPrograms();
+    // Same, so changing an option only preprocesses the files that use it again
+    private static final RetainedSources retainedSources = new RetainedSources();
 
     /// runtime varying state
 
@@ -228,10 +241,17 @@ public final class ShaderEngine {
 
     public static void beginRenderAll() {
         needsFramebufferResize = ShaderState.updateViewSize();
+        if (needsShaderPackReload && canReloadInBackground()) {
+            startBackgroundReload();
+        }
         if (needsShaderPackReload) {
             if (!doShaderPackReload()) {
                 return;
             }
+        } else if (backgroundReload.isDone()) {
+            if (!finishBackgroundReload()) {
+                return;
+            }
         } else if (needsFramebufferResize) {
             doFramebufferResize();
         }
@@ -452,6 +472,22 @@ public final class ShaderEngine {
         needsShaderPackReload = true;
     }
 
+    /**
+     * Called when the player asks for the shader to be reloaded, nothing parsed from the pack files is kept
+     */
+    public static void scheduleExplicitShaderPackReload() {
+        ResolvedShaderPack.forgetSharedIncludeCache();
+        scheduleShaderPackReload();
+    }
+
+    /**
+     * Called to reload the shader for another dimension, the shader pack itself is assumed to be unchanged
+     */
+    public static void scheduleDimensionReload() {
+        ShaderEngine.log.debug("Scheduled ShaderPack Reload for dimension change");
+        needsShaderPackReload = true;
+    }
+
     /**
      * Called any time the window resizes
      */
@@ -461,19 +497,85 @@ public final class ShaderEngine {
         needsFramebufferResize = true;
     }
 
+    private static boolean canReloadInBackground() {
+        return ShadersConfig.BackgroundReload &&
+               state != null &&
+               !ShaderPackManager.DISABLED_SHADER_PACK_NAME.equals(ShaderPackManager.currentShaderPackName);
+    }
+
+    /**
+     * Prepares the new state on a worker thread, the current one keeps rendering until it is ready to be swapped in.
+     */
+    private static void startBackgroundReload() {
+        ShaderEngine.log.debug("Preparing ShaderPack Reload in the background");
+        val report = new Report();
+        report.startTime = System.nanoTime();
+        val dimension = mcDimensionID();
+        val packName = ShaderPackManager.getCurrentShaderPackName();
+        backgroundReload.request(() -> FixedEngineState.prepare(dimension, packName, report, retainedSources));
+        needsShaderPackReload = false;
+    }
+
+    private static boolean finishBackgroundReload() {
+        final FixedEngineState.Prepared prepared;
+        try {
+            prepared = backgroundReload.take();
+        } catch (RuntimeException e) {
+            ShaderEngine.log.error("Failed to prepare shaderpack in the background, retrying on the render thread", e);
+            return doShaderPackReload();
+        }
+        if (prepared == null) {
+            return doShaderPackReload();
+        }
+        return doShaderPackReload(prepared);
+    }
+
     private static boolean doShaderPackReload() {
+        backgroundReload.cancel();
+        // The loaders share caches and the debug output, so a cancelled load must not run alongside this one
+        backgroundReload.awaitCancelled();
+        return doShaderPackReload(null);
+    }
+
+    /**
+     * @param prepared if present, only the GL side of loading is left to do
+     */
+    private static boolean doShaderPackReload(@Nullable FixedEngineState.Prepared prepared) {
         MinecraftForge.EVENT_BUS.post(new SwanSongLifecycleEvent.ShaderPackReload());
 
-        deinit();
+        // Programs whose sources did not change get picked back up by the new state
+        deinit(retainedPrograms);
         if (ShaderPackManager.DISABLED_SHADER_PACK_NAME.equals(ShaderPackManager.currentShaderPackName)) {
+            if (prepared != null) {
+                prepared.discard();
+            }
+            retainedPrograms.clear();
+            retainedSources.clear();
+            ShaderTess.streamVertices(false);
             // Resets the vanilla renderers, important as the baked geometry may have invalid blockids
             reloadMinecraftRenderersSafe();
             needsShaderPackReload = false;
             return false;
         }
-        val report = new Report();
+        var report = prepared != null ? prepared.report() : null;
+        if (report == null) {
+            report = new Report();
+            report.startTime = System.nanoTime();
+        }
         try {
-            init(report);
+            if (!init(report, retainedPrograms, prepared)) {
+                // The pack failed to load and got disabled
+                retainedPrograms.clear();
+                retainedSources.clear();
+                ShaderTess.streamVertices(false);
+                reloadMinecraftRenderersSafe();
+                needsShaderPackReload = false;
+                report.endTime = System.nanoTime();
+                report.print();
+                return false;
+            }
+            retainedPrograms.endReload();
+            retainedSources.endReload();
 
             val viewSize = ShaderState.viewSize();
             val width = viewSize.x();
@@ -491,7 +593,10 @@ public final class ShaderEngine {
             report.print();
             ShaderEngine.log.error("Caught internal error while loading shaderpack!");
             ShaderEngine.log.error("Please report this as a bug:", e);
-            deinit();
+            deinit(null);
+            retainedPrograms.clear();
+            retainedSources.clear();
+            ShaderTess.streamVertices(false);
             ShaderPackManager.setShaderPackByName(ShaderPackManager.DISABLED_SHADER_PACK_NAME);
             reloadMinecraftRenderersSafe();
             needsShaderPackReload = false;
@@ -507,9 +612,23 @@ public final class ShaderEngine {
         needsFramebufferResize = false;
     }
 
-    private static void init(Report report) {
-        report.startTime = System.nanoTime();
-        state = FixedEngineState.init(mcDimensionID(), report);
+    /**
+     * @return false if there was no shader pack to load
+     */
+    private static boolean init(Report report,
+                                @Nullable RetainedPrograms retained,
+                                @Nullable FixedEngineState.Prepared prepared) {
+        if (prepared != null) {
+            state = prepared.finish(retained);
+        } else {
+            state = FixedEngineState.init(mcDimensionID(), report, retained, retainedSources);
+        }
+        if (state == null) {
+            return false;
+        }
+        // The renderers get reloaded further down, so nothing tessellated with the previous layout survives
+        ShaderTess.compactVertices(state.compactVertices);
+        ShaderTess.streamVertices(ShadersConfig.StreamVertexBuffer);
         use(null);
 
         ShadersCompositeMesh.init();
@@ -595,6 +714,8 @@ public final class ShaderEngine {
                                                              noiseTex.height(),
                                                              BufferNameUtil.gbufferFormatNameFromEnum(noiseTex.internalFormat())));
         }
+        // Everything is read from the pack by now
+        state.pack.close();
 
         StatefulBuiltins.reset();
 
@@ -615,9 +736,13 @@ public final class ShaderEngine {
             shaderPackLoaded = true;
             MinecraftForge.EVENT_BUS.post(new SwanSongLifecycleEvent.ShaderPackLoaded());
         }
+        return true;
     }
 
-    private static void deinit() {
+    /**
+     * @param retained if present, the shader programs are handed over to it instead of being deleted
+     */
+    private static void deinit(@Nullable RetainedPrograms retained) {
         if (graph.isManaged()) {
             throw new IllegalStateException("Cannot deinit renderer while in managed mode!");
         }
@@ -644,7 +769,7 @@ public final class ShaderEngine {
         ShadersCompositeMesh.deinit();
         shaderStack.clear();
         if (state != null) {
-            state.deinit();
+            state.deinit(retained);
             state = null;
         }
 
@@ -793,6 +918,7 @@ public final class ShaderEngine {
         }
 
         ShaderState.updatePreRenderWorld();
+        Uniform.nextGeneration();
 
         if (state.compiledUniforms != null) {
             state.compiledUniforms.update();
@@ -860,20 +986,61 @@ public final class ShaderEngine {
     private static @Nullable Frustrum frustrum;
     private static @Nullable ClippingHelperShadow ch;
 
-    private static int shadowFrustumCheckOffset = 0;
+    private static final ShadowCullBatch shadowCullBatch = new ShadowCullBatch();
+    private static final ShadowRecullScheduler shadowRecullScheduler = new ShadowRecullScheduler();
+    private static final int SHADOW_RECULL_CHUNK = 256;
 
-    private static void clipRenderersByFrustumShadow(WorldRenderer[] wrs) {
-        assert frustrum != null: "frustrum not initialized";
+    private static void clipRenderersByFrustumShadow(WorldRenderer[] wrs, Entity viewEntity) {
+        assert ch != null: "frustrum not initialized";
 
+        val scheduler = shadowRecullScheduler;
+        val fullRecheck = scheduler.beginFrame(ch.shadowModelViewMatrix, ShadersConfig.ShadowCullFullRecheckOnJump);
+        val batch = shadowCullBatch;
+        batch.clear();
         for (int i = 0, wrsLength = wrs.length; i < wrsLength; i++) {
             var wr = wrs[i];
             val wre = (WorldRendererExt) wr;
             wre.swan$backupFrustum();
-            if (!wr.skipAllRenderPasses() && (!wr.isInFrustum || (i + shadowFrustumCheckOffset & 15) == 0)) {
-                wr.updateInFrustum(frustrum);
+            if (wr.skipAllRenderPasses()) {
+                continue;
+            }
+            if (fullRecheck || !wr.isInFrustum) {
+                // Same box as WorldRenderer.updateInFrustum, the shadow frustum sits at the origin
+                batch.add(i, wr.rendererBoundingBox);
+            } else {
+                scheduler.offer(i, wre.swan$shadowTestStamp(), wr.distanceToEntitySquared(viewEntity));
             }
         }
-        shadowFrustumCheckOffset++;
+
+        // Culled renderers always get tested, the budget only limits retesting the visible ones
+        val deadline = System.nanoTime() + ShadersConfig.ShadowCullBudgetMicros * 1000L;
+        while (true) {
+            testShadowCullBatch(wrs, batch, scheduler.clock());
+            if (System.nanoTime() - deadline >= 0) {
+                break;
+            }
+            batch.clear();
+            for (int n = 0; n < SHADOW_RECULL_CHUNK; n++) {
+                val i = scheduler.poll();
+                if (i < 0) {
+                    break;
+                }
+                batch.add(i, wrs[i].rendererBoundingBox);
+            }
+            if (batch.size() == 0) {
+                break;
+            }
+        }
+    }
+
+    private static void testShadowCullBatch(WorldRenderer[] wrs, ShadowCullBatch batch, double stamp) {
+        assert ch != null: "frustrum not initialized";
+        batch.test(ch);
+        for (int i = 0, size = batch.size(); i < size; i++) {
+            val wr = wrs[batch.index(i)];
+            wr.isInFrustum = batch.isVisible(i);
+            ((WorldRendererExt) wr).swan$shadowTestStamp(stamp);
+        }
     }
 
     private static void addWorldToShadowReceivers(WorldRenderer[] wrs) {
@@ -885,6 +1052,48 @@ public final class ShaderEngine {
         }
     }
 
+    // Reused every frame, emptied again afterwards so unloaded entities are not kept alive
+    private static final ArrayList<Object> shadowEntitySnapshot = new ArrayList<>();
+    private static final ArrayList<Object> shadowTileEntitySnapshot = new ArrayList<>();
+
+    /**
+     * Works on snapshots of the world lists, taken with a single copy each, so a list that changes while the receivers
+     * get collected cannot throw or skip anything.
+     */
+    private static void addEntitiesToShadowReceivers(List<?> entities, List<?> tileEntities) {
+        assert mcFrustrum != null && ch != null;
+        val entitySnapshot = shadowEntitySnapshot;
+        val tileEntitySnapshot = shadowTileEntitySnapshot;
+        try {
+            entitySnapshot.addAll(entities);
+            tileEntitySnapshot.addAll(tileEntities);
+            // TODO: Handling for infinite extent bounding boxes?
+            //noinspection ForLoopReplaceableByForEach
+            for (int i = 0, size = entitySnapshot.size(); i < size; i++) {
+                val aabb = ((Entity) entitySnapshot.get(i)).boundingBox;
+                if (mcFrustrum.isBoundingBoxInFrustum(aabb)) {
+                    ch.addShadowReceiver(aabb);
+                }
+            }
+            val dispatcher = TileEntityRendererDispatcher.instance;
+            //noinspection ForLoopReplaceableByForEach
+            for (int i = 0, size = tileEntitySnapshot.size(); i < size; i++) {
+                val tileEntity = (TileEntity) tileEntitySnapshot.get(i);
+                // Everything else is part of the chunk meshes, which are receivers already
+                if (!dispatcher.hasSpecialRenderer(tileEntity)) {
+                    continue;
+                }
+                val aabb = tileEntity.getRenderBoundingBox();
+                if (mcFrustrum.isBoundingBoxInFrustum(aabb)) {
+                    ch.addShadowReceiver(aabb);
+                }
+            }
+        } finally {
+            entitySnapshot.clear();
+            tileEntitySnapshot.clear();
+        }
+    }
+
     private static void renderShadowMap() {
         assert state != null : "Not Initialized";
         if (state.shadow == null) {
@@ -943,23 +1152,7 @@ public final class ShaderEngine {
 
         if (mcFrustrum != null) {
             try {
-                // Defensive Copy (We do this once a frame, so should be ok?)
-                val entities = mc.theWorld.loadedEntityList.toArray(new Entity[0]);
-                val tileEntities = mc.theWorld.loadedTileEntityList.toArray(new TileEntity[0]);
-
-                // TODO: Handling for infinite extent bounding boxes?
-                for (val entity : entities) {
-                    val aabb = entity.boundingBox;
-                    if (mcFrustrum.isBoundingBoxInFrustum(aabb)) {
-                        ch.addShadowReceiver(aabb);
-                    }
-                }
-                for (val tileEntity : tileEntities) {
-                    val aabb = tileEntity.getRenderBoundingBox();
-                    if (mcFrustrum.isBoundingBoxInFrustum(aabb)) {
-                        ch.addShadowReceiver(aabb);
-                    }
-                }
+                addEntitiesToShadowReceivers(mc.theWorld.loadedEntityList, mc.theWorld.loadedTileEntityList);
             } catch (RuntimeException e) {
                 log.error("Caught error while doing the shadow culling: ", e);
             }
@@ -967,7 +1160,7 @@ public final class ShaderEngine {
 
         ch.end();
 
-        clipRenderersByFrustumShadow(wrs);
+        clipRenderersByFrustumShadow(wrs, viewEntity);
         // endregion
 
         // region Opaque Uhh, things
@@ -1350,6 +1543,30 @@ public final class ShaderEngine {
     // TODO: Used for toggling sky basic/textured, as was done in shaders mod
     // endregion
 
+    /**
+     * Called when the block and item registries assigned new IDs, like when joining a server.
+     * <p>
+     * That may happen off the render thread, so the rebuild gets scheduled onto it. It runs right away when already
+     * called from there.
+     */
+    public static void onIdsRemapped() {
+        Minecraft.getMinecraft()
+                 .func_152344_a(ShaderEngine::rebuildRemappers);
+    }
+
+    private static void rebuildRemappers() {
+        val _state = state;
+        if (_state == null) {
+            return;
+        }
+        if (_state.remapper != null) {
+            _state.remapper.rebuild();
+        }
+        if (_state.itemRemapper != null) {
+            _state.itemRemapper.rebuild();
+        }
+    }
+
     static int getBlockID(Block block, int meta) {
         val blockID = Block.getIdFromBlock(block);
         //Thread safety
@@ -1367,8 +1584,21 @@ public final class ShaderEngine {
     }
 
     static int getEntityID(Entity entity) {
-        // TODO: Are there any mapping tables for this?
-        return EntityList.getEntityID(entity);
+        val _state = state;
+        if (_state != null && _state.entityRemapper != null) {
+            return _state.entityRemapper.remap(entity);
+        } else {
+            return EntityList.getEntityID(entity);
+        }
+    }
+
+    static int getItemID(int itemID, int meta) {
+        val _state = state;
+        if (_state != null && _state.itemRemapper != null) {
+            return _state.itemRemapper.remap(itemID, meta);
+        } else {
+            return itemID;
+        }
     }
 
     public static void useCompositeShader(CompositeShader shader) {
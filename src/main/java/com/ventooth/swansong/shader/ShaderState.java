@@ -831,7 +831,7 @@ public final class ShaderState {
     }
 
     public static int heldBlockLightValue() {
-        val itemId = heldItemId();
+        val itemId = heldItemRawId();
         if (itemId == -1) {
             return 0;
         }
@@ -840,6 +840,15 @@ public final class ShaderState {
     }
 
     public static int heldItemId() {
+        val itemId = heldItemRawId();
+        if (itemId == -1) {
+            return -1;
+        }
+        val stack = heldItem();
+        return ShaderEngine.getItemID(itemId, stack != null ? stack.getItemDamage() : 0);
+    }
+
+    private static int heldItemRawId() {
         val stack = heldItem();
         val item = stack != null ? stack.getItem() : null;
         int itemId = -1;
@@ -0,0 +1,82 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader;
+
+import lombok.val;
+
+import net.minecraft.util.AxisAlignedBB;
+
+import java.util.Arrays;
+
+/**
+ * Collects boxes in structure-of-arrays form, so {@link ClippingHelperShadow#testShadowVisible} can test all of them
+ * in one go. Every box carries the index of whatever it was taken from.
+ */
+final class ShadowCullBatch {
+    private float[] minX = new float[256];
+    private float[] minY = new float[256];
+    private float[] minZ = new float[256];
+    private float[] maxX = new float[256];
+    private float[] maxY = new float[256];
+    private float[] maxZ = new float[256];
+    private int[] indices = new int[256];
+    private long[] visible = new long[4];
+    private int count;
+
+    public void clear() {
+        count = 0;
+    }
+
+    public void add(int index, AxisAlignedBB aabb) {
+        if (count == indices.length) {
+            grow();
+        }
+        val i = count++;
+        minX[i] = (float) aabb.minX;
+        minY[i] = (float) aabb.minY;
+        minZ[i] = (float) aabb.minZ;
+        maxX[i] = (float) aabb.maxX;
+        maxY[i] = (float) aabb.maxY;
+        maxZ[i] = (float) aabb.maxZ;
+        indices[i] = index;
+    }
+
+    public void test(ClippingHelperShadow ch) {
+        ch.testShadowVisible(minX, minY, minZ, maxX, maxY, maxZ, count, visible);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int index(int i) {
+        return indices[i];
+    }
+
+    /**
+     * Only valid after {@link #test}.
+     */
+    public boolean isVisible(int i) {
+        return (visible[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private void grow() {
+        val size = indices.length * 2;
+        minX = Arrays.copyOf(minX, size);
+        minY = Arrays.copyOf(minY, size);
+        minZ = Arrays.copyOf(minZ, size);
+        maxX = Arrays.copyOf(maxX, size);
+        maxY = Arrays.copyOf(maxY, size);
+        maxZ = Arrays.copyOf(maxZ, size);
+        indices = Arrays.copyOf(indices, size);
+        visible = Arrays.copyOf(visible, (size + 63) >>> 6);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import lombok.val;
+import org.joml.Matrix4fc;
+
+/**
+ * Decides which shadow visible world renderers get their shadow visibility tested again this frame.
+ * <p>
+ * Staleness is measured on a clock that advances a little every frame, and further the more the light space frustum
+ * turned or moved. A renderer remembers the clock from when it was last tested, once the difference reaches 1 it is
+ * due again. Nearby renderers become due sooner, and due renderers are handed out most stale first, so a frame that
+ * runs out of time skips the ones that matter least. A static scene only retests every {@link #STATIC_FRAMES} frames.
+ * <p>
+ * Renderers that are currently culled are not scheduled, they must be tested every frame so shadows never go missing.
+ */
+final class ShadowRecullScheduler {
+    private static final int BUCKETS = 16;
+    private static final double STATIC_FRAMES = 64;
+    /**
+     * Turning the light by this much makes every nearby renderer due.
+     */
+    private static final double DUE_RADIANS = Math.toRadians(1);
+    /**
+     * Moving the light space frustum by this many blocks makes every nearby renderer due.
+     */
+    private static final double DUE_BLOCKS = 16;
+    /**
+     * Turning the light by more than this in one frame counts as a jump, like after changing the time of day.
+     */
+    private static final double JUMP_RADIANS = Math.toRadians(5);
+    /**
+     * Renderers this far away become due half as fast.
+     */
+    private static final float FALLOFF_DISTANCE_SQ = 128 * 128;
+
+    private final IntArrayList[] buckets = new IntArrayList[BUCKETS];
+    private int bucket;
+    private int cursor;
+    private double clock;
+    private boolean hasLast;
+    private float lastDirX, lastDirY, lastDirZ;
+    private float lastPosX, lastPosY, lastPosZ;
+
+    ShadowRecullScheduler() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new IntArrayList();
+        }
+    }
+
+    /**
+     * Advances the clock by how much the light space frustum changed since the previous frame, and drops whatever was
+     * not polled last frame.
+     *
+     * @param fullOnJump whether a jump of the light direction should retest everything
+     *
+     * @return true if every renderer should be tested this frame
+     */
+    public boolean beginFrame(Matrix4fc shadowModelView, boolean fullOnJump) {
+        for (val list : buckets) {
+            list.clear();
+        }
+        bucket = BUCKETS - 1;
+        cursor = 0;
+
+        val m = shadowModelView;
+        // The view axis and the eye position of the shadow camera, in world space
+        val dirX = m.m02();
+        val dirY = m.m12();
+        val dirZ = m.m22();
+        val posX = -(m.m00() * m.m30() + m.m01() * m.m31() + m.m02() * m.m32());
+        val posY = -(m.m10() * m.m30() + m.m11() * m.m31() + m.m12() * m.m32());
+        val posZ = -(m.m20() * m.m30() + m.m21() * m.m31() + m.m22() * m.m32());
+        var full = !hasLast;
+        var advance = 1 / STATIC_FRAMES;
+        if (hasLast) {
+            val dot = (dirX * lastDirX + dirY * lastDirY + dirZ * lastDirZ) /
+                      Math.sqrt((dirX * dirX + dirY * dirY + dirZ * dirZ) *
+                                (lastDirX * lastDirX + lastDirY * lastDirY + lastDirZ * lastDirZ));
+            val angle = Math.acos(Math.max(-1, Math.min(1, dot)));
+            val dx = posX - lastPosX;
+            val dy = posY - lastPosY;
+            val dz = posZ - lastPosZ;
+            val moved = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if (Double.isNaN(angle) || Double.isNaN(moved)) {
+                full = true;
+            } else {
+                advance += angle / DUE_RADIANS + moved / DUE_BLOCKS;
+                full = fullOnJump && angle > JUMP_RADIANS;
+            }
+        }
+        clock += advance;
+        hasLast = true;
+        lastDirX = dirX;
+        lastDirY = dirY;
+        lastDirZ = dirZ;
+        lastPosX = posX;
+        lastPosY = posY;
+        lastPosZ = posZ;
+        return full;
+    }
+
+    /**
+     * @return the stamp to remember for renderers tested this frame
+     */
+    public double clock() {
+        return clock;
+    }
+
+    /**
+     * Schedules the renderer if it is due.
+     *
+     * @param stamp the {@link #clock()} from when the renderer was last tested
+     */
+    public void offer(int index, double stamp, float distanceSq) {
+        val priority = (clock - stamp) / (1 + distanceSq / FALLOFF_DISTANCE_SQ);
+        if (!(priority >= 1)) {
+            return;
+        }
+        val exponent = Math.getExponent(priority);
+        buckets[Math.min(exponent, BUCKETS - 1)].add(index);
+    }
+
+    /**
+     * @return the next due renderer, most stale first, or -1 if there are none left
+     */
+    public int poll() {
+        while (bucket >= 0) {
+            val list = buckets[bucket];
+            if (cursor < list.size()) {
+                return list.getInt(cursor++);
+            }
+            bucket--;
+            cursor = 0;
+        }
+        return -1;
+    }
+}
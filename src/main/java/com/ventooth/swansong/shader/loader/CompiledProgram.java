@@ -27,17 +27,20 @@ public final class CompiledProgram {
     private final @NotNull ObjectList<String> mipmapEnabled;
     private final @Nullable IntList renderTargets;
     private final @NotNull ResourceLocation actualShaderType;
+    private final @NotNull String sourceKey;
 
     public CompiledProgram(@NotNull String path,
                            @NotNull GLProgram program,
                            @NotNull ObjectList<String> mipmapEnabled,
                            @Nullable IntList renderTargets,
-                           @NotNull ResourceLocation actualShaderType) {
+                           @NotNull ResourceLocation actualShaderType,
+                           @NotNull String sourceKey) {
         this.path = path;
         this.program = program;
         this.mipmapEnabled = mipmapEnabled;
         this.renderTargets = renderTargets;
         this.actualShaderType = actualShaderType;
+        this.sourceKey = sourceKey;
     }
 
     public @NotNull String path() {
@@ -60,6 +63,13 @@ public final class CompiledProgram {
         return actualShaderType;
     }
 
+    /**
+     * Identifies the exact sources the program was built from, see {@link RetainedPrograms}.
+     */
+    public @NotNull String sourceKey() {
+        return sourceKey;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) {
@@ -73,12 +83,13 @@ public final class CompiledProgram {
                Objects.equals(this.program, that.program) &&
                Objects.equals(this.mipmapEnabled, that.mipmapEnabled) &&
                Objects.equals(this.renderTargets, that.renderTargets) &&
-               Objects.equals(this.actualShaderType, that.actualShaderType);
+               Objects.equals(this.actualShaderType, that.actualShaderType) &&
+               Objects.equals(this.sourceKey, that.sourceKey);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(path, program, mipmapEnabled, renderTargets, actualShaderType);
+        return Objects.hash(path, program, mipmapEnabled, renderTargets, actualShaderType, sourceKey);
     }
 
     @Override
@@ -95,6 +106,9 @@ public final class CompiledProgram {
                ", " +
                "renderTargets=" +
                renderTargets +
+               ", " +
+               "sourceKey=" +
+               sourceKey +
                ']';
     }
 
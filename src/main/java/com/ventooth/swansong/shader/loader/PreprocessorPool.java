@@ -0,0 +1,115 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.loader;
+
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Bounded worker pool for the CPU-only preprocessing stages of a {@link ShaderLoader}.
+ * <p>
+ * Results are always handed back in input order, so callers can merge them exactly like the sequential path would.
+ * Falls back to running inline if there is only one core to spare, or if the file system is not safe to read from
+ * multiple threads.
+ */
+final class PreprocessorPool implements AutoCloseable {
+    private static final int MAX_THREADS = 8;
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private final @Nullable ExecutorService executor;
+
+    PreprocessorPool(boolean parallel) {
+        this(parallel ? Math.min(MAX_THREADS,
+                                 Runtime.getRuntime()
+                                        .availableProcessors() - 1) : 0);
+    }
+
+    /**
+     * @param threads number of workers, runs inline if there is only one or none
+     */
+    PreprocessorPool(int threads) {
+        if (threads <= 1) {
+            executor = null;
+            return;
+        }
+        val poolId = poolCounter.incrementAndGet();
+        val threadCounter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, task -> {
+            val thread = new Thread(task);
+            thread.setName("SwanSong Preprocessor " + poolId + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean isParallel() {
+        return executor != null;
+    }
+
+    /**
+     * Applies the task to every input, and returns the results in the same order as the inputs.
+     * <p>
+     * Exceptions thrown by a task are rethrown on the calling thread.
+     */
+    public <I, O> List<O> map(List<I> inputs, Function<I, O> task) {
+        val size = inputs.size();
+        val results = new ArrayList<O>(size);
+        if (executor == null) {
+            for (val input : inputs) {
+                results.add(task.apply(input));
+            }
+            return results;
+        }
+        val futures = new ArrayList<Future<O>>(size);
+        for (val input : inputs) {
+            futures.add(executor.submit(() -> task.apply(input)));
+        }
+        try {
+            for (val future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                  .interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shader preprocessor", e);
+        } catch (ExecutionException e) {
+            val cause = e.getCause();
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            if (cause instanceof Error err) {
+                throw err;
+            }
+            throw new IllegalStateException("Shader preprocessor failed", cause);
+        } finally {
+            for (val future : futures) {
+                future.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.loader;
+
+import com.ventooth.swansong.Share;
+import com.ventooth.swansong.gl.GLProgram;
+import com.ventooth.swansong.todo.tess.DanglingWiresTess;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectList;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Linked programs kept alive across shader pack reloads, so programs that did not change skip GL compile and link.
+ * <p>
+ * Programs are keyed by their final preprocessed sources, so only the compile and link of programs whose output came
+ * out the same is skipped. Preprocessing files whose options did not change is skipped by {@link RetainedSources}.
+ * Programs that are identical between dimensions get shared the same way, no matter which world folder they were
+ * loaded from.
+ * <p>
+ * Programs that are not claimed again stay around for a few more reloads, so switching back and forth between
+ * dimensions does not recompile the programs they override. Must only be used on the render thread.
+ */
+public final class RetainedPrograms {
+    /**
+     * How many reloads an unclaimed program survives.
+     */
+    private static final int MAX_IDLE_RELOADS = 4;
+    /**
+     * Upper bound of unclaimed programs, the oldest ones go first.
+     */
+    private static final int MAX_PROGRAMS = 512;
+
+    private final Object2ObjectMap<String, ObjectList<Entry>> programs = new Object2ObjectOpenHashMap<>();
+    private int size;
+    private int generation;
+    private int retainedCount;
+    private int claimedCount;
+
+    public static String key(List<DanglingWiresTess.AttribMapping> attribs, byte[] vert, byte[] frag) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (val attrib : attribs) {
+            digest.update(Integer.toString(attrib.index)
+                                 .getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '=');
+            digest.update(attrib.name.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        digest.update(Integer.toString(vert.length)
+                             .getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(vert);
+        digest.update(frag);
+        val bytes = digest.digest();
+        val result = new StringBuilder(bytes.length * 2);
+        for (val b : bytes) {
+            result.append(Character.forDigit((b >>> 4) & 0xF, 16))
+                  .append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Takes over ownership of the program.
+     */
+    public void retain(String key, GLProgram program) {
+        programs.computeIfAbsent(key, k -> new ObjectArrayList<>(1))
+                .add(new Entry(program, generation));
+        size++;
+        retainedCount++;
+    }
+
+    /**
+     * @return a program built from exactly the same sources, ownership passes to the caller
+     */
+    public @Nullable GLProgram claim(String key) {
+        val list = programs.get(key);
+        if (list == null) {
+            return null;
+        }
+        val entry = list.remove(list.size() - 1);
+        if (list.isEmpty()) {
+            programs.remove(key);
+        }
+        size--;
+        claimedCount++;
+        return entry.program;
+    }
+
+    /**
+     * Call once a reload is done, deletes the programs that went unclaimed for too long.
+     */
+    public void endReload() {
+        if (retainedCount > 0) {
+            Share.log.debug("Reused {} of {} retained shader programs", claimedCount, retainedCount);
+        }
+        retainedCount = 0;
+        claimedCount = 0;
+        generation++;
+
+        val oldest = generation - MAX_IDLE_RELOADS;
+        val iter = programs.values()
+                           .iterator();
+        while (iter.hasNext()) {
+            val list = iter.next();
+            list.removeIf(entry -> {
+                if (entry.generation >= oldest) {
+                    return false;
+                }
+                entry.program.glDeleteProgram();
+                size--;
+                return true;
+            });
+            if (list.isEmpty()) {
+                iter.remove();
+            }
+        }
+        if (size > MAX_PROGRAMS) {
+            val all = new ObjectArrayList<Entry>(size);
+            for (val list : programs.values()) {
+                all.addAll(list);
+            }
+            all.sort((a, b) -> Integer.compare(a.generation, b.generation));
+            val evicted = new ObjectArrayList<Entry>(all.subList(0, size - MAX_PROGRAMS));
+            for (val list : programs.values()) {
+                list.removeIf(evicted::contains);
+            }
+            programs.values()
+                    .removeIf(List::isEmpty);
+            for (val entry : evicted) {
+                entry.program.glDeleteProgram();
+            }
+            size -= evicted.size();
+        }
+    }
+
+    /**
+     * Deletes every program that is currently not claimed.
+     */
+    public void clear() {
+        for (val list : programs.values()) {
+            for (val entry : list) {
+                entry.program.glDeleteProgram();
+            }
+        }
+        programs.clear();
+        size = 0;
+    }
+
+    private static final class Entry {
+        private final GLProgram program;
+        private final int generation;
+
+        private Entry(GLProgram program, int generation) {
+            this.program = program;
+            this.generation = generation;
+        }
+    }
+}
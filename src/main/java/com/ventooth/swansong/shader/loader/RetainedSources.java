@@ -0,0 +1,166 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.loader;
+
+import com.ventooth.swansong.Share;
+import com.ventooth.swansong.shader.preprocessor.CachedStage2;
+import com.ventooth.swansong.shader.preprocessor.Option;
+import com.ventooth.swansong.shader.preprocessor.ShaderPreprocessor.PreprocessorStage1Suspend;
+import com.ventooth.swansong.shader.preprocessor.ShaderPreprocessor.PreprocessorStage2Suspend;
+import com.ventooth.swansong.shader.preprocessor.ShaderStage2Meta;
+import com.ventooth.swansong.shader.preprocessor.Stage2Dependencies;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Stage 2 output of the previous reloads, kept in memory along with what it was built from.
+ * <p>
+ * Each file remembers the options its last macro interpreter run consumed, see {@link Stage2Dependencies}. On the next
+ * reload, a file whose contents and stage 1 macros are the same and whose consumed options and output constants still
+ * have the same values gets its output restored instead of interpreted again. Changing an option only re-interprets
+ * the files that reached it, and the programs built from the other files keep their sources, so they also skip GL
+ * compile and link, see {@link RetainedPrograms}. Stage 1 still runs for every file, as the options of the whole pack
+ * are needed for the config screen.
+ * <p>
+ * Files restored from the {@link ShaderSourceCache} are not retained, as restoring them again is just as cheap.
+ * Safe to use from multiple threads.
+ */
+public final class RetainedSources {
+    /**
+     * How many reloads an unused entry survives.
+     */
+    private static final int MAX_IDLE_RELOADS = 4;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Everything stage 2 depends on besides the options: the file contents and the stage 1 macros.
+     */
+    public static byte[] inputs(String path, PreprocessorStage1Suspend source) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ShaderSourceCache.update(digest, path);
+        source.digestSource(digest);
+        for (val macro : source.meta().extraMacros.get()
+                                                  .entrySet()) {
+            ShaderSourceCache.update(digest, macro.getKey());
+            ShaderSourceCache.update(digest, macro.getValue());
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @param name       identifies the file, including the pack it is from
+     * @param inputs     see {@link #inputs}
+     * @param configFile where the constants get their values from
+     *
+     * @return null if the file has to be interpreted again
+     */
+    public @Nullable PreprocessorStage2Suspend restore(String name,
+                                                       byte[] inputs,
+                                                       PreprocessorStage1Suspend source,
+                                                       Map<String, Option.Value> configFile,
+                                                       Consumer<ShaderStage2Meta> configurer) {
+        val entry = entries.get(name);
+        if (entry == null ||
+            !Arrays.equals(entry.inputs, inputs) ||
+            !source.dependenciesMatch(entry.dependencies) ||
+            !constsMatch(entry, configFile)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.generation = generation.get();
+        hits.incrementAndGet();
+        return source.restoreStage2(entry.cached, configurer);
+    }
+
+    /**
+     * Does nothing if the output was not interpreted.
+     */
+    public void retain(String name,
+                       byte[] inputs,
+                       PreprocessorStage2Suspend output,
+                       Map<String, Option.Value> configFile) {
+        val dependencies = output.dependencies();
+        if (dependencies == null) {
+            return;
+        }
+        val constNames = dependencies.constNames();
+        val constValues = new Option.Value[constNames.size()];
+        for (int i = 0; i < constValues.length; i++) {
+            constValues[i] = configFile.get(constNames.get(i));
+        }
+        entries.put(name, new Entry(inputs, dependencies, constValues, output.toCached(), generation.get()));
+    }
+
+    /**
+     * Call once a reload is done, drops the entries that went unused for too long.
+     */
+    public void endReload() {
+        Share.log.debug("Retained shader sources: {} restored, {} interpreted", hits.getAndSet(0), misses.getAndSet(0));
+        val oldest = generation.incrementAndGet() - MAX_IDLE_RELOADS;
+        entries.values()
+               .removeIf(entry -> entry.generation < oldest);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static boolean constsMatch(Entry entry, Map<String, Option.Value> configFile) {
+        val constNames = entry.dependencies.constNames();
+        for (int i = 0; i < entry.constValues.length; i++) {
+            if (!Stage2Dependencies.sameValue(configFile.get(constNames.get(i)), entry.constValues[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Entry {
+        private final byte[] inputs;
+        private final Stage2Dependencies dependencies;
+        private final @Nullable Option.Value[] constValues;
+        private final CachedStage2 cached;
+        private volatile int generation;
+
+        private Entry(byte[] inputs,
+                      Stage2Dependencies dependencies,
+                      @Nullable Option.Value[] constValues,
+                      CachedStage2 cached,
+                      int generation) {
+            this.inputs = inputs;
+            this.dependencies = dependencies;
+            this.constValues = constValues;
+            this.cached = cached;
+            this.generation = generation;
+        }
+    }
+}
@@ -33,6 +33,7 @@ import com.ventooth.swansong.shader.loader.config.ConfigScreen;
 import com.ventooth.swansong.shader.preprocessor.MacroBuilder;
 import com.ventooth.swansong.shader.preprocessor.Option;
 import com.ventooth.swansong.shader.preprocessor.ShaderPreprocessor;
+import com.ventooth.swansong.shader.preprocessor.ShaderStage1Meta;
 import com.ventooth.swansong.shader.preprocessor.ShaderStage2Meta;
 import com.ventooth.swansong.shader.uniform.CompiledUniforms;
 import com.ventooth.swansong.todo.tess.DanglingWiresTess;
@@ -86,6 +87,10 @@ public class ShaderLoader {
     public EnvInfo inEnvInfo;
     // "minecraft" uniforms (NOT the builtins!)
     public UniformFunctionRegistry inMcUniforms;
+    //programs left over from the previous load, optional
+    public @Nullable RetainedPrograms inRetainedPrograms;
+    //stage 2 output of the previous loads, optional
+    public @Nullable RetainedSources inRetainedSources;
     //endregion
 
     //region output - populated by load()
@@ -117,6 +122,7 @@ public class ShaderLoader {
     //discovery
     private Object2ObjectMap<String, Option.Value> configFile;
     private Stage1ExtraMacros stage1ExtraMacros;
+    private @Nullable String worldSpecialization;
     private DeduplicatingOptionList definesStage1;
     private DeduplicatingOptionList constsStage1;
     private ObjectList<ProgramStage1> stage1;
@@ -128,6 +134,7 @@ public class ShaderLoader {
     private DeduplicatingOptionList constsStage2;
     private ObjectList<ProgramStage2> stage2;
     private ObjectSet<String> disabled;
+    private @Nullable ShaderSourceCache sourceCache;
 
     //endregion
 
@@ -169,6 +176,8 @@ public class ShaderLoader {
         inShaderConfig = null;
         inEnvInfo = null;
         inParams = null;
+        inRetainedPrograms = null;
+        inRetainedSources = null;
 
         val comp = outShaderPool;
         if (comp != null) {
@@ -187,6 +196,7 @@ public class ShaderLoader {
         paramsBuilder = null;
         configFile = null;
         stage1ExtraMacros = null;
+        worldSpecialization = null;
         definesStage1 = null;
         constsStage1 = null;
         stage1 = null;
@@ -196,6 +206,8 @@ public class ShaderLoader {
         constsStage2 = null;
         stage2 = null;
         disabled = null;
+        sourceCache = null;
+        preprocessor.purgeCaches();
     }
 
     public void lazyLoad(@Nullable Report report) {
@@ -206,8 +218,17 @@ public class ShaderLoader {
     }
 
     public void load(@Nullable Report report) {
+        prepare(report);
+        compile(report);
+    }
+
+    /**
+     * Everything {@link #load} does before touching GL, safe to run off the render thread.
+     * <p>
+     * Must be followed by {@link #compile} on the render thread, or by {@link #reset} to throw the results away.
+     */
+    public void prepare(@Nullable Report report) {
         loaded = true;
-        Option.purgeCaches();
         //cleanup
         val comp = outShaderPool;
         if (comp != null) {
@@ -227,41 +248,58 @@ public class ShaderLoader {
         stage2 = new ObjectArrayList<>(inExpectedShaders.size());
         disabled = new ObjectOpenHashSet<>();
 
-        //discover
-        loadConfigFile();
-        parseEnvInfo();
-        for (val expectedShader : inExpectedShaders) {
-            val sh1 = runProgramStage1(expectedShader, report);
-            if (sh1 != null) {
-                stage1.add(sh1);
+        try (val pool = new PreprocessorPool(preprocessor.isThreadSafe())) {
+            //discover
+            loadConfigFile();
+            parseEnvInfo();
+            worldSpecialization = pack.getWorldSpecialization(dimension);
+            for (val discovered : pool.map(inExpectedShaders, this::runProgramStage1)) {
+                mergeProgramStage1(discovered, report);
+            }
+            inExpectedShaders = null;
+
+            outLocale = new Locale();
+            val lang = Minecraft.getMinecraft()
+                                .getLanguageManager()
+                                .getCurrentLanguage();
+            val langs = new ArrayList<String>();
+            langs.add("en_US");
+            if (!"en_US".equals(lang.getLanguageCode())) {
+                langs.add(lang.getLanguageCode());
+            }
+            outLocale.loadLocaleDataFiles(new ShaderpackResourceManagerAdapter(pack), langs);
+
+            //configure
+            parseShadersProperties();
+            extractParamsFromProperties();
+            disableShadersFromProperties();
+            if (!disabled.isEmpty()) {
+                outShaderPool.setDisabled(disabled);
+            }
+            createConfigScreen();
+            sourceCache = ShaderSourceCache.create();
+            for (val sh2 : pool.map(stage1, this::runProgramStage2)) {
+                mergeProgramStage2(sh2);
+                stage2.add(sh2);
+            }
+            if (sourceCache != null) {
+                sourceCache.prune();
             }
         }
-        inExpectedShaders = null;
 
-        outLocale = new Locale();
-        val lang = Minecraft.getMinecraft()
-                            .getLanguageManager()
-                            .getCurrentLanguage();
-        val langs = new ArrayList<String>();
-        langs.add("en_US");
-        if (!"en_US".equals(lang.getLanguageCode())) {
-            langs.add(lang.getLanguageCode());
-        }
-        outLocale.loadLocaleDataFiles(new ShaderpackResourceManagerAdapter(pack), langs);
+        extractParamsFromStage2();
+        compileUniforms();
 
-        //configure
-        parseShadersProperties();
-        extractParamsFromProperties();
-        disableShadersFromProperties();
-        if (!disabled.isEmpty()) {
-            outShaderPool.setDisabled(disabled);
-        }
-        createConfigScreen();
-        for (val sh1 : stage1) {
-            stage2.add(runProgramStage2(sh1));
-        }
+        outParams = paramsBuilder.build();
+    }
 
-        //compile
+    /**
+     * Compiles and links the programs found by {@link #prepare}, render thread only.
+     */
+    public void compile(@Nullable Report report) {
+        if (stage2 == null) {
+            throw new IllegalStateException("Shader loader was not prepared!");
+        }
         for (val sh2 : stage2) {
             val c = compileShader(sh2, report);
             if (c != null) {
@@ -270,18 +308,14 @@ public class ShaderLoader {
                                                                c.program,
                                                                c.mipmapEnabled,
                                                                c.renderTargets,
-                                                               c.actualLoc));
+                                                               c.actualLoc,
+                                                               c.sourceKey));
             }
         }
         inAttribs = null;
-        extractParamsFromStage2();
-        compileUniforms();
-
-        outParams = paramsBuilder.build();
 
         //finished, discard temporary memory
         clearTemp();
-        Option.purgeCaches();
     }
 
     //region discover
@@ -331,7 +365,8 @@ public class ShaderLoader {
                                                   extensions,
                                                   new Option.Value.Dbl(inParams.handDepth),
                                                   new Option.Value.Dbl(inParams.renderQuality),
-                                                  new Option.Value.Dbl(inParams.shadowQuality));
+                                                  new Option.Value.Dbl(inParams.shadowQuality),
+                                                  inParams.compactVertices);
     }
 
     private static Option.Value parseSemVer(String version, int mulMajor, int mulMinor, int mulPatch) {
@@ -381,13 +416,17 @@ public class ShaderLoader {
         }
     }
 
-    private ProgramStage1 runProgramStage1(ResourceLocation inLoc, @Nullable Report report) {
+    /**
+     * Runs on the preprocessor pool, everything shared is written back by {@link #mergeProgramStage1}.
+     */
+    private DiscoveredProgram runProgramStage1(ResourceLocation inLoc) {
+        val result = new DiscoveredProgram();
         val inPath = shaderPath(inLoc);
         var path = inPath;
         var loc = inLoc;
         while (true) {
-            val vert = runStage1(path + ".vsh");
-            val frag = runStage1(path + ".fsh");
+            val vert = runStage1(path + ".vsh", result.metas);
+            val frag = runStage1(path + ".fsh", result.metas);
             if (vert == null && frag == null) {
                 //This is correct if the shader doesn't exist at all
                 loc = ShaderTypes.getFallback(loc);
@@ -395,27 +434,44 @@ public class ShaderLoader {
                     path = shaderPath(loc);
                     continue;
                 } else {
-                    return null;
+                    return result;
                 }
             }
             if (vert == null) {
                 Share.log.error("Missing vertex shader for path: {}", path);
-                if (report != null) {
-                    report.erroredShaders.add(path);
-                }
-                return null;
+                result.erroredPath = path;
+                return result;
             }
             if (frag == null) {
                 Share.log.error("Missing fragment shader for path: {}", path);
-                if (report != null) {
-                    report.erroredShaders.add(path);
-                }
-                return null;
+                result.erroredPath = path;
+                return result;
             }
-            if (report != null && !Objects.equals(inPath, path)) {
-                report.shadersFallback.put(inPath, path);
+            if (!Objects.equals(inPath, path)) {
+                result.fallbackPath = path;
             }
-            return new ProgramStage1(inLoc, loc, inPath, vert, frag);
+            result.program = new ProgramStage1(inLoc, loc, inPath, vert, frag);
+            return result;
+        }
+    }
+
+    private void mergeProgramStage1(DiscoveredProgram discovered, @Nullable Report report) {
+        for (val meta : discovered.metas) {
+            definesStage1.addAll(meta.defines);
+            for (val opt : meta.consts) {
+                constsStage1.add(opt);
+            }
+        }
+        if (report != null) {
+            if (discovered.erroredPath != null) {
+                report.erroredShaders.add(discovered.erroredPath);
+            }
+            if (discovered.fallbackPath != null) {
+                report.shadersFallback.put(discovered.program.path, discovered.fallbackPath);
+            }
+        }
+        if (discovered.program != null) {
+            stage1.add(discovered.program);
         }
     }
 
@@ -425,30 +481,26 @@ public class ShaderLoader {
         if (!"minecraft".equals(domain)) {
             path = domain + "/" + path;
         }
-        val spec = pack.getWorldSpecialization(dimension);
+        val spec = worldSpecialization;
         if (spec != null) {
             path = spec + "/" + path;
         }
         return path;
     }
 
-    private ShaderPreprocessor.PreprocessorStage1Suspend runStage1(String path) {
+    private ShaderPreprocessor.PreprocessorStage1Suspend runStage1(String path, List<ShaderStage1Meta> metas) {
         return preprocessor.runStage1(path, true, stage1 -> {
             addBuiltinMacros(stage1.extraMacros);
 
-            //apply config and store to define map
+            //apply config, the define map is filled in afterwards on the loader thread
             for (val opt : stage1.defines) {
                 val name = opt.name;
                 val config = configFile.get(name);
                 if (config != null) {
                     opt.setCurrentValue(config);
                 }
-                definesStage1.add(opt);
-            }
-
-            for (val opt : stage1.consts) {
-                constsStage1.add(opt);
             }
+            metas.add(stage1);
         });
     }
 
@@ -472,6 +524,9 @@ public class ShaderLoader {
         }
         builder.add("IS_SWANSONG");
         builder.add("SWANSONG_VERSION", stage1ExtraMacros.swansongVersion);
+        if (stage1ExtraMacros.compactVertices) {
+            builder.add("SWANSONG_COMPACT_VERTICES");
+        }
     }
 
     //TODO convert to record
@@ -552,6 +607,13 @@ public class ShaderLoader {
         }
     }
 
+    private static final class DiscoveredProgram {
+        private final ObjectList<ShaderStage1Meta> metas = new ObjectArrayList<>();
+        private @Nullable ProgramStage1 program;
+        private @Nullable String erroredPath;
+        private @Nullable String fallbackPath;
+    }
+
     //TODO convert to record
     private static final class Stage1ExtraMacros {
         private final Option.Value mcVersion;
@@ -565,6 +627,7 @@ public class ShaderLoader {
         private final Option.Value handDepth;
         private final Option.Value renderQuality;
         private final Option.Value shadowQuality;
+        private final boolean compactVertices;
 
         private Stage1ExtraMacros(Option.Value mcVersion,
                                   Option.Value glVersion,
@@ -576,7 +639,8 @@ public class ShaderLoader {
                                   List<String> extensions,
                                   Option.Value handDepth,
                                   Option.Value renderQuality,
-                                  Option.Value shadowQuality) {
+                                  Option.Value shadowQuality,
+                                  boolean compactVertices) {
             this.mcVersion = mcVersion;
             this.glVersion = glVersion;
             this.glslVersion = glslVersion;
@@ -588,6 +652,7 @@ public class ShaderLoader {
             this.handDepth = handDepth;
             this.renderQuality = renderQuality;
             this.shadowQuality = shadowQuality;
+            this.compactVertices = compactVertices;
         }
 
         public Option.Value mcVersion() {
@@ -634,6 +699,10 @@ public class ShaderLoader {
             return shadowQuality;
         }
 
+        public boolean compactVertices() {
+            return compactVertices;
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (obj == this) {
@@ -653,7 +722,8 @@ public class ShaderLoader {
                    Objects.equals(this.extensions, that.extensions) &&
                    Objects.equals(this.handDepth, that.handDepth) &&
                    Objects.equals(this.renderQuality, that.renderQuality) &&
-                   Objects.equals(this.shadowQuality, that.shadowQuality);
+                   Objects.equals(this.shadowQuality, that.shadowQuality) &&
+                   this.compactVertices == that.compactVertices;
         }
 
         @Override
@@ -668,7 +738,8 @@ public class ShaderLoader {
                                 extensions,
                                 handDepth,
                                 renderQuality,
-                                shadowQuality);
+                                shadowQuality,
+                                compactVertices);
         }
 
         @Override
@@ -706,6 +777,9 @@ public class ShaderLoader {
                    ", " +
                    "shadowQuality=" +
                    shadowQuality +
+                   ", " +
+                   "compactVertices=" +
+                   compactVertices +
                    ']';
         }
     }
@@ -908,14 +982,20 @@ public class ShaderLoader {
         });
     }
 
+    /**
+     * Runs on the preprocessor pool, everything shared is written back by {@link #mergeProgramStage2}.
+     */
     private ProgramStage2 runProgramStage2(ProgramStage1 stage1) {
         val pRenderTargets = new IntList[1];
         val mipmapEnabled = new ObjectLinkedOpenHashSet<String>();
-        val vert = stage1.vert.runStage2(stage2 -> {
+        val metas = new ObjectArrayList<ShaderStage2Meta>(2);
+        val vert = runStage2(stage1.path + ".vsh", stage1.vert, stage2 -> {
             fetchStage2Data(stage2, mipmapEnabled);
+            metas.add(stage2);
         });
-        val frag = stage1.frag.runStage2(stage2 -> {
+        val frag = runStage2(stage1.path + ".fsh", stage1.frag, stage2 -> {
             fetchStage2Data(stage2, mipmapEnabled);
+            metas.add(stage2);
             pRenderTargets[0] = stage2.renderTargets;
         });
         return new ProgramStage2(stage1.loc,
@@ -924,22 +1004,61 @@ public class ShaderLoader {
                                  vert,
                                  frag,
                                  new ObjectArrayList<>(mipmapEnabled),
-                                 pRenderTargets[0]);
+                                 pRenderTargets[0],
+                                 metas);
+    }
+
+    private ShaderPreprocessor.PreprocessorStage2Suspend runStage2(String path,
+                                                                  ShaderPreprocessor.PreprocessorStage1Suspend stage1,
+                                                                  Consumer<ShaderStage2Meta> configurer) {
+        val retained = inRetainedSources;
+        val retainedName = pack.name() + ':' + path;
+        val inputs = retained != null ? RetainedSources.inputs(path, stage1) : null;
+        if (retained != null) {
+            val restored = retained.restore(retainedName, inputs, stage1, configFile, configurer);
+            if (restored != null) {
+                return restored;
+            }
+        }
+        val cache = sourceCache;
+        String key = null;
+        if (cache != null) {
+            key = cache.key(path, stage1, configFile);
+            val cached = cache.read(key);
+            if (cached != null) {
+                return stage1.restoreStage2(cached, configurer);
+            }
+        }
+        val stage2 = stage1.runStage2(configurer);
+        if (cache != null) {
+            cache.write(key, stage2.toCached());
+        }
+        if (retained != null) {
+            retained.retain(retainedName, inputs, stage2, configFile);
+        }
+        return stage2;
     }
 
     private void fetchStage2Data(ShaderStage2Meta stage2, ObjectSet<String> mipmapEnabled) {
-        definesStage2.addAll(stage2.defines);
         for (val opt : stage2.consts) {
             val name = opt.name;
             val config = configFile.get(name);
             if (config != null) {
                 opt.setCurrentValue(config);
             }
-            constsStage2.add(opt);
             tryFetchMipMapEnabledOption(opt, mipmapEnabled);
         }
     }
 
+    private void mergeProgramStage2(ProgramStage2 program) {
+        for (val meta : program.metas) {
+            definesStage2.addAll(meta.defines);
+            for (val opt : meta.consts) {
+                constsStage2.add(opt);
+            }
+        }
+    }
+
     private void tryFetchMipMapEnabledOption(Option option, ObjectSet<String> output) {
         if (!option.isToggle()) {
             return;
@@ -1095,6 +1214,7 @@ public class ShaderLoader {
         private final ShaderPreprocessor.PreprocessorStage2Suspend frag;
         private final ObjectList<String> mipmapEnabled;
         private final IntList renderTargets;
+        private final ObjectList<ShaderStage2Meta> metas;
 
         private ProgramStage2(ResourceLocation loc,
                               ResourceLocation actualLoc,
@@ -1102,7 +1222,8 @@ public class ShaderLoader {
                               ShaderPreprocessor.PreprocessorStage2Suspend vert,
                               ShaderPreprocessor.PreprocessorStage2Suspend frag,
                               ObjectList<String> mipmapEnabled,
-                              IntList renderTargets) {
+                              IntList renderTargets,
+                              ObjectList<ShaderStage2Meta> metas) {
             this.loc = loc;
             this.actualLoc = actualLoc;
             this.path = path;
@@ -1110,6 +1231,7 @@ public class ShaderLoader {
             this.frag = frag;
             this.mipmapEnabled = mipmapEnabled;
             this.renderTargets = renderTargets;
+            this.metas = metas;
         }
 
         public ResourceLocation loc() {
@@ -1140,6 +1262,10 @@ public class ShaderLoader {
             return renderTargets;
         }
 
+        public ObjectList<ShaderStage2Meta> metas() {
+            return metas;
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (obj == this) {
@@ -1198,6 +1324,24 @@ public class ShaderLoader {
     }
 
     private ProgramCompiled compileShader(ProgramStage2 stage2, @Nullable Report report) {
+        val sourceKey = RetainedPrograms.key(inAttribs, stage2.vert.pinnedSource(), stage2.frag.pinnedSource());
+        val retained = inRetainedPrograms;
+        if (retained != null) {
+            val prog = retained.claim(sourceKey);
+            if (prog != null) {
+                Share.log.debug("Reusing unchanged program {}", stage2.path);
+                ShaderPackManager.dumpShader(stage2.path + ".vsh", stage2.vert.getNativeBuffer(true));
+                ShaderPackManager.dumpShader(stage2.path + ".fsh", stage2.frag.getNativeBuffer(true));
+                return new ProgramCompiled(stage2.loc,
+                                           stage2.actualLoc,
+                                           stage2.path,
+                                           prog,
+                                           stage2.mipmapEnabled,
+                                           stage2.renderTargets,
+                                           sourceKey);
+            }
+        }
+
         GLShader vert = null;
         GLShader frag = null;
 
@@ -1210,7 +1354,8 @@ public class ShaderLoader {
                                        stage2.path,
                                        prog,
                                        stage2.mipmapEnabled,
-                                       stage2.renderTargets);
+                                       stage2.renderTargets,
+                                       sourceKey);
         } catch (Exception e) {
             Share.log.error("Error while compiling shader {}", stage2.path);
             Share.log.error("Stacktrace:", e);
@@ -1288,19 +1433,22 @@ public class ShaderLoader {
         private final GLProgram program;
         private final ObjectList<String> mipmapEnabled;
         private final IntList renderTargets;
+        private final String sourceKey;
 
         private ProgramCompiled(ResourceLocation loc,
                                 ResourceLocation actualLoc,
                                 String path,
                                 GLProgram program,
                                 ObjectList<String> mipmapEnabled,
-                                IntList renderTargets) {
+                                IntList renderTargets,
+                                String sourceKey) {
             this.loc = loc;
             this.actualLoc = actualLoc;
             this.path = path;
             this.program = program;
             this.mipmapEnabled = mipmapEnabled;
             this.renderTargets = renderTargets;
+            this.sourceKey = sourceKey;
         }
 
         public ResourceLocation loc() {
@@ -1327,6 +1475,10 @@ public class ShaderLoader {
             return renderTargets;
         }
 
+        public String sourceKey() {
+            return sourceKey;
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (obj == this) {
@@ -1340,12 +1492,13 @@ public class ShaderLoader {
                    Objects.equals(this.path, that.path) &&
                    Objects.equals(this.program, that.program) &&
                    Objects.equals(this.mipmapEnabled, that.mipmapEnabled) &&
-                   Objects.equals(this.renderTargets, that.renderTargets);
+                   Objects.equals(this.renderTargets, that.renderTargets) &&
+                   Objects.equals(this.sourceKey, that.sourceKey);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(loc, path, program, mipmapEnabled, renderTargets);
+            return Objects.hash(loc, path, program, mipmapEnabled, renderTargets, sourceKey);
         }
 
         @Override
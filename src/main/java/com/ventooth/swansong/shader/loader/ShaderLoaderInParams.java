@@ -18,6 +18,7 @@ public class ShaderLoaderInParams {
     final double handDepth;
     final double renderQuality;
     final double shadowQuality;
+    final boolean compactVertices;
 
     public static Builder builder() {
         return new Builder();
@@ -27,6 +28,7 @@ public class ShaderLoaderInParams {
         private double handDepth = 1; //Default
         private double renderQuality = 1; //Default
         private double shadowQuality = 1; //Default
+        private boolean compactVertices = false; //Default
 
         public Builder handDepth(double value) {
             this.handDepth = value;
@@ -43,8 +45,13 @@ public class ShaderLoaderInParams {
             return this;
         }
 
+        public Builder compactVertices(boolean value) {
+            this.compactVertices = value;
+            return this;
+        }
+
         public ShaderLoaderInParams build() {
-            return new ShaderLoaderInParams(handDepth, renderQuality, shadowQuality);
+            return new ShaderLoaderInParams(handDepth, renderQuality, shadowQuality, compactVertices);
         }
     }
 }
@@ -0,0 +1,335 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.loader;
+
+import com.ventooth.swansong.Share;
+import com.ventooth.swansong.Tags;
+import com.ventooth.swansong.config.ShadersConfig;
+import com.ventooth.swansong.resources.ShaderPackManager;
+import com.ventooth.swansong.shader.preprocessor.CachedStage2;
+import com.ventooth.swansong.shader.preprocessor.Option;
+import com.ventooth.swansong.shader.preprocessor.ShaderPreprocessor;
+import com.ventooth.swansong.shader.preprocessor.TaggedLine;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntLists;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import lombok.Cleanup;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of stage 2 preprocessor output, shared between game launches.
+ * <p>
+ * Entries are keyed by everything the stage 2 output depends on: the contents of the file and everything it includes,
+ * the file path (which includes the world specialization), the stage 1 macros (MC_* environment info, quality
+ * settings) and the current values of all options in the file. Any change produces a new key, old entries are dropped
+ * least recently used first. Files of the pack that the program does not include have no effect on its key.
+ * <p>
+ * Every entry also stores its own key and a checksum, anything that fails to validate gets deleted and counts as a miss.
+ * Safe to use from multiple threads.
+ */
+final class ShaderSourceCache {
+    private static final int MAGIC = 0x53575343;
+    private static final int FORMAT_VERSION = 2;
+    private static final String EXTENSION = ".bin";
+    private static final int MAX_ENTRIES = 1024;
+
+    private final Path dir;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    ShaderSourceCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return null if the cache is disabled
+     */
+    public static @Nullable ShaderSourceCache create() {
+        if (!ShadersConfig.CacheShaderSources) {
+            return null;
+        }
+        try {
+            return new ShaderSourceCache(ShaderPackManager.shaderCacheDir());
+        } catch (UncheckedIOException e) {
+            Share.log.warn("Shader source cache is unavailable", e);
+            return null;
+        }
+    }
+
+    public String key(String path,
+                      ShaderPreprocessor.PreprocessorStage1Suspend source,
+                      Map<String, Option.Value> configFile) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, Integer.toString(FORMAT_VERSION));
+        update(digest, Tags.MOD_VERSION);
+        update(digest, path);
+        source.digestSource(digest);
+
+        val stage1 = source.meta();
+
+        val macros = stage1.extraMacros.get();
+        update(digest, "macros");
+        for (val macro : macros.entrySet()) {
+            update(digest, macro.getKey());
+            update(digest, macro.getValue());
+        }
+
+        update(digest, "defines");
+        for (val opt : stage1.defines) {
+            update(digest, opt.uniqueName());
+            update(digest, opt.getCurrentValue());
+        }
+
+        //Stage 2 constants are a subset of these, and get their values from the config file
+        update(digest, "consts");
+        if (stage1.consts != null) {
+            for (val opt : stage1.consts) {
+                update(digest, opt.name);
+                val config = configFile.get(opt.name);
+                if (config != null) {
+                    update(digest, config);
+                } else {
+                    update(digest, "");
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    public @Nullable CachedStage2 read(String key) {
+        val file = dir.resolve(key + EXTENSION);
+        final byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            Share.log.warn("Failed to read cached shader source {}", file, e);
+            misses.incrementAndGet();
+            return null;
+        }
+        val cached = decode(key, data);
+        if (cached == null) {
+            Share.log.warn("Discarding invalid cached shader source {}", file);
+            delete(file);
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+        }
+        hits.incrementAndGet();
+        return cached;
+    }
+
+    public void write(String key, CachedStage2 cached) {
+        val file = dir.resolve(key + EXTENSION);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(dir, key, ".tmp");
+            Files.write(temp, encode(key, cached));
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException e) {
+            Share.log.warn("Failed to write cached shader source {}", file, e);
+        } finally {
+            if (temp != null) {
+                delete(temp);
+            }
+        }
+    }
+
+    /**
+     * Drops leftover temporary files, and the least recently used entries if there are too many.
+     */
+    public void prune() {
+        Share.log.debug("Shader source cache: {} hits, {} misses", hits.get(), misses.get());
+        val entries = new ObjectArrayList<Path>();
+        try {
+            @Cleanup val files = Files.list(dir);
+            files.forEach(file -> {
+                val name = file.getFileName()
+                               .toString();
+                if (name.endsWith(".tmp")) {
+                    delete(file);
+                } else if (name.endsWith(EXTENSION)) {
+                    entries.add(file);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            Share.log.warn("Failed to prune the shader source cache", e);
+            return;
+        }
+        if (entries.size() <= MAX_ENTRIES) {
+            return;
+        }
+        val times = new Object2LongOpenHashMap<Path>(entries.size());
+        for (val entry : entries) {
+            try {
+                times.put(entry,
+                          Files.getLastModifiedTime(entry)
+                               .toMillis());
+            } catch (IOException e) {
+                times.put(entry, 0L);
+            }
+        }
+        entries.sort(Comparator.comparingLong(times::getLong));
+        for (int i = 0, n = entries.size() - MAX_ENTRIES; i < n; i++) {
+            delete(entries.get(i));
+        }
+    }
+
+    private static byte[] encode(String key, CachedStage2 cached) throws IOException {
+        val payloadBytes = new ByteArrayOutputStream(cached.source().length + 256);
+        val payload = new DataOutputStream(payloadBytes);
+        payload.writeInt(cached.source().length);
+        payload.write(cached.source());
+        val renderTargets = cached.renderTargets();
+        if (renderTargets == null) {
+            payload.writeInt(-1);
+        } else {
+            payload.writeInt(renderTargets.size());
+            for (int i = 0; i < renderTargets.size(); i++) {
+                payload.writeInt(renderTargets.getInt(i));
+            }
+        }
+        val constLines = cached.constLines();
+        payload.writeInt(constLines.size());
+        for (val line : constLines) {
+            payload.writeBoolean(line.tag() == TaggedLine.Tag.MultilineComment);
+            payload.writeUTF(line.text());
+        }
+        payload.flush();
+        val payloadArray = payloadBytes.toByteArray();
+        val crc = new CRC32();
+        crc.update(payloadArray, 0, payloadArray.length);
+
+        val bytes = new ByteArrayOutputStream(payloadArray.length + 128);
+        val out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(key);
+        out.writeInt(payloadArray.length);
+        out.write(payloadArray);
+        out.writeLong(crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static @Nullable CachedStage2 decode(String key, byte[] data) {
+        try {
+            val in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            val payloadLength = in.readInt();
+            if (payloadLength < 0 || payloadLength > in.available()) {
+                return null;
+            }
+            val payloadArray = new byte[payloadLength];
+            in.readFully(payloadArray);
+            val crc = new CRC32();
+            crc.update(payloadArray, 0, payloadArray.length);
+            if (in.readLong() != crc.getValue() || in.available() != 0) {
+                return null;
+            }
+
+            val payload = new DataInputStream(new ByteArrayInputStream(payloadArray));
+            val sourceLength = payload.readInt();
+            if (sourceLength < 0 || sourceLength > payload.available()) {
+                return null;
+            }
+            val source = new byte[sourceLength];
+            payload.readFully(source);
+            val renderTargetCount = payload.readInt();
+            IntArrayList renderTargets = null;
+            if (renderTargetCount >= 0) {
+                renderTargets = new IntArrayList(renderTargetCount);
+                for (int i = 0; i < renderTargetCount; i++) {
+                    renderTargets.add(payload.readInt());
+                }
+            }
+            val constCount = payload.readInt();
+            val constLines = new ObjectArrayList<TaggedLine>(Math.max(constCount, 0));
+            for (int i = 0; i < constCount; i++) {
+                val tag = payload.readBoolean() ? TaggedLine.Tag.MultilineComment : TaggedLine.Tag.Standard;
+                constLines.add(new TaggedLine(0, 0, payload.readUTF(), true, tag));
+            }
+            return new CachedStage2(source,
+                                    renderTargets == null ? null : IntLists.unmodifiable(renderTargets),
+                                    Collections.unmodifiableList(constLines));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static void update(MessageDigest digest, Option.Value value) {
+        update(digest, value.type()
+                            .name());
+        update(digest, value.toString());
+    }
+
+    static void update(MessageDigest digest, String str) {
+        digest.update(str.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(byte[] bytes) {
+        val result = new StringBuilder(bytes.length * 2);
+        for (val b : bytes) {
+            result.append(Character.forDigit((b >>> 4) & 0xF, 16))
+                  .append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            Share.log.warn("Failed to delete {}", file, e);
+        }
+    }
+}
@@ -12,12 +12,7 @@ package com.ventooth.swansong.shader.mappings;
 
 import com.ventooth.swansong.Share;
 import com.ventooth.swansong.resources.pack.ShaderPack;
-import it.unimi.dsi.fastutil.ints.IntArraySet;
 import it.unimi.dsi.fastutil.ints.IntList;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
-import it.unimi.dsi.fastutil.ints.IntSet;
-import lombok.AccessLevel;
-import lombok.RequiredArgsConstructor;
 import lombok.val;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
@@ -26,51 +21,56 @@ import org.jetbrains.annotations.Nullable;
 import net.minecraft.block.Block;
 import cpw.mods.fml.common.registry.GameRegistry;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+/**
+ * Maps block IDs and metadata to the IDs a shader pack's block.properties asks for.
+ * <p>
+ * The rules get compiled into a flat table indexed by {@code (id << 4) | meta}, so {@link #remap} is a single array
+ * read for every block vertex. Block names are resolved against the {@link GameRegistry} when compiling, call
+ * {@link #rebuild()} once the block IDs change to compile the same rules against the new IDs.
+ * <p>
+ * {@link #remap} may be called from any thread.
+ */
 public class BlockIDRemapper {
     private static final String PROP_FILE_NAME = "block.properties";
-
-    private final @NotNull List<List<MetaMapping>> patterns;
+    private static final int META_BITS = 4;
+    private static final int META_MASK = (1 << META_BITS) - 1;
+    /**
+     * IDs above this, or metadata outside of 0-15, go through the mapping lists instead.
+     */
+    private static final int MAX_FLAT_IDS = 1 << 16;
+
+    private final @NotNull List<MetaRule> rules;
+    private volatile @NotNull Table table;
+
+    private BlockIDRemapper(@NotNull List<MetaRule> rules) {
+        this.rules = rules;
+        this.table = compile(rules);
+    }
 
     public int remap(int id, int meta) {
-        if (id < 0 || id >= patterns.size()) {
-            return id;
-        }
-        val mappings = patterns.get(id);
-        if (mappings == null) {
-            return id;
-        }
-        //noinspection ForLoopReplaceableByForEach
-        for (int i = 0, mappingsSize = mappings.size(); i < mappingsSize; i++) {
-            var mapping = mappings.get(i);
-            if (mapping.matches(meta)) {
-                return mapping.outputID();
-            }
+        val table = this.table;
+        if (id >= 0 && id < table.flatIds && (meta & ~META_MASK) == 0) {
+            return table.flat[(id << META_BITS) | meta];
         }
-        return id;
+        return table.remapSlow(id, meta);
     }
 
-    public static @Nullable BlockIDRemapper createRemapper(@NotNull ShaderPack pack) {
-        val path = pack.absolutize(null, PROP_FILE_NAME);
-        try {
-            if (!pack.has(path)) {
-                return null;
-            }
-        } catch (IOException e) {
-            return null;
-        }
+    /**
+     * Resolves the block names again, for when the registry assigned new IDs.
+     */
+    public void rebuild() {
+        table = compile(rules);
+    }
 
-        val properties = new OrderedProperties();
-        try (val input = pack.get(path)) {
-            properties.load(input);
-        } catch (IOException e) {
+    public static @Nullable BlockIDRemapper createRemapper(@NotNull ShaderPack pack) {
+        val properties = OrderedProperties.load(pack, PROP_FILE_NAME);
+        if (properties == null) {
             return null;
         }
-        ArrayList<List<MetaMapping>> mappings = null;
+        ArrayList<MetaRule> rules = null;
         for (val prop : properties) {
             val key = prop.getKey();
             val value = prop.getValue();
@@ -86,96 +86,99 @@ public class BlockIDRemapper {
             } catch (NumberFormatException ignored) {
                 continue;
             }
-            if (mappings == null) {
-                mappings = new ArrayList<>();
+            if (rules == null) {
+                rules = new ArrayList<>();
             }
-            parsePatterns(outputId, value, mappings);
+            parsePatterns(outputId, value, rules);
         }
         // TODO: Figure out some kind of logging? Append to report probably.
-        return mappings == null ? null : new BlockIDRemapper(mappings);
+        return rules == null ? null : new BlockIDRemapper(rules);
     }
 
-    private static void parsePatterns(int outputId, @NotNull String property, ArrayList<List<MetaMapping>> result) {
+    private static void parsePatterns(int outputId, @NotNull String property, ArrayList<MetaRule> result) {
         val parts = StringUtils.split(property, null);
         for (val part : parts) {
-            parsePattern(outputId, part, result);
+            val rule = MetaRule.parse(PROP_FILE_NAME, outputId, part);
+            if (rule != null) {
+                result.add(rule);
+            }
         }
     }
 
-    private static void parsePattern(int outputId, @NotNull String pattern, ArrayList<List<MetaMapping>> result) {
-        val parts = StringUtils.split(pattern, ':');
-        final String modId;
-        final String block;
-        final int metaStartOffset;
-        if (parts.length >= 2 && isBlockName(parts[1])) {
-            modId = parts[0];
-            block = parts[1];
-            metaStartOffset = 2;
-        } else {
-            modId = "minecraft";
-            block = parts[0];
-            metaStartOffset = 1;
-        }
-        if (block.isEmpty()) {
-            //TODO log warning
-            return;
-        }
-        val blocks = resolveBlocksIDs(modId, block);
-        if (blocks == null) {
-            //TODO log warning
-            return;
-        }
-
-        for (int i = 0, blocksSize = blocks.size(); i < blocksSize; i++) {
-            val blockId = blocks.getInt(i);
-            final IntSet metas;
-            if (parts.length <= metaStartOffset) {
-                metas = null;
-            } else {
-                metas = resolveBlockMetas(parts[metaStartOffset]);
-                if (metas == null) {
-                    //TODO log warning
-                    continue;
-                }
-            }
-            result.ensureCapacity(blockId);
-            while (blockId >= result.size()) {
-                result.add(null);
-            }
-            var mappingsList = result.get(blockId);
-            if (mappingsList == null) {
-                result.set(blockId, mappingsList = new ArrayList<>());
+    private static @NotNull Table compile(@NotNull List<MetaRule> rules) {
+        val patterns = new ArrayList<@Nullable List<MetaMapping>>();
+        for (val rule : rules) {
+            val blocks = resolveBlocksIDs(rule);
+            if (blocks == null) {
+                Share.log.warn("Unknown block in {}: {}", PROP_FILE_NAME, rule);
+                continue;
             }
-            if (MetaMapping.mergeInto(mappingsList, outputId, metas) == MetaMapping.Status.DuplicateWildcard) {
-                Share.log.warn("Duplicate wildcard values for block ID: {}", blockId);
+            for (int i = 0, blocksSize = blocks.size(); i < blocksSize; i++) {
+                val blockId = blocks.getInt(i);
+                patterns.ensureCapacity(blockId);
+                while (blockId >= patterns.size()) {
+                    patterns.add(null);
+                }
+                var mappingsList = patterns.get(blockId);
+                if (mappingsList == null) {
+                    patterns.set(blockId, mappingsList = new ArrayList<>());
+                }
+                if (MetaMapping.mergeInto(mappingsList, rule.outputId(), rule.metas()) ==
+                    MetaMapping.Status.DuplicateWildcard) {
+                    Share.log.warn("Duplicate wildcard values for block ID: {}", blockId);
+                }
             }
         }
-    }
 
-    private static boolean isBlockName(@NotNull String str) {
-        return !str.isEmpty() && !Character.isDigit(str.charAt(0)) && !str.contains("=");
+        val flatIds = Math.min(patterns.size(), MAX_FLAT_IDS);
+        val flat = new int[flatIds << META_BITS];
+        for (int id = 0; id < flatIds; id++) {
+            val mappings = patterns.get(id);
+            for (int meta = 0; meta <= META_MASK; meta++) {
+                flat[(id << META_BITS) | meta] = remap(mappings, id, meta);
+            }
+        }
+        return new Table(patterns, flat, flatIds);
     }
 
-    private static @Nullable IntList resolveBlocksIDs(@NotNull String modId, @NotNull String blockName) {
-        if (!Character.isDigit(blockName.charAt(0))) {
-            val block = GameRegistry.findBlock(modId, blockName);
-            if (block == null) {
-                return null;
-            } else {
-                return IntList.of(Block.getIdFromBlock(block));
+    private static int remap(@Nullable List<MetaMapping> mappings, int id, int meta) {
+        if (mappings == null) {
+            return id;
+        }
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0, mappingsSize = mappings.size(); i < mappingsSize; i++) {
+            var mapping = mappings.get(i);
+            if (mapping.matches(meta)) {
+                return mapping.outputID();
             }
         }
+        return id;
+    }
 
-        return IntParsingUtils.parseUnsignedIntMulti(blockName);
+    private static @Nullable IntList resolveBlocksIDs(@NotNull MetaRule rule) {
+        if (rule.isNumeric()) {
+            return rule.numericIds();
+        }
+        val block = GameRegistry.findBlock(rule.modId(), rule.name());
+        return block == null ? null : IntList.of(Block.getIdFromBlock(block));
     }
 
-    private static @Nullable IntSet resolveBlockMetas(@NotNull String str) {
-        if (str.isEmpty() || !Character.isDigit(str.charAt(0))) {
-            //TODO log warning
-            return null;
-        } else {
-            val theList = IntParsingUtils.parseUnsignedIntMulti(str);
-            return theList == null ? null : theList.size() < 8 ? new IntArraySet(theList) : new IntOpenHashSet(theList);
+    private static final class Table {
+        private final @NotNull List<@Nullable List<MetaMapping>> patterns;
+        private final int[] flat;
+        private final int flatIds;
+
+        private Table(@NotNull List<@Nullable List<MetaMapping>> patterns, int[] flat, int flatIds) {
+            this.patterns = patterns;
+            this.flat = flat;
+            this.flatIds = flatIds;
+        }
+
+        private int remapSlow(int id, int meta) {
+            if (id < 0 || id >= patterns.size()) {
+                return id;
+            }
+            return remap(patterns.get(id), id, meta);
         }
     }
 }
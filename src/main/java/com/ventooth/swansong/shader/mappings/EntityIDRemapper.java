@@ -0,0 +1,134 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.mappings;
+
+import com.ventooth.swansong.Share;
+import com.ventooth.swansong.resources.pack.ShaderPack;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import lombok.val;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityList;
+
+import java.util.Map;
+
+/**
+ * Maps entities to the IDs a shader pack's entity.properties asks for.
+ * <p>
+ * The mapped entity classes get resolved up front, so {@link #remap} is a single identity hash lookup keyed by the
+ * entity class. Entities that are not mapped keep the ID {@link EntityList#getEntityID} gives them, which is looked up
+ * once per class and then remembered.
+ * <p>
+ * Entities are named like in {@link EntityList}, {@code Creeper} or {@code modid.name}. A {@code minecraft:} prefix gets
+ * dropped, and {@code modid:name} is accepted for {@code modid.name}. Numbers refer to the global entity IDs. Entities
+ * have no metadata, entries with a {@code :meta} suffix are skipped with a warning.
+ * <p>
+ * {@link #remap} must only be called from the render thread.
+ */
+public class EntityIDRemapper {
+    private static final String PROP_FILE_NAME = "entity.properties";
+    private static final String KEY_PREFIX = "entity.";
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final @NotNull Reference2IntMap<Class<?>> byClass;
+
+    private EntityIDRemapper(@NotNull Reference2IntMap<Class<?>> byClass) {
+        this.byClass = byClass;
+    }
+
+    public int remap(@NotNull Entity entity) {
+        val entityClass = entity.getClass();
+        var id = byClass.getInt(entityClass);
+        if (id == UNKNOWN) {
+            id = EntityList.getEntityID(entity);
+            byClass.put(entityClass, id);
+        }
+        return id;
+    }
+
+    public static @Nullable EntityIDRemapper createRemapper(@NotNull ShaderPack pack) {
+        val properties = OrderedProperties.load(pack, PROP_FILE_NAME);
+        if (properties == null) {
+            return null;
+        }
+        val byClass = new Reference2IntOpenHashMap<Class<?>>();
+        byClass.defaultReturnValue(UNKNOWN);
+        for (val prop : properties) {
+            val key = prop.getKey();
+            if (!key.startsWith(KEY_PREFIX)) {
+                continue;
+            }
+            final int outputId;
+            try {
+                outputId = Integer.parseInt(key.substring(KEY_PREFIX.length()));
+            } catch (NumberFormatException ignored) {
+                continue;
+            }
+            for (val name : StringUtils.split(prop.getValue(), null)) {
+                if (hasMeta(name)) {
+                    Share.log.warn("Entities have no metadata, skipping entry in {}: {}", PROP_FILE_NAME, name);
+                    continue;
+                }
+                val entityClass = resolveEntityClass(name);
+                if (entityClass == null) {
+                    Share.log.warn("Unknown entity in {}: {}", PROP_FILE_NAME, name);
+                    continue;
+                }
+                //First mapping wins
+                byClass.putIfAbsent(entityClass, outputId);
+            }
+        }
+        return byClass.isEmpty() ? null : new EntityIDRemapper(byClass);
+    }
+
+    /**
+     * @return if the name ends in a {@code :meta} suffix, like block.properties and item.properties entries may
+     */
+    private static boolean hasMeta(@NotNull String name) {
+        val separator = name.lastIndexOf(':');
+        return separator >= 0 && separator + 1 < name.length() && Character.isDigit(name.charAt(separator + 1));
+    }
+
+    private static @Nullable Class<?> resolveEntityClass(@NotNull String name) {
+        if (Character.isDigit(name.charAt(0))) {
+            val id = IntParsingUtils.parseUnsignedInt(name);
+            return id < 0 ? null : EntityList.getClassFromID(id);
+        }
+        @SuppressWarnings("unchecked") final Map<String, Class<?>> byName = EntityList.stringToClassMapping;
+        var entityClass = byName.get(name);
+        if (entityClass != null) {
+            return entityClass;
+        }
+        val separator = name.indexOf(':');
+        if (separator < 0) {
+            return null;
+        }
+        if (name.startsWith("minecraft:")) {
+            val vanillaName = name.substring("minecraft:".length());
+            entityClass = byName.get(vanillaName);
+            if (entityClass == null) {
+                //Newer packs use lowercase names, like minecraft:creeper
+                for (val entry : byName.entrySet()) {
+                    if (entry.getKey()
+                             .equalsIgnoreCase(vanillaName)) {
+                        return entry.getValue();
+                    }
+                }
+            }
+            return entityClass;
+        }
+        return byName.get(name.substring(0, separator) + '.' + name.substring(separator + 1));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.mappings;
+
+import com.ventooth.swansong.Share;
+import com.ventooth.swansong.resources.pack.ShaderPack;
+import it.unimi.dsi.fastutil.ints.IntList;
+import lombok.val;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import net.minecraft.item.Item;
+import cpw.mods.fml.common.registry.GameRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps item IDs and damage values to the IDs a shader pack's item.properties asks for.
+ * <p>
+ * Entries are written like in block.properties, see {@link MetaRule}. The rules get compiled into a flat table indexed
+ * by item ID, IDs that are not mapped map to themselves. Only the items with rules for specific damage values go
+ * through their mapping lists. Item names are resolved against the {@link GameRegistry} when compiling, call
+ * {@link #rebuild()} once the item IDs change to compile the same rules against the new IDs.
+ * <p>
+ * {@link #remap} may be called from any thread.
+ */
+public class ItemIDRemapper {
+    private static final String PROP_FILE_NAME = "item.properties";
+    private static final String KEY_PREFIX = "item.";
+    private static final int MAX_IDS = 1 << 16;
+
+    private final @NotNull List<MetaRule> rules;
+    private volatile @NotNull Table table;
+
+    private ItemIDRemapper(@NotNull List<MetaRule> rules) {
+        this.rules = rules;
+        this.table = compile(rules);
+    }
+
+    public int remap(int id, int meta) {
+        val table = this.table;
+        if (id < 0 || id >= table.flat.length) {
+            return id;
+        }
+        val mappings = table.byMeta[id];
+        return mappings == null ? table.flat[id] : remap(mappings, id, meta);
+    }
+
+    /**
+     * Resolves the item names again, for when the registry assigned new IDs.
+     */
+    public void rebuild() {
+        table = compile(rules);
+    }
+
+    public static @Nullable ItemIDRemapper createRemapper(@NotNull ShaderPack pack) {
+        val properties = OrderedProperties.load(pack, PROP_FILE_NAME);
+        if (properties == null) {
+            return null;
+        }
+        ArrayList<MetaRule> rules = null;
+        for (val prop : properties) {
+            val key = prop.getKey();
+            if (!key.startsWith(KEY_PREFIX)) {
+                continue;
+            }
+            final int outputId;
+            try {
+                outputId = Integer.parseInt(key.substring(KEY_PREFIX.length()));
+            } catch (NumberFormatException ignored) {
+                continue;
+            }
+            for (val item : StringUtils.split(prop.getValue(), null)) {
+                val rule = MetaRule.parse(PROP_FILE_NAME, outputId, item);
+                if (rule == null) {
+                    continue;
+                }
+                if (rules == null) {
+                    rules = new ArrayList<>();
+                }
+                rules.add(rule);
+            }
+        }
+        return rules == null ? null : new ItemIDRemapper(rules);
+    }
+
+    private static @NotNull Table compile(@NotNull List<MetaRule> rules) {
+        val patterns = new ArrayList<@Nullable List<MetaMapping>>();
+        for (val rule : rules) {
+            val items = resolveItemIDs(rule);
+            if (items == null) {
+                Share.log.warn("Unknown item in {}: {}", PROP_FILE_NAME, rule);
+                continue;
+            }
+            for (int i = 0, itemsSize = items.size(); i < itemsSize; i++) {
+                val itemId = items.getInt(i);
+                if (itemId >= MAX_IDS) {
+                    continue;
+                }
+                while (itemId >= patterns.size()) {
+                    patterns.add(null);
+                }
+                var mappingsList = patterns.get(itemId);
+                if (mappingsList == null) {
+                    patterns.set(itemId, mappingsList = new ArrayList<>());
+                }
+                //First mapping wins
+                MetaMapping.mergeInto(mappingsList, rule.outputId(), rule.metas());
+            }
+        }
+
+        val size = patterns.size();
+        val flat = new int[size];
+        @SuppressWarnings("unchecked") val byMeta = (List<MetaMapping>[]) new List<?>[size];
+        for (int id = 0; id < size; id++) {
+            val mappings = patterns.get(id);
+            if (mappings == null) {
+                flat[id] = id;
+            } else if (mappings.get(0)
+                               .pattern() == null) {
+                //Nothing comes before the wildcard
+                flat[id] = mappings.get(0)
+                                   .outputID();
+            } else {
+                byMeta[id] = mappings;
+            }
+        }
+        return new Table(flat, byMeta);
+    }
+
+    private static int remap(@NotNull List<MetaMapping> mappings, int id, int meta) {
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0, mappingsSize = mappings.size(); i < mappingsSize; i++) {
+            val mapping = mappings.get(i);
+            if (mapping.matches(meta)) {
+                return mapping.outputID();
+            }
+        }
+        return id;
+    }
+
+    private static @Nullable IntList resolveItemIDs(@NotNull MetaRule rule) {
+        if (rule.isNumeric()) {
+            return rule.numericIds();
+        }
+        val item = GameRegistry.findItem(rule.modId(), rule.name());
+        return item == null ? null : IntList.of(Item.getIdFromItem(item));
+    }
+
+    private static final class Table {
+        private final int[] flat;
+        /**
+         * The mapping lists of the items with rules for specific damage values, null for the others.
+         */
+        private final @Nullable List<MetaMapping> @NotNull [] byMeta;
+
+        private Table(int[] flat, @Nullable List<MetaMapping> @NotNull [] byMeta) {
+            this.flat = flat;
+            this.byMeta = byMeta;
+        }
+    }
+}
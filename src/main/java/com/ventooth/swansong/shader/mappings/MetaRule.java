@@ -0,0 +1,121 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.mappings;
+
+import com.ventooth.swansong.Share;
+import it.unimi.dsi.fastutil.ints.IntArraySet;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import lombok.val;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * One entry of block.properties or item.properties: {@code name}, {@code modid:name}, or either followed by
+ * {@code :meta}, where the name may also be a raw ID or a range of them, and the meta a list of values and ranges, like
+ * {@code minecraft:wool:1,3-5} or {@code 35:14}.
+ */
+final class MetaRule {
+    private final int outputId;
+    private final @NotNull String modId;
+    private final @NotNull String name;
+    private final @Nullable IntSet metas;
+
+    private MetaRule(int outputId, @NotNull String modId, @NotNull String name, @Nullable IntSet metas) {
+        this.outputId = outputId;
+        this.modId = modId;
+        this.name = name;
+        this.metas = metas;
+    }
+
+    /**
+     * @return null, with a warning logged, if the entry does not parse
+     */
+    static @Nullable MetaRule parse(@NotNull String fileName, int outputId, @NotNull String pattern) {
+        val parts = StringUtils.split(pattern, ':');
+        final String modId;
+        final String name;
+        final int metaStartOffset;
+        if (parts.length >= 2 && isName(parts[1])) {
+            modId = parts[0];
+            name = parts[1];
+            metaStartOffset = 2;
+        } else {
+            modId = "minecraft";
+            name = parts.length == 0 ? "" : parts[0];
+            metaStartOffset = 1;
+        }
+        if (name.isEmpty()) {
+            Share.log.warn("Invalid entry in {}: {}", fileName, pattern);
+            return null;
+        }
+        final IntSet metas;
+        if (parts.length <= metaStartOffset) {
+            metas = null;
+        } else {
+            metas = parseMetas(parts[metaStartOffset]);
+            if (metas == null) {
+                Share.log.warn("Invalid metadata in {}: {}", fileName, pattern);
+                return null;
+            }
+        }
+        return new MetaRule(outputId, modId, name, metas);
+    }
+
+    private static boolean isName(@NotNull String str) {
+        return !str.isEmpty() && !Character.isDigit(str.charAt(0)) && !str.contains("=");
+    }
+
+    private static @Nullable IntSet parseMetas(@NotNull String str) {
+        if (str.isEmpty() || !Character.isDigit(str.charAt(0))) {
+            return null;
+        }
+        val theList = IntParsingUtils.parseUnsignedIntMulti(str);
+        return theList == null ? null : theList.size() < 8 ? new IntArraySet(theList) : new IntOpenHashSet(theList);
+    }
+
+    public int outputId() {
+        return outputId;
+    }
+
+    public @NotNull String modId() {
+        return modId;
+    }
+
+    public @NotNull String name() {
+        return name;
+    }
+
+    /**
+     * @return null if every meta matches
+     */
+    public @Nullable IntSet metas() {
+        return metas;
+    }
+
+    public boolean isNumeric() {
+        return Character.isDigit(name.charAt(0));
+    }
+
+    /**
+     * @return the raw IDs a numeric name refers to, null if there are none
+     */
+    public @Nullable IntList numericIds() {
+        return IntParsingUtils.parseUnsignedIntMulti(name);
+    }
+
+    @Override
+    public String toString() {
+        return modId + ':' + name + (metas != null ? ":" + metas : "");
+    }
+}
@@ -10,9 +10,12 @@
 
 package com.ventooth.swansong.shader.mappings;
 
+import com.ventooth.swansong.resources.pack.ShaderPack;
 import lombok.val;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -21,6 +24,28 @@ import java.util.Properties;
 public final class OrderedProperties extends Properties implements Iterable<Map.Entry<String, String>> {
     private final Map<String, String> map = new LinkedHashMap<>();
 
+    /**
+     * @return the properties file at the root of the pack, or null if it is missing or could not be read
+     */
+    public static @Nullable OrderedProperties load(@NotNull ShaderPack pack, @NotNull String fileName) {
+        val path = pack.absolutize(null, fileName);
+        try {
+            if (!pack.has(path)) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        val properties = new OrderedProperties();
+        try (val input = pack.get(path)) {
+            properties.load(input);
+        } catch (IOException e) {
+            return null;
+        }
+        return properties;
+    }
+
     @Override
     public @NotNull Iterator<Map.Entry<String, String>> iterator() {
         return map.entrySet()
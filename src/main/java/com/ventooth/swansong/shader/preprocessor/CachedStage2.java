@@ -0,0 +1,57 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.preprocessor;
+
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.Unmodifiable;
+
+import java.util.List;
+
+/**
+ * Everything needed to restore a stage 2 result without running the macro interpreter again.
+ *
+ * @see ShaderPreprocessor.PreprocessorStage2Suspend#toCached()
+ * @see ShaderPreprocessor.PreprocessorStage1Suspend#restoreStage2
+ */
+//TODO convert to record
+public final class CachedStage2 {
+    private final byte @NotNull [] source;
+    private final @Nullable IntList renderTargets;
+    private final @NotNull @Unmodifiable List<TaggedLine> constLines;
+
+    public CachedStage2(byte @NotNull [] source,
+                        @Nullable IntList renderTargets,
+                        @NotNull @Unmodifiable List<TaggedLine> constLines) {
+        this.source = source;
+        this.renderTargets = renderTargets;
+        this.constLines = constLines;
+    }
+
+    /**
+     * The printed source, without a null terminator.
+     */
+    public byte @NotNull [] source() {
+        return source;
+    }
+
+    public @Nullable IntList renderTargets() {
+        return renderTargets;
+    }
+
+    /**
+     * The lines the stage 2 constants were found in, only the text and the tag are meaningful.
+     */
+    public @NotNull @Unmodifiable List<TaggedLine> constLines() {
+        return constLines;
+    }
+}
@@ -10,8 +10,10 @@
 
 package com.ventooth.swansong.shader.preprocessor;
 
+import com.ventooth.swansong.shader.preprocessor.util.IncludeCache;
 import lombok.val;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -53,4 +55,18 @@ public interface FSProvider {
     @NotNull InputStream get(String path) throws IOException;
 
     boolean has(String path) throws IOException;
+
+    /**
+     * If {@link #get} and {@link #has} may be called from multiple threads at the same time.
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Parsed source files shared between all shaders loaded from this provider, null if the contents may change.
+     */
+    default @Nullable IncludeCache includeCache() {
+        return null;
+    }
 }
@@ -11,7 +11,7 @@
 package com.ventooth.swansong.shader.preprocessor;
 
 import com.falsepattern.lib.util.MathUtil;
-import com.ventooth.swansong.MicroCache;
+import com.ventooth.swansong.shader.preprocessor.util.OptionScanner;
 import it.unimi.dsi.fastutil.booleans.BooleanConsumer;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectRBTreeMap;
@@ -31,7 +31,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.DoubleConsumer;
-import java.util.regex.Pattern;
 
 @AllArgsConstructor
 public abstract class Option {
@@ -43,12 +42,6 @@ public abstract class Option {
     protected final int defaultValue;
     protected int currentValue;
 
-    public static void purgeCaches() {
-        Const.cacheC.purge();
-        Const.cacheNC.purge();
-        Define.cache.purge();
-    }
-
     public Value getCurrentValue() {
         return legalValues.get(currentValue);
     }
@@ -155,27 +148,7 @@ public abstract class Option {
 
     public abstract String uniqueName();
 
-    //language=regexp
-    private static final String REGEX_NAME = "(\\w+)";
-    //language=regexp
-    private static final String REGEX_VALUE = "([\\w.-]+)";
-    //language=regexp
-    private static final String REGEX_ALLOWED = "\\s*(?://(?:.*?\\[(.*?)])?.*)?$";
-
     public static class Const extends Option {
-        private static final int GROUP_TYPE = 1;
-        private static final int GROUP_NAME = 2;
-        private static final int GROUP_VALUE = 3;
-        private static final int GROUP_ALLOWED = 4;
-        private static final Pattern CONST_REGEX = Pattern.compile("^\\s*const\\s+" +
-                                                                   REGEX_NAME +
-                                                                   "\\s+" +
-                                                                   REGEX_NAME +
-                                                                   "\\s*=\\s*" +
-                                                                   REGEX_VALUE +
-                                                                   "\\s*;" +
-                                                                   REGEX_ALLOWED);
-
         public final String type;
         public final boolean definedInComment;
 
@@ -193,12 +166,13 @@ public abstract class Option {
 
         public static Int2ObjectMap<Option> find(List<TaggedLine> code, boolean readonly) {
             val output = new Int2ObjectRBTreeMap<Option>();
+            val scanner = new OptionScanner();
             val size = code.size();
             for (int i = 0; i < size; i++) {
                 val line = code.get(i);
                 val opt = switch (line.tag()) {
-                    case Standard -> Const.get(line.text(), readonly, false);
-                    case MultilineComment -> Const.get(line.text(), true, true);
+                    case Standard -> Const.get(scanner, line.text(), readonly, false);
+                    case MultilineComment -> Const.get(scanner, line.text(), true, true);
                     case Macro -> null;
                 };
                 if (opt != null) {
@@ -208,24 +182,14 @@ public abstract class Option {
             return output;
         }
 
-        private static final MicroCache<String, Const> cacheC = new MicroCache<>();
-        private static final MicroCache<String, Const> cacheNC = new MicroCache<>();
-
-        private static Const get(String code, boolean readonly, boolean definedInComment) {
-            val v = definedInComment ? cacheC.getCached(code, c -> getUncached(c, true))
-                                     : cacheNC.getCached(code, c -> getUncached(c, false));
-            return v == null ? null : v.copy(readonly);
-        }
-
-        private static Const getUncached(String code, boolean definedInComment) {
-            val match = CONST_REGEX.matcher(code);
-            if (!match.matches()) {
+        private static Const get(OptionScanner scanner, String code, boolean readonly, boolean definedInComment) {
+            if (!scanner.scanConst(code)) {
                 return null;
             }
-            val type = match.group(GROUP_TYPE);
-            val name = match.group(GROUP_NAME);
-            val value = Value.detect(match.group(GROUP_VALUE));
-            val allowed = Option.tryParseAllowedGroup(value, match.group(GROUP_ALLOWED));
+            val type = scanner.type();
+            val name = scanner.name();
+            val value = Value.detect(scanner.value());
+            val allowed = Option.tryParseAllowedGroup(value, scanner.allowed());
             if (allowed == null) {
                 if (value instanceof Value.Bool) {
                     int idx = valueIndexOf(value, TOGGLE_VALUES);
@@ -240,7 +204,13 @@ public abstract class Option {
                                  0);
             } else {
                 int idx = valueIndexOf(value, allowed);
-                return new Const(type, name, State.Readonly, allowed, definedInComment, idx, idx);
+                return new Const(type,
+                                 name,
+                                 readonly ? State.Readonly : State.Mutable,
+                                 allowed,
+                                 definedInComment,
+                                 idx,
+                                 idx);
             }
         }
 
@@ -273,17 +243,6 @@ public abstract class Option {
     }
 
     public static class Define extends Option {
-        private static final int GROUP_DISABLED = 1;
-        private static final int GROUP_NAME = 2;
-        private static final int GROUP_VALUE = 3;
-        private static final int GROUP_ALLOWED = 4;
-        private static final Pattern DEFINE_REGEX = Pattern.compile("^\\s*(//)?\\s*#define\\s+" +
-                                                                    REGEX_NAME +
-                                                                    "(?:\\s+" +
-                                                                    REGEX_VALUE +
-                                                                    ")?" +
-                                                                    REGEX_ALLOWED);
-
         private Define(String name,
                        State state,
                        List<? extends Value> legalValues,
@@ -294,11 +253,12 @@ public abstract class Option {
 
         public static Int2ObjectMap<Option> find(List<TaggedLine> code, boolean readonly) {
             val output = new Int2ObjectRBTreeMap<Option>();
+            val scanner = new OptionScanner();
             val size = code.size();
             for (int i = 0; i < size; i++) {
                 val line = code.get(i);
                 val opt = switch (line.tag()) {
-                    case Standard, Macro -> Define.get(line.text(), readonly);
+                    case Standard, Macro -> Define.get(scanner, line.text(), readonly);
                     case MultilineComment -> null;
                 };
                 if (opt != null) {
@@ -308,36 +268,27 @@ public abstract class Option {
             return output;
         }
 
-        private static final MicroCache<String, Define> cache = new MicroCache<>();
-
-        private static Define get(String code, boolean readonly) {
-            val v = cache.getCached(code, Define::getUncached);
-            return v == null ? null : v.copy(readonly);
-        }
-
-        private static Define getUncached(String code) {
-            val match = DEFINE_REGEX.matcher(code);
-            if (!match.matches()) {
+        private static Define get(OptionScanner scanner, String code, boolean readonly) {
+            if (!scanner.scanDefine(code)) {
                 return null;
             }
-            val disabled = match.group(GROUP_DISABLED);
-            val name = match.group(GROUP_NAME);
-            val valueStr = match.group(GROUP_VALUE);
+            val disabled = scanner.disabled();
+            val valueStr = scanner.value();
             if (valueStr != null) {
-                if (disabled != null) {
+                if (disabled) {
                     return null;
                 }
                 val value = Value.detect(valueStr);
-                val allowed = Option.tryParseAllowedGroup(value, match.group(GROUP_ALLOWED));
+                val allowed = Option.tryParseAllowedGroup(value, scanner.allowed());
                 if (allowed == null) {
-                    return new Define(name, State.Unconfigurable, Collections.singletonList(value), 0, 0);
+                    return new Define(scanner.name(), State.Unconfigurable, Collections.singletonList(value), 0, 0);
                 } else {
                     val idx = valueIndexOf(value, allowed);
-                    return new Define(name, State.Readonly, allowed, idx, idx);
+                    return new Define(scanner.name(), readonly ? State.Readonly : State.Mutable, allowed, idx, idx);
                 }
             } else {
-                val idx = disabled == null ? 1 : 0;
-                return new Define(name, State.Readonly, TOGGLE_VALUES, idx, idx);
+                val idx = disabled ? 0 : 1;
+                return new Define(scanner.name(), readonly ? State.Readonly : State.Mutable, TOGGLE_VALUES, idx, idx);
             }
         }
 
@@ -380,9 +331,8 @@ public abstract class Option {
         if (allowedGroup == null) {
             return null;
         } else {
-            val allowedStr = allowedGroup.trim()
-                                         .split("\\s+");
-            if (allowedStr.length == 0) {
+            val allowedStr = splitWhitespace(allowedGroup.trim());
+            if (allowedStr.isEmpty()) {
                 return null;
             } else {
                 boolean anyMatch = false;
@@ -405,6 +355,27 @@ public abstract class Option {
         }
     }
 
+    /**
+     * Same as {@code str.split("\\s+")} for already trimmed strings.
+     */
+    private static List<String> splitWhitespace(String str) {
+        val result = new ArrayList<String>();
+        val len = str.length();
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            if (OptionScanner.isWhitespace(str.charAt(i))) {
+                if (i > start) {
+                    result.add(str.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        if (start < len || result.isEmpty()) {
+            result.add(str.substring(start, len));
+        }
+        return result;
+    }
+
     private static int valueIndexOf(Value expect, List<? extends Value> possible) {
         val size = possible.size();
         for (int i = 0; i < size; i++) {
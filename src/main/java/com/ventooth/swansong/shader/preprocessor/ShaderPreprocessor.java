@@ -11,12 +11,15 @@
 package com.ventooth.swansong.shader.preprocessor;
 
 import com.ventooth.swansong.Share;
+import com.ventooth.swansong.shader.preprocessor.macro.MacroExpressionInterpreter;
 import com.ventooth.swansong.shader.preprocessor.macro.MacroInterpreter;
 import com.ventooth.swansong.shader.preprocessor.util.CodePrinter;
 import com.ventooth.swansong.shader.preprocessor.util.RecursiveIncluder;
 import com.ventooth.swansong.shader.preprocessor.util.StringUtils;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.val;
@@ -30,6 +33,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -41,10 +45,19 @@ import java.util.function.Consumer;
 @RequiredArgsConstructor
 public class ShaderPreprocessor {
     private final FSProvider fs;
-    private RecyclableOutputContext context;
+    private final ThreadLocal<RecyclableOutputContext> context = ThreadLocal.withInitial(RecyclableOutputContext::new);
+    private final MacroExpressionInterpreter.ExpressionCache expressions =
+            new MacroExpressionInterpreter.ExpressionCache();
 
     //region api
 
+    /**
+     * If stage 1 and stage 2 may be run for different files on multiple threads at the same time.
+     */
+    public boolean isThreadSafe() {
+        return fs.isThreadSafe();
+    }
+
     public @Nullable String getString(String path,
                                       boolean glsl,
                                       Consumer<ShaderStage1Meta> stage1Configurer,
@@ -70,9 +83,7 @@ public class ShaderPreprocessor {
     }
 
     /**
-     * The previously returned buffer gets invalidated when this function is called again.
-     * <p>
-     * This function is NOT thread-safe.
+     * The previously returned buffer gets invalidated when this function is called again on the same thread.
      */
     @SneakyThrows
     public @Nullable ByteBuffer getNativeBuffer(String path,
@@ -88,6 +99,13 @@ public class ShaderPreprocessor {
         }
     }
 
+    /**
+     * Drops the compiled {@code #if} expressions, call once nothing is going to be preprocessed for a while.
+     */
+    public void purgeCaches() {
+        expressions.clear();
+    }
+
     public PreprocessorStage1Suspend runStage1(String path, boolean glsl, Consumer<ShaderStage1Meta> stage1Configurer) {
         val includer = new RecursiveIncluder(fs);
         if (!includer.read(path)) {
@@ -128,11 +146,19 @@ public class ShaderPreprocessor {
         return sprint.toString();
     }
 
-    private @NotNull ByteBuffer sourceToNativeBuffer(PreprocessedCode sources, boolean nullTerminator) {
-        var context = this.context;
-        if (context == null) {
-            context = this.context = new RecyclableOutputContext();
+    private @NotNull ByteBuffer bytesToNativeBuffer(byte @NotNull [] source, boolean nullTerminator) {
+        val context = this.context.get();
+        context.reset();
+        val out = context.outputStream;
+        out.write(source, 0, source.length);
+        if (nullTerminator) {
+            out.write(0);
         }
+        return context.toNativeBuffer();
+    }
+
+    private @NotNull ByteBuffer sourceToNativeBuffer(PreprocessedCode sources, boolean nullTerminator) {
+        val context = this.context.get();
         context.reset();
         val out = context.outputStream;
         try (val pw = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), false)) {
@@ -171,6 +197,7 @@ public class ShaderPreprocessor {
                                                                rawCode,
                                                                meta.fileNameIndices,
                                                                stage1Macros,
+                                                               expressions,
                                                                glsl);
 
             val glslData = glsl ? Objects.requireNonNull(interpreterResult.glsl()) : null;
@@ -201,47 +228,189 @@ public class ShaderPreprocessor {
                 }
             }
 
+            val renderTargets = glsl ? glslData.renderTargets() : null;
+            val stage2ConstOptions = glsl ? Option.Const.find(preprocessedCode, false) : null;
+            val constNames = new ObjectLinkedOpenHashSet<String>();
+            if (stage2ConstOptions != null) {
+                for (val opt : stage2ConstOptions.values()) {
+                    constNames.add(opt.name);
+                }
+            }
+            val dependencies = new Stage2Dependencies(interpreterResult.consumedOptions(),
+                                                      defOptions,
+                                                      Collections.unmodifiableList(new ArrayList<>(constNames)));
+            configureStage2(renderTargets, stage2ConstOptions, stage2Configurer);
+            return new PreprocessorStage2Suspend(stage2DefOptions,
+                                                 stage2ConstOptions,
+                                                 prelude,
+                                                 preprocessedCode,
+                                                 renderTargets,
+                                                 dependencies);
+        }
+
+        /**
+         * If a {@link #runStage2} of this file would only consume the same define values as the run that recorded the
+         * dependencies, provided the file contents and the stage 1 macros are the same as back then.
+         * <p>
+         * Constants are not checked, see {@link Stage2Dependencies#constNames()}.
+         */
+        public boolean dependenciesMatch(Stage2Dependencies dependencies) {
+            return dependencies.definesMatch(defOptions);
+        }
+
+        /**
+         * Skips the macro interpreter, and restores the result of a previous {@link #runStage2} call of the same file
+         * with the same stage 1 configuration instead.
+         * <p>
+         * The configurer gets called the same way as in {@link #runStage2}.
+         */
+        public PreprocessorStage2Suspend restoreStage2(CachedStage2 cached,
+                                                       Consumer<ShaderStage2Meta> stage2Configurer) {
+            val stage2ConstOptions = glsl ? Option.Const.find(cached.constLines(), false) : null;
+            configureStage2(cached.renderTargets(), stage2ConstOptions, stage2Configurer);
+            return new PreprocessorStage2Suspend(cached.source(), cached.renderTargets());
+        }
+
+        public ShaderStage1Meta meta() {
+            return meta;
+        }
+
+        /**
+         * Feeds everything stage 2 reads from the pack files into the digest, which is every line of the file and its
+         * includes, along with where it came from.
+         */
+        public void digestSource(MessageDigest digest) {
+            for (val fileName : meta.fileNameIndices) {
+                digest.update(fileName.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            val header = ByteBuffer.allocate(4 * Integer.BYTES);
+            for (val line : rawCode) {
+                val text = line.text()
+                               .getBytes(StandardCharsets.UTF_8);
+                header.clear();
+                header.putInt(line.file())
+                      .putInt(line.line())
+                      .putInt(line.tag()
+                                  .ordinal() << 1 | (line.lineBreak() ? 1 : 0))
+                      .putInt(text.length);
+                digest.update(header.array());
+                digest.update(text);
+            }
+        }
+
+        private void configureStage2(@Nullable IntList renderTargets,
+                                     @Nullable Int2ObjectMap<Option> stage2ConstOptions,
+                                     Consumer<ShaderStage2Meta> stage2Configurer) {
             val stage2DefOptionsNamed = new HashMap<String, Option>();
             val stage2DefOptionsList = deduplicateOptions(defOptions, stage2DefOptionsNamed);
-            val stage2ConstOptions = glsl ? Option.Const.find(preprocessedCode, false) : null;
             val stage2ConstOptionsNamed = glsl ? new HashMap<String, Option>() : null;
             val stage2ConstOptionsList = glsl ? deduplicateOptions(stage2ConstOptions, stage2ConstOptionsNamed) : null;
-            val stage2 = new ShaderStage2Meta(glsl ? glslData.renderTargets() : null,
+            val stage2 = new ShaderStage2Meta(renderTargets,
                                               stage2DefOptionsList,
                                               stage2DefOptionsNamed,
                                               stage2ConstOptionsList,
                                               stage2ConstOptionsNamed);
             stage2Configurer.accept(stage2);
-            return new PreprocessorStage2Suspend(stage2DefOptions, stage2ConstOptions, prelude, preprocessedCode);
         }
     }
 
-    @RequiredArgsConstructor
     public final class PreprocessorStage2Suspend {
         private final Int2ObjectMap<Option> defOptions;
         private final Int2ObjectMap<Option> constOptions;
         private final List<String> prelude;
         private final List<TaggedLine> preprocessedCode;
+        private final @Nullable IntList renderTargets;
+        private final @Nullable Stage2Dependencies dependencies;
+        private byte @Nullable [] source;
+
+        private PreprocessorStage2Suspend(Int2ObjectMap<Option> defOptions,
+                                          Int2ObjectMap<Option> constOptions,
+                                          List<String> prelude,
+                                          List<TaggedLine> preprocessedCode,
+                                          @Nullable IntList renderTargets,
+                                          Stage2Dependencies dependencies) {
+            this.defOptions = defOptions;
+            this.constOptions = constOptions;
+            this.prelude = prelude;
+            this.preprocessedCode = preprocessedCode;
+            this.renderTargets = renderTargets;
+            this.dependencies = dependencies;
+        }
+
+        private PreprocessorStage2Suspend(byte @NotNull [] source, @Nullable IntList renderTargets) {
+            this.defOptions = null;
+            this.constOptions = null;
+            this.prelude = null;
+            this.preprocessedCode = null;
+            this.renderTargets = renderTargets;
+            this.dependencies = null;
+            this.source = source;
+        }
 
+        /**
+         * What the output was built from, null if it was restored instead of being interpreted.
+         */
+        public @Nullable Stage2Dependencies dependencies() {
+            return dependencies;
+        }
 
         public @NotNull String getString() {
+            val source = this.source;
+            if (source != null) {
+                return new String(source, StandardCharsets.UTF_8);
+            }
             return sourceToString(getSources());
         }
 
         public byte @NotNull [] getBytes() {
+            val source = this.source;
+            if (source != null) {
+                return source.clone();
+            }
             return sourceToByteArray(getSources());
         }
 
         /**
-         * The previously returned buffer gets invalidated when this function is called again.
-         * <p>
-         * This function is NOT thread-safe.
+         * The previously returned buffer gets invalidated when this function is called again on the same thread.
          */
         @SneakyThrows
         public @NotNull ByteBuffer getNativeBuffer(boolean nullTerminator) {
+            val source = this.source;
+            if (source != null) {
+                return bytesToNativeBuffer(source, nullTerminator);
+            }
             return sourceToNativeBuffer(getSources(), nullTerminator);
         }
 
+        /**
+         * Prints the source once and keeps it, so options must not be modified after calling this.
+         * <p>
+         * The returned array is shared, and must not be modified.
+         */
+        public byte @NotNull [] pinnedSource() {
+            var source = this.source;
+            if (source == null) {
+                source = this.source = sourceToByteArray(getSources());
+            }
+            return source;
+        }
+
+        /**
+         * Captures everything {@link PreprocessorStage1Suspend#restoreStage2} needs, see {@link #pinnedSource()}.
+         */
+        public @NotNull CachedStage2 toCached() {
+            val source = pinnedSource();
+            val constLines = new ArrayList<TaggedLine>();
+            if (constOptions != null) {
+                for (val entry : constOptions.int2ObjectEntrySet()) {
+                    val line = preprocessedCode.get(entry.getIntKey());
+                    constLines.add(new TaggedLine(0, 0, line.text(), true, line.tag()));
+                }
+            }
+            return new CachedStage2(source, renderTargets, Collections.unmodifiableList(constLines));
+        }
+
         private PreprocessedCode getSources() {
             val mergedOpts = new Int2ObjectOpenHashMap<Option>();
 
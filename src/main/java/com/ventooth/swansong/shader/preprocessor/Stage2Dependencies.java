@@ -0,0 +1,98 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.preprocessor;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.Unmodifiable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The option values a stage 2 run consumed, on top of the file contents and the stage 1 macros.
+ * <p>
+ * These are the defines of every option line the macro interpreter reached, with the values they had, and the names of
+ * the constants that made it into the output. Options that only appear in skipped branches are not part of it, so
+ * changing them does not change the output.
+ *
+ * @see ShaderPreprocessor.PreprocessorStage2Suspend#dependencies()
+ * @see ShaderPreprocessor.PreprocessorStage1Suspend#dependenciesMatch
+ */
+public final class Stage2Dependencies {
+    private final int[] defineLines;
+    private final String[] defineNames;
+    private final Option.Value[] defineValues;
+    private final @Unmodifiable List<String> constNames;
+
+    Stage2Dependencies(IntList consumedOptions,
+                       Int2ObjectMap<Option> defOptions,
+                       @NotNull @Unmodifiable List<String> constNames) {
+        val size = consumedOptions.size();
+        defineLines = consumedOptions.toIntArray();
+        defineNames = new String[size];
+        defineValues = new Option.Value[size];
+        for (int i = 0; i < size; i++) {
+            val opt = defOptions.get(defineLines[i]);
+            defineNames[i] = opt.name;
+            defineValues[i] = opt.getCurrentValue();
+        }
+        this.constNames = constNames;
+    }
+
+    /**
+     * The names of every consumed define and constant.
+     */
+    public @NotNull @Unmodifiable Set<String> names() {
+        val names = new ObjectLinkedOpenHashSet<String>(defineNames.length + constNames.size());
+        names.addAll(Arrays.asList(defineNames));
+        names.addAll(constNames);
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Constants get their values from outside the preprocessor, so the caller has to keep track of those.
+     */
+    public @NotNull @Unmodifiable List<String> constNames() {
+        return constNames;
+    }
+
+    /**
+     * @param defOptions the define options of the same file contents, with their current values
+     */
+    boolean definesMatch(Int2ObjectMap<Option> defOptions) {
+        for (int i = 0; i < defineLines.length; i++) {
+            val opt = defOptions.get(defineLines[i]);
+            if (opt == null || !opt.name.equals(defineNames[i]) || !sameValue(opt.getCurrentValue(), defineValues[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stricter than {@link Option#valueMatches}, as the value gets printed as-is. Either may be null.
+     */
+    public static boolean sameValue(@Nullable Option.Value a, @Nullable Option.Value b) {
+        return a == b ||
+               (a != null &&
+                b != null &&
+                a.type() == b.type() &&
+                a.toString()
+                 .equals(b.toString()));
+    }
+}
@@ -15,94 +15,219 @@ import com.ventooth.swansong.mathparser.Lexer;
 import com.ventooth.swansong.mathparser.ParserException;
 import com.ventooth.swansong.mathparser.TokenType;
 import com.ventooth.swansong.shader.preprocessor.Option;
+import com.ventooth.swansong.shader.preprocessor.ShaderPreprocessor;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import lombok.val;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class MacroExpressionInterpreter extends AbstractParser<InterpreterValue> {
-    private final Map<String, Option.Value> defines;
-
+/**
+ * Expressions are compiled into a small tree once, and cached by their source text in an {@link ExpressionCache}.
+ * Compilation failures are cached as well.
+ * <p>
+ * {@code &&} and {@code ||} short-circuit, and the value of a define is only expanded once per {@link Scope}, until its
+ * defines change.
+ */
+public class MacroExpressionInterpreter extends AbstractParser<MacroExpressionInterpreter.Node> {
+    /**
+     * Compiles the expression without caching it, for one-off evaluations.
+     */
     public static InterpreterValue interpret(String code, Map<String, Option.Value> defines) throws ParserException {
-        int commentIndex = code.indexOf("//");
-        if (commentIndex >= 0) {
-            code = code.substring(0, commentIndex);
-        }
-        return new MacroExpressionInterpreter(new Lexer(code), defines).parse();
+        return interpret(code, new Scope(defines, new ExpressionCache()));
+    }
+
+    public static InterpreterValue interpret(String code, Scope scope) throws ParserException {
+        return scope.expressions.compile(code)
+                                .evaluate(scope);
     }
 
-    private MacroExpressionInterpreter(Lexer lexer, Map<String, Option.Value> defines) {
+    private static Node compile(String code) throws ParserException {
+        return new MacroExpressionInterpreter(new Lexer(code)).parse();
+    }
+
+    private MacroExpressionInterpreter(Lexer lexer) {
         super(lexer);
-        this.defines = defines;
     }
 
     @Override
-    protected InterpreterValue createFunctionCall(String name, List<InterpreterValue> args) throws ParserException {
+    protected Node createFunctionCall(String name, List<Node> args) throws ParserException {
         throw new ParserException("Macro interpreter cannot process functional macros!");
     }
 
     @Override
-    protected InterpreterValue createVariable(String name) throws ParserException {
+    protected Node createVariable(String name) throws ParserException {
         if (lexer.hasNext() && name.equals("defined")) {
             val lookahead = lexer.peek();
             if (lookahead.type() == TokenType.Identifier) {
                 lexer.next();
-                return new InterpreterValue.IntValue(defines.containsKey(lookahead.text()) ? 1 : 0);
+                val defineName = lookahead.text();
+                return scope -> new InterpreterValue.IntValue(scope.defines.containsKey(defineName) ? 1 : 0);
             }
         }
-        val define = defines.get(name);
-        if (define == null) {
-            return new InterpreterValue.IntValue(0);
-        }
-        return interpret(define.toString(), defines);
+        return scope -> scope.expand(name);
     }
 
     @Override
-    protected InterpreterValue createBinaryOperation(InterpreterValue left, InterpreterValue right, Operator operator) {
+    protected Node createBinaryOperation(Node left, Node right, Operator operator) {
         return switch (operator) {
-            case And -> new InterpreterValue.IntValue(left.asBool() && right.asBool() ? 1 : 0);
-            case Or -> new InterpreterValue.IntValue(left.asBool() || right.asBool() ? 1 : 0);
-            default -> operateUpcast(left, right, operator);
+            case And -> scope -> {
+                if (!left.evaluate(scope)
+                         .asBool()) {
+                    return new InterpreterValue.IntValue(0);
+                }
+                return new InterpreterValue.IntValue(right.evaluate(scope)
+                                                          .asBool() ? 1 : 0);
+            };
+            case Or -> scope -> {
+                if (left.evaluate(scope)
+                        .asBool()) {
+                    return new InterpreterValue.IntValue(1);
+                }
+                return new InterpreterValue.IntValue(right.evaluate(scope)
+                                                          .asBool() ? 1 : 0);
+            };
+            default -> scope -> operateUpcast(left.evaluate(scope), right.evaluate(scope), operator);
         };
     }
 
     @Override
-    protected InterpreterValue createIntegerConstant(int value) {
-        return new InterpreterValue.IntValue(value);
+    protected Node createIntegerConstant(int value) {
+        val constant = new InterpreterValue.IntValue(value);
+        return scope -> constant;
     }
 
     @Override
-    protected InterpreterValue createFloatConstant(double value) {
-        return new InterpreterValue.DoubleValue(value);
+    protected Node createFloatConstant(double value) {
+        val constant = new InterpreterValue.DoubleValue(value);
+        return scope -> constant;
     }
 
     @Override
-    protected InterpreterValue createBoolConstant(boolean value) {
-        return new InterpreterValue.IntValue(value ? 1 : 0);
+    protected Node createBoolConstant(boolean value) {
+        val constant = new InterpreterValue.IntValue(value ? 1 : 0);
+        return scope -> constant;
     }
 
     @Override
-    protected InterpreterValue createUnaryNot(InterpreterValue value) {
-        return new InterpreterValue.IntValue(value.asBool() ? 0 : 1);
+    protected Node createUnaryNot(Node value) {
+        return scope -> new InterpreterValue.IntValue(value.evaluate(scope)
+                                                           .asBool() ? 0 : 1);
     }
 
     @Override
-    protected InterpreterValue createUnaryMinus(InterpreterValue value) {
-        if (value instanceof InterpreterValue.IntValue i) {
-            return new InterpreterValue.IntValue(-i.value());
-        } else if (value instanceof InterpreterValue.DoubleValue d) {
-            return new InterpreterValue.DoubleValue(-d.value());
-        } else {
-            throw new AssertionError();
-        }
+    protected Node createUnaryMinus(Node value) {
+        return scope -> {
+            val v = value.evaluate(scope);
+            if (v instanceof InterpreterValue.IntValue i) {
+                return new InterpreterValue.IntValue(-i.value());
+            } else if (v instanceof InterpreterValue.DoubleValue d) {
+                return new InterpreterValue.DoubleValue(-d.value());
+            } else {
+                throw new AssertionError();
+            }
+        };
     }
 
     @Override
-    protected InterpreterValue createSwizzle(InterpreterValue value, int swizzleIndex) throws ParserException {
+    protected Node createSwizzle(Node value, int swizzleIndex) throws ParserException {
         throw new ParserException("Macro interpreter cannot process vector swizzles!");
     }
 
-    private InterpreterValue operateUpcast(InterpreterValue left, InterpreterValue right, Operator operator) {
+    interface Node {
+        InterpreterValue evaluate(Scope scope) throws ParserException;
+    }
+
+    /**
+     * Compiled expressions, keyed by their source text without the trailing {@code //} comment.
+     * <p>
+     * A compiled expression only depends on its text, define values are looked up when it is evaluated, so entries
+     * never go stale and nothing has to invalidate them. Each {@link ShaderPreprocessor} owns one, which is dropped
+     * along with the other temporary state of a load by {@link ShaderPreprocessor#purgeCaches()}.
+     * Safe to share between threads.
+     */
+    public static final class ExpressionCache {
+        private final Map<String, Object> compiled = new ConcurrentHashMap<>();
+
+        private Node compile(String code) throws ParserException {
+            int commentIndex = code.indexOf("//");
+            if (commentIndex >= 0) {
+                code = code.substring(0, commentIndex);
+            }
+            var result = compiled.get(code);
+            if (result == null) {
+                try {
+                    result = MacroExpressionInterpreter.compile(code);
+                } catch (ParserException e) {
+                    result = e;
+                }
+                compiled.put(code, result);
+            }
+            if (result instanceof ParserException e) {
+                throw e;
+            }
+            return (Node) result;
+        }
+
+        public int size() {
+            return compiled.size();
+        }
+
+        public void clear() {
+            compiled.clear();
+        }
+    }
+
+    /**
+     * The defines an expression is evaluated against, and the already expanded define values.
+     */
+    public static final class Scope {
+        private final Map<String, Option.Value> defines;
+        private final ExpressionCache expressions;
+        private final Object2ObjectMap<String, Expansion> expansions = new Object2ObjectOpenHashMap<>();
+        private int generation;
+
+        public Scope(Map<String, Option.Value> defines, ExpressionCache expressions) {
+            this.defines = defines;
+            this.expressions = expressions;
+        }
+
+        /**
+         * Must be called every time the backing defines change.
+         */
+        public void definesChanged() {
+            generation++;
+        }
+
+        private InterpreterValue expand(String name) throws ParserException {
+            val define = defines.get(name);
+            if (define == null) {
+                return new InterpreterValue.IntValue(0);
+            }
+            val cached = expansions.get(name);
+            if (cached != null && cached.generation == generation) {
+                return cached.value;
+            }
+            val generation = this.generation;
+            val value = interpret(define.toString(), this);
+            expansions.put(name, new Expansion(generation, value));
+            return value;
+        }
+    }
+
+    private static final class Expansion {
+        private final int generation;
+        private final InterpreterValue value;
+
+        private Expansion(int generation, InterpreterValue value) {
+            this.generation = generation;
+            this.value = value;
+        }
+    }
+
+    private static InterpreterValue operateUpcast(InterpreterValue left, InterpreterValue right, Operator operator) {
         if (left instanceof InterpreterValue.DoubleValue dl) {
             if (right instanceof InterpreterValue.DoubleValue dr) {
                 return new InterpreterValue.DoubleValue(operate(dl.value(), dr.value(), operator));
@@ -122,7 +247,7 @@ public class MacroExpressionInterpreter extends AbstractParser<InterpreterValue>
         }
     }
 
-    private int operate(int left, int right, Operator operator) {
+    private static int operate(int left, int right, Operator operator) {
         return switch (operator) {
             case Add -> left + right;
             case Sub -> left - right;
@@ -139,7 +264,7 @@ public class MacroExpressionInterpreter extends AbstractParser<InterpreterValue>
         };
     }
 
-    private double operate(double left, double right, Operator operator) {
+    private static double operate(double left, double right, Operator operator) {
         return switch (operator) {
             case Add -> left + right;
             case Sub -> left - right;
@@ -18,7 +18,9 @@ import com.ventooth.swansong.shader.preprocessor.util.RenderTargetParser;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntLists;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
@@ -44,6 +46,7 @@ public class MacroInterpreter {
 
     //state
     private final Map<String, Option.Value> defines = new HashMap<>();
+    private final MacroExpressionInterpreter.Scope scope;
     private final BitSet disabled = new BitSet();
     private final BitSet elifChainBranchTaken = new BitSet();
     private int depth = 0;
@@ -53,30 +56,35 @@ public class MacroInterpreter {
     private final List<String> outExtensions;
     private final Int2ObjectMap<Option> outOptions = new Int2ObjectOpenHashMap<>();
     private final List<TaggedLine> outCode = new ArrayList<>();
+    private final IntList outConsumedOptions = new IntArrayList();
     private @Nullable IntList outRenderTargets = null;
 
     public static Result interpret(Int2ObjectMap<Option> inOptions,
                                    List<TaggedLine> inCode,
                                    List<String> sourceIndices,
                                    Map<String, Option.Value> externalDefines,
+                                   MacroExpressionInterpreter.ExpressionCache expressions,
                                    boolean glsl) {
-        val interpreter = new MacroInterpreter(inOptions, inCode, sourceIndices, glsl);
+        val interpreter = new MacroInterpreter(inOptions, inCode, sourceIndices, expressions, glsl);
         interpreter.defines.putAll(externalDefines);
         interpreter.execute();
         return new Result(glsl ? new Result.GLSL(interpreter.outVersion,
                                                  Collections.unmodifiableList(interpreter.outExtensions),
                                                  interpreter.outRenderTargets) : null,
                           Collections.unmodifiableList(interpreter.outCode),
-                          Int2ObjectMaps.unmodifiable(interpreter.outOptions));
+                          Int2ObjectMaps.unmodifiable(interpreter.outOptions),
+                          IntLists.unmodifiable(interpreter.outConsumedOptions));
     }
 
     private MacroInterpreter(Int2ObjectMap<Option> inOptions,
                              List<TaggedLine> inCode,
                              List<String> sourceIndices,
+                             MacroExpressionInterpreter.ExpressionCache expressions,
                              boolean glsl) {
         this.inOptions = inOptions;
         this.inCode = inCode;
         this.sourceIndices = sourceIndices;
+        this.scope = new MacroExpressionInterpreter.Scope(defines, expressions);
         this.glsl = glsl;
         this.outExtensions = glsl ? new ArrayList<>() : null;
     }
@@ -176,7 +184,7 @@ public class MacroInterpreter {
         }
         try {
             val parts = split(macro);
-            val res = MacroExpressionInterpreter.interpret(parts[1], defines)
+            val res = MacroExpressionInterpreter.interpret(parts[1], scope)
                                                 .asBool();
             elifChainBranchTaken.set(depth, res);
             disabled.set(depth, !res);
@@ -209,7 +217,7 @@ public class MacroInterpreter {
         } else {
             try {
                 val parts = split(macro);
-                val res = MacroExpressionInterpreter.interpret(parts[1], defines)
+                val res = MacroExpressionInterpreter.interpret(parts[1], scope)
                                                     .asBool();
                 elifChainBranchTaken.set(depth, res);
                 disabled.set(depth, !res);
@@ -268,7 +276,9 @@ public class MacroInterpreter {
         }
         if (disabled.isEmpty()) {
             val parts = split(macro);
-            defines.remove(parts[1]);
+            if (defines.remove(parts[1]) != null) {
+                scope.definesChanged();
+            }
         }
         return true;
     }
@@ -310,12 +320,14 @@ public class MacroInterpreter {
         }
         val opt = inOptions.get(i);
         if (disabled.isEmpty()) {
+            outConsumedOptions.add(i);
             outOptions.put(outCode.size(), opt.copy(true));
             if (!(opt instanceof Option.Define dir)) {
                 throw new AssertionError();
             }
             if (!dir.isToggle() || dir.isEnabled()) {
                 defines.put(dir.name, dir.getCurrentValue());
+                scope.definesChanged();
             }
         }
         return true;
@@ -328,13 +340,17 @@ public class MacroInterpreter {
         @Unmodifiable List<TaggedLine> code;
         private final @NotNull
         @Unmodifiable Int2ObjectMap<Option> options;
+        private final @NotNull
+        @Unmodifiable IntList consumedOptions;
 
         public Result(@Nullable GLSL glsl,
                       @NotNull @Unmodifiable List<TaggedLine> code,
-                      @NotNull @Unmodifiable Int2ObjectMap<Option> options) {
+                      @NotNull @Unmodifiable Int2ObjectMap<Option> options,
+                      @NotNull @Unmodifiable IntList consumedOptions) {
             this.glsl = glsl;
             this.code = code;
             this.options = options;
+            this.consumedOptions = consumedOptions;
         }
 
         public @Nullable GLSL glsl() {
@@ -349,6 +365,14 @@ public class MacroInterpreter {
             return options;
         }
 
+        /**
+         * Input lines of the options that were reached, in order. Their values are the only option values the result
+         * depends on.
+         */
+        public @NotNull @Unmodifiable IntList consumedOptions() {
+            return consumedOptions;
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (obj == this) {
@@ -360,17 +384,30 @@ public class MacroInterpreter {
             var that = (Result) obj;
             return Objects.equals(this.glsl, that.glsl) &&
                    Objects.equals(this.code, that.code) &&
-                   Objects.equals(this.options, that.options);
+                   Objects.equals(this.options, that.options) &&
+                   Objects.equals(this.consumedOptions, that.consumedOptions);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(glsl, code, options);
+            return Objects.hash(glsl, code, options, consumedOptions);
         }
 
         @Override
         public String toString() {
-            return "Result[" + "glsl=" + glsl + ", " + "code=" + code + ", " + "options=" + options + ']';
+            return "Result[" +
+                   "glsl=" +
+                   glsl +
+                   ", " +
+                   "code=" +
+                   code +
+                   ", " +
+                   "options=" +
+                   options +
+                   ", " +
+                   "consumedOptions=" +
+                   consumedOptions +
+                   ']';
         }
 
         //TODO convert to record
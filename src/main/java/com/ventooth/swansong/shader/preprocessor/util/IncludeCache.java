@@ -0,0 +1,186 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.preprocessor.util;
+
+import com.ventooth.swansong.shader.preprocessor.FSProvider;
+import com.ventooth.swansong.shader.preprocessor.TaggedLine;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import lombok.Cleanup;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Already split and tagged shader source files, keyed by absolute path.
+ * <p>
+ * Entries remember the raw contents they were parsed from. After {@link #revalidate()}, each file is read once more
+ * the next time it is used, and only parsed again if its contents changed, so the cache can outlive changes to the
+ * backing {@link FSProvider}. Missing files are remembered too, other read errors are not.
+ */
+public final class IncludeCache {
+    private final ConcurrentHashMap<String, Entry> files = new ConcurrentHashMap<>();
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * @return null if the file does not exist
+     * @throws IOException if the file exists, but could not be read
+     */
+    public @Nullable List<Line> get(FSProvider fs, String absPath) throws IOException {
+        val generation = this.generation.get();
+        val cached = files.get(absPath);
+        if (cached != null && cached.generation == generation) {
+            return cached.lines;
+        }
+        val content = read(fs, absPath);
+        if (cached != null && Arrays.equals(cached.content, content)) {
+            cached.generation = generation;
+            return cached.lines;
+        }
+        val entry = new Entry(content, content != null ? parse(fs, absPath, content) : null, generation);
+        files.put(absPath, entry);
+        return entry.lines;
+    }
+
+    /**
+     * Makes every file get checked against its current contents, the next time it is used.
+     */
+    public void revalidate() {
+        generation.incrementAndGet();
+    }
+
+    public void clear() {
+        files.clear();
+    }
+
+    private static byte @Nullable [] read(FSProvider fs, String absPath) throws IOException {
+        try {
+            @Cleanup val input = fs.get(absPath);
+            return input.readAllBytes();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static List<Line> parse(FSProvider fs, String absPath, byte[] content) throws IOException {
+        val result = new ObjectArrayList<Line>();
+        val reader = new LineNumberReader(new InputStreamReader(new ByteArrayInputStream(content)));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            val lineI = reader.getLineNumber();
+            if (isInclude(line)) {
+                result.add(new Line(lineI, line, null, true, parseInclude(fs, line, absPath)));
+            } else {
+                result.add(new Line(lineI, line, tagOf(line), false, null));
+            }
+        }
+        result.trim();
+        return result;
+    }
+
+    private static boolean isInclude(String line) {
+        return line.contains("#include") &&
+               line.trim()
+                   .startsWith("#include");
+    }
+
+    private static @Nullable String parseInclude(FSProvider fs, String line, String absPath) {
+        val strStart = line.indexOf('"');
+        val strEnd = line.lastIndexOf('"');
+        if (strStart == -1 || strEnd == -1 || strStart == strEnd) {
+            return null;
+        }
+        return fs.absolutize(absPath, line.substring(strStart + 1, strEnd));
+    }
+
+    private static TaggedLine.Tag tagOf(String line) {
+        int hashIndex = line.indexOf('#');
+        if (hashIndex == -1) {
+            return TaggedLine.Tag.Standard;
+        }
+        for (int i = 0; i < hashIndex; i++) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return TaggedLine.Tag.Standard;
+            }
+        }
+        return TaggedLine.Tag.Macro;
+    }
+
+    private static final class Entry {
+        private final byte @Nullable [] content;
+        private final @Nullable List<Line> lines;
+        /**
+         * Last {@link #generation} the contents were checked in
+         */
+        private volatile int generation;
+
+        private Entry(byte @Nullable [] content, @Nullable List<Line> lines, int generation) {
+            this.content = content;
+            this.lines = lines;
+            this.generation = generation;
+        }
+    }
+
+    //TODO convert to record
+    public static final class Line {
+        private final int line;
+        private final String text;
+        private final @Nullable TaggedLine.Tag tag;
+        private final boolean include;
+        private final @Nullable String includePath;
+
+        private Line(int line,
+                     String text,
+                     @Nullable TaggedLine.Tag tag,
+                     boolean include,
+                     @Nullable String includePath) {
+            this.line = line;
+            this.text = text;
+            this.tag = tag;
+            this.include = include;
+            this.includePath = includePath;
+        }
+
+        public int line() {
+            return line;
+        }
+
+        public String text() {
+            return text;
+        }
+
+        /**
+         * null for include statements
+         */
+        public @Nullable TaggedLine.Tag tag() {
+            return tag;
+        }
+
+        public boolean include() {
+            return include;
+        }
+
+        /**
+         * Absolute path of the included file, null if this is not an include, or the include statement is invalid.
+         */
+        public @Nullable String includePath() {
+            return includePath;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.preprocessor.util;
+
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Single pass matcher for option lines, equivalent to matching the whole line against these patterns:
+ * <pre>
+ * define: ^\s*(//)?\s*#define\s+(\w+)(?:\s+([\w.-]+))?\s*(?://(?:.*?\[(.*?)])?.*)?$
+ * const:  ^\s*const\s+(\w+)\s+(\w+)\s*=\s*([\w.-]+)\s*;\s*(?://(?:.*?\[(.*?)])?.*)?$
+ * </pre>
+ * Nothing is allocated until a group is requested, so rejecting a line is cheap.
+ * <p>
+ * Instances hold the result of the last scan, and are not thread-safe.
+ */
+public final class OptionScanner {
+    private String line;
+    private boolean disabled;
+    private int typeStart, typeEnd;
+    private int nameStart, nameEnd;
+    private int valueStart = -1, valueEnd;
+    private int allowedStart = -1, allowedEnd;
+
+    /**
+     * If the last matched define was commented out.
+     */
+    public boolean disabled() {
+        return disabled;
+    }
+
+    /**
+     * Type of the last matched const.
+     */
+    public String type() {
+        return line.substring(typeStart, typeEnd);
+    }
+
+    public String name() {
+        return line.substring(nameStart, nameEnd);
+    }
+
+    /**
+     * null if the last matched define had no value.
+     */
+    public @Nullable String value() {
+        return valueStart < 0 ? null : line.substring(valueStart, valueEnd);
+    }
+
+    /**
+     * The text between the brackets of the trailing comment, null if there was none.
+     */
+    public @Nullable String allowed() {
+        return allowedStart < 0 ? null : line.substring(allowedStart, allowedEnd);
+    }
+
+    public boolean scanDefine(String line) {
+        reset(line);
+        final int len = line.length();
+        int i = skipWhitespace(line, 0, len);
+        if (i + 1 < len && line.charAt(i) == '/' && line.charAt(i + 1) == '/') {
+            disabled = true;
+            i = skipWhitespace(line, i + 2, len);
+        }
+        if (!line.startsWith("#define", i)) {
+            return false;
+        }
+        i += "#define".length();
+        int j = skipWhitespace(line, i, len);
+        if (j == i) {
+            return false;
+        }
+        nameStart = j;
+        nameEnd = j = skipWord(line, j, len);
+        if (nameEnd == nameStart) {
+            return false;
+        }
+        i = skipWhitespace(line, j, len);
+        if (i > j) {
+            j = skipValue(line, i, len);
+            if (j > i && (j == len || isWhitespace(line.charAt(j)) || isCommentStart(line, j, len))) {
+                valueStart = i;
+                valueEnd = j;
+                i = skipWhitespace(line, j, len);
+            }
+        }
+        return scanTail(line, i, len);
+    }
+
+    public boolean scanConst(String line) {
+        reset(line);
+        final int len = line.length();
+        int i = skipWhitespace(line, 0, len);
+        if (!line.startsWith("const", i)) {
+            return false;
+        }
+        i += "const".length();
+        int j = skipWhitespace(line, i, len);
+        if (j == i) {
+            return false;
+        }
+        typeStart = j;
+        typeEnd = i = skipWord(line, j, len);
+        if (typeEnd == typeStart) {
+            return false;
+        }
+        j = skipWhitespace(line, i, len);
+        if (j == i) {
+            return false;
+        }
+        nameStart = j;
+        nameEnd = i = skipWord(line, j, len);
+        if (nameEnd == nameStart) {
+            return false;
+        }
+        i = skipWhitespace(line, i, len);
+        if (i == len || line.charAt(i) != '=') {
+            return false;
+        }
+        i = skipWhitespace(line, i + 1, len);
+        valueStart = i;
+        valueEnd = i = skipValue(line, i, len);
+        if (valueEnd == valueStart) {
+            return false;
+        }
+        i = skipWhitespace(line, i, len);
+        if (i == len || line.charAt(i) != ';') {
+            return false;
+        }
+        return scanTail(line, skipWhitespace(line, i + 1, len), len);
+    }
+
+    private void reset(String line) {
+        this.line = line;
+        disabled = false;
+        typeStart = typeEnd = 0;
+        nameStart = nameEnd = 0;
+        valueStart = -1;
+        valueEnd = 0;
+        allowedStart = -1;
+        allowedEnd = 0;
+    }
+
+    /**
+     * Matches {@code (?://(?:.*?\[(.*?)])?.*)?$} at i, which must already be past any whitespace.
+     */
+    private boolean scanTail(String line, int i, int len) {
+        if (i == len) {
+            return true;
+        }
+        if (!isCommentStart(line, i, len)) {
+            return false;
+        }
+        i += 2;
+        //. does not match line terminators, so the comment has to run until the end
+        for (int k = i; k < len; k++) {
+            if (isLineTerminator(line.charAt(k))) {
+                return false;
+            }
+        }
+        val open = line.indexOf('[', i);
+        if (open >= 0) {
+            val close = line.indexOf(']', open + 1);
+            if (close >= 0) {
+                allowedStart = open + 1;
+                allowedEnd = close;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCommentStart(String line, int i, int len) {
+        return i + 1 < len && line.charAt(i) == '/' && line.charAt(i + 1) == '/';
+    }
+
+    private static int skipWhitespace(String line, int i, int len) {
+        while (i < len && isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWord(String line, int i, int len) {
+        while (i < len && isWordChar(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipValue(String line, int i, int len) {
+        while (i < len) {
+            val c = line.charAt(i);
+            if (!isWordChar(c) && c != '.' && c != '-') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Same as {@code \s} without UNICODE_CHARACTER_CLASS.
+     */
+    public static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Same as {@code \w} without UNICODE_CHARACTER_CLASS.
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * The characters {@code .} does not match without DOTALL or UNIX_LINES.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == 0x85 || c == 0x2028 || c == 0x2029;
+    }
+}
@@ -13,35 +13,44 @@ package com.ventooth.swansong.shader.preprocessor.util;
 import com.ventooth.swansong.Share;
 import com.ventooth.swansong.shader.preprocessor.FSProvider;
 import com.ventooth.swansong.shader.preprocessor.TaggedLine;
-import lombok.Cleanup;
-import lombok.RequiredArgsConstructor;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectSet;
 import lombok.val;
 import org.jetbrains.annotations.UnmodifiableView;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-@RequiredArgsConstructor
 public class RecursiveIncluder {
     private final FSProvider fs;
-    private final List<String> includeStack = new ArrayList<>();
-    private List<String> sourceIndices = new ArrayList<>(Collections.singletonList("__INTERNAL__"));
+    private final IncludeCache cache;
+    private final ObjectSet<String> includeStack = new ObjectOpenHashSet<>();
+    private final Object2IntMap<String> sourceIndicesLookup = new Object2IntOpenHashMap<>();
+    private List<String> sourceIndices = new ArrayList<>();
     private List<TaggedLine> lines = new ArrayList<>();
 
+    public RecursiveIncluder(FSProvider fs) {
+        this.fs = fs;
+        val shared = fs.includeCache();
+        this.cache = shared != null ? shared : new IncludeCache();
+        sourceIndicesLookup.defaultReturnValue(-1);
+        addSourceIndex("__INTERNAL__");
+    }
+
     public boolean read(String path) {
         return read(null, path);
     }
 
     public void reset() {
         includeStack.clear();
+        sourceIndicesLookup.clear();
         sourceIndices = new ArrayList<>();
         lines = new ArrayList<>();
-        sourceIndices.add("__INTERNAL__");
+        addSourceIndex("__INTERNAL__");
     }
 
     public @UnmodifiableView List<String> sourceIndices() {
@@ -52,79 +61,52 @@ public class RecursiveIncluder {
         return Collections.unmodifiableList(lines);
     }
 
-    private boolean isInclude(String line) {
-        return line.contains("#include") &&
-               line.trim()
-                   .startsWith("#include");
+    private int addSourceIndex(String absPath) {
+        val index = sourceIndices.size();
+        sourceIndicesLookup.put(absPath, index);
+        sourceIndices.add(absPath);
+        return index;
     }
 
-    private boolean parseInclude(String line, String file, int lineI, String absPath) {
-        val strStart = line.indexOf('"');
-        val strEnd = line.lastIndexOf('"');
-        if (strStart == -1 || strEnd == -1 || strStart == strEnd) {
-            Share.log.error("Invalid include statement at file {} line {}", file, lineI);
-            return false;
-        }
-        return read(absPath, line.substring(strStart + 1, strEnd));
+    private boolean read(String source, String path) {
+        return readAbsolute(fs.absolutize(source, path));
     }
 
-    private boolean read(String source, String path) {
-        val absPath = fs.absolutize(source, path);
+    private boolean readAbsolute(String absPath) {
         if (includeStack.contains(absPath)) {
             return false;
         }
-        int fileIndex;
-        if (!sourceIndices.contains(absPath)) {
-            fileIndex = sourceIndices.size();
-            sourceIndices.add(absPath);
-        } else {
-            fileIndex = sourceIndices.indexOf(absPath);
+        int fileIndex = sourceIndicesLookup.getInt(absPath);
+        if (fileIndex < 0) {
+            fileIndex = addSourceIndex(absPath);
         }
         includeStack.add(absPath);
         try {
-            @Cleanup val input = fs.get(absPath);
-            val reader = new LineNumberReader(new InputStreamReader(input));
-            String line;
-            boolean prevInclude = false;
-            while ((line = reader.readLine()) != null) {
-                val lineI = reader.getLineNumber();
-                if (isInclude(line)) {
-                    if (!parseInclude(line, absPath, lineI, absPath)) {
+            val file = cache.get(fs, absPath);
+            if (file == null) {
+                Share.log.trace("File not found: {}", absPath);
+                return false;
+            }
+            for (val line : file) {
+                if (line.include()) {
+                    val includePath = line.includePath();
+                    if (includePath == null) {
+                        Share.log.error("Invalid include statement at file {} line {}", absPath, line.line());
                         return false;
                     }
-                    prevInclude = true;
-                    continue;
-                } else if (prevInclude) {
-                    prevInclude = false;
-
-                }
-                int hashIndex = line.indexOf('#');
-                TaggedLine.Tag tag;
-                if (hashIndex == -1) {
-                    tag = TaggedLine.Tag.Standard;
-                } else {
-                    boolean isMacro = true;
-                    for (int i = 0; i < hashIndex; i++) {
-                        if (!Character.isWhitespace(line.charAt(i))) {
-                            isMacro = false;
-                            break;
-                        }
+                    if (!readAbsolute(includePath)) {
+                        return false;
                     }
-                    tag = isMacro ? TaggedLine.Tag.Macro : TaggedLine.Tag.Standard;
+                    continue;
                 }
-                lines.add(new TaggedLine(fileIndex, lineI, line, true, tag));
+                lines.add(new TaggedLine(fileIndex, line.line(), line.text(), true, line.tag()));
             }
             return true;
-        } catch (FileNotFoundException e) {
-            Share.log.trace("File not found: {}", e.getMessage());
-            return false;
         } catch (IOException e) {
             Share.log.warn("Caught Exception when reading a file:", e);
             return false;
         } finally {
-            if (!includeStack.isEmpty()) {
-                includeStack.remove(includeStack.size() - 1);
-            }
+            includeStack.remove(absPath);
         }
     }
 }
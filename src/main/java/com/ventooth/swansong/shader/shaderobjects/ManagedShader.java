@@ -13,14 +13,18 @@ package com.ventooth.swansong.shader.shaderobjects;
 import com.ventooth.swansong.Share;
 import com.ventooth.swansong.gl.GLProgram;
 import com.ventooth.swansong.shader.loader.CompiledProgram;
+import com.ventooth.swansong.shader.loader.RetainedPrograms;
 import com.ventooth.swansong.shader.uniform.Uniform;
 import com.ventooth.swansong.shader.uniform.UniformGetterDanglingWires;
+import com.ventooth.swansong.shader.uniform.UniformIndex;
 import com.ventooth.swansong.sufrace.Framebuffer;
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.ints.IntLists;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 import lombok.val;
@@ -42,6 +46,9 @@ public abstract class ManagedShader {
 
     private static final IntList DEFAULT_RENDER_TARGETS = IntLists.singleton(0);
 
+    private static final Reference2ObjectMap<List<Uniform<?>>, UniformIndex> relevantIndices = new Reference2ObjectOpenHashMap<>();
+    private static @Nullable UniformIndex lastCustomIndex;
+
     @Getter
     protected final ResourceLocation loc;
     protected final ResourceLocation actualLoc;
@@ -49,6 +56,7 @@ public abstract class ManagedShader {
     protected final String srcPath;
 
     protected GLProgram program;
+    private final String sourceKey;
 
     @Getter
     protected final IntList renderTargets;
@@ -56,13 +64,18 @@ public abstract class ManagedShader {
     public @Nullable Framebuffer framebuffer;
 
     private @Unmodifiable Int2ObjectMap<@NotNull Uniform<?>> uniforms;
-    private Int2ObjectArrayMap<@NotNull Uniform<?>> uniformsDirect;
+    private Uniform<?>[] boundUniforms;
+    /**
+     * Parallel to {@link #boundUniforms}, remembers what each location of this program holds.
+     */
+    private Uniform.Slot[] boundSlots;
 
     public ManagedShader(ResourceLocation loc, CompiledProgram prog) {
         this.loc = loc;
         this.actualLoc = prog.actualShaderType();
         this.srcPath = prog.path();
         this.program = prog.program();
+        this.sourceKey = prog.sourceKey();
         this.uniforms = Int2ObjectMaps.emptyMap();
 
         var tempRenderTargets = prog.renderTargets();
@@ -86,8 +99,11 @@ public abstract class ManagedShader {
         val uniformCount = program.glGetProgramActiveUniforms();
         log.debug("Expecting {} uniforms", uniformCount);
         if (uniformCount != 0) {
+            val relevantIndex = relevantIndex(relevantUniforms());
+            val customIndex = customIndex(UniformGetterDanglingWires.customUniforms);
+            val maxLength = program.glGetProgramActiveUniformMaxLength();
             for (var i = 0; i < uniformCount; i++) {
-                val uniformName = program.glGetActiveUniform(i);
+                val uniformName = program.glGetActiveUniform(i, maxLength);
                 if (uniformName == null || uniformName.isEmpty()) {
                     continue;
                 }
@@ -99,33 +115,22 @@ public abstract class ManagedShader {
 
                 // This index is not going to be the same as `i`, as location and index aren't the same thing.
                 val index = program.glGetUniformLocation(uniformName);
-                found:
-                {
-                    // TODO: Needs a hashmap lookup
-                    val relevantUniforms = relevantUniforms();
-                    for (val relevantUniform : relevantUniforms) {
-                        if (relevantUniform.name().equals(uniformName)) {
-                            uniforms.put(index, relevantUniform);
-                            log.debug("Binding relevant uniform: {} at index: {}", uniformName, index);
-                            break found;
-                        }
-                    }
-
-                    // TODO: Needs a hashmap lookup
-                    val customUniforms = UniformGetterDanglingWires.customUniforms;
-                    if (customUniforms != null) {
-                        for (val customUniform : customUniforms) {
-                            if (customUniform.name().equals(uniformName)) {
-                                uniforms.put(index, customUniform);
-                                log.debug("Binding custom uniform: {} at index: {}", uniformName, index);
-                                break found;
-                            }
-                        }
-                    }
-
-                    // TODO: Append to report properly
-                    log.debug("Unknown uniform: {} at index: {}", uniformName, index);
+                val relevantUniform = relevantIndex.get(uniformName);
+                if (relevantUniform != null) {
+                    uniforms.put(index, relevantUniform);
+                    log.debug("Binding relevant uniform: {} at index: {}", uniformName, index);
+                    continue;
                 }
+
+                val customUniform = customIndex != null ? customIndex.get(uniformName) : null;
+                if (customUniform != null) {
+                    uniforms.put(index, customUniform);
+                    log.debug("Binding custom uniform: {} at index: {}", uniformName, index);
+                    continue;
+                }
+
+                // TODO: Append to report properly
+                log.debug("Unknown uniform: {} at index: {}", uniformName, index);
             }
 
         } else {
@@ -133,27 +138,84 @@ public abstract class ManagedShader {
             log.debug("Shader {} initialized with no uniforms!", actualLoc);
         }
 
-        this.uniformsDirect = uniforms;
+        val size = uniforms.size();
+        boundUniforms = new Uniform<?>[size];
+        boundSlots = new Uniform.Slot[size];
+        var i = 0;
+        val iter = uniforms.int2ObjectEntrySet()
+                           .fastIterator();
+        while (iter.hasNext()) {
+            val entry = iter.next();
+            boundUniforms[i] = entry.getValue();
+            boundSlots[i] = new Uniform.Slot(entry.getIntKey());
+            i++;
+        }
         this.uniforms = Int2ObjectMaps.unmodifiable(uniforms);
 
         GL20.glUseProgram(0);
     }
 
+    /**
+     * The relevant uniform lists are constants, so their indices are kept around for good.
+     */
+    private static UniformIndex relevantIndex(List<Uniform<?>> relevantUniforms) {
+        var index = relevantIndices.get(relevantUniforms);
+        if (index == null) {
+            index = UniformIndex.of(relevantUniforms);
+            relevantIndices.put(relevantUniforms, index);
+        }
+        return index;
+    }
+
+    /**
+     * The custom uniforms get replaced with every shader pack, only the index of the current list is kept.
+     */
+    private static @Nullable UniformIndex customIndex(@Nullable List<Uniform<?>> customUniforms) {
+        if (customUniforms == null) {
+            return null;
+        }
+        var index = lastCustomIndex;
+        if (index == null || !index.isFor(customUniforms)) {
+            index = UniformIndex.of(customUniforms);
+            lastCustomIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Drops the index of the custom uniforms, so it does not keep the list of an unloaded shader pack alive.
+     */
+    public static void forgetCustomUniforms() {
+        lastCustomIndex = null;
+    }
+
     public Int2ObjectMap<Uniform<?>> getUniforms() {
         return this.uniforms;
     }
 
     public void deinit() {
+        deinit(null);
+    }
+
+    /**
+     * @param retained if present, the program is handed over to it instead of being deleted
+     */
+    public void deinit(@Nullable RetainedPrograms retained) {
         // TODO: Move this to the ShaderEngine
         if (framebuffer != null) {
             framebuffer.deinit();
             framebuffer = null;
         }
 
-        program.glDeleteProgram();
+        if (retained != null) {
+            retained.retain(sourceKey, program);
+        } else {
+            program.glDeleteProgram();
+        }
         program = null;
         uniforms = null;
-        uniformsDirect = null;
+        boundUniforms = null;
+        boundSlots = null;
     }
 
     public boolean isFallback() {
@@ -172,12 +234,10 @@ public abstract class ManagedShader {
 
         program.glUseProgram();
 
-        val iter = uniformsDirect.int2ObjectEntrySet()
-                                 .fastIterator();
-        while (iter.hasNext()) {
-            val uniform = iter.next();
-            uniform.getValue()
-                   .load(uniform.getIntKey());
+        val bound = boundUniforms;
+        val slots = boundSlots;
+        for (int i = 0, size = bound.length; i < size; i++) {
+            bound[i].load(slots[i]);
         }
     }
 
@@ -187,7 +247,7 @@ public abstract class ManagedShader {
      * @param unbind {@code true} if we don't plan on binding another program after this.
      */
     public void end(boolean unbind) {
-        for (val uniform : uniformsDirect.values()) {
+        for (val uniform : boundUniforms) {
             uniform.reset();
         }
 
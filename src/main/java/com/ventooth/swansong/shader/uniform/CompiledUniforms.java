@@ -20,14 +20,17 @@ import com.ventooth.swansong.uniforms.Type;
 import com.ventooth.swansong.uniforms.UniformFunction;
 import com.ventooth.swansong.uniforms.UniformFunctionRegistry;
 import com.ventooth.swansong.uniforms.compiler.UniformCompiler;
+import com.ventooth.swansong.uniforms.compiler.ast.TypedNode;
+import com.ventooth.swansong.uniforms.compiler.ast.UntypedNode;
+import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedFunctionNode;
 import com.ventooth.swansong.uniforms.compiler.backend.BytecodeOptimizer;
 import com.ventooth.swansong.uniforms.compiler.backend.CodeGenerator;
+import com.ventooth.swansong.uniforms.compiler.frontend.CommonSubexpressions;
 import com.ventooth.swansong.uniforms.compiler.frontend.Optimizer;
 import com.ventooth.swansong.uniforms.compiler.frontend.TypeResolver;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
 import org.apache.commons.io.FileUtils;
-import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
@@ -37,6 +40,7 @@ import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
 import java.io.IOException;
@@ -116,37 +120,73 @@ public class CompiledUniforms {
         addEmptyConstructor(carrier);
         val updateMethod = new MethodNode(Opcodes.ACC_PUBLIC, "update", "()V", null, null);
         carrier.methods.add(updateMethod);
+        val staticInit = new MethodNode(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        carrier.methods.add(staticInit);
         val accessors = new HashMap<String, ClassNode>();
         val compiler = new UniformCompiler(new UniformCompiler.Flags(new TypeResolver.Flags(true),
                                                                      new Optimizer.Flags(true, true, true),
                                                                      new CodeGenerator.Flags(true, true),
                                                                      new BytecodeOptimizer.Flags(true)), registry);
+        val parsed = new ArrayList<ParsedVar>(shaderVars.size());
         for (val shaderVar : shaderVars) {
-            ClassNode accessor;
             try {
-                accessor = compile(compiler, shaderVar, carrier, updateMethod.instructions);
+                parsed.add(new ParsedVar(shaderVar, compiler.parse(shaderVar.expression())));
             } catch (Exception e) {
-                // TODO: Logging here should go to debug+trace, and the shortform error appended to the report.
-                Share.log.error("Failed to compile custom shader uniform {} with code: {}",
-                                shaderVar.name(),
-                                shaderVar.expression()
-                                         .replace('\n', ' ')
-                                         .replace('\r', ' '));
-                Share.log.trace("Stacktrace:", e);
-                continue;
+                logFailure(shaderVar, e);
             }
-            if (accessor != null) {
-                accessors.put(shaderVar.name(), accessor);
+        }
+        val used = usedVars(parsed);
+        if (used.size() < parsed.size()) {
+            Share.log.debug("Skipping {} custom shader variables that no uniform reads", parsed.size() - used.size());
+        }
+
+        //Type everything up front, so the subexpressions shared between variables can be found
+        val typed = new ArrayList<TypedVar>(used.size());
+        for (val var : used) {
+            val shaderVar = var.shaderVar;
+            final TypedNode expr;
+            try {
+                expr = compiler.frontend(shaderVar.type(), var.expr);
+            } catch (Exception e) {
+                logFailure(shaderVar, e);
+                continue;
             }
+            addState(carrier, staticInit.instructions, shaderVar.name(), shaderVar.type());
             varRegistry.addWithNames(new UniformFunction(null,
                                                          carrier.name,
                                                          shaderVar.name() + "$get",
                                                          shaderVar.type(),
                                                          Collections.emptyList(),
                                                          false), shaderVar.name());
+            typed.add(new TypedVar(shaderVar, expr));
+        }
+
+        val slots = new SharedSlots(compiler, carrier, updateMethod.instructions, staticInit.instructions);
+        val cse = new CommonSubexpressions(slots);
+        for (val var : typed) {
+            cse.scan(var.expr);
+        }
+        for (val var : typed) {
+            val shaderVar = var.shaderVar;
+            try {
+                //Emits the updates of the slots this variable is the first to read
+                val expr = cse.rewrite(var.expr);
+                compileUpdate(compiler, carrier, updateMethod.instructions, shaderVar.name(), shaderVar.type(), expr);
+            } catch (Exception e) {
+                //The state stays around at its default value, later variables have already been typed against it
+                logFailure(shaderVar, e);
+                continue;
+            }
+            if (shaderVar.variant() == ShaderVar.Variant.Uniform) {
+                accessors.put(shaderVar.name(), createAccessor(carrier, shaderVar.name(), shaderVar.type()));
+            }
+        }
+        if (cse.slotCount() > 0) {
+            Share.log.debug("Shared {} common subexpressions between custom shader uniforms", cse.slotCount());
         }
 
         updateMethod.instructions.add(new InsnNode(Opcodes.RETURN));
+        staticInit.instructions.add(new InsnNode(Opcodes.RETURN));
         val loader = new UniformClassLoader(CompiledUniforms.class.getClassLoader());
         val carrierClass = loader.define(carrier);
         val accessorClasses = new HashMap<String, Class<?>>();
@@ -172,6 +212,48 @@ public class CompiledUniforms {
         return new CompiledUniforms(accessorInstances, carrierInstance);
     }
 
+    private static void logFailure(ShaderVar shaderVar, Exception e) {
+        // TODO: Logging here should go to debug+trace, and the shortform error appended to the report.
+        Share.log.error("Failed to compile custom shader uniform {} with code: {}",
+                        shaderVar.name(),
+                        shaderVar.expression()
+                                 .replace('\n', ' ')
+                                 .replace('\r', ' '));
+        Share.log.trace("Stacktrace:", e);
+    }
+
+    /**
+     * Leaves out the variables that no uniform reads, directly or through other variables.
+     * <p>
+     * The rest keep their declaration order, so a variable still only sees the ones declared before it. A reference to
+     * a later one resolves to whatever else has that name, the same as if nothing had been left out.
+     */
+    private static List<ParsedVar> usedVars(List<ParsedVar> vars) {
+        val size = vars.size();
+        val used = new boolean[size];
+        for (int i = size - 1; i >= 0; i--) {
+            val var = vars.get(i);
+            if (var.shaderVar.variant() == ShaderVar.Variant.Uniform) {
+                used[i] = true;
+            } else if (!used[i]) {
+                continue;
+            }
+            val names = UniformCompiler.referencedNames(var.expr);
+            for (int j = 0; j < i; j++) {
+                if (names.contains(vars.get(j).shaderVar.name())) {
+                    used[j] = true;
+                }
+            }
+        }
+        val result = new ArrayList<ParsedVar>(size);
+        for (int i = 0; i < size; i++) {
+            if (used[i]) {
+                result.add(vars.get(i));
+            }
+        }
+        return result;
+    }
+
     private static void addEmptyConstructor(ClassNode cn) {
         val init = new MethodNode(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
         init.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
@@ -180,44 +262,68 @@ public class CompiledUniforms {
         cn.methods.add(init);
     }
 
-    private static @Nullable ClassNode compile(UniformCompiler comp,
-                                               ShaderVar var,
-                                               ClassNode carrier,
-                                               InsnList updateMethod) {
-        val variant = var.variant();
-        val type = var.type();
-        val name = var.name();
-        val expr = var.expression();
-        val fieldDesc = type.descriptor();
-        val methodDesc = "()" + fieldDesc;
-        val retOpcode = type.returnOpcode();
+    private static boolean isVec(Type type) {
+        return type == Type.Vec2 || type == Type.Vec3 || type == Type.Vec4;
+    }
+
+    private static String fieldDesc(Type type) {
+        //Vectors live in a preallocated mutable vector that gets overwritten on every update
+        return isVec(type) ? org.objectweb.asm.Type.getDescriptor(CodeGenerator.mutableVecClass(type)) : type.descriptor();
+    }
+
+    /**
+     * Adds the state field and the static getter of a value.
+     */
+    private static void addState(ClassNode carrier, InsnList staticInit, String name, Type type) {
+        val fieldDesc = fieldDesc(type);
+        val name$state = name + "$state";
+        carrier.fields.add(new FieldNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, name$state, fieldDesc, null, null));
+        if (isVec(type)) {
+            val stateClass = org.objectweb.asm.Type.getInternalName(CodeGenerator.mutableVecClass(type));
+            staticInit.add(new TypeInsnNode(Opcodes.NEW, stateClass));
+            staticInit.add(new InsnNode(Opcodes.DUP));
+            staticInit.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, stateClass, "<init>", "()V", false));
+            staticInit.add(new FieldInsnNode(Opcodes.PUTSTATIC, carrier.name, name$state, fieldDesc));
+        }
+        val staticGet = new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                                       name + "$get",
+                                       "()" + type.descriptor(),
+                                       null,
+                                       null);
+        carrier.methods.add(staticGet);
+        val insn = staticGet.instructions;
+        insn.add(new FieldInsnNode(Opcodes.GETSTATIC, carrier.name, name$state, fieldDesc));
+        insn.add(new InsnNode(type.returnOpcode()));
+    }
 
+    /**
+     * Adds the method that recomputes a value, and calls it from the update method.
+     */
+    private static void compileUpdate(UniformCompiler comp,
+                                      ClassNode carrier,
+                                      InsnList updateMethod,
+                                      String name,
+                                      Type type,
+                                      TypedNode expr) {
+        val fieldDesc = fieldDesc(type);
         val name$state = name + "$state";
-        val name$get = name + "$get";
         val name$update = name + "$update";
-        {
-            val staticUpdate = new MethodNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, name$update, "()V", null, null);
-            val insn = staticUpdate.instructions;
-            //This can throw an exception, propagate upward without touching any other state
-            comp.compile(type, expr, insn, true);
+        val staticUpdate = new MethodNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, name$update, "()V", null, null);
+        val insn = staticUpdate.instructions;
+        //This can throw an exception, propagate upward without touching any other state
+        if (isVec(type)) {
+            comp.compileInto(expr, new FieldInsnNode(Opcodes.GETSTATIC, carrier.name, name$state, fieldDesc), insn, true);
+        } else {
+            comp.compile(expr, insn, true);
             insn.add(new FieldInsnNode(Opcodes.PUTSTATIC, carrier.name, name$state, fieldDesc));
-            insn.add(new InsnNode(Opcodes.RETURN));
-            carrier.methods.add(staticUpdate);
-        }
-
-        carrier.fields.add(new FieldNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, name$state, fieldDesc, null, null));
-        {
-            val staticGet = new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name$get, methodDesc, null, null);
-            carrier.methods.add(staticGet);
-            val insn = staticGet.instructions;
-            insn.add(new FieldInsnNode(Opcodes.GETSTATIC, carrier.name, name$state, fieldDesc));
-            insn.add(new InsnNode(retOpcode));
         }
+        insn.add(new InsnNode(Opcodes.RETURN));
+        carrier.methods.add(staticUpdate);
         updateMethod.add(new MethodInsnNode(Opcodes.INVOKESTATIC, carrier.name, name$update, "()V", false));
-        if (variant != ShaderVar.Variant.Uniform) {
-            return null;
-        }
-        //Instance accessor
+    }
+
+    private static ClassNode createAccessor(ClassNode carrier, String name, Type type) {
+        val methodDesc = "()" + type.descriptor();
         val cn = new ClassNode();
         cn.version = Opcodes.V1_8;
         cn.superName = "java/lang/Object";
@@ -228,13 +334,67 @@ public class CompiledUniforms {
         {
             val dynamicGet = new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, "value", methodDesc, null, null);
             val insn = dynamicGet.instructions;
-            insn.add(new MethodInsnNode(Opcodes.INVOKESTATIC, carrier.name, name$get, methodDesc, false));
-            insn.add(new InsnNode(retOpcode));
+            insn.add(new MethodInsnNode(Opcodes.INVOKESTATIC, carrier.name, name + "$get", methodDesc, false));
+            insn.add(new InsnNode(type.returnOpcode()));
             cn.methods.add(dynamicGet);
         }
         return cn;
     }
 
+    /**
+     * A variable whose expression parsed.
+     */
+    private static final class ParsedVar {
+        private final ShaderVar shaderVar;
+        private final UntypedNode expr;
+
+        private ParsedVar(ShaderVar shaderVar, UntypedNode expr) {
+            this.shaderVar = shaderVar;
+            this.expr = expr;
+        }
+    }
+
+    /**
+     * A variable whose expression passed the frontend, and now has state in the carrier.
+     */
+    private static final class TypedVar {
+        private final ShaderVar shaderVar;
+        private final TypedNode expr;
+
+        private TypedVar(ShaderVar shaderVar, TypedNode expr) {
+            this.shaderVar = shaderVar;
+            this.expr = expr;
+        }
+    }
+
+    /**
+     * Puts every shared subexpression into its own state, updated right before the first variable that reads it.
+     */
+    @RequiredArgsConstructor
+    private static final class SharedSlots implements CommonSubexpressions.SlotAllocator {
+        private final UniformCompiler compiler;
+        private final ClassNode carrier;
+        private final InsnList updateMethod;
+        private final InsnList staticInit;
+        private int count;
+
+        @Override
+        public TypedNode allocate(TypedNode value) {
+            //Variable names are plain identifiers, so these can not collide
+            val name = "$cse" + count;
+            val type = value.outputType();
+            compileUpdate(compiler, carrier, updateMethod, name, type, value);
+            addState(carrier, staticInit, name, type);
+            count++;
+            return new TypedFunctionNode(new UniformFunction(null,
+                                                             carrier.name,
+                                                             name + "$get",
+                                                             type,
+                                                             Collections.emptyList(),
+                                                             false), Collections.emptyList());
+        }
+    }
+
     /**
      * Internal use only, use {@link #update()}!
      * Public because generated classes need to see it.
@@ -15,6 +15,7 @@ import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.Accessors;
 import lombok.val;
+import org.jetbrains.annotations.Nullable;
 import org.joml.Matrix4dc;
 import org.joml.Vector2dc;
 import org.joml.Vector2ic;
@@ -34,22 +35,160 @@ public abstract class Uniform<T> {
     @Getter
     protected final String name;
 
-    protected int lastLocation = -1;
+    protected @Nullable Slot lastSlot;
+
+    /**
+     * Bumped once per frame, see {@link Slot}.
+     */
+    private static int generation;
 
-    // TODO: This is meant to have logic which can cache the last state, to avoid "redundant" uploads.
-    //       Last impl kinda sucked, so I yeeted it for the time being.
     public void update() {
-        if (lastLocation != -1) {
-            load(lastLocation);
+        if (lastSlot != null) {
+            load(lastSlot);
         }
     }
 
     public abstract T value();
 
-    public abstract void load(int location);
+    /**
+     * Uploads the current value, unless it is what the slot already holds.
+     */
+    public abstract void load(Slot slot);
 
     public void reset() {
-        lastLocation = -1;
+        lastSlot = null;
+    }
+
+    /**
+     * Makes every {@link Slot} forget what it holds, so each program gets all of its uniforms uploaded once more.
+     */
+    public static void nextGeneration() {
+        generation++;
+    }
+
+    /**
+     * The value last uploaded to one uniform location of one program.
+     * <p>
+     * Programs keep their uniform values while other programs are bound, so uploading the same value again is a
+     * wasted driver call. Values are compared the way the setters upload them, doubles as floats. A slot only trusts
+     * what it holds for the current generation, which limits how long anything uploaded behind its back can stick
+     * around to a single frame.
+     * <p>
+     * Each slot must belong to exactly one program. Render thread only.
+     */
+    public static final class Slot {
+        private static final float[] tempMatrix = new float[16];
+
+        public final int location;
+        private final int[] bits = new int[16];
+        private int generation;
+        private boolean valid;
+
+        public Slot(int location) {
+            this.location = location;
+        }
+
+        private boolean isCurrent() {
+            return valid && generation == Uniform.generation;
+        }
+
+        private void stamp() {
+            valid = true;
+            generation = Uniform.generation;
+        }
+
+        public boolean changed(int x) {
+            if (isCurrent() && bits[0] == x) {
+                return false;
+            }
+            bits[0] = x;
+            stamp();
+            return true;
+        }
+
+        public boolean changed(int x, int y) {
+            if (isCurrent() && bits[0] == x && bits[1] == y) {
+                return false;
+            }
+            bits[0] = x;
+            bits[1] = y;
+            stamp();
+            return true;
+        }
+
+        public boolean changed(float x) {
+            return changed(Float.floatToRawIntBits(x));
+        }
+
+        public boolean changed(float x, float y) {
+            return changed(Float.floatToRawIntBits(x), Float.floatToRawIntBits(y));
+        }
+
+        public boolean changed(float x, float y, float z) {
+            val bx = Float.floatToRawIntBits(x);
+            val by = Float.floatToRawIntBits(y);
+            val bz = Float.floatToRawIntBits(z);
+            if (isCurrent() && bits[0] == bx && bits[1] == by && bits[2] == bz) {
+                return false;
+            }
+            bits[0] = bx;
+            bits[1] = by;
+            bits[2] = bz;
+            stamp();
+            return true;
+        }
+
+        public boolean changed(float x, float y, float z, float w) {
+            val bx = Float.floatToRawIntBits(x);
+            val by = Float.floatToRawIntBits(y);
+            val bz = Float.floatToRawIntBits(z);
+            val bw = Float.floatToRawIntBits(w);
+            if (isCurrent() && bits[0] == bx && bits[1] == by && bits[2] == bz && bits[3] == bw) {
+                return false;
+            }
+            bits[0] = bx;
+            bits[1] = by;
+            bits[2] = bz;
+            bits[3] = bw;
+            stamp();
+            return true;
+        }
+
+        public boolean changed(Matrix4dc m) {
+            m.get(tempMatrix);
+            var same = isCurrent();
+            for (int i = 0; i < 16; i++) {
+                val b = Float.floatToRawIntBits(tempMatrix[i]);
+                if (bits[i] != b) {
+                    bits[i] = b;
+                    same = false;
+                }
+            }
+            if (same) {
+                return false;
+            }
+            stamp();
+            return true;
+        }
+
+        /**
+         * Types without a matching {@link Uniform#set} overload always count as changed.
+         */
+        public boolean changed(@Nullable Object value) {
+            if (value instanceof Matrix4dc m) {
+                return changed(m);
+            } else if (value instanceof Vector4dc v) {
+                return changed((float) v.x(), (float) v.y(), (float) v.z(), (float) v.w());
+            } else if (value instanceof Vector3dc v) {
+                return changed((float) v.x(), (float) v.y(), (float) v.z());
+            } else if (value instanceof Vector2dc v) {
+                return changed((float) v.x(), (float) v.y());
+            } else if (value instanceof Vector2ic v) {
+                return changed(v.x(), v.y());
+            }
+            valid = false;
+            return true;
+        }
     }
 
     // region Setters
@@ -213,10 +352,12 @@ public abstract class Uniform<T> {
         }
 
         @Override
-        public void load(int location) {
+        public void load(Slot slot) {
             val value = booleanValue();
-            setter.setBoolean(location, value);
-            lastLocation = location;
+            if (slot.changed(value ? 1 : 0)) {
+                setter.setBoolean(slot.location, value);
+            }
+            lastSlot = slot;
         }
     }
 
@@ -241,10 +382,12 @@ public abstract class Uniform<T> {
         }
 
         @Override
-        public void load(int location) {
+        public void load(Slot slot) {
             val value = intValue();
-            setter.setInt(location, value);
-            lastLocation = location;
+            if (slot.changed(value)) {
+                setter.setInt(slot.location, value);
+            }
+            lastSlot = slot;
         }
     }
 
@@ -269,10 +412,12 @@ public abstract class Uniform<T> {
         }
 
         @Override
-        public void load(int location) {
+        public void load(Slot slot) {
             val value = floatValue();
-            setter.setFloat(location, value);
-            lastLocation = location;
+            if (slot.changed(value)) {
+                setter.setFloat(slot.location, value);
+            }
+            lastSlot = slot;
         }
     }
 
@@ -297,10 +442,12 @@ public abstract class Uniform<T> {
         }
 
         @Override
-        public void load(int location) {
+        public void load(Slot slot) {
             val value = doubleValue();
-            setter.setDouble(location, value);
-            lastLocation = location;
+            if (slot.changed((float) value)) {
+                setter.setDouble(slot.location, value);
+            }
+            lastSlot = slot;
         }
     }
 
@@ -320,10 +467,12 @@ public abstract class Uniform<T> {
         }
 
         @Override
-        public void load(int location) {
+        public void load(Slot slot) {
             val value = value();
-            setter.set(location, value);
-            lastLocation = location;
+            if (slot.changed(value)) {
+                setter.set(slot.location, value);
+            }
+            lastSlot = slot;
         }
     }
     // endregion
@@ -0,0 +1,54 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.uniform;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Uniforms by name, so binding the active uniforms of a program does not compare every name against every candidate.
+ * <p>
+ * Lookups give the same result as searching the list front to back, if several uniforms share a name the first one
+ * wins. Aliases like {@code gaux1} are separate entries in the sampler lists, so they get indexed like any other name.
+ */
+public final class UniformIndex {
+    private final List<Uniform<?>> source;
+    private final Object2ObjectMap<String, @NotNull Uniform<?>> byName;
+
+    private UniformIndex(List<Uniform<?>> source, Object2ObjectMap<String, @NotNull Uniform<?>> byName) {
+        this.source = source;
+        this.byName = byName;
+    }
+
+    public static UniformIndex of(List<Uniform<?>> uniforms) {
+        val byName = new Object2ObjectOpenHashMap<String, @NotNull Uniform<?>>(uniforms.size());
+        for (val uniform : uniforms) {
+            byName.putIfAbsent(uniform.name(), uniform);
+        }
+        return new UniformIndex(uniforms, byName);
+    }
+
+    /**
+     * @return if this index was built from exactly this list instance
+     */
+    public boolean isFor(List<Uniform<?>> uniforms) {
+        return source == uniforms;
+    }
+
+    public @Nullable Uniform<?> get(String name) {
+        return byName.get(name);
+    }
+}
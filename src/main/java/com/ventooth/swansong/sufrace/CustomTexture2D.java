@@ -13,6 +13,7 @@ package com.ventooth.swansong.sufrace;
 import com.ventooth.swansong.Share;
 import com.ventooth.swansong.gl.GLTexture;
 import com.ventooth.swansong.shader.preprocessor.FSProvider;
+import lombok.Cleanup;
 import lombok.val;
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.Logger;
@@ -36,7 +37,8 @@ public final class CustomTexture2D extends Texture2D {
         final int height;
         final IntBuffer buf;
         try {
-            val img = ImageIO.read(fs.get(path));
+            @Cleanup val in = fs.get(path);
+            val img = ImageIO.read(in);
             width = img.getWidth();
             height = img.getHeight();
 
@@ -54,7 +56,8 @@ public final class CustomTexture2D extends Texture2D {
 
         TextureMeta meta;
         try {
-            val str = IOUtils.toString(fs.get(path + ".mcmeta"));
+            @Cleanup val in = fs.get(path + ".mcmeta");
+            val str = IOUtils.toString(in);
             meta = TextureMeta.read(str);
             if (meta == null) {
                 log.debug("Texture meta is null");
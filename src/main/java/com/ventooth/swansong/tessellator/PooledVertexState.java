@@ -0,0 +1,43 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.tessellator;
+
+import net.minecraft.client.shader.TesselatorVertexState;
+
+/**
+ * A vertex state whose buffer came from the {@link VertexArrayPool}, so it can be longer than the vertices in it.
+ * <p>
+ * Whoever drops the last reference to the state may {@link #release} the buffer, the state must not be used after.
+ */
+public final class PooledVertexState extends TesselatorVertexState {
+    private boolean released;
+
+    PooledVertexState(int[] rawBuffer,
+                      int rawBufferIndex,
+                      int vertexCount,
+                      boolean hasTexture,
+                      boolean hasBrightness,
+                      boolean hasNormals,
+                      boolean hasColor) {
+        super(rawBuffer, rawBufferIndex, vertexCount, hasTexture, hasBrightness, hasNormals, hasColor);
+    }
+
+    /**
+     * Hands the buffer back to the pool of the calling thread, only the first call does anything.
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        VertexArrayPool.release(getRawBuffer());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.tessellator;
+
+import lombok.val;
+
+import java.util.Arrays;
+
+import static com.ventooth.swansong.tessellator.ShaderVert.POSITION_X_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.POSITION_Y_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.POSITION_Z_STRIDE_OFFSET;
+
+/**
+ * Sorts translucent quads back to front.
+ * <p>
+ * Vanilla feeds boxed quad offsets through a comparator, which works out both distances on every comparison. Here the
+ * distance of each quad is computed once, and its bits radix sorted along with the quad index. The distance math is
+ * the same as the comparator's, so both produce the same order. Quads at equal distance keep the order they were drawn
+ * in, and quads with a NaN distance come first, where {@code Float.compare} puts them.
+ * <p>
+ * Not thread safe, each tessellator has its own.
+ */
+public final class QuadSorter {
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int PASSES = Integer.SIZE / RADIX_BITS;
+
+    private final int[] counts = new int[PASSES * RADIX];
+    private int[] keys = new int[0];
+    private int[] quads = new int[0];
+    private int[] keysSwap = new int[0];
+    private int[] quadsSwap = new int[0];
+
+    /**
+     * @param quad   int index of the first vertex of the quad
+     * @param stride vertex stride in ints
+     *
+     * @return squared distance between the quad's center and the given position
+     */
+    public static float distanceSq(int[] buffer, int quad, int stride, float x, float y, float z) {
+        val v0 = quad;
+        val v1 = v0 + stride;
+        val v2 = v1 + stride;
+        val v3 = v2 + stride;
+        val cx = (Float.intBitsToFloat(buffer[v0 + POSITION_X_STRIDE_OFFSET]) - x +
+                  (Float.intBitsToFloat(buffer[v1 + POSITION_X_STRIDE_OFFSET]) - x) +
+                  (Float.intBitsToFloat(buffer[v2 + POSITION_X_STRIDE_OFFSET]) - x) +
+                  (Float.intBitsToFloat(buffer[v3 + POSITION_X_STRIDE_OFFSET]) - x)) * 0.25F;
+        val cy = (Float.intBitsToFloat(buffer[v0 + POSITION_Y_STRIDE_OFFSET]) - y +
+                  (Float.intBitsToFloat(buffer[v1 + POSITION_Y_STRIDE_OFFSET]) - y) +
+                  (Float.intBitsToFloat(buffer[v2 + POSITION_Y_STRIDE_OFFSET]) - y) +
+                  (Float.intBitsToFloat(buffer[v3 + POSITION_Y_STRIDE_OFFSET]) - y)) * 0.25F;
+        val cz = (Float.intBitsToFloat(buffer[v0 + POSITION_Z_STRIDE_OFFSET]) - z +
+                  (Float.intBitsToFloat(buffer[v1 + POSITION_Z_STRIDE_OFFSET]) - z) +
+                  (Float.intBitsToFloat(buffer[v2 + POSITION_Z_STRIDE_OFFSET]) - z) +
+                  (Float.intBitsToFloat(buffer[v3 + POSITION_Z_STRIDE_OFFSET]) - z)) * 0.25F;
+        return cx * cx + cy * cy + cz * cz;
+    }
+
+    /**
+     * Writes the quads to {@code dst} ordered back to front as seen from the given position. Ints past the last whole
+     * quad are copied over as is.
+     *
+     * @param length number of ints in {@code src} to sort
+     * @param stride vertex stride in ints
+     */
+    public void sort(int[] src, int length, int stride, float x, float y, float z, int[] dst) {
+        val quadInts = stride * 4;
+        val count = length / quadInts;
+        ensureCapacity(count);
+
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < count; i++) {
+            // Distances are never negative, so their bits order like ints, flipping them puts the farthest first.
+            // NaN turns into the canonical NaN, which is past infinity, matching Float.compare
+            val key = Integer.MAX_VALUE - Float.floatToIntBits(distanceSq(src, i * quadInts, stride, x, y, z));
+            keys[i] = key;
+            quads[i] = i;
+            for (int pass = 0; pass < PASSES; pass++) {
+                counts[pass * RADIX + (key >>> (pass * RADIX_BITS) & (RADIX - 1))]++;
+            }
+        }
+
+        var k = keys;
+        var q = quads;
+        var kSwap = keysSwap;
+        var qSwap = quadsSwap;
+        for (int pass = 0; pass < PASSES && count > 1; pass++) {
+            val shift = pass * RADIX_BITS;
+            val base = pass * RADIX;
+            // Nothing to reorder if every key has the same digit
+            if (counts[base + (k[0] >>> shift & (RADIX - 1))] == count) {
+                continue;
+            }
+            var offset = 0;
+            for (int digit = 0; digit < RADIX; digit++) {
+                val digitCount = counts[base + digit];
+                counts[base + digit] = offset;
+                offset += digitCount;
+            }
+            for (int i = 0; i < count; i++) {
+                val key = k[i];
+                val slot = counts[base + (key >>> shift & (RADIX - 1))]++;
+                kSwap[slot] = key;
+                qSwap[slot] = q[i];
+            }
+            val kTmp = k;
+            k = kSwap;
+            kSwap = kTmp;
+            val qTmp = q;
+            q = qSwap;
+            qSwap = qTmp;
+        }
+
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(src, q[i] * quadInts, dst, i * quadInts, quadInts);
+        }
+        val sortedInts = count * quadInts;
+        System.arraycopy(src, sortedInts, dst, sortedInts, length - sortedInts);
+    }
+
+    private void ensureCapacity(int count) {
+        if (keys.length >= count) {
+            return;
+        }
+        val capacity = Math.max(count, keys.length + (keys.length >> 1));
+        keys = new int[capacity];
+        quads = new int[capacity];
+        keysSwap = new int[capacity];
+        quadsSwap = new int[capacity];
+    }
+}
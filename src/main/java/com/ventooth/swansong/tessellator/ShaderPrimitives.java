@@ -0,0 +1,217 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.tessellator;
+
+import lombok.val;
+
+import static com.ventooth.swansong.tessellator.ShaderVert.COMPACT_EDGE_TEXTURE_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.COMPACT_MID_TEXTURE_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.COMPACT_NORMAL_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.COMPACT_TANGENT_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.EDGE_TEXTURE_U_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.EDGE_TEXTURE_V_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.MID_TEXTURE_U_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.MID_TEXTURE_V_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.NORMAL_X_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.NORMAL_Y_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.NORMAL_Z_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.POSITION_X_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.POSITION_Y_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.POSITION_Z_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.TANGENT_W_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.TANGENT_X_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.TANGENT_Y_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.TANGENT_Z_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.TEXTURE_U_STRIDE_OFFSET;
+import static com.ventooth.swansong.tessellator.ShaderVert.TEXTURE_V_STRIDE_OFFSET;
+
+/**
+ * Fills in the normal, tangent, mid and edge texture coordinates of whole triangles and quads in one pass over the
+ * tessellator's buffer, once their positions and texture coordinates are in place.
+ * <p>
+ * Every value is shared by all vertices of a primitive, so it is computed once and written to each of them. The math
+ * matches what used to run per primitive while tessellating operation for operation, so the results are the same bits.
+ * <p>
+ * Other draw modes get nothing generated, so their vertices carry zero for all of these. They used to repeat whatever
+ * the last triangle or quad tessellated before them had.
+ */
+final class ShaderPrimitives {
+    private ShaderPrimitives() {
+    }
+
+    /**
+     * @param start  int index of the first vertex of the first primitive
+     * @param end    int index past the last vertex of the last complete primitive
+     * @param quads  true for quads, false for triangles
+     * @param stride vertex stride in ints, selects the layout
+     */
+    static void generate(int[] buffer, int start, int end, boolean quads, int stride) {
+        val compact = stride == ShaderVert.COMPACT_STRIDE_INTS;
+        val primitiveStride = stride * (quads ? 4 : 3);
+        for (int a = start; a + primitiveStride <= end; a += primitiveStride) {
+            val b = a + stride;
+            val c = b + stride;
+            // Triangles have no D, reading C in its place keeps the loop free of branches on the mode
+            val d = quads ? c + stride : c;
+
+            val ax = getFloat(buffer, a + POSITION_X_STRIDE_OFFSET);
+            val ay = getFloat(buffer, a + POSITION_Y_STRIDE_OFFSET);
+            val az = getFloat(buffer, a + POSITION_Z_STRIDE_OFFSET);
+            val bx = getFloat(buffer, b + POSITION_X_STRIDE_OFFSET);
+            val by = getFloat(buffer, b + POSITION_Y_STRIDE_OFFSET);
+            val bz = getFloat(buffer, b + POSITION_Z_STRIDE_OFFSET);
+            val cx = getFloat(buffer, c + POSITION_X_STRIDE_OFFSET);
+            val cy = getFloat(buffer, c + POSITION_Y_STRIDE_OFFSET);
+            val cz = getFloat(buffer, c + POSITION_Z_STRIDE_OFFSET);
+
+            val au = getFloat(buffer, a + TEXTURE_U_STRIDE_OFFSET);
+            val av = getFloat(buffer, a + TEXTURE_V_STRIDE_OFFSET);
+            val bu = getFloat(buffer, b + TEXTURE_U_STRIDE_OFFSET);
+            val bv = getFloat(buffer, b + TEXTURE_V_STRIDE_OFFSET);
+            val cu = getFloat(buffer, c + TEXTURE_U_STRIDE_OFFSET);
+            val cv = getFloat(buffer, c + TEXTURE_V_STRIDE_OFFSET);
+            val du = getFloat(buffer, d + TEXTURE_U_STRIDE_OFFSET);
+            val dv = getFloat(buffer, d + TEXTURE_V_STRIDE_OFFSET);
+
+            val length_AC_X = cx - ax;
+            val length_AC_Y = cy - ay;
+            val length_AC_Z = cz - az;
+
+            // Quads cross the diagonals, triangles cross two of their edges
+            final float length_2_X;
+            final float length_2_Y;
+            final float length_2_Z;
+            if (quads) {
+                length_2_X = getFloat(buffer, d + POSITION_X_STRIDE_OFFSET) - bx;
+                length_2_Y = getFloat(buffer, d + POSITION_Y_STRIDE_OFFSET) - by;
+                length_2_Z = getFloat(buffer, d + POSITION_Z_STRIDE_OFFSET) - bz;
+            } else {
+                length_2_X = ax - bx;
+                length_2_Y = ay - by;
+                length_2_Z = az - bz;
+            }
+
+            var normalX = (length_AC_Y * length_2_Z) - (length_AC_Z * length_2_Y);
+            var normalY = (length_AC_Z * length_2_X) - (length_AC_X * length_2_Z);
+            var normalZ = (length_AC_X * length_2_Y) - (length_AC_Y * length_2_X);
+
+            val normalLength = safeSqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+            normalX /= normalLength;
+            normalY /= normalLength;
+            normalZ /= normalLength;
+
+            val length_AB_X = bx - ax;
+            val length_AB_Y = by - ay;
+            val length_AB_Z = bz - az;
+
+            val length_AB_U = bu - au;
+            val length_AB_V = bv - av;
+
+            val length_AC_U = cu - au;
+            val length_AC_V = cv - av;
+
+            val lengthSq_UV = length_AB_U * length_AC_V - length_AC_U * length_AB_V;
+            val deltaFactor = lengthSq_UV == 0.0 ? 1.0f : 1.0f / lengthSq_UV;
+
+            val tangentXUnscaled = deltaFactor * (length_AC_V * length_AB_X - length_AB_V * length_AC_X);
+            val tangentYUnscaled = deltaFactor * (length_AC_V * length_AB_Y - length_AB_V * length_AC_Y);
+            val tangentZUnscaled = deltaFactor * (length_AC_V * length_AB_Z - length_AB_V * length_AC_Z);
+
+            val tangentLength = safeSqrt(tangentXUnscaled * tangentXUnscaled +
+                                         tangentYUnscaled * tangentYUnscaled +
+                                         tangentZUnscaled * tangentZUnscaled);
+            val tangentX = tangentXUnscaled / tangentLength;
+            val tangentY = tangentYUnscaled / tangentLength;
+            val tangentZ = tangentZUnscaled / tangentLength;
+
+            val biTangentXUnscaled = deltaFactor * (-length_AC_U * length_AB_X + length_AB_U * length_AC_X);
+            val biTangentYUnscaled = deltaFactor * (-length_AC_U * length_AB_Y + length_AB_U * length_AC_Y);
+            val biTangentZUnscaled = deltaFactor * (-length_AC_U * length_AB_Z + length_AB_U * length_AC_Z);
+
+            val biTangentLength = safeSqrt(biTangentXUnscaled * biTangentXUnscaled +
+                                           biTangentYUnscaled * biTangentYUnscaled +
+                                           biTangentZUnscaled * biTangentZUnscaled);
+            val biTangentX = biTangentXUnscaled / biTangentLength;
+            val biTangentY = biTangentYUnscaled / biTangentLength;
+            val biTangentZ = biTangentZUnscaled / biTangentLength;
+
+            val otherBiTangentX = tangentY * normalZ - tangentZ * normalY;
+            val otherBiTangentY = tangentZ * normalX - tangentX * normalZ;
+            val otherBiTangentZ = tangentX * normalY - tangentY * normalX;
+
+            val tangentDotProduct = (biTangentX * otherBiTangentX) +
+                                    (biTangentY * otherBiTangentY) +
+                                    (biTangentZ * otherBiTangentZ);
+            val tangentW = tangentDotProduct < 0 ? -1.0F : 1.0F;
+
+            // For triangles D is C again, which leaves the min and max unchanged
+            val minU = Math.min(Math.min(au, bu), Math.min(cu, du));
+            val minV = Math.min(Math.min(av, bv), Math.min(cv, dv));
+            val maxU = Math.max(Math.max(au, bu), Math.max(cu, du));
+            val maxV = Math.max(Math.max(av, bv), Math.max(cv, dv));
+
+            val midU = (minU + maxU) / 2;
+            val midV = (minV + maxV) / 2;
+
+            if (compact) {
+                val normal = ShaderVert.packBytes(ShaderVert.snorm8(normalX),
+                                                  ShaderVert.snorm8(normalY),
+                                                  ShaderVert.snorm8(normalZ),
+                                                  0);
+                val tangent = ShaderVert.packBytes(ShaderVert.snorm8(tangentX),
+                                                   ShaderVert.snorm8(tangentY),
+                                                   ShaderVert.snorm8(tangentZ),
+                                                   ShaderVert.snorm8(tangentW));
+                val mid = ShaderVert.packShorts(ShaderVert.unorm16(midU), ShaderVert.unorm16(midV));
+                val edge = ShaderVert.packShorts(ShaderVert.unorm16(minU), ShaderVert.unorm16(minV));
+                for (int v = a; v < a + primitiveStride; v += stride) {
+                    buffer[v + COMPACT_NORMAL_STRIDE_OFFSET] = normal;
+                    buffer[v + COMPACT_TANGENT_STRIDE_OFFSET] = tangent;
+                    buffer[v + COMPACT_MID_TEXTURE_STRIDE_OFFSET] = mid;
+                    buffer[v + COMPACT_EDGE_TEXTURE_STRIDE_OFFSET] = edge;
+                }
+            } else {
+                val iNormalX = Float.floatToRawIntBits(normalX);
+                val iNormalY = Float.floatToRawIntBits(normalY);
+                val iNormalZ = Float.floatToRawIntBits(normalZ);
+                val iTangentX = Float.floatToRawIntBits(tangentX);
+                val iTangentY = Float.floatToRawIntBits(tangentY);
+                val iTangentZ = Float.floatToRawIntBits(tangentZ);
+                val iTangentW = Float.floatToRawIntBits(tangentW);
+                val iMidU = Float.floatToRawIntBits(midU);
+                val iMidV = Float.floatToRawIntBits(midV);
+                val iEdgeU = Float.floatToRawIntBits(minU);
+                val iEdgeV = Float.floatToRawIntBits(minV);
+                for (int v = a; v < a + primitiveStride; v += stride) {
+                    buffer[v + NORMAL_X_STRIDE_OFFSET] = iNormalX;
+                    buffer[v + NORMAL_Y_STRIDE_OFFSET] = iNormalY;
+                    buffer[v + NORMAL_Z_STRIDE_OFFSET] = iNormalZ;
+                    buffer[v + TANGENT_X_STRIDE_OFFSET] = iTangentX;
+                    buffer[v + TANGENT_Y_STRIDE_OFFSET] = iTangentY;
+                    buffer[v + TANGENT_Z_STRIDE_OFFSET] = iTangentZ;
+                    buffer[v + TANGENT_W_STRIDE_OFFSET] = iTangentW;
+                    buffer[v + MID_TEXTURE_U_STRIDE_OFFSET] = iMidU;
+                    buffer[v + MID_TEXTURE_V_STRIDE_OFFSET] = iMidV;
+                    buffer[v + EDGE_TEXTURE_U_STRIDE_OFFSET] = iEdgeU;
+                    buffer[v + EDGE_TEXTURE_V_STRIDE_OFFSET] = iEdgeV;
+                }
+            }
+        }
+    }
+
+    private static float getFloat(int[] buffer, int index) {
+        return Float.intBitsToFloat(buffer[index]);
+    }
+
+    private static float safeSqrt(float value) {
+        return value != 0F ? (float) Math.sqrt(value) : 1F;
+    }
+}
@@ -16,19 +16,22 @@ import com.ventooth.swansong.shader.ShaderEngine;
 import com.ventooth.swansong.shader.ShaderEntityData;
 import com.ventooth.swansong.todo.tess.DanglingWiresTess;
 import lombok.val;
+import org.jetbrains.annotations.Nullable;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 
 import net.minecraft.client.renderer.OpenGlHelper;
 import net.minecraft.client.renderer.Tessellator;
+import net.minecraft.client.shader.TesselatorVertexState;
 
-import java.util.Arrays;
+import cpw.mods.fml.common.Loader;
+
+import java.nio.ByteBuffer;
 
 import static com.ventooth.swansong.mixin.mixins.client.TessellatorAccessor.getTessByteBuf;
-import static com.ventooth.swansong.mixin.mixins.client.TessellatorAccessor.getTessFloatBuf;
 import static com.ventooth.swansong.mixin.mixins.client.TessellatorAccessor.getTessIntBuf;
-import static com.ventooth.swansong.mixin.mixins.client.TessellatorAccessor.getTessShortBuf;
 
 public class ShaderTess {
     public static final int MIN_BUFFER_SIZE_INTS = 0x10000;
@@ -44,15 +47,89 @@ public class ShaderTess {
     protected final ShaderVert vertC;
     protected final ShaderVert vertD;
 
+    /**
+     * Off with FalseTweaks, which overwrites {@code QuadComparator.compare} with its own, see the priority of
+     * {@code QuadComparatorMixin}. FalseTweaks offers no hook to hand it quads that are already sorted, and sorting
+     * here would skip its comparator entirely, so with it installed the vanilla sort stays in charge.
+     */
+    private static final boolean SORTS_QUADS = !Loader.isModLoaded("falsetweaks");
+
+    /**
+     * Latched while loading a shader pack, so the layout never changes while tessellating.
+     */
+    private static boolean compactVertices;
+
+    /**
+     * Present while streaming is enabled, render thread only
+     */
+    private static @Nullable VertexStream stream;
+
+    /**
+     * Set by the hooks around the display lists of chunks and models, render thread only
+     */
+    private static boolean compilingDisplayList;
+
+    /**
+     * Byte offset of the vertices being drawn in the {@link #stream}, -1 when drawing from client side arrays
+     */
+    private int streamOffset = -1;
+
+    /**
+     * Peak of the ints used per draw, decaying a little with every draw
+     */
+    private int recentPeakInts;
+
+    /**
+     * Only created for tessellators that get translucency sorted
+     */
+    private @Nullable QuadSorter quadSorter;
+
     //FalseTweaks mixin lands here
     public static int vertexStrideInt() {
-        return ShaderEngine.isInitialized() ? 20 : 8;
+        if (!ShaderEngine.isInitialized()) {
+            return 8;
+        }
+        return compactVertices ? ShaderVert.COMPACT_STRIDE_INTS : ShaderVert.STRIDE_INTS;
     }
 
     public static int vertexStrideByte() {
         return vertexStrideInt() * Integer.BYTES;
     }
 
+    /**
+     * Selects the {@link ShaderVert} layout, the caller is responsible for rebuilding anything tessellated before.
+     */
+    public static void compactVertices(boolean compact) {
+        assert !compact || !DanglingWiresTess.useMultiTexCoord3Attrib : "multiTexCoord3 needs the full layout";
+        compactVertices = compact;
+    }
+
+    /**
+     * Creates or deletes the vertex stream, must be called from the render thread.
+     */
+    public static void streamVertices(boolean enabled) {
+        if (enabled && stream == null) {
+            stream = VertexStream.create();
+        } else if (!enabled && stream != null) {
+            stream.delete();
+            stream = null;
+        }
+    }
+
+    /**
+     * Called right after {@code glNewList} and right before {@code glEndList}.
+     */
+    public static void compilingDisplayList(boolean compiling) {
+        compilingDisplayList = compiling;
+    }
+
+    /**
+     * @return true if {@link #getVertexState} should replace the comparator driven sort of vanilla
+     */
+    public static boolean sortsQuads() {
+        return SORTS_QUADS;
+    }
+
     public ShaderTess(Tessellator tess) {
         this.tess = tess;
         this.entityData = ShaderEntityData.get();
@@ -88,55 +165,72 @@ public class ShaderTess {
         if (tess.drawMode == GL11.GL_TRIANGLES && tess.vertexCount % 3 != 0) {
             Share.log.warn("Bad vertex count for Triangles: {}", tess.vertexCount);
         }
+        if (tess.drawMode == GL11.GL_QUADS || tess.drawMode == GL11.GL_TRIANGLES) {
+            ShaderPrimitives.generate(tess.rawBuffer, 0, tess.rawBufferIndex, tess.drawMode == GL11.GL_QUADS, iStride);
+        }
+
+        // Display lists copy the vertices while compiling, which is better done from client memory than from the
+        // stream. Lists compiled without the hooks still work, they just read from the stream.
+        val stream = compilingDisplayList ? null : ShaderTess.stream;
+        var maxBytes = getTessByteBuf().capacity();
+        if (stream != null) {
+            maxBytes = Math.min(maxBytes, stream.maxUploadBytes());
+        }
 
         var voffset = 0;
         val realDrawMode = tess.drawMode;
         while (voffset < tess.vertexCount) {
-            int vcount = Math.min(tess.vertexCount - voffset, getTessByteBuf().capacity() / bStride);
+            int vcount = Math.min(tess.vertexCount - voffset, maxBytes / bStride);
             if (realDrawMode == GL11.GL_QUADS) {
                 vcount = vcount / 4 * 4;
             }
 
-            getTessFloatBuf().clear();
-            getTessShortBuf().clear();
-            getTessIntBuf().clear();
-            getTessIntBuf().put(tess.rawBuffer, voffset * iStride, vcount * iStride);
-            getTessByteBuf().position(0);
-            getTessByteBuf().limit(vcount * bStride);
+            if (stream != null) {
+                streamOffset = stream.upload(tess.rawBuffer, voffset * iStride, vcount * iStride, getTessIntBuf());
+            } else {
+                getTessIntBuf().clear();
+                getTessIntBuf().put(tess.rawBuffer, voffset * iStride, vcount * iStride);
+                getTessByteBuf().position(0);
+                getTessByteBuf().limit(vcount * bStride);
+            }
             voffset += vcount;
             if (tess.hasTexture) {
-                getTessFloatBuf().position(3);
-                GL11.glTexCoordPointer(2, bStride, getTessFloatBuf());
+                texCoordPointer(2, GL11.GL_FLOAT, bStride, ShaderVert.TEXTURE_U_STRIDE_OFFSET * Integer.BYTES);
                 GL11.glEnableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
             }
 
             if (tess.hasBrightness) {
                 OpenGlHelper.setClientActiveTexture(OpenGlHelper.lightmapTexUnit);
-                getTessShortBuf().position(12);
-                GL11.glTexCoordPointer(2, bStride, getTessShortBuf());
+                texCoordPointer(2, GL11.GL_SHORT, bStride, ShaderVert.LIGHT_MAP_STRIDE_OFFSET * Integer.BYTES);
                 GL11.glEnableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
                 OpenGlHelper.setClientActiveTexture(OpenGlHelper.defaultTexUnit);
             }
 
             if (tess.hasColor) {
-                getTessByteBuf().position(20);
-                GL11.glColorPointer(4, GL11.GL_UNSIGNED_BYTE, bStride, getTessByteBuf());
+                colorPointer(4, GL11.GL_UNSIGNED_BYTE, bStride, ShaderVert.COLOR_STRIDE_OFFSET * Integer.BYTES);
                 GL11.glEnableClientState(GL11.GL_COLOR_ARRAY);
             }
 
             if (tess.hasNormals) {
-                getTessFloatBuf().position(9);
-                GL11.glNormalPointer(bStride, getTessFloatBuf());
+                if (compactVertices) {
+                    normalPointer(GL11.GL_BYTE, bStride, ShaderVert.COMPACT_NORMAL_STRIDE_OFFSET * Integer.BYTES);
+                } else {
+                    normalPointer(GL11.GL_FLOAT, bStride, ShaderVert.NORMAL_X_STRIDE_OFFSET * Integer.BYTES);
+                }
                 GL11.glEnableClientState(GL11.GL_NORMAL_ARRAY);
             }
 
-            getTessFloatBuf().position(0);
-            GL11.glVertexPointer(3, bStride, getTessFloatBuf());
+            vertexPointer(3, GL11.GL_FLOAT, bStride, ShaderVert.POSITION_X_STRIDE_OFFSET * Integer.BYTES);
             preDrawArray();
             GL11.glEnableClientState(GL11.GL_VERTEX_ARRAY);
             GL11.glDrawArrays(realDrawMode, 0, vcount);
         }
 
+        if (stream != null) {
+            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+            streamOffset = -1;
+        }
+
         GL11.glDisableClientState(GL11.GL_VERTEX_ARRAY);
         postDrawArray();
         if (tess.hasTexture) {
@@ -158,6 +252,7 @@ public class ShaderTess {
         }
 
         int n = tess.rawBufferIndex * 4;
+        trimBuffer(tess.rawBufferIndex);
         tess.reset();
 
         //        if (GLDebugGroups.isEnabled()) {
@@ -166,43 +261,172 @@ public class ShaderTess {
         return n;
     }
 
+    /**
+     * The state's buffer comes from the {@link VertexArrayPool}, {@code WorldRenderer} releases it once it replaces the
+     * state.
+     */
+    public TesselatorVertexState getVertexState(float posX, float posY, float posZ) {
+        if (quadSorter == null) {
+            quadSorter = new QuadSorter();
+        }
+        val length = tess.rawBufferIndex;
+        val sorted = VertexArrayPool.acquire(VertexArrayPool.sizeFor(length));
+        quadSorter.sort(tess.rawBuffer,
+                        length,
+                        vertexStrideInt(),
+                        posX + (float) tess.xOffset,
+                        posY + (float) tess.yOffset,
+                        posZ + (float) tess.zOffset,
+                        sorted);
+        System.arraycopy(sorted, 0, tess.rawBuffer, 0, length);
+        return new PooledVertexState(sorted,
+                                     length,
+                                     tess.vertexCount,
+                                     tess.hasTexture,
+                                     tess.hasBrightness,
+                                     tess.hasNormals,
+                                     tess.hasColor);
+    }
+
     protected void preDrawArray() {
         val bStride = vertexStrideByte();
         if (DanglingWiresTess.useEntityAttrib) {
-            getTessShortBuf().position(14);
-            GL20.glVertexAttribPointer(DanglingWiresTess.entityAttrib, 3, false, false, bStride, getTessShortBuf());
+            vertexAttribPointer(DanglingWiresTess.entityAttrib,
+                                3,
+                                GL11.GL_SHORT,
+                                false,
+                                bStride,
+                                ShaderVert.ENTITY_DATA_0_STRIDE_OFFSET * Integer.BYTES);
             GL20.glEnableVertexAttribArray(DanglingWiresTess.entityAttrib);
         }
 
-        if (tess.hasTexture) {
+        if (tess.hasTexture && compactVertices) {
+            preDrawArrayCompact(bStride);
+        } else if (tess.hasTexture) {
             if (DanglingWiresTess.useTangentAttrib) {
-                getTessFloatBuf().position(12);
-                GL20.glVertexAttribPointer(DanglingWiresTess.tangentAttrib, 4, false, bStride, getTessFloatBuf());
+                vertexAttribPointer(DanglingWiresTess.tangentAttrib,
+                                    4,
+                                    GL11.GL_FLOAT,
+                                    false,
+                                    bStride,
+                                    ShaderVert.TANGENT_X_STRIDE_OFFSET * Integer.BYTES);
                 GL20.glEnableVertexAttribArray(DanglingWiresTess.tangentAttrib);
             }
 
             if (DanglingWiresTess.useMidTexCoordAttrib) {
-                getTessFloatBuf().position(16);
-                GL20.glVertexAttribPointer(DanglingWiresTess.midTexCoordAttrib, 2, false, bStride, getTessFloatBuf());
+                vertexAttribPointer(DanglingWiresTess.midTexCoordAttrib,
+                                    2,
+                                    GL11.GL_FLOAT,
+                                    false,
+                                    bStride,
+                                    ShaderVert.MID_TEXTURE_U_STRIDE_OFFSET * Integer.BYTES);
                 GL20.glEnableVertexAttribArray(DanglingWiresTess.midTexCoordAttrib);
             }
 
             if (DanglingWiresTess.useMultiTexCoord3Attrib) {
-                getTessFloatBuf().position(16);
                 GL13.glClientActiveTexture(GL13.GL_TEXTURE3);
-                GL11.glTexCoordPointer(2, bStride, getTessFloatBuf());
+                texCoordPointer(2, GL11.GL_FLOAT, bStride, ShaderVert.MID_TEXTURE_U_STRIDE_OFFSET * Integer.BYTES);
                 GL11.glEnableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
                 GL13.glClientActiveTexture(GL13.GL_TEXTURE0);
             }
 
             if (DanglingWiresTess.useEdgeTexCoordAttrib) {
-                getTessFloatBuf().position(18);
-                GL20.glVertexAttribPointer(DanglingWiresTess.edgeTexCoordAttrib, 2, false, bStride, getTessFloatBuf());
+                vertexAttribPointer(DanglingWiresTess.edgeTexCoordAttrib,
+                                    2,
+                                    GL11.GL_FLOAT,
+                                    false,
+                                    bStride,
+                                    ShaderVert.EDGE_TEXTURE_U_STRIDE_OFFSET * Integer.BYTES);
                 GL20.glEnableVertexAttribArray(DanglingWiresTess.edgeTexCoordAttrib);
             }
         }
     }
 
+    /**
+     * Same attributes as the full layout, normalised so the shaders still read floats in the same ranges.
+     */
+    protected void preDrawArrayCompact(int bStride) {
+        if (DanglingWiresTess.useTangentAttrib) {
+            vertexAttribPointer(DanglingWiresTess.tangentAttrib,
+                                4,
+                                GL11.GL_BYTE,
+                                true,
+                                bStride,
+                                ShaderVert.COMPACT_TANGENT_STRIDE_OFFSET * Integer.BYTES);
+            GL20.glEnableVertexAttribArray(DanglingWiresTess.tangentAttrib);
+        }
+
+        if (DanglingWiresTess.useMidTexCoordAttrib) {
+            vertexAttribPointer(DanglingWiresTess.midTexCoordAttrib,
+                                2,
+                                GL11.GL_UNSIGNED_SHORT,
+                                true,
+                                bStride,
+                                ShaderVert.COMPACT_MID_TEXTURE_STRIDE_OFFSET * Integer.BYTES);
+            GL20.glEnableVertexAttribArray(DanglingWiresTess.midTexCoordAttrib);
+        }
+
+        // The compact layout is never selected while multiTexCoord3 is in use, see FixedEngineState
+
+        if (DanglingWiresTess.useEdgeTexCoordAttrib) {
+            vertexAttribPointer(DanglingWiresTess.edgeTexCoordAttrib,
+                                2,
+                                GL11.GL_UNSIGNED_SHORT,
+                                true,
+                                bStride,
+                                ShaderVert.COMPACT_EDGE_TEXTURE_STRIDE_OFFSET * Integer.BYTES);
+            GL20.glEnableVertexAttribArray(DanglingWiresTess.edgeTexCoordAttrib);
+        }
+    }
+
+    // The pointer setters take byte offsets into the current vertices, wherever they were uploaded to
+
+    private void vertexPointer(int size, int type, int stride, int offset) {
+        if (streamOffset >= 0) {
+            GL11.glVertexPointer(size, type, stride, (long) streamOffset + offset);
+        } else {
+            GL11.glVertexPointer(size, type, stride, clientArray(offset));
+        }
+    }
+
+    private void texCoordPointer(int size, int type, int stride, int offset) {
+        if (streamOffset >= 0) {
+            GL11.glTexCoordPointer(size, type, stride, (long) streamOffset + offset);
+        } else {
+            GL11.glTexCoordPointer(size, type, stride, clientArray(offset));
+        }
+    }
+
+    private void colorPointer(int size, int type, int stride, int offset) {
+        if (streamOffset >= 0) {
+            GL11.glColorPointer(size, type, stride, (long) streamOffset + offset);
+        } else {
+            GL11.glColorPointer(size, type, stride, clientArray(offset));
+        }
+    }
+
+    private void normalPointer(int type, int stride, int offset) {
+        if (streamOffset >= 0) {
+            GL11.glNormalPointer(type, stride, (long) streamOffset + offset);
+        } else {
+            GL11.glNormalPointer(type, stride, clientArray(offset));
+        }
+    }
+
+    private void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        if (streamOffset >= 0) {
+            GL20.glVertexAttribPointer(index, size, type, normalized, stride, (long) streamOffset + offset);
+        } else {
+            GL20.glVertexAttribPointer(index, size, type, normalized, stride, clientArray(offset));
+        }
+    }
+
+    private static ByteBuffer clientArray(int offset) {
+        val buf = getTessByteBuf();
+        buf.position(offset);
+        return buf;
+    }
+
     protected void postDrawArray() {
         if (DanglingWiresTess.useEntityAttrib) {
             GL20.glDisableVertexAttribArray(DanglingWiresTess.entityAttrib);
@@ -217,7 +441,7 @@ public class ShaderTess {
                 GL20.glDisableVertexAttribArray(DanglingWiresTess.midTexCoordAttrib);
             }
 
-            if (DanglingWiresTess.useMultiTexCoord3Attrib) {
+            if (DanglingWiresTess.useMultiTexCoord3Attrib && !compactVertices) {
                 GL13.glClientActiveTexture(GL13.GL_TEXTURE3);
                 GL11.glDisableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
                 GL13.glClientActiveTexture(GL13.GL_TEXTURE0);
@@ -260,6 +484,7 @@ public class ShaderTess {
                     addQuadPrimitive();
             }
         } else {
+            // Normal, tangent, mid and edge texture coordinates are never set here, so they are written as zero
             prepareVertex(vertA, posX, posY, posZ);
             addVertex(vertA);
         }
@@ -286,14 +511,37 @@ public class ShaderTess {
     }
 
     protected void extendBuffer(int oldBufferSize, int expectedSize) {
-        val newBufferSize1 = oldBufferSize * 2;
-        val newBufferSize2 = (int) Math.ceil(expectedSize * 1.5);
-        val newBufferSize = Math.max(newBufferSize1, newBufferSize2);
+        val newBufferSize = VertexArrayPool.sizeFor(Math.max(oldBufferSize * 2, expectedSize));
         val oldRawBuffer = tess.rawBuffer;
-        val newRawBuffer = oldRawBuffer == null ? new int[newBufferSize] : Arrays.copyOf(oldRawBuffer, newBufferSize);
+        val newRawBuffer = VertexArrayPool.acquire(newBufferSize);
+        if (oldRawBuffer != null) {
+            System.arraycopy(oldRawBuffer, 0, newRawBuffer, 0, tess.rawBufferIndex);
+        }
 
         ((TessellatorAccessor) tess).rawBufferSize(newBufferSize);
         tess.rawBuffer = newRawBuffer;
+        if (oldRawBuffer != null) {
+            VertexArrayPool.release(oldRawBuffer);
+        }
+    }
+
+    /**
+     * Swaps the buffer for a smaller one once it is far larger than what recent draws needed.
+     */
+    protected void trimBuffer(int usedInts) {
+        recentPeakInts = Math.max(usedInts, recentPeakInts - (recentPeakInts >>> 5));
+        val oldRawBuffer = tess.rawBuffer;
+        if (oldRawBuffer == null) {
+            return;
+        }
+        val newBufferSize = VertexArrayPool.sizeFor(recentPeakInts);
+        if (oldRawBuffer.length < newBufferSize * 4) {
+            return;
+        }
+
+        ((TessellatorAccessor) tess).rawBufferSize(newBufferSize);
+        tess.rawBuffer = VertexArrayPool.acquire(newBufferSize);
+        VertexArrayPool.release(oldRawBuffer);
     }
 
     protected void prepareVertex(ShaderVert vertex, float posX, float posY, float posZ) {
@@ -312,268 +560,42 @@ public class ShaderTess {
         tess.vertexCount++;
     }
 
+    /**
+     * The normal, tangent, mid and edge texture coordinates get filled in by {@link ShaderPrimitives} when drawing.
+     */
     protected void addTrianglePrimitive() {
-        calculateTriangleNormal();
-        calculateTangent();
-        calculateTriangleMidAndEdgeTexUV();
+        tess.hasNormals = true;
 
-        addVertex(vertA);
-        addVertex(vertB);
-        addVertex(vertC);
+        addVertexBase(vertA);
+        addVertexBase(vertB);
+        addVertexBase(vertC);
     }
 
+    /**
+     * The normal, tangent, mid and edge texture coordinates get filled in by {@link ShaderPrimitives} when drawing.
+     */
     protected void addQuadPrimitive() {
-        calculateQuadNormal();
-        calculateTangent();
-        calculateQuadMidAndEdgeTexUV();
-
-        addVertex(vertA);
-        addVertex(vertB);
-        addVertex(vertC);
-        addVertex(vertD);
-    }
-
-    protected void calculateTriangleNormal() {
-        val length_AC_X = vertC.positionX - vertA.positionX;
-        val length_AC_Y = vertC.positionY - vertA.positionY;
-        val length_AC_Z = vertC.positionZ - vertA.positionZ;
-
-        val length_AB_X = vertA.positionX - vertB.positionX;
-        val length_AB_Y = vertA.positionY - vertB.positionY;
-        val length_AB_Z = vertA.positionZ - vertB.positionZ;
-
-        var normalX = (length_AC_Y * length_AB_Z) - (length_AC_Z * length_AB_Y);
-        var normalY = (length_AC_Z * length_AB_X) - (length_AC_X * length_AB_Z);
-        var normalZ = (length_AC_X * length_AB_Y) - (length_AC_Y * length_AB_X);
-
-        val length = safeSqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
-        normalX /= length;
-        normalY /= length;
-        normalZ /= length;
-
-        setVertNormal(vertA, normalX, normalY, normalZ);
-        setVertNormal(vertB, normalX, normalY, normalZ);
-        setVertNormal(vertC, normalX, normalY, normalZ);
-
-        tess.hasNormals = true;
-    }
-
-    protected void calculateQuadNormal() {
-        val length_AC_X = vertC.positionX - vertA.positionX;
-        val length_AC_Y = vertC.positionY - vertA.positionY;
-        val length_AC_Z = vertC.positionZ - vertA.positionZ;
-
-        val length_DB_X = vertD.positionX - vertB.positionX;
-        val length_DB_Y = vertD.positionY - vertB.positionY;
-        val length_DB_Z = vertD.positionZ - vertB.positionZ;
-
-        var normalX = (length_AC_Y * length_DB_Z) - (length_AC_Z * length_DB_Y);
-        var normalY = (length_AC_Z * length_DB_X) - (length_AC_X * length_DB_Z);
-        var normalZ = (length_AC_X * length_DB_Y) - (length_AC_Y * length_DB_X);
-
-        val length = safeSqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
-        normalX /= length;
-        normalY /= length;
-        normalZ /= length;
-
-        setVertNormal(vertA, normalX, normalY, normalZ);
-        setVertNormal(vertB, normalX, normalY, normalZ);
-        setVertNormal(vertC, normalX, normalY, normalZ);
-        setVertNormal(vertD, normalX, normalY, normalZ);
-
         tess.hasNormals = true;
-    }
 
-    protected void setVertNormal(ShaderVert vert, float normalX, float normalY, float normalZ) {
-        vert.normalX = normalX;
-        vert.normalY = normalY;
-        vert.normalZ = normalZ;
+        addVertexBase(vertA);
+        addVertexBase(vertB);
+        addVertexBase(vertC);
+        addVertexBase(vertD);
     }
 
-    protected void calculateTangent() {
-        val length_AB_X = vertB.positionX - vertA.positionX;
-        val length_AB_Y = vertB.positionY - vertA.positionY;
-        val length_AB_Z = vertB.positionZ - vertA.positionZ;
-
-        val length_AC_X = vertC.positionX - vertA.positionX;
-        val length_AC_Y = vertC.positionY - vertA.positionY;
-        val length_AC_Z = vertC.positionZ - vertA.positionZ;
-
-        val length_AB_U = vertB.textureU - vertA.textureU;
-        val length_AB_V = vertB.textureV - vertA.textureV;
-
-        val length_AC_U = vertC.textureU - vertA.textureU;
-        val length_AC_V = vertC.textureV - vertA.textureV;
-
-        val lengthSq_UV = length_AB_U * length_AC_V - length_AC_U * length_AB_V;
-
-        final float deltaFactor;
-        if (lengthSq_UV == 0.0) {
-            deltaFactor = 1.0f;
-        } else {
-            deltaFactor = 1.0f / lengthSq_UV;
-        }
-
-        final float tangentX;
-        final float tangentY;
-        final float tangentZ;
-        {
-            val tangentXUnscaled = deltaFactor * (length_AC_V * length_AB_X - length_AB_V * length_AC_X);
-            val tangentYUnscaled = deltaFactor * (length_AC_V * length_AB_Y - length_AB_V * length_AC_Y);
-            val tangentZUnscaled = deltaFactor * (length_AC_V * length_AB_Z - length_AB_V * length_AC_Z);
-
-            val tangentLength = safeSqrt(tangentXUnscaled * tangentXUnscaled +
-                                         tangentYUnscaled * tangentYUnscaled +
-                                         tangentZUnscaled * tangentZUnscaled);
-            tangentX = tangentXUnscaled / tangentLength;
-            tangentY = tangentYUnscaled / tangentLength;
-            tangentZ = tangentZUnscaled / tangentLength;
-        }
-
-        final float biTangentX;
-        final float biTangentY;
-        final float biTangentZ;
-        {
-            val biTangentXUnscaled = deltaFactor * (-length_AC_U * length_AB_X + length_AB_U * length_AC_X);
-            val biTangentYUnscaled = deltaFactor * (-length_AC_U * length_AB_Y + length_AB_U * length_AC_Y);
-            val biTangentZUnscaled = deltaFactor * (-length_AC_U * length_AB_Z + length_AB_U * length_AC_Z);
-
-            val biTangentLength = safeSqrt(biTangentXUnscaled * biTangentXUnscaled +
-                                           biTangentYUnscaled * biTangentYUnscaled +
-                                           biTangentZUnscaled * biTangentZUnscaled);
-            biTangentX = biTangentXUnscaled / biTangentLength;
-            biTangentY = biTangentYUnscaled / biTangentLength;
-            biTangentZ = biTangentZUnscaled / biTangentLength;
-        }
-
-        val otherBiTangentX = tangentY * vertA.normalZ - tangentZ * vertA.normalY;
-        val otherBiTangentY = tangentZ * vertA.normalX - tangentX * vertA.normalZ;
-        val otherBiTangentZ = tangentX * vertA.normalY - tangentY * vertA.normalX;
-
-        val tangentDotProduct = (biTangentX * otherBiTangentX) +
-                                (biTangentY * otherBiTangentY) +
-                                (biTangentZ * otherBiTangentZ);
-
-        final float tangentW;
-        if (tangentDotProduct < 0) {
-            tangentW = -1.0F;
+    protected void addVertex(ShaderVert vertex) {
+        prepareBuffer();
+        if (compactVertices) {
+            vertex.toIntArrayCompact(tess.rawBufferIndex, tess.rawBuffer);
         } else {
-            tangentW = 1.0F;
-        }
-
-        if (tess.drawMode == GL11.GL_TRIANGLES) {
-            setVertTangent(vertA, tangentX, tangentY, tangentZ, tangentW);
-            setVertTangent(vertB, tangentX, tangentY, tangentZ, tangentW);
-            setVertTangent(vertC, tangentX, tangentY, tangentZ, tangentW);
-        } else if (tess.drawMode == GL11.GL_QUADS) {
-            setVertTangent(vertA, tangentX, tangentY, tangentZ, tangentW);
-            setVertTangent(vertB, tangentX, tangentY, tangentZ, tangentW);
-            setVertTangent(vertC, tangentX, tangentY, tangentZ, tangentW);
-            setVertTangent(vertD, tangentX, tangentY, tangentZ, tangentW);
+            vertex.toIntArray(tess.rawBufferIndex, tess.rawBuffer);
         }
+        tess.rawBufferIndex += vertexStrideInt();
     }
 
-    protected void setVertTangent(ShaderVert vert, float tangentX, float tangentY, float tangentZ, float tangentW) {
-        vert.tangentX = tangentX;
-        vert.tangentY = tangentY;
-        vert.tangentZ = tangentZ;
-        vert.tangentW = tangentW;
-    }
-
-    @SuppressWarnings("DuplicatedCode")
-    protected void calculateTriangleMidAndEdgeTexUV() {
-        val a = vertA;
-        val au = a.textureU;
-        val av = a.textureV;
-        val b = vertB;
-        val bu = b.textureU;
-        val bv = b.textureV;
-        val c = vertC;
-        val cu = c.textureU;
-        val cv = c.textureV;
-        val minU = min(au, bu, cu);
-        val minV = min(av, bv, cv);
-        val maxU = max(au, bu, cu);
-        val maxV = max(av, bv, cv);
-
-        val midU = (minU + maxU) / 2;
-        val midV = (minV + maxV) / 2;
-
-        setVertEdgeAndMidTexture(a, minU, minV, midU, midV);
-        setVertEdgeAndMidTexture(b, minU, minV, midU, midV);
-        setVertEdgeAndMidTexture(c, minU, minV, midU, midV);
-    }
-
-    @SuppressWarnings("DuplicatedCode")
-    protected void calculateQuadMidAndEdgeTexUV() {
-        val a = vertA;
-        val au = a.textureU;
-        val av = a.textureV;
-        val b = vertB;
-        val bu = b.textureU;
-        val bv = b.textureV;
-        val c = vertC;
-        val cu = c.textureU;
-        val cv = c.textureV;
-        val d = vertD;
-        val du = d.textureU;
-        val dv = d.textureV;
-        val minU = min(au, bu, cu, du);
-        val minV = min(av, bv, cv, dv);
-        val maxU = max(au, bu, cu, du);
-        val maxV = max(av, bv, cv, dv);
-
-        val midU = (minU + maxU) / 2;
-        val midV = (minV + maxV) / 2;
-
-        setVertEdgeAndMidTexture(a, minU, minV, midU, midV);
-        setVertEdgeAndMidTexture(b, minU, minV, midU, midV);
-        setVertEdgeAndMidTexture(c, minU, minV, midU, midV);
-        setVertEdgeAndMidTexture(d, minU, minV, midU, midV);
-    }
-
-    protected void setVertEdgeAndMidTexture(ShaderVert vert,
-                                            float edgeTextureU,
-                                            float edgeTextureV,
-                                            float midTextureU,
-                                            float midTextureV) {
-        setVertEdgeTexture(vert, edgeTextureU, edgeTextureV);
-        setVertMidTexture(vert, midTextureU, midTextureV);
-    }
-
-    protected void setVertMidTexture(ShaderVert vert, float midTextureU, float midTextureV) {
-        vert.midTextureU = midTextureU;
-        vert.midTextureV = midTextureV;
-    }
-
-    protected void setVertEdgeTexture(ShaderVert vert, float edgeTextureU, float edgeTextureV) {
-        vert.edgeTextureU = edgeTextureU;
-        vert.edgeTextureV = edgeTextureV;
-    }
-
-    protected void addVertex(ShaderVert vertex) {
+    protected void addVertexBase(ShaderVert vertex) {
         prepareBuffer();
-        vertex.toIntArray(tess.rawBufferIndex, tess.rawBuffer);
+        vertex.toIntArrayBase(tess.rawBufferIndex, tess.rawBuffer);
         tess.rawBufferIndex += vertexStrideInt();
     }
-
-    protected static float min(float a, float b, float c) {
-        return Math.min(Math.min(a, b), c);
-    }
-
-    protected static float max(float a, float b, float c) {
-        return Math.max(Math.max(a, b), c);
-    }
-
-    protected static float min(float a, float b, float c, float d) {
-        return Math.min(Math.min(a, b), Math.min(c, d));
-    }
-
-    protected static float max(float a, float b, float c, float d) {
-        return Math.max(Math.max(a, b), Math.max(c, d));
-    }
-
-    protected static float safeSqrt(float value) {
-        return value != 0F ? (float) Math.sqrt(value) : 1F;
-    }
 }
@@ -10,7 +10,13 @@
 
 package com.ventooth.swansong.tessellator;
 
+import java.nio.ByteOrder;
+
 public class ShaderVert {
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    public static final int STRIDE_INTS = 20;
+
     public static final int POSITION_X_STRIDE_OFFSET = 0;
     public static final int POSITION_Y_STRIDE_OFFSET = 1;
     public static final int POSITION_Z_STRIDE_OFFSET = 2;
@@ -39,6 +45,29 @@ public class ShaderVert {
     public static final int EDGE_TEXTURE_U_STRIDE_OFFSET = 18;
     public static final int EDGE_TEXTURE_V_STRIDE_OFFSET = 19;
 
+    /**
+     * The compact layout shares everything up to and including the entity data with the full one, the rest is
+     * quantised into normalised integers that the GL turns back into floats when reading the vertex.
+     */
+    public static final int COMPACT_STRIDE_INTS = 13;
+
+    /**
+     * Signed normalised bytes: x, y, z, padding
+     */
+    public static final int COMPACT_NORMAL_STRIDE_OFFSET = 9;
+    /**
+     * Signed normalised bytes: x, y, z, w
+     */
+    public static final int COMPACT_TANGENT_STRIDE_OFFSET = 10;
+    /**
+     * Unsigned normalised shorts: u, v
+     */
+    public static final int COMPACT_MID_TEXTURE_STRIDE_OFFSET = 11;
+    /**
+     * Unsigned normalised shorts: u, v
+     */
+    public static final int COMPACT_EDGE_TEXTURE_STRIDE_OFFSET = 12;
+
     public float positionX;
     public float positionY;
     public float positionZ;
@@ -67,7 +96,10 @@ public class ShaderVert {
     public float edgeTextureU;
     public float edgeTextureV;
 
-    public void toIntArray(int index, int[] output) {
+    /**
+     * Writes the part that is the same in both layouts, everything up to and including the entity data.
+     */
+    public void toIntArrayBase(int index, int[] output) {
         output[POSITION_X_STRIDE_OFFSET + index] = Float.floatToRawIntBits(positionX);
         output[POSITION_Y_STRIDE_OFFSET + index] = Float.floatToRawIntBits(positionY);
         output[POSITION_Z_STRIDE_OFFSET + index] = Float.floatToRawIntBits(positionZ);
@@ -80,6 +112,10 @@ public class ShaderVert {
 
         output[ENTITY_DATA_0_STRIDE_OFFSET + index] = entityData;
         output[ENTITY_DATA_1_STRIDE_OFFSET + index] = entityData2;
+    }
+
+    public void toIntArray(int index, int[] output) {
+        toIntArrayBase(index, output);
 
         output[NORMAL_X_STRIDE_OFFSET + index] = Float.floatToRawIntBits(normalX);
         output[NORMAL_Y_STRIDE_OFFSET + index] = Float.floatToRawIntBits(normalY);
@@ -96,4 +132,53 @@ public class ShaderVert {
         output[EDGE_TEXTURE_U_STRIDE_OFFSET + index] = Float.floatToRawIntBits(edgeTextureU);
         output[EDGE_TEXTURE_V_STRIDE_OFFSET + index] = Float.floatToRawIntBits(edgeTextureV);
     }
+
+    public void toIntArrayCompact(int index, int[] output) {
+        toIntArrayBase(index, output);
+
+        output[COMPACT_NORMAL_STRIDE_OFFSET + index] = packBytes(snorm8(normalX), snorm8(normalY), snorm8(normalZ), 0);
+        output[COMPACT_TANGENT_STRIDE_OFFSET + index] = packBytes(snorm8(tangentX),
+                                                                  snorm8(tangentY),
+                                                                  snorm8(tangentZ),
+                                                                  snorm8(tangentW));
+
+        output[COMPACT_MID_TEXTURE_STRIDE_OFFSET + index] = packShorts(unorm16(midTextureU), unorm16(midTextureV));
+        output[COMPACT_EDGE_TEXTURE_STRIDE_OFFSET + index] = packShorts(unorm16(edgeTextureU), unorm16(edgeTextureV));
+    }
+
+    /**
+     * Rounds to the nearest step, so unit vectors are off by at most half of 1/127 per component.
+     */
+    static int snorm8(float value) {
+        return Math.round(Math.max(-1F, Math.min(value, 1F)) * 127F) & 0xFF;
+    }
+
+    /**
+     * Texture coordinates outside of [0, 1] get clamped.
+     */
+    static int unorm16(float value) {
+        return Math.round(Math.max(0F, Math.min(value, 1F)) * 65535F);
+    }
+
+    /**
+     * @return the bytes in the given memory order
+     */
+    static int packBytes(int b0, int b1, int b2, int b3) {
+        if (LITTLE_ENDIAN) {
+            return b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
+        } else {
+            return (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+        }
+    }
+
+    /**
+     * @return the shorts in the given memory order
+     */
+    static int packShorts(int s0, int s1) {
+        if (LITTLE_ENDIAN) {
+            return s0 | (s1 << 16);
+        } else {
+            return (s0 << 16) | s1;
+        }
+    }
 }
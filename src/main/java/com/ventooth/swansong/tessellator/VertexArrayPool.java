@@ -0,0 +1,144 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.tessellator;
+
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recycles the vertex arrays of tessellators, so growing one on a chunk rebuild does not allocate a fresh array every
+ * time.
+ * <p>
+ * Arrays come in power of two size classes, from {@link ShaderTess#MIN_BUFFER_SIZE_INTS} up to
+ * {@link ShaderTess#MAX_BUFFER_SIZE_INTS}. Each thread keeps its own pool, which only retains a few arrays per size
+ * class and a bounded amount overall. Retained arrays are softly referenced, the garbage collector takes them back
+ * when memory runs low.
+ */
+public final class VertexArrayPool {
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(ShaderTess.MIN_BUFFER_SIZE_INTS);
+    private static final int MAX_SHIFT = Integer.numberOfTrailingZeros(ShaderTess.MAX_BUFFER_SIZE_INTS);
+    private static final int RETAINED_PER_CLASS = 2;
+    private static final long RETAINED_MAX_INTS = 0x400000;
+
+    private static final ThreadLocal<VertexArrayPool> pools = ThreadLocal.withInitial(VertexArrayPool::new);
+
+    private static final AtomicLong allocatedArrays = new AtomicLong();
+    private static final AtomicLong allocatedBytes = new AtomicLong();
+    private static final AtomicLong reusedArrays = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    private final SoftReference<int[]>[][] retained = new SoftReference[MAX_SHIFT - MIN_SHIFT + 1][RETAINED_PER_CLASS];
+
+    private VertexArrayPool() {
+    }
+
+    /**
+     * @return the size class that fits the given number of ints
+     */
+    public static int sizeFor(int ints) {
+        if (ints <= ShaderTess.MIN_BUFFER_SIZE_INTS) {
+            return ShaderTess.MIN_BUFFER_SIZE_INTS;
+        }
+        val size = Integer.highestOneBit(ints - 1) << 1;
+        if (size <= 0) {
+            throw new IllegalArgumentException("Vertex array too large: " + ints);
+        }
+        return size;
+    }
+
+    /**
+     * @param size a size from {@link #sizeFor}
+     *
+     * @return an array of exactly the given size, with undefined contents
+     */
+    public static int[] acquire(int size) {
+        val slots = pools.get()
+                         .slots(size);
+        if (slots != null) {
+            for (var i = 0; i < slots.length; i++) {
+                val ref = slots[i];
+                if (ref == null) {
+                    continue;
+                }
+                slots[i] = null;
+                val array = ref.get();
+                if (array != null) {
+                    reusedArrays.incrementAndGet();
+                    return array;
+                }
+            }
+        }
+        allocatedArrays.incrementAndGet();
+        allocatedBytes.addAndGet((long) size * Integer.BYTES);
+        return new int[size];
+    }
+
+    /**
+     * Hands an array back for reuse, nothing may reference it afterward. Arrays not from {@link #acquire} are fine,
+     * those that do not match a size class are left to the garbage collector.
+     */
+    public static void release(int[] array) {
+        val pool = pools.get();
+        val slots = pool.slots(array.length);
+        if (slots == null || pool.retainedInts() + array.length > RETAINED_MAX_INTS) {
+            return;
+        }
+        for (var i = 0; i < slots.length; i++) {
+            val ref = slots[i];
+            if (ref == null || ref.get() == null) {
+                slots[i] = new SoftReference<>(array);
+                return;
+            }
+        }
+    }
+
+    public static long allocatedArrays() {
+        return allocatedArrays.get();
+    }
+
+    public static long allocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public static long reusedArrays() {
+        return reusedArrays.get();
+    }
+
+    private SoftReference<int[]> @Nullable [] slots(int size) {
+        if (Integer.bitCount(size) != 1) {
+            return null;
+        }
+        val shift = Integer.numberOfTrailingZeros(size);
+        if (shift < MIN_SHIFT || shift > MAX_SHIFT) {
+            return null;
+        }
+        return retained[shift - MIN_SHIFT];
+    }
+
+    private long retainedInts() {
+        var total = 0L;
+        for (val slots : retained) {
+            for (val ref : slots) {
+                if (ref == null) {
+                    continue;
+                }
+                val array = ref.get();
+                if (array != null) {
+                    total += array.length;
+                }
+            }
+        }
+        return total;
+    }
+}
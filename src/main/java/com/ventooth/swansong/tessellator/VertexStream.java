@@ -0,0 +1,179 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.tessellator;
+
+import com.ventooth.swansong.Share;
+import lombok.val;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.opengl.ARBBufferStorage;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GLContext;
+import org.lwjgl.opengl.GLSync;
+
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A vertex buffer that tessellated geometry gets streamed through, instead of handing the driver client side arrays
+ * that it has to copy on every draw.
+ * <p>
+ * With {@code ARB_buffer_storage} the buffer stays mapped and vertices are written straight into it, fences keep the
+ * ring from overwriting what the GPU has yet to read. Without it, ranges are uploaded with {@code glBufferSubData} and
+ * the buffer is orphaned whenever the ring wraps around, which leaves the synchronization to the driver.
+ * <p>
+ * Render thread only.
+ */
+final class VertexStream implements VertexStreamRing.Target {
+    private static final Logger log = Share.getLogger();
+
+    private static final int SEGMENT_SIZE_BYTES = 2 * 1024 * 1024;
+    private static final int SEGMENTS = 8;
+    private static final long WAIT_TIMEOUT_NANOS = 1_000_000L;
+
+    private final int glBuffer;
+    private final VertexStreamRing ring;
+    /**
+     * Only present when persistently mapped
+     */
+    private final @Nullable IntBuffer mapped;
+    private final GLSync @Nullable [] fences;
+
+    private VertexStream(int glBuffer, @Nullable IntBuffer mapped) {
+        this.glBuffer = glBuffer;
+        this.ring = new VertexStreamRing(this, SEGMENT_SIZE_BYTES, SEGMENTS);
+        this.mapped = mapped;
+        this.fences = mapped != null ? new GLSync[SEGMENTS] : null;
+    }
+
+    public static VertexStream create() {
+        if (GLContext.getCapabilities().GL_ARB_buffer_storage) {
+            val stream = createPersistent();
+            if (stream != null) {
+                return stream;
+            }
+            log.warn("Failed to persistently map the vertex stream, falling back to orphaning");
+        }
+        return createOrphaning();
+    }
+
+    private static @Nullable VertexStream createPersistent() {
+        val capacity = (long) SEGMENT_SIZE_BYTES * SEGMENTS;
+        val flags = GL30.GL_MAP_WRITE_BIT |
+                    ARBBufferStorage.GL_MAP_PERSISTENT_BIT |
+                    ARBBufferStorage.GL_MAP_COHERENT_BIT;
+        val glBuffer = GL15.glGenBuffers();
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, glBuffer);
+        ARBBufferStorage.glBufferStorage(GL15.GL_ARRAY_BUFFER, capacity, flags);
+        val buf = GL30.glMapBufferRange(GL15.GL_ARRAY_BUFFER, 0, capacity, flags, null);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        if (buf == null) {
+            GL15.glDeleteBuffers(glBuffer);
+            return null;
+        }
+        log.debug("Initialized");
+        log.debug("Persistently mapped, using: {} segments, each sized at: {} bytes", SEGMENTS, SEGMENT_SIZE_BYTES);
+        return new VertexStream(glBuffer,
+                                buf.order(ByteOrder.nativeOrder())
+                                   .asIntBuffer());
+    }
+
+    private static VertexStream createOrphaning() {
+        val glBuffer = GL15.glGenBuffers();
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, glBuffer);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, (long) SEGMENT_SIZE_BYTES * SEGMENTS, GL15.GL_STREAM_DRAW);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        log.debug("Initialized");
+        log.debug("Orphaning, using: {} segments, each sized at: {} bytes", SEGMENTS, SEGMENT_SIZE_BYTES);
+        return new VertexStream(glBuffer, null);
+    }
+
+    public void delete() {
+        if (fences != null) {
+            for (var i = 0; i < fences.length; i++) {
+                val fence = fences[i];
+                if (fence != null) {
+                    GL32.glDeleteSync(fence);
+                    fences[i] = null;
+                }
+            }
+        }
+        // Deleting the buffer also unmaps it
+        GL15.glDeleteBuffers(glBuffer);
+        log.debug("Deinitialized");
+    }
+
+    /**
+     * @return the most bytes a single {@link #upload} can take
+     */
+    public int maxUploadBytes() {
+        return ring.segmentSize();
+    }
+
+    /**
+     * Copies the vertices into the stream and leaves it bound to {@code GL_ARRAY_BUFFER}, unbinding is up to the
+     * caller once done drawing.
+     *
+     * @param staging used for the upload when not persistently mapped
+     *
+     * @return byte offset of the uploaded vertices in the buffer
+     */
+    public int upload(int[] vertices, int offset, int length, IntBuffer staging) {
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, glBuffer);
+        val target = ring.allocate(length * Integer.BYTES);
+        if (mapped != null) {
+            mapped.position(target / Integer.BYTES);
+            mapped.put(vertices, offset, length);
+        } else {
+            staging.clear();
+            staging.put(vertices, offset, length);
+            staging.flip();
+            GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, target, staging);
+        }
+        return target;
+    }
+
+    @Override
+    public void beginSegment(int segment) {
+        if (fences == null) {
+            if (segment == 0) {
+                GL15.glBufferData(GL15.GL_ARRAY_BUFFER, (long) ring.capacity(), GL15.GL_STREAM_DRAW);
+            }
+            return;
+        }
+        val fence = fences[segment];
+        if (fence == null) {
+            return;
+        }
+        var flags = GL32.GL_SYNC_FLUSH_COMMANDS_BIT;
+        while (true) {
+            val result = GL32.glClientWaitSync(fence, flags, WAIT_TIMEOUT_NANOS);
+            if (result != GL32.GL_TIMEOUT_EXPIRED) {
+                if (result == GL32.GL_WAIT_FAILED) {
+                    log.error("Failed to wait for vertex stream segment {}", segment);
+                }
+                break;
+            }
+            flags = 0;
+        }
+        GL32.glDeleteSync(fence);
+        fences[segment] = null;
+    }
+
+    @Override
+    public void endSegment(int segment) {
+        if (fences != null) {
+            fences[segment] = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        }
+    }
+}
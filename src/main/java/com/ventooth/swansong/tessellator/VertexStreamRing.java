@@ -0,0 +1,86 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.tessellator;
+
+/**
+ * Hands out ranges of a streaming buffer in order, wrapping around at the end.
+ * <p>
+ * The buffer is split into equally sized segments, a range never straddles two of them. Leaving a segment ends it, and
+ * entering one begins it, which is where the {@link Target} makes sure the GPU is done reading what was written there
+ * last time around. Waiting per segment instead of per range keeps the number of fences small and fixed.
+ */
+final class VertexStreamRing {
+    private final Target target;
+    private final int segmentSize;
+    private final int segments;
+
+    private int segment;
+    private int head;
+    private int segmentEnd;
+
+    VertexStreamRing(Target target, int segmentSize, int segments) {
+        if (segmentSize <= 0 || segments <= 0) {
+            throw new IllegalArgumentException("Invalid ring layout: " + segments + " x " + segmentSize);
+        }
+        this.target = target;
+        this.segmentSize = segmentSize;
+        this.segments = segments;
+        this.segmentEnd = segmentSize;
+    }
+
+    public int capacity() {
+        return segmentSize * segments;
+    }
+
+    /**
+     * @return the largest range {@link #allocate} can hand out
+     */
+    public int segmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Everything the previous range was used for must have been issued before calling this.
+     *
+     * @return offset of a range of the given size that is safe to overwrite
+     */
+    public int allocate(int size) {
+        if (size < 0 || size > segmentSize) {
+            throw new IllegalArgumentException("Cannot allocate " + size + " bytes, segments are " + segmentSize);
+        }
+        if (head + size > segmentEnd) {
+            target.endSegment(segment);
+            segment = (segment + 1) % segments;
+            head = segment * segmentSize;
+            segmentEnd = head + segmentSize;
+            target.beginSegment(segment);
+        }
+        final int offset = head;
+        head += size;
+        return offset;
+    }
+
+    /**
+     * The GL side of the ring.
+     */
+    interface Target {
+        /**
+         * Called before the first range of a segment is handed out again. Must not return before the GPU stopped
+         * reading the segment's previous contents.
+         */
+        void beginSegment(int segment);
+
+        /**
+         * Called once the last draw reading from the segment was issued.
+         */
+        void endSegment(int segment);
+    }
+}
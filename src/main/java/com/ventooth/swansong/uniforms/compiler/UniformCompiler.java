@@ -19,6 +19,11 @@ import com.ventooth.swansong.uniforms.UniformFunctionRegistry;
 import com.ventooth.swansong.uniforms.compiler.ast.TypedNode;
 import com.ventooth.swansong.uniforms.compiler.ast.UntypedNode;
 import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedCastNode;
+import com.ventooth.swansong.uniforms.compiler.ast.untyped.UntypedBinaryNode;
+import com.ventooth.swansong.uniforms.compiler.ast.untyped.UntypedFunctionNode;
+import com.ventooth.swansong.uniforms.compiler.ast.untyped.UntypedSwizzleNode;
+import com.ventooth.swansong.uniforms.compiler.ast.untyped.UntypedUnaryNode;
+import com.ventooth.swansong.uniforms.compiler.ast.untyped.UntypedVarNode;
 import com.ventooth.swansong.uniforms.compiler.backend.BytecodeOptimizer;
 import com.ventooth.swansong.uniforms.compiler.backend.CodeGenerator;
 import com.ventooth.swansong.uniforms.compiler.frontend.Optimizer;
@@ -29,6 +34,7 @@ import lombok.SneakyThrows;
 import lombok.val;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
@@ -36,6 +42,8 @@ import org.objectweb.asm.tree.MethodNode;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class UniformCompiler {
 
@@ -58,23 +66,76 @@ public class UniformCompiler {
     }
 
     public MethodNode compile(Type returnType, String expressionSource, MethodBuilder builder) {
-        val untypedExpr = parse(expressionSource);
-        val typedExpr = resolveTypes(returnType, untypedExpr);
-        val optimizedExpr = optimizer.transform(typedExpr);
-        val method = codegen(optimizedExpr, builder);
+        val method = codegen(frontend(returnType, parse(expressionSource)), builder);
         new BytecodeOptimizer(flags.bytecode).optimize(method.instructions);
         return method;
     }
 
     public void compile(Type returnType, String expressionSource, InsnList instructions, boolean isStatic) {
-        val untypedExpr = parse(expressionSource);
+        compile(frontend(returnType, parse(expressionSource)), instructions, isStatic);
+    }
+
+    /**
+     * Compiles a vector expression that writes its result into the mutable vector pushed by {@code loadTarget},
+     * without allocating it, see {@link CodeGenerator#genExprInto}.
+     */
+    public void compileInto(Type returnType,
+                            String expressionSource,
+                            AbstractInsnNode loadTarget,
+                            InsnList instructions,
+                            boolean isStatic) {
+        compileInto(frontend(returnType, parse(expressionSource)), loadTarget, instructions, isStatic);
+    }
+
+    /**
+     * Type checks and optimizes a parsed expression, without generating any code for it yet.
+     */
+    public TypedNode frontend(Type returnType, UntypedNode untypedExpr) {
         val typedExpr = resolveTypes(returnType, untypedExpr);
-        val optimizedExpr = optimizer.transform(typedExpr);
-        codegen(optimizedExpr, instructions, isStatic);
+        return optimizer.transform(typedExpr);
+    }
+
+    public void compile(TypedNode expr, InsnList instructions, boolean isStatic) {
+        codegen(expr, instructions, isStatic);
+        new BytecodeOptimizer(flags.bytecode).optimize(instructions);
+    }
+
+    /**
+     * See {@link #compileInto(Type, String, AbstractInsnNode, InsnList, boolean)}.
+     */
+    public void compileInto(TypedNode expr, AbstractInsnNode loadTarget, InsnList instructions, boolean isStatic) {
+        new CodeGenerator(flags.codegen, isStatic).genExprInto(expr, loadTarget, instructions);
         new BytecodeOptimizer(flags.bytecode).optimize(instructions);
     }
 
-    private UntypedNode parse(String expressionSource) {
+    /**
+     * Names of every variable and function the expression refers to.
+     */
+    public static Set<String> referencedNames(UntypedNode node) {
+        val names = new LinkedHashSet<String>();
+        collectNames(node, names);
+        return names;
+    }
+
+    private static void collectNames(UntypedNode node, Set<String> names) {
+        if (node instanceof UntypedBinaryNode bin) {
+            collectNames(bin.left, names);
+            collectNames(bin.right, names);
+        } else if (node instanceof UntypedFunctionNode fn) {
+            names.add(fn.name);
+            for (val param : fn.params) {
+                collectNames(param, names);
+            }
+        } else if (node instanceof UntypedSwizzleNode swiz) {
+            collectNames(swiz.value, names);
+        } else if (node instanceof UntypedUnaryNode un) {
+            collectNames(un.param, names);
+        } else if (node instanceof UntypedVarNode var) {
+            names.add(var.name);
+        }
+    }
+
+    public UntypedNode parse(String expressionSource) {
         val lexer = new Lexer(expressionSource);
         val parser = new UntypedParser(lexer);
         try {
@@ -12,6 +12,8 @@ package com.ventooth.swansong.uniforms.compiler.backend;
 
 import com.ventooth.swansong.uniforms.Builtins;
 import com.ventooth.swansong.uniforms.Type;
+import com.ventooth.swansong.uniforms.UniformFunction;
+import com.ventooth.swansong.uniforms.VecUtil;
 import com.ventooth.swansong.uniforms.compiler.ast.ConstNode;
 import com.ventooth.swansong.uniforms.compiler.ast.TypedNode;
 import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedBoolNode;
@@ -26,6 +28,13 @@ import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedUnaryNotNode;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
 import org.objectweb.asm.Opcodes;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector2d;
+import org.joml.Vector2dc;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+import org.joml.Vector4d;
+import org.joml.Vector4dc;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
@@ -53,8 +62,17 @@ public class CodeGenerator {
         this.localVariableIndex = isStatic ? 0 : 1;
     }
 
+    /**
+     * Pushes the value of the expression.
+     * <p>
+     * Vector valued expressions get computed per component like in {@link #genExprInto}, but the result still has to be
+     * pushed as a newly allocated vector. Within an expression that only happens for vectors passed to functions that
+     * are not split up per component, see {@link #vecOp}, none of the registered functions take vectors otherwise.
+     */
     public void genExpr(TypedNode input, InsnList insnList) {
-        if (input instanceof ConstNode constant) {
+        if (isScalarizable(input)) {
+            genVecObject(input, insnList);
+        } else if (input instanceof ConstNode constant) {
             genConst(constant, insnList);
         } else if (input instanceof TypedBoolNode bool) {
             genBool(bool, insnList);
@@ -261,6 +279,10 @@ public class CodeGenerator {
     }
 
     private void genFn(TypedFunctionNode fn, InsnList insnList) {
+        if (isSwizzle(fn.function) && fn.params.get(1) instanceof ConstNode.Int index) {
+            genSwizzle(fn.params.get(0), index.value, insnList);
+            return;
+        }
         val function = fn.function;
         val desc = new StringBuilder("(");
         val paramVals = fn.params;
@@ -457,6 +479,322 @@ public class CodeGenerator {
 
     //endregion
 
+    //region vector
+
+    private static final String BUILTINS = org.objectweb.asm.Type.getInternalName(Builtins.class);
+    private static final String VEC_UTIL = org.objectweb.asm.Type.getInternalName(VecUtil.class);
+    private static final String MATH = "java/lang/Math";
+
+    /**
+     * Evaluates a vector expression and writes the result into the mutable JOML vector pushed by {@code loadTarget}.
+     * <p>
+     * Vector math gets split into per-component double locals, so unlike {@link #genExpr} the result does not get
+     * allocated. Vectors returned by opaque functions are only read, the one exception is a vector passed to a function
+     * that is not split up per component, see {@link #genExpr}.
+     */
+    public void genExprInto(TypedNode input, AbstractInsnNode loadTarget, InsnList insnList) {
+        val type = input.outputType();
+        val width = width(type);
+        if (width == 1) {
+            throw new IllegalArgumentException(type.name());
+        }
+        val base = localAllocVec(width);
+        try {
+            genVecComponents(input, width, base, insnList);
+            insnList.add(loadTarget);
+            for (int i = 0; i < width; i++) {
+                genLocalLoad(Type.Float, component(base, i), insnList);
+            }
+            val owner = org.objectweb.asm.Type.getInternalName(mutableVecClass(type));
+            insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
+                                            owner,
+                                            "set",
+                                            doubleParams(width) + "L" + owner + ";",
+                                            false));
+            insnList.add(new InsnNode(Opcodes.POP));
+        } finally {
+            localFreeVec(width, base);
+        }
+    }
+
+    public static Class<?> mutableVecClass(Type type) {
+        return switch (type) {
+            case Vec2 -> Vector2d.class;
+            case Vec3 -> Vector3d.class;
+            case Vec4 -> Vector4d.class;
+            default -> throw new IllegalArgumentException(type.name());
+        };
+    }
+
+    /**
+     * Only used where a vector has to exist as an object, which allocates.
+     */
+    private void genVecObject(TypedNode input, InsnList insnList) {
+        val type = input.outputType();
+        val width = width(type);
+        val base = localAllocVec(width);
+        try {
+            genVecComponents(input, width, base, insnList);
+            for (int i = 0; i < width; i++) {
+                genLocalLoad(Type.Float, component(base, i), insnList);
+            }
+        } finally {
+            localFreeVec(width, base);
+        }
+        insnList.add(new MethodInsnNode(Opcodes.INVOKESTATIC,
+                                        BUILTINS,
+                                        type.name()
+                                            .toLowerCase(),
+                                        doubleParams(width) + type.descriptor(),
+                                        false));
+    }
+
+    private void genSwizzle(TypedNode vec, int index, InsnList insnList) {
+        val width = width(vec.outputType());
+        if (index < 0 || index >= width) {
+            throw new IllegalArgumentException("Swizzle index " + index + " out of range");
+        }
+        val base = localAllocVec(width);
+        try {
+            genVecComponents(vec, width, base, insnList);
+            genLocalLoad(Type.Float, component(base, index), insnList);
+        } finally {
+            localFreeVec(width, base);
+        }
+    }
+
+    /**
+     * Stores the components of the input into {@code width} consecutive double locals starting at {@code base}.
+     * Scalars get broadcast to all components.
+     */
+    private void genVecComponents(TypedNode input, int width, int base, InsnList insnList) {
+        val type = input.outputType();
+        if (width(type) == 1) {
+            genCast(input, Type.Float, insnList);
+            genLocalStore(Type.Float, base, insnList);
+            for (int i = 1; i < width; i++) {
+                genLocalLoad(Type.Float, base, insnList);
+                genLocalStore(Type.Float, component(base, i), insnList);
+            }
+            return;
+        }
+        if (input instanceof ConstNode constant) {
+            val values = constComponents(constant);
+            for (int i = 0; i < width; i++) {
+                genConst(new ConstNode.Float(values[i]), insnList);
+                genLocalStore(Type.Float, component(base, i), insnList);
+            }
+        } else if (input instanceof TypedCastNode cast) {
+            genVecComponents(cast.input, width, base, insnList);
+        } else if (input instanceof TypedBranchNode branch) {
+            val falseLabel = new LabelNode();
+            val endLabel = new LabelNode();
+            genBranchIndirect(branch.cond, new IndirectTarget.Label(falseLabel, false), insnList);
+            genVecComponents(branch.ifTrue, width, base, insnList);
+            insnList.add(new JumpInsnNode(Opcodes.GOTO, endLabel));
+            insnList.add(falseLabel);
+            genVecComponents(branch.ifFalse, width, base, insnList);
+            insnList.add(endLabel);
+        } else if (input instanceof TypedFunctionNode fn && vecOp(fn.function) != null) {
+            genVecFn(fn, vecOp(fn.function), width, base, insnList);
+        } else {
+            // Opaque source, read back its components
+            genExpr(input, insnList);
+            val owner = org.objectweb.asm.Type.getInternalName(switch (type) {
+                case Vec2 -> Vector2dc.class;
+                case Vec3 -> Vector3dc.class;
+                case Vec4 -> Vector4dc.class;
+                default -> throw new AssertionError();
+            });
+            for (int i = 0; i < width; i++) {
+                if (i != width - 1) {
+                    insnList.add(new InsnNode(Opcodes.DUP));
+                }
+                insnList.add(new MethodInsnNode(Opcodes.INVOKEINTERFACE, owner, COMPONENT_NAMES[i], "()D", true));
+                genLocalStore(Type.Float, component(base, i), insnList);
+            }
+        }
+    }
+
+    private void genVecFn(TypedFunctionNode fn, VecOp op, int width, int base, InsnList insnList) {
+        val params = fn.params;
+        switch (op) {
+            case Construct -> {
+                if (params.size() == 1) {
+                    genVecComponents(params.get(0), width, base, insnList);
+                    return;
+                }
+                for (int i = 0; i < width; i++) {
+                    genCast(params.get(i), Type.Float, insnList);
+                    genLocalStore(Type.Float, component(base, i), insnList);
+                }
+            }
+            case Neg, Abs, Floor, Ceil -> {
+                genVecComponents(params.get(0), width, base, insnList);
+                for (int i = 0; i < width; i++) {
+                    genLocalLoad(Type.Float, component(base, i), insnList);
+                    insnList.add(switch (op) {
+                        case Neg -> new InsnNode(Opcodes.DNEG);
+                        case Abs -> new MethodInsnNode(Opcodes.INVOKESTATIC, MATH, "abs", "(D)D", false);
+                        case Floor -> new MethodInsnNode(Opcodes.INVOKESTATIC, MATH, "floor", "(D)D", false);
+                        default -> new MethodInsnNode(Opcodes.INVOKESTATIC, MATH, "ceil", "(D)D", false);
+                    });
+                    genLocalStore(Type.Float, component(base, i), insnList);
+                }
+            }
+            case Add, Sub, Mul, Div, Rem, Min, Max -> {
+                genVecComponents(params.get(0), width, base, insnList);
+                val right = localAllocVec(width);
+                try {
+                    genVecComponents(params.get(1), width, right, insnList);
+                    for (int i = 0; i < width; i++) {
+                        genLocalLoad(Type.Float, component(base, i), insnList);
+                        genLocalLoad(Type.Float, component(right, i), insnList);
+                        insnList.add(switch (op) {
+                            case Add -> new InsnNode(Opcodes.DADD);
+                            case Sub -> new InsnNode(Opcodes.DSUB);
+                            case Mul -> new InsnNode(Opcodes.DMUL);
+                            case Div -> new InsnNode(Opcodes.DDIV);
+                            case Rem -> new InsnNode(Opcodes.DREM);
+                            case Min -> new MethodInsnNode(Opcodes.INVOKESTATIC, MATH, "min", "(DD)D", false);
+                            default -> new MethodInsnNode(Opcodes.INVOKESTATIC, MATH, "max", "(DD)D", false);
+                        });
+                        genLocalStore(Type.Float, component(base, i), insnList);
+                    }
+                } finally {
+                    localFreeVec(width, right);
+                }
+            }
+            case Clamp -> {
+                genVecComponents(params.get(0), width, base, insnList);
+                val min = localAllocVec(width);
+                try {
+                    genVecComponents(params.get(1), width, min, insnList);
+                    val max = localAllocVec(width);
+                    try {
+                        genVecComponents(params.get(2), width, max, insnList);
+                        for (int i = 0; i < width; i++) {
+                            genLocalLoad(Type.Float, component(base, i), insnList);
+                            genLocalLoad(Type.Float, component(min, i), insnList);
+                            genLocalLoad(Type.Float, component(max, i), insnList);
+                            insnList.add(new MethodInsnNode(Opcodes.INVOKESTATIC, BUILTINS, "clamp", "(DDD)D", false));
+                            genLocalStore(Type.Float, component(base, i), insnList);
+                        }
+                    } finally {
+                        localFreeVec(width, max);
+                    }
+                } finally {
+                    localFreeVec(width, min);
+                }
+            }
+        }
+    }
+
+    private static final String[] COMPONENT_NAMES = {"x", "y", "z", "w"};
+
+    private enum VecOp {
+        Construct,
+        Neg,
+        Abs,
+        Floor,
+        Ceil,
+        Add,
+        Sub,
+        Mul,
+        Div,
+        Rem,
+        Min,
+        Max,
+        Clamp
+    }
+
+    /**
+     * @return how the vector valued builtin can be computed per component, null if it is opaque
+     */
+    private static @Nullable VecOp vecOp(UniformFunction function) {
+        if (width(function.returns()) == 1) {
+            return null;
+        }
+        val owner = function.javaOwner();
+        val name = function.javaName();
+        if (BUILTINS.equals(owner)) {
+            return switch (name) {
+                case "vec2", "vec3", "vec4" -> VecOp.Construct;
+                case "abs" -> VecOp.Abs;
+                case "floor" -> VecOp.Floor;
+                case "ceil" -> VecOp.Ceil;
+                case "min" -> VecOp.Min;
+                case "max" -> VecOp.Max;
+                case "clamp" -> VecOp.Clamp;
+                default -> null;
+            };
+        }
+        if (VEC_UTIL.equals(owner)) {
+            return switch (name) {
+                case "add" -> VecOp.Add;
+                case "sub" -> VecOp.Sub;
+                case "mul" -> VecOp.Mul;
+                case "div" -> VecOp.Div;
+                case "rem" -> VecOp.Rem;
+                case "neg" -> VecOp.Neg;
+                default -> null;
+            };
+        }
+        return null;
+    }
+
+    private static boolean isSwizzle(UniformFunction function) {
+        return VEC_UTIL.equals(function.javaOwner()) && "swiz".equals(function.javaName());
+    }
+
+    /**
+     * Vector valued nodes that {@link #genVecComponents} can split up without going through an object.
+     */
+    private static boolean isScalarizable(TypedNode input) {
+        if (width(input.outputType()) == 1) {
+            return false;
+        }
+        return input instanceof ConstNode ||
+               input instanceof TypedCastNode ||
+               input instanceof TypedBranchNode ||
+               (input instanceof TypedFunctionNode fn && vecOp(fn.function) != null);
+    }
+
+    private static double[] constComponents(ConstNode constant) {
+        if (constant instanceof ConstNode.Vec2 vec) {
+            return new double[]{vec.x, vec.y};
+        } else if (constant instanceof ConstNode.Vec3 vec) {
+            return new double[]{vec.x, vec.y, vec.z};
+        } else if (constant instanceof ConstNode.Vec4 vec) {
+            return new double[]{vec.x, vec.y, vec.z, vec.w};
+        }
+        throw new IllegalArgumentException();
+    }
+
+    private static int width(Type type) {
+        return switch (type) {
+            case Vec2 -> 2;
+            case Vec3 -> 3;
+            case Vec4 -> 4;
+            default -> 1;
+        };
+    }
+
+    private static String doubleParams(int width) {
+        val desc = new StringBuilder("(");
+        for (int i = 0; i < width; i++) {
+            desc.append('D');
+        }
+        return desc.append(')')
+                   .toString();
+    }
+
+    private static int component(int base, int index) {
+        return base + index * 2;
+    }
+
+    //endregion
+
     //region jump
 
     private JumpInsn prepareJumpInsn(Type type, TypedRelNode.Op op, InsnList insnList) {
@@ -545,6 +883,20 @@ public class CodeGenerator {
         }
     }
 
+    private int localAllocVec(int width) {
+        val base = localAlloc(Type.Float);
+        for (int i = 1; i < width; i++) {
+            localAlloc(Type.Float);
+        }
+        return base;
+    }
+
+    private void localFreeVec(int width, int base) {
+        for (int i = width - 1; i >= 0; i--) {
+            localFree(Type.Float, component(base, i));
+        }
+    }
+
     private void genLocalStore(Type type, int index, InsnList insnList) {
         insnList.add(new VarInsnNode(switch (type) {
             case Bool, Int -> Opcodes.ISTORE;
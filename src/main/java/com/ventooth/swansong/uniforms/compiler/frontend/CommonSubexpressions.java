@@ -0,0 +1,298 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.uniforms.compiler.frontend;
+
+import com.ventooth.swansong.uniforms.UniformFunction;
+import com.ventooth.swansong.uniforms.VecUtil;
+import com.ventooth.swansong.uniforms.compiler.ast.ConstNode;
+import com.ventooth.swansong.uniforms.compiler.ast.TypedNode;
+import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedBoolNode;
+import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedBranchNode;
+import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedCastNode;
+import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedFunctionNode;
+import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedMathNode;
+import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedMultiMatchNode;
+import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedRelNode;
+import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedUnaryMinusNode;
+import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedUnaryNotNode;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Common subexpression elimination across a set of optimized expressions.
+ * <p>
+ * Every expression is {@link #scan scanned} first, which numbers structurally identical subtrees the same. A subtree
+ * gets moved into a slot if it is used at least twice, either by the scanned roots or by distinct larger subtrees, and
+ * at least one of those uses is evaluated unconditionally. The latter keeps the expressions from evaluating anything
+ * they would not have evaluated before, so the branches of an {@code if} and the right hand side of {@code &&} and
+ * {@code ||} can read a slot, but never cause one.
+ * <p>
+ * {@link #rewrite} then replaces the shared subtrees with whatever the {@link SlotAllocator} hands out. Slots are
+ * allocated lazily, in the order the rewritten expressions first need them, and a slot is always allocated after the
+ * slots its own value reads.
+ * <p>
+ * All scanned expressions must be evaluated together, in one go, as calls to impure functions are treated as returning
+ * the same value when their arguments match.
+ */
+public final class CommonSubexpressions {
+    private static final String VEC_UTIL = org.objectweb.asm.Type.getInternalName(VecUtil.class);
+
+    private final SlotAllocator allocator;
+    private final Object2IntMap<String> numbers = new Object2IntOpenHashMap<>();
+    private final Object2IntMap<UniformFunction> functions = new Object2IntOpenHashMap<>();
+    private final Reference2IntMap<TypedNode> nodeNumbers = new Reference2IntOpenHashMap<>();
+    private final IntArrayList uses = new IntArrayList();
+    private final BitSet unconditional = new BitSet();
+    private final Int2ObjectMap<TypedNode> slots = new Int2ObjectOpenHashMap<>();
+
+    public CommonSubexpressions(SlotAllocator allocator) {
+        this.allocator = allocator;
+        numbers.defaultReturnValue(-1);
+        functions.defaultReturnValue(-1);
+        nodeNumbers.defaultReturnValue(-1);
+    }
+
+    public void scan(TypedNode root) {
+        val number = number(root, true);
+        uses.set(number, uses.getInt(number) + 1);
+    }
+
+    /**
+     * @return the expression, reading shared subtrees from their slots. Must have been {@link #scan scanned} before.
+     */
+    public TypedNode rewrite(TypedNode node) {
+        val number = nodeNumbers.getInt(node);
+        if (number < 0) {
+            throw new IllegalArgumentException("Expression was not scanned");
+        }
+        if (!isShared(number, node)) {
+            return rebuild(node);
+        }
+        var slot = slots.get(number);
+        if (slot == null) {
+            slot = allocator.allocate(rebuild(node));
+            slots.put(number, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * @return the amount of slots allocated so far
+     */
+    public int slotCount() {
+        return slots.size();
+    }
+
+    private boolean isShared(int number, TypedNode node) {
+        return uses.getInt(number) >= 2 && unconditional.get(number) && !isTrivial(node);
+    }
+
+    //region numbering
+
+    private int number(TypedNode node, boolean isUnconditional) {
+        final String key;
+        final int[] children;
+        if (node instanceof ConstNode cst) {
+            key = constKey(cst);
+            children = new int[0];
+        } else if (node instanceof TypedBoolNode bool) {
+            children = number(bool.elems, isUnconditional, 1);
+            key = "bool." + bool.op + keyOf(children);
+        } else if (node instanceof TypedBranchNode branch) {
+            children = new int[]{number(branch.cond, isUnconditional),
+                                 number(branch.ifTrue, false),
+                                 number(branch.ifFalse, false)};
+            key = "branch" + keyOf(children);
+        } else if (node instanceof TypedCastNode cast) {
+            children = new int[]{number(cast.input, isUnconditional)};
+            key = "cast." + cast.outputType() + keyOf(children);
+        } else if (node instanceof TypedFunctionNode fn) {
+            children = number(fn.params, isUnconditional, fn.params.size());
+            var fnNumber = functions.getInt(fn.function);
+            if (fnNumber < 0) {
+                fnNumber = functions.size();
+                functions.put(fn.function, fnNumber);
+            }
+            key = "fn." + fnNumber + keyOf(children);
+        } else if (node instanceof TypedMathNode math) {
+            children = new int[]{number(math.left, isUnconditional), number(math.right, isUnconditional)};
+            key = "math." + math.op + keyOf(children);
+        } else if (node instanceof TypedMultiMatchNode multiMatch) {
+            //The first candidate is always compared against, the rest only if nothing matched yet
+            children = number(multiMatch.elems, isUnconditional, 2);
+            key = "in" + keyOf(children);
+        } else if (node instanceof TypedRelNode rel) {
+            children = new int[]{number(rel.left, isUnconditional), number(rel.right, isUnconditional)};
+            key = "rel." + rel.op + keyOf(children);
+        } else if (node instanceof TypedUnaryMinusNode minus) {
+            children = new int[]{number(minus.param, isUnconditional)};
+            key = "neg" + keyOf(children);
+        } else if (node instanceof TypedUnaryNotNode not) {
+            children = new int[]{number(not.param, isUnconditional)};
+            key = "not" + keyOf(children);
+        } else {
+            throw new UnsupportedOperationException(node.getClass()
+                                                        .getName());
+        }
+        var number = numbers.getInt(key);
+        if (number < 0) {
+            number = uses.size();
+            numbers.put(key, number);
+            uses.add(0);
+            //Counted once per distinct parent, a subtree of a shared subtree is only evaluated as part of its slot
+            for (val child : children) {
+                uses.set(child, uses.getInt(child) + 1);
+            }
+        }
+        if (isUnconditional) {
+            unconditional.set(number);
+        }
+        nodeNumbers.put(node, number);
+        return number;
+    }
+
+    /**
+     * @param evaluated how many of the leading nodes are evaluated whenever the parent is
+     */
+    private int[] number(List<TypedNode> nodes, boolean isUnconditional, int evaluated) {
+        val result = new int[nodes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = number(nodes.get(i), isUnconditional && i < evaluated);
+        }
+        return result;
+    }
+
+    private static String keyOf(int[] children) {
+        val b = new StringBuilder("(");
+        for (int i = 0; i < children.length; i++) {
+            if (i != 0) {
+                b.append(',');
+            }
+            b.append(children[i]);
+        }
+        return b.append(')')
+                .toString();
+    }
+
+    private static String constKey(ConstNode cst) {
+        if (cst instanceof ConstNode.Int i) {
+            return "int." + i.value;
+        } else if (cst instanceof ConstNode.Float f) {
+            return "float." + Double.doubleToLongBits(f.value);
+        } else if (cst instanceof ConstNode.Vec2 v) {
+            return "vec2." + Double.doubleToLongBits(v.x) + "," + Double.doubleToLongBits(v.y);
+        } else if (cst instanceof ConstNode.Vec3 v) {
+            return "vec3." +
+                   Double.doubleToLongBits(v.x) +
+                   "," +
+                   Double.doubleToLongBits(v.y) +
+                   "," +
+                   Double.doubleToLongBits(v.z);
+        } else if (cst instanceof ConstNode.Vec4 v) {
+            return "vec4." +
+                   Double.doubleToLongBits(v.x) +
+                   "," +
+                   Double.doubleToLongBits(v.y) +
+                   "," +
+                   Double.doubleToLongBits(v.z) +
+                   "," +
+                   Double.doubleToLongBits(v.w);
+        } else {
+            throw new UnsupportedOperationException(cst.getClass()
+                                                       .getName());
+        }
+    }
+
+    /**
+     * Nodes that are about as cheap to evaluate again as it is to read a slot.
+     */
+    private static boolean isTrivial(TypedNode node) {
+        if (node instanceof ConstNode) {
+            return true;
+        } else if (node instanceof TypedCastNode cast) {
+            return isTrivial(cast.input);
+        } else if (node instanceof TypedFunctionNode fn) {
+            if (fn.params.isEmpty()) {
+                return true;
+            }
+            val function = fn.function;
+            return VEC_UTIL.equals(function.javaOwner()) &&
+                   "swiz".equals(function.javaName()) &&
+                   isTrivial(fn.params.get(0)) &&
+                   fn.params.get(1) instanceof ConstNode;
+        }
+        return false;
+    }
+
+    //endregion
+
+    //region rewriting
+
+    private TypedNode rebuild(TypedNode node) {
+        if (node instanceof ConstNode) {
+            return node;
+        } else if (node instanceof TypedBoolNode bool) {
+            return new TypedBoolNode(rewrite(bool.elems), bool.op);
+        } else if (node instanceof TypedBranchNode branch) {
+            return new TypedBranchNode(rewrite(branch.cond), rewrite(branch.ifTrue), rewrite(branch.ifFalse));
+        } else if (node instanceof TypedCastNode cast) {
+            return new TypedCastNode(cast.outputType(), rewrite(cast.input));
+        } else if (node instanceof TypedFunctionNode fn) {
+            return new TypedFunctionNode(fn.function, rewrite(fn.params));
+        } else if (node instanceof TypedMathNode math) {
+            return new TypedMathNode(rewrite(math.left), rewrite(math.right), math.op);
+        } else if (node instanceof TypedMultiMatchNode multiMatch) {
+            return new TypedMultiMatchNode(rewrite(multiMatch.elems));
+        } else if (node instanceof TypedRelNode rel) {
+            return new TypedRelNode(rewrite(rel.left), rewrite(rel.right), rel.op);
+        } else if (node instanceof TypedUnaryMinusNode minus) {
+            return new TypedUnaryMinusNode(rewrite(minus.param));
+        } else if (node instanceof TypedUnaryNotNode not) {
+            return new TypedUnaryNotNode(rewrite(not.param));
+        } else {
+            throw new UnsupportedOperationException(node.getClass()
+                                                        .getName());
+        }
+    }
+
+    private List<TypedNode> rewrite(List<TypedNode> nodes) {
+        val result = new ArrayList<TypedNode>(nodes.size());
+        for (val node : nodes) {
+            result.add(rewrite(node));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    //endregion
+
+    @FunctionalInterface
+    public interface SlotAllocator {
+        /**
+         * Called at most once per shared subtree.
+         *
+         * @param value the subtree, with its own shared subtrees already rewritten
+         *
+         * @return a node that reads the value back, evaluated before anything that reads it
+         */
+        TypedNode allocate(TypedNode value);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.resources;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Scans a shaderpacks folder the way {@code ShaderPackManager.refreshShaderPackNames} does, counting the archives that
+ * actually get opened.
+ */
+class ShaderPackIndexTest {
+    @TempDir
+    Path dir;
+
+    private Path packs;
+    private Path indexFile;
+    private final List<String> opened = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        packs = Files.createDirectories(dir.resolve("shaderpacks"));
+        indexFile = dir.resolve("cache")
+                       .resolve("index.bin");
+    }
+
+    @Test
+    void unchangedArchivesAreNotOpenedAgain() throws IOException {
+        zip("a.zip", "shaders/final.fsh");
+        zip("b.zip", "shaders/");
+        zip("notapack.zip", "textures/stone.png");
+        assertEquals(List.of("a.zip", "b.zip"), scan());
+        assertEquals(3, opened.size());
+
+        opened.clear();
+        assertEquals(List.of("a.zip", "b.zip"), scan());
+        assertTrue(opened.isEmpty(), opened::toString);
+    }
+
+    @Test
+    void modifiedArchivesAreOpenedAgain() throws IOException {
+        zip("a.zip", "shaders/final.fsh");
+        zip("b.zip", "shaders/final.fsh");
+        scan();
+
+        //Different size
+        zip("a.zip", "textures/stone.png", "textures/dirt.png");
+        //Same size, only the modification time changed
+        var b = packs.resolve("b.zip");
+        Files.setLastModifiedTime(b,
+                                  FileTime.fromMillis(Files.getLastModifiedTime(b)
+                                                           .toMillis() + 5000));
+        opened.clear();
+        assertEquals(List.of("b.zip"), scan());
+        assertEquals(List.of("a.zip", "b.zip"), opened);
+
+        opened.clear();
+        assertEquals(List.of("b.zip"), scan());
+        assertTrue(opened.isEmpty(), opened::toString);
+    }
+
+    @Test
+    void renamedArchivesAreOpenedAgain() throws IOException {
+        zip("a.zip", "shaders/final.fsh");
+        zip("b.zip", "shaders/final.fsh");
+        scan();
+
+        Files.move(packs.resolve("a.zip"), packs.resolve("c.zip"));
+        opened.clear();
+        assertEquals(List.of("b.zip", "c.zip"), scan());
+        assertEquals(List.of("c.zip"), opened);
+
+        //The old name was dropped, even though a file with the same size and time shows up there again
+        Files.copy(packs.resolve("c.zip"), packs.resolve("a.zip"));
+        Files.setLastModifiedTime(packs.resolve("a.zip"), Files.getLastModifiedTime(packs.resolve("c.zip")));
+        opened.clear();
+        assertEquals(List.of("a.zip", "b.zip", "c.zip"), scan());
+        assertEquals(List.of("a.zip"), opened);
+    }
+
+    @Test
+    void deletedArchivesAreDropped() throws IOException {
+        zip("a.zip", "shaders/final.fsh");
+        zip("b.zip", "shaders/final.fsh");
+        scan();
+        var a = packs.resolve("a.zip")
+                     .toRealPath();
+        var time = Files.getLastModifiedTime(a);
+        var bytes = Files.readAllBytes(a);
+        Files.delete(a);
+        scan();
+
+        Files.write(a, bytes);
+        Files.setLastModifiedTime(a, time);
+        assertNull(ShaderPackIndex.load(indexFile)
+                                  .lookup(a));
+    }
+
+    @Test
+    void unchangedIndexIsNotWrittenAgain() throws IOException {
+        zip("a.zip", "shaders/final.fsh");
+        scan();
+        var time = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(indexFile, time);
+        scan();
+        assertEquals(time, Files.getLastModifiedTime(indexFile));
+
+        zip("b.zip", "shaders/final.fsh");
+        scan();
+        assertFalse(time.equals(Files.getLastModifiedTime(indexFile)));
+    }
+
+    @Test
+    void brokenIndexStartsOutEmpty() throws IOException {
+        zip("a.zip", "shaders/final.fsh");
+        scan();
+        var valid = Files.readAllBytes(indexFile);
+
+        var broken = new ArrayList<byte[]>();
+        broken.add(new byte[0]);
+        broken.add("not an index".getBytes(StandardCharsets.UTF_8));
+        for (var length : new int[]{4, 8, 12, valid.length - 1}) {
+            var truncated = new byte[length];
+            System.arraycopy(valid, 0, truncated, 0, length);
+            broken.add(truncated);
+        }
+        var trailing = new byte[valid.length + 1];
+        System.arraycopy(valid, 0, trailing, 0, valid.length);
+        broken.add(trailing);
+        broken.add(header(Integer.MAX_VALUE));
+        broken.add(header(-1));
+
+        for (var data : broken) {
+            Files.write(indexFile, data);
+            opened.clear();
+            assertEquals(List.of("a.zip"), scan());
+            assertEquals(List.of("a.zip"), opened);
+        }
+    }
+
+    /**
+     * @return the names of the valid packs, sorted
+     */
+    private List<String> scan() throws IOException {
+        var index = ShaderPackIndex.load(indexFile);
+        var names = new ArrayList<String>();
+        try (var files = Files.list(packs)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                var realPath = file.toRealPath();
+                var valid = index.lookup(realPath);
+                if (valid == null) {
+                    valid = isZipShaderPack(realPath);
+                    index.put(realPath, valid);
+                }
+                if (valid) {
+                    names.add(file.getFileName()
+                                  .toString());
+                }
+            }
+        }
+        index.save();
+        names.sort(null);
+        opened.sort(null);
+        return names;
+    }
+
+    private boolean isZipShaderPack(Path file) throws IOException {
+        opened.add(file.getFileName()
+                       .toString());
+        try (var zip = new ZipFile(file.toFile())) {
+            var entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                var name = entries.nextElement()
+                                  .getName();
+                if ("shaders".equals(name) || name.startsWith("shaders/")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void zip(String name, String... entries) throws IOException {
+        try (var out = new ZipOutputStream(Files.newOutputStream(packs.resolve(name)))) {
+            for (var entry : entries) {
+                out.putNextEntry(new ZipEntry(entry));
+                if (!entry.endsWith("/")) {
+                    out.write(entry.getBytes(StandardCharsets.UTF_8));
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static byte[] header(int count) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(0x53575049);
+            out.writeInt(1);
+            out.writeInt(count);
+        }
+        return bytes.toByteArray();
+    }
+}
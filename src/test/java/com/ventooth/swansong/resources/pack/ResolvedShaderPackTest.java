@@ -0,0 +1,280 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.resources.pack;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Builds packs from synthetic directories and zip files the same way {@code ShaderPackManager} does.
+ */
+class ResolvedShaderPackTest {
+    //Either side of the direct buffer threshold
+    private static final int SMALL = 4 * 1024;
+    private static final int LARGE = 1024 * 1024 + 17;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void directoryPackReadsEveryFile() throws IOException {
+        var files = files();
+        var pack = directoryPack(files);
+        assertContents(files, pack);
+    }
+
+    @Test
+    void zipPackReadsEveryFile() throws IOException {
+        var files = files();
+        var pack = zipPack(files);
+        try {
+            assertContents(files, pack);
+        } finally {
+            pack.close();
+        }
+    }
+
+    @Test
+    void missingFilesAreReported() throws IOException {
+        var files = files();
+        for (var pack : new ResolvedShaderPack[]{directoryPack(files), zipPack(files)}) {
+            assertFalse(pack.has("/shaders/missing.fsh"));
+            assertFalse(pack.has("shaders/final.fsh"), "paths start with a slash");
+            assertThrows(FileNotFoundException.class, () -> pack.get("/shaders/missing.fsh"));
+            pack.close();
+        }
+    }
+
+    /**
+     * A memory mapping keeps reading the file as it is on disk, and keeps it locked on Windows until it is collected.
+     */
+    @Test
+    void largeDirectoryFilesAreNotMapped() throws IOException {
+        var files = files();
+        var pack = directoryPack(files);
+        var path = "/shaders/tex/large.png";
+        var expected = files.get(path);
+        try (var in = pack.get(path)) {
+            var file = dir.resolve("pack" + path);
+            Files.write(file, new byte[16]);
+            Files.delete(file);
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void streamsAreReadableInPieces() throws IOException {
+        var files = files();
+        var pack = directoryPack(files);
+        for (var path : new String[]{"/shaders/tex/large.png", "/shaders/final.fsh"}) {
+            var expected = files.get(path);
+            try (var in = pack.get(path)) {
+                assertEquals(expected.length, in.available(), path);
+                assertEquals(expected[0] & 0xFF, in.read(), path);
+                assertEquals(9, in.skip(9), path);
+                assertEquals(0, in.read(new byte[4], 0, 0), path);
+                var rest = in.readAllBytes();
+                assertEquals(expected.length - 10, rest.length, path);
+                assertEquals(expected[10], rest[0], path);
+                assertEquals(-1, in.read(), path);
+                assertEquals(-1, in.read(new byte[4], 0, 4), path);
+                assertEquals(0, in.skip(5), path);
+            }
+        }
+    }
+
+    @Test
+    void closedZipPackReopensOnRead() throws IOException {
+        var files = files();
+        var pack = zipPack(files);
+        pack.close();
+        assertContents(files, pack);
+        pack.close();
+        pack.close();
+        assertContents(files, pack);
+        pack.close();
+    }
+
+    @Test
+    void zipPackIsReadableFromManyThreads() throws Exception {
+        var files = files();
+        var pack = zipPack(files);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            var tasks = new ArrayList<Future<?>>();
+            for (int i = 0; i < 32; i++) {
+                tasks.add(executor.submit(() -> {
+                    assertContents(files, pack);
+                    return null;
+                }));
+            }
+            for (var task : tasks) {
+                task.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            pack.close();
+        }
+    }
+
+    @Test
+    void discardedBuilderReleasesZip() throws IOException {
+        var zip = writeZip(files());
+        var builder = new ResolvedShaderPack.Builder("pack.zip");
+        builder.archive(zip, new ZipFile(zip.toFile()));
+        try (var other = new ZipFile(zip.toFile())) {
+            assertThrows(IllegalStateException.class, () -> builder.archive(zip, other));
+        }
+        builder.discard();
+        //Nothing holds the archive any more
+        Files.delete(zip);
+        assertFalse(Files.exists(zip));
+    }
+
+    @Test
+    void archiveEntriesNeedAnArchive() {
+        var builder = new ResolvedShaderPack.Builder("pack.zip");
+        assertThrows(IllegalStateException.class, () -> builder.addArchiveEntry(new ZipEntry("shaders/final.fsh")));
+    }
+
+    @Test
+    void worldSpecializationFallsBackToWorld0() throws IOException {
+        var builder = new ResolvedShaderPack.Builder("pack");
+        assertNull(builder.build()
+                          .getWorldSpecialization(null));
+        builder.hasWorld0();
+        assertEquals("world0",
+                     builder.build()
+                            .getWorldSpecialization(null));
+    }
+
+    private static Map<String, byte[]> files() {
+        var random = new Random(0x9AC4);
+        var files = new LinkedHashMap<String, byte[]>();
+        files.put("/shaders/final.fsh", text("#version 120\nvoid main() {}\n"));
+        files.put("/shaders/lib/common.glsl", text("float lib() { return 1.0; }\n"));
+        files.put("/shaders/world-1/composite.fsh", text("#version 120\n"));
+        files.put("/shaders/shaders.properties", text("sliders=A B\n"));
+        files.put("/shaders/empty.glsl", new byte[0]);
+        files.put("/shaders/tex/small.png", bytes(random, SMALL));
+        files.put("/shaders/tex/threshold.png", bytes(random, 256 * 1024));
+        files.put("/shaders/tex/large.png", bytes(random, LARGE));
+        return files;
+    }
+
+    private ResolvedShaderPack directoryPack(Map<String, byte[]> files) throws IOException {
+        var root = dir.resolve("pack");
+        for (var file : files.entrySet()) {
+            var path = root.resolve(file.getKey()
+                                        .substring(1));
+            Files.createDirectories(path.getParent());
+            Files.write(path, file.getValue());
+        }
+        var builder = new ResolvedShaderPack.Builder("pack");
+        try (var walk = Files.walk(root)) {
+            for (var file : walk.filter(Files::isRegularFile)
+                                .collect(Collectors.toList())) {
+                var rPath = root.relativize(file)
+                                .toString()
+                                .replace(file.getFileSystem()
+                                             .getSeparator(), "/");
+                builder.addFile(rPath, file, Files.readAttributes(file, BasicFileAttributes.class));
+            }
+        }
+        return builder.build();
+    }
+
+    private ResolvedShaderPack zipPack(Map<String, byte[]> files) throws IOException {
+        var zip = writeZip(files);
+        var builder = new ResolvedShaderPack.Builder("pack.zip");
+        var zipFile = new ZipFile(zip.toFile());
+        builder.archive(zip, zipFile);
+        var entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            var entry = entries.nextElement();
+            if (!entry.isDirectory()) {
+                builder.addArchiveEntry(entry);
+            }
+        }
+        return builder.build();
+    }
+
+    private Path writeZip(Map<String, byte[]> files) throws IOException {
+        var zip = dir.resolve("pack.zip");
+        try (var out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("shaders/"));
+            out.closeEntry();
+            for (var file : files.entrySet()) {
+                var entry = new ZipEntry(file.getKey()
+                                             .substring(1));
+                //Stored entries are read differently from deflated ones
+                if (file.getKey()
+                        .endsWith(".glsl")) {
+                    var crc = new CRC32();
+                    crc.update(file.getValue());
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(file.getValue().length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(file.getValue());
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    private static void assertContents(Map<String, byte[]> files, ResolvedShaderPack pack) throws IOException {
+        for (var file : files.entrySet()) {
+            assertTrue(pack.has(file.getKey()), file.getKey());
+            try (InputStream in = pack.get(file.getKey())) {
+                assertArrayEquals(file.getValue(), in.readAllBytes(), file.getKey());
+            }
+        }
+    }
+
+    private static byte[] text(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(Random random, int size) {
+        var bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives the handoff the way {@link ShaderEngine} does, with a mock state standing in for the GL compile step.
+ */
+class BackgroundReloadTest {
+    private static final String THREAD_NAME = "Test Reload";
+
+    private final List<MockState> discarded = new CopyOnWriteArrayList<>();
+
+    @Test
+    void oldStateRendersUntilPreparedStateIsSwappedIn() throws InterruptedException {
+        var reload = reload();
+        var renderThread = Thread.currentThread();
+        var current = new MockState("old");
+        current.compile();
+
+        var release = new CountDownLatch(1);
+        reload.request(() -> {
+            await(release);
+            return new MockState("new");
+        });
+        var frames = 0;
+        while (!reload.isDone()) {
+            //The old state keeps rendering while the new one gets prepared
+            assertTrue(current.compiled);
+            assertEquals("old", current.name);
+            if (++frames == 10) {
+                release.countDown();
+            }
+            Thread.sleep(1);
+        }
+        var prepared = reload.take();
+        assertFalse(prepared.compiled, "only the GL step is left");
+        assertTrue(prepared.preparedOn.getName()
+                                      .startsWith(THREAD_NAME), prepared.preparedOn.getName());
+
+        prepared.compile();
+        current = prepared;
+        assertSame(renderThread, current.compiledOn);
+        assertTrue(frames >= 10);
+        assertFalse(reload.isPending());
+        assertTrue(discarded.isEmpty());
+    }
+
+    @Test
+    void resultIsHandedOverOnce() {
+        var reload = reload();
+        reload.request(() -> new MockState("a"));
+        assertTrue(reload.isPending());
+        awaitDone(reload);
+        assertEquals("a", reload.take().name);
+        assertFalse(reload.isPending());
+        assertFalse(reload.isDone());
+        assertThrows(IllegalStateException.class, reload::take);
+        assertTrue(discarded.isEmpty());
+    }
+
+    @Test
+    void takeBeforeDoneIsRejected() {
+        var reload = reload();
+        assertThrows(IllegalStateException.class, reload::take);
+
+        var release = new CountDownLatch(1);
+        reload.request(() -> {
+            await(release);
+            return new MockState("a");
+        });
+        assertThrows(IllegalStateException.class, reload::take);
+        release.countDown();
+        awaitDone(reload);
+        assertEquals("a", reload.take().name);
+    }
+
+    @Test
+    void newerRequestSupersedesRunningOne() {
+        var reload = reload();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        reload.request(() -> {
+            started.countDown();
+            await(release);
+            return new MockState("outdated");
+        });
+        await(started);
+        reload.request(() -> new MockState("latest"));
+        release.countDown();
+        awaitDone(reload);
+
+        var prepared = reload.take();
+        assertEquals("latest", prepared.name);
+        reload.awaitCancelled();
+        assertEquals(1, discarded.size());
+        assertEquals("outdated", discarded.get(0).name);
+        assertFalse(discarded.get(0).compiled);
+    }
+
+    @Test
+    void requestsQueuedBehindRunningOneAreSkipped() {
+        var reload = reload();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var runs = new CopyOnWriteArrayList<String>();
+        reload.request(() -> {
+            started.countDown();
+            await(release);
+            runs.add("first");
+            return new MockState("first");
+        });
+        await(started);
+        reload.request(() -> {
+            runs.add("second");
+            return new MockState("second");
+        });
+        reload.request(() -> {
+            runs.add("third");
+            return new MockState("third");
+        });
+        release.countDown();
+        awaitDone(reload);
+
+        assertEquals("third", reload.take().name);
+        assertEquals(List.of("first", "third"), runs);
+        reload.awaitCancelled();
+        assertEquals(1, discarded.size());
+        assertEquals("first", discarded.get(0).name);
+    }
+
+    @Test
+    void cancelDiscardsFinishedResultRightAway() {
+        var reload = reload();
+        reload.request(() -> new MockState("a"));
+        awaitDone(reload);
+        reload.cancel();
+        assertEquals(1, discarded.size());
+        assertFalse(reload.isPending());
+        assertThrows(IllegalStateException.class, reload::take);
+    }
+
+    @Test
+    void cancelledRunningTaskIsDiscardedByTheWorker() {
+        var reload = reload();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        reload.request(() -> {
+            started.countDown();
+            await(release);
+            return new MockState("a");
+        });
+        await(started);
+        reload.cancel();
+        assertFalse(reload.isPending());
+        assertTrue(discarded.isEmpty());
+
+        release.countDown();
+        reload.awaitCancelled();
+        assertEquals(1, discarded.size());
+        assertEquals("a", discarded.get(0).name);
+        assertFalse(discarded.get(0).compiled);
+    }
+
+    @Test
+    void failuresAreRethrownOnTake() {
+        var reload = reload();
+        var failure = new IllegalArgumentException("broken pack");
+        reload.request(() -> {
+            throw failure;
+        });
+        awaitDone(reload);
+        assertSame(failure, assertThrows(IllegalArgumentException.class, reload::take));
+        assertFalse(reload.isPending());
+
+        reload.request(() -> {
+            throw new AssertionError("broken pack");
+        });
+        awaitDone(reload);
+        assertThrows(AssertionError.class, reload::take);
+        assertTrue(discarded.isEmpty());
+    }
+
+    @Test
+    void nullResultIsHandedOverAsNull() {
+        var reload = reload();
+        reload.request(() -> null);
+        awaitDone(reload);
+        assertNull(reload.take());
+        assertTrue(discarded.isEmpty());
+    }
+
+    private BackgroundReload<MockState> reload() {
+        return new BackgroundReload<>(THREAD_NAME, discarded::add);
+    }
+
+    private static void awaitDone(BackgroundReload<?> reload) {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!reload.isDone()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Request did not finish");
+            }
+            Thread.yield();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new AssertionError("Latch timed out");
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Stands in for {@link FixedEngineState.Prepared}, {@link #compile()} for the GL side of loading.
+     */
+    private static final class MockState {
+        private final String name;
+        private final Thread preparedOn = Thread.currentThread();
+        private boolean compiled;
+        private Thread compiledOn;
+
+        private MockState(String name) {
+            this.name = name;
+        }
+
+        private void compile() {
+            compiled = true;
+            compiledOn = Thread.currentThread();
+        }
+    }
+}
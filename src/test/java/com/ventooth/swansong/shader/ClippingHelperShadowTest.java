@@ -0,0 +1,216 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader;
+
+import org.joml.Matrix4f;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Builds scenes of chunk sized receivers and random casters under a sun, and compares the culling against a brute
+ * force reference that transforms every corner in double precision.
+ */
+class ClippingHelperShadowTest {
+    private static final float[] SUN_ANGLES = {0, 25, -40, 70};
+
+    @Test
+    void castersBetweenTheReceiversAndTheLightAreKept() {
+        var ch = helper(0);
+        ch.begin();
+        ch.addShadowReceiver(0, 64, 0, 16, 80, 16);
+        ch.end();
+        assertEquals(1, ch.clusterCount());
+        //Straight above, and far above
+        assertTrue(ch.isBoxInFrustum(4, 100, 4, 12, 110, 12));
+        assertTrue(ch.isBoxInFrustum(4, 250, 4, 12, 255, 12));
+        //Inside the receiver
+        assertTrue(ch.isBoxInFrustum(2, 70, 2, 3, 71, 3));
+        //Below, next to it and above the neighbouring chunk
+        assertFalse(ch.isBoxInFrustum(4, 0, 4, 12, 60, 12));
+        assertFalse(ch.isBoxInFrustum(20, 64, 4, 30, 80, 12));
+        assertFalse(ch.isBoxInFrustum(4, 100, 17, 12, 110, 30));
+    }
+
+    @Test
+    void castersOverEmptyGroundAreCulled() {
+        var ch = helper(0);
+        ch.begin();
+        ch.addShadowReceiver(0, 64, 0, 16, 80, 16);
+        ch.addShadowReceiver(16, 64, 0, 32, 80, 16);
+        ch.addShadowReceiver(256, 64, 256, 272, 80, 272);
+        ch.end();
+        //The first two share a cell
+        assertEquals(2, ch.clusterCount());
+        assertTrue(ch.isBoxInFrustum(20, 100, 4, 28, 110, 12));
+        assertTrue(ch.isBoxInFrustum(260, 100, 260, 268, 110, 268));
+        //Inside a single box around every receiver, but over nothing
+        assertFalse(ch.isBoxInFrustum(128, 100, 128, 144, 110, 144));
+        assertFalse(ch.isBoxInFrustum(0, 100, 256, 16, 110, 272));
+
+        //Clusters do not survive begin
+        ch.begin();
+        ch.addShadowReceiver(128, 64, 128, 144, 80, 144);
+        ch.end();
+        assertEquals(1, ch.clusterCount());
+        assertTrue(ch.isBoxInFrustum(128, 100, 128, 144, 110, 144));
+        assertFalse(ch.isBoxInFrustum(20, 100, 4, 28, 110, 12));
+    }
+
+    @Test
+    void withoutReceiversEverythingIsCulled() {
+        var ch = helper(25);
+        ch.begin();
+        ch.end();
+        assertEquals(0, ch.clusterCount());
+        assertFalse(ch.isBoxInFrustum(-1000, -1000, -1000, 1000, 1000, 1000));
+        assertFalse(ch.isBoxInFrustum(0, 0, 0, 16, 16, 16));
+    }
+
+    @Test
+    void matchesTheBruteForceReference() {
+        var random = new Random(1234);
+        var ambiguous = 0;
+        var total = 0;
+        var visible = 0;
+        for (var angle : SUN_ANGLES) {
+            for (int scene = 0; scene < 20; scene++) {
+                var ch = helper(angle);
+                var receivers = new ArrayList<float[]>();
+                ch.begin();
+                for (int i = 0, count = 1 + random.nextInt(40); i < count; i++) {
+                    var x = (random.nextInt(21) - 10) * 16;
+                    var y = random.nextInt(8) * 16;
+                    var z = (random.nextInt(21) - 10) * 16;
+                    var box = new float[]{x, y, z, x + 16, y + 16, z + 16};
+                    receivers.add(box);
+                    ch.addShadowReceiver(box[0], box[1], box[2], box[3], box[4], box[5]);
+                }
+                ch.end();
+                var clusters = clusters(receivers);
+                assertEquals(clusters.size(), ch.clusterCount());
+                for (int i = 0; i < 500; i++) {
+                    var caster = randomCaster(random);
+                    var actual = ch.isBoxInFrustum(caster[0], caster[1], caster[2], caster[3], caster[4], caster[5]);
+                    //Never culls a caster that can shadow a receiver
+                    if (overlapsAny(ch.shadowModelViewMatrix, caster, receivers, -1e-3)) {
+                        assertTrue(actual, "scene " + scene + " at " + angle + " degrees");
+                    }
+                    var loose = overlapsAny(ch.shadowModelViewMatrix, caster, clusters, 1e-3);
+                    var tight = overlapsAny(ch.shadowModelViewMatrix, caster, clusters, -1e-3);
+                    total++;
+                    if (loose != tight) {
+                        //Touches a cluster within rounding
+                        ambiguous++;
+                        continue;
+                    }
+                    assertEquals(tight, actual, "scene " + scene + " at " + angle + " degrees");
+                    if (actual) {
+                        visible++;
+                    }
+                }
+            }
+        }
+        assertTrue(ambiguous < total / 100, ambiguous + " of " + total + " ambiguous");
+        //Both outcomes get covered
+        assertTrue(visible > total / 10, visible + " of " + total + " visible");
+        assertTrue(visible < total * 9 / 10, visible + " of " + total + " visible");
+    }
+
+    /**
+     * The sun looks straight down at an angle of 0, and tilts around the Z axis like the vanilla sun path.
+     */
+    private static ClippingHelperShadow helper(float sunAngle) {
+        var ch = new ClippingHelperShadow();
+        ch.shadowModelViewMatrix.identity()
+                                .translate(0, 0, -100)
+                                .rotateX((float) Math.toRadians(90))
+                                .rotateZ((float) Math.toRadians(sunAngle))
+                                .translate(-0.5F, -64.25F, -0.75F);
+        return ch;
+    }
+
+    private static float[] randomCaster(Random random) {
+        var x = random.nextInt(400) - 200;
+        var y = random.nextInt(256);
+        var z = random.nextInt(400) - 200;
+        return new float[]{x, y, z, x + 1 + random.nextInt(16), y + 1 + random.nextInt(16), z + 1 + random.nextInt(16)};
+    }
+
+    /**
+     * Groups the receivers by the cell their center falls into.
+     */
+    private static List<float[]> clusters(List<float[]> receivers) {
+        var byCell = new HashMap<List<Integer>, float[]>();
+        for (var box : receivers) {
+            var cell = List.of(Math.floorDiv((int) Math.floor((box[0] + box[3]) / 2), ClippingHelperShadow.CELL_SIZE),
+                               Math.floorDiv((int) Math.floor((box[2] + box[5]) / 2), ClippingHelperShadow.CELL_SIZE));
+            var bounds = byCell.computeIfAbsent(cell, k -> box.clone());
+            for (int i = 0; i < 3; i++) {
+                bounds[i] = Math.min(bounds[i], box[i]);
+                bounds[i + 3] = Math.max(bounds[i + 3], box[i + 3]);
+            }
+        }
+        return new ArrayList<>(byCell.values());
+    }
+
+    /**
+     * Whether the caster overlaps any receiver swept towards the light, with every bound moved out by {@code slack}.
+     */
+    private static boolean overlapsAny(Matrix4f m, float[] caster, List<float[]> receivers, double slack) {
+        var c = lightBounds(m, caster);
+        for (var receiver : receivers) {
+            var r = lightBounds(m, receiver);
+            if (c[3] > r[0] - slack &&
+                c[0] < r[3] + slack &&
+                c[4] > r[1] - slack &&
+                c[1] < r[4] + slack &&
+                c[5] > r[2] - slack) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return min xyz followed by max xyz of all 8 corners in light space
+     */
+    private static double[] lightBounds(Matrix4f m, float[] box) {
+        var bounds = new double[]{Double.POSITIVE_INFINITY,
+                                  Double.POSITIVE_INFINITY,
+                                  Double.POSITIVE_INFINITY,
+                                  Double.NEGATIVE_INFINITY,
+                                  Double.NEGATIVE_INFINITY,
+                                  Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < 8; i++) {
+            double cx = box[(i & 1) == 0 ? 0 : 3];
+            double cy = box[(i & 2) == 0 ? 1 : 4];
+            double cz = box[(i & 4) == 0 ? 2 : 5];
+            var x = m.m00() * cx + m.m10() * cy + m.m20() * cz + m.m30();
+            var y = m.m01() * cx + m.m11() * cy + m.m21() * cz + m.m31();
+            var z = m.m02() * cx + m.m12() * cy + m.m22() * cz + m.m32();
+            bounds[0] = Math.min(bounds[0], x);
+            bounds[1] = Math.min(bounds[1], y);
+            bounds[2] = Math.min(bounds[2], z);
+            bounds[3] = Math.max(bounds[3], x);
+            bounds[4] = Math.max(bounds[4], y);
+            bounds[5] = Math.max(bounds[5], z);
+        }
+        return bounds;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader;
+
+import org.junit.jupiter.api.Test;
+
+import net.minecraft.util.AxisAlignedBB;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests random boxes both in batches and one at a time, which has to give the same answer bit for bit.
+ */
+class ShadowCullBatchTest {
+    private static final int[] COUNTS = {0, 1, 63, 64, 65, 127, 200, 256, 1000};
+
+    @Test
+    void batchesMatchSingleTests() {
+        var random = new Random(42);
+        for (var angle : new float[]{0, 30, -65}) {
+            var ch = scene(random, angle);
+            for (var count : COUNTS) {
+                var boxes = randomBoxes(random, count);
+                var visible = new long[(count + 63) / 64 + 1];
+                //Stale bits get cleared, the word past the batch is left alone
+                Arrays.fill(visible, -1L);
+                ch.testShadowVisible(boxes[0], boxes[1], boxes[2], boxes[3], boxes[4], boxes[5], count, visible);
+                for (int i = 0; i < count; i++) {
+                    var single = ch.isBoxInFrustum(boxes[0][i],
+                                                   boxes[1][i],
+                                                   boxes[2][i],
+                                                   boxes[3][i],
+                                                   boxes[4][i],
+                                                   boxes[5][i]);
+                    assertEquals(single, (visible[i >>> 6] & (1L << i)) != 0, "box " + i + " of " + count);
+                }
+                for (int i = count; i < (count + 63) / 64 * 64; i++) {
+                    assertEquals(0, visible[i >>> 6] & (1L << i), "bit " + i + " of " + count);
+                }
+                assertEquals(-1L, visible[visible.length - 1]);
+            }
+        }
+    }
+
+    @Test
+    void arraysLongerThanTheCountAreIgnored() {
+        var random = new Random(7);
+        var ch = scene(random, 20);
+        var boxes = randomBoxes(random, 300);
+        var all = new long[5];
+        ch.testShadowVisible(boxes[0], boxes[1], boxes[2], boxes[3], boxes[4], boxes[5], 300, all);
+        var part = new long[2];
+        ch.testShadowVisible(boxes[0], boxes[1], boxes[2], boxes[3], boxes[4], boxes[5], 100, part);
+        assertEquals(all[0], part[0]);
+        assertEquals(all[1] & ((1L << 36) - 1), part[1]);
+    }
+
+    @Test
+    void withoutReceiversNothingIsVisible() {
+        var random = new Random(3);
+        var ch = new ClippingHelperShadow();
+        ch.begin();
+        ch.end();
+        var boxes = randomBoxes(random, 100);
+        var visible = new long[]{-1L, -1L};
+        ch.testShadowVisible(boxes[0], boxes[1], boxes[2], boxes[3], boxes[4], boxes[5], 100, visible);
+        assertEquals(0, visible[0]);
+        assertEquals(0, visible[1]);
+    }
+
+    @Test
+    void batchKeepsIndicesWhileGrowing() {
+        var random = new Random(11);
+        var ch = scene(random, 45);
+        var batch = new ShadowCullBatch();
+        for (int round = 0; round < 2; round++) {
+            batch.clear();
+            var boxes = new AxisAlignedBB[700];
+            for (int i = 0; i < boxes.length; i++) {
+                var x = random.nextInt(400) - 200;
+                var y = random.nextInt(256);
+                var z = random.nextInt(400) - 200;
+                boxes[i] = AxisAlignedBB.getBoundingBox(x, y, z, x + 16, y + 16, z + 16);
+                batch.add(i * 3 + round, boxes[i]);
+            }
+            batch.test(ch);
+            assertEquals(boxes.length, batch.size());
+            var anyVisible = false;
+            for (int i = 0; i < boxes.length; i++) {
+                var box = boxes[i];
+                assertEquals(i * 3 + round, batch.index(i));
+                var single = ch.isBoxInFrustum(box.minX, box.minY, box.minZ, box.maxX, box.maxY, box.maxZ);
+                assertEquals(single, batch.isVisible(i), "box " + i);
+                anyVisible |= single;
+            }
+            assertTrue(anyVisible, "the scene culls everything");
+        }
+    }
+
+    private static ClippingHelperShadow scene(Random random, float sunAngle) {
+        var ch = new ClippingHelperShadow();
+        ch.shadowModelViewMatrix.identity()
+                                .translate(0, 0, -100)
+                                .rotateX((float) Math.toRadians(90))
+                                .rotateZ((float) Math.toRadians(sunAngle))
+                                .translate(-0.5F, -64.25F, -0.75F);
+        ch.begin();
+        for (int i = 0; i < 60; i++) {
+            var x = (random.nextInt(21) - 10) * 16;
+            var y = random.nextInt(8) * 16;
+            var z = (random.nextInt(21) - 10) * 16;
+            ch.addShadowReceiver(x, y, z, x + 16, y + 16, z + 16);
+        }
+        ch.end();
+        return ch;
+    }
+
+    /**
+     * @return min xyz followed by max xyz, one array each, with fractional bounds
+     */
+    private static float[][] randomBoxes(Random random, int count) {
+        var boxes = new float[6][count];
+        for (int i = 0; i < count; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                var min = random.nextFloat() * 400 - 200;
+                boxes[axis][i] = min;
+                boxes[axis + 3][i] = min + random.nextFloat() * 16;
+            }
+        }
+        return boxes;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader;
+
+import org.joml.Matrix4f;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the scheduler over simulated frames the way {@code ShaderEngine} does: every frame offers the visible renderers
+ * with the stamp of their last test, then polls them until the budget, here a number of tests, runs out.
+ */
+class ShadowRecullSchedulerTest {
+    private static final float NEAR_SQ = 0;
+    private static final float FAR_SQ = 128 * 128;
+
+    @Test
+    void onlyTheFirstFrameTestsEverything() {
+        var scheduler = new ShadowRecullScheduler();
+        assertTrue(scheduler.beginFrame(light(30, 0), true));
+        assertFalse(scheduler.beginFrame(light(30, 0), true));
+        assertFalse(scheduler.beginFrame(light(30, 0), true));
+    }
+
+    @Test
+    void staticScenesRetestEvery64Frames() {
+        var scheduler = new ShadowRecullScheduler();
+        scheduler.beginFrame(light(30, 0), true);
+        var stamp = scheduler.clock();
+        for (int frame = 1; frame <= 128; frame++) {
+            scheduler.beginFrame(light(30, 0), true);
+            scheduler.offer(0, stamp, NEAR_SQ);
+            scheduler.offer(1, stamp, FAR_SQ);
+            var due = pollAll(scheduler);
+            if (frame < 64) {
+                assertEquals(List.of(), due, "frame " + frame);
+            } else if (frame < 128) {
+                assertEquals(List.of(0), due, "frame " + frame);
+            } else {
+                assertEquals(List.of(0, 1), due, "frame " + frame);
+            }
+        }
+    }
+
+    @Test
+    void turningTheLightMakesRenderersDueSooner() {
+        var scheduler = new ShadowRecullScheduler();
+        scheduler.beginFrame(light(30, 0), true);
+        var stamp = scheduler.clock();
+        //A little over half a degree per frame
+        scheduler.beginFrame(light(30.6F, 0), true);
+        scheduler.offer(0, stamp, NEAR_SQ);
+        assertEquals(List.of(), pollAll(scheduler));
+        scheduler.beginFrame(light(31.2F, 0), true);
+        scheduler.offer(0, stamp, NEAR_SQ);
+        scheduler.offer(1, stamp, FAR_SQ);
+        assertEquals(List.of(0), pollAll(scheduler));
+    }
+
+    @Test
+    void movingTheLightMakesRenderersDue() {
+        var scheduler = new ShadowRecullScheduler();
+        scheduler.beginFrame(light(30, 0), true);
+        var stamp = scheduler.clock();
+        scheduler.beginFrame(light(30, 8), true);
+        scheduler.offer(0, stamp, NEAR_SQ);
+        assertEquals(List.of(), pollAll(scheduler));
+        scheduler.beginFrame(light(30, 16), true);
+        scheduler.offer(0, stamp, NEAR_SQ);
+        assertEquals(List.of(0), pollAll(scheduler));
+    }
+
+    @Test
+    void jumpsTestEverythingIfEnabled() {
+        var scheduler = new ShadowRecullScheduler();
+        scheduler.beginFrame(light(30, 0), true);
+        assertFalse(scheduler.beginFrame(light(34, 0), true));
+        assertTrue(scheduler.beginFrame(light(44, 0), true));
+
+        scheduler = new ShadowRecullScheduler();
+        scheduler.beginFrame(light(30, 0), false);
+        var stamp = scheduler.clock();
+        assertFalse(scheduler.beginFrame(light(44, 0), false));
+        //Still due right away
+        scheduler.offer(0, stamp, FAR_SQ);
+        assertEquals(List.of(0), pollAll(scheduler));
+    }
+
+    @Test
+    void brokenMatricesTestEverything() {
+        var scheduler = new ShadowRecullScheduler();
+        scheduler.beginFrame(light(30, 0), false);
+        var broken = light(30, 0).m30(Float.NaN);
+        assertTrue(scheduler.beginFrame(broken, false));
+        assertTrue(scheduler.beginFrame(new Matrix4f().zero(), false));
+    }
+
+    @Test
+    void mostStaleRenderersComeFirst() {
+        var scheduler = new ShadowRecullScheduler();
+        for (int frame = 0; frame < 64 * 20; frame++) {
+            scheduler.beginFrame(light(30, 0), true);
+        }
+        var clock = scheduler.clock();
+        //Staleness of 1, 2, 4, 8 and 16
+        scheduler.offer(10, clock - 1, NEAR_SQ);
+        scheduler.offer(11, clock - 16, NEAR_SQ);
+        scheduler.offer(12, clock - 4, NEAR_SQ);
+        scheduler.offer(13, clock - 0.5, NEAR_SQ);
+        scheduler.offer(14, clock - 8, FAR_SQ);
+        scheduler.offer(15, clock - 2, NEAR_SQ);
+        scheduler.offer(16, Double.NaN, NEAR_SQ);
+        assertEquals(List.of(11, 12, 14, 15, 10), pollAll(scheduler));
+        assertEquals(-1, scheduler.poll());
+
+        //Whatever was not polled is dropped by the next frame
+        scheduler.offer(20, clock - 4, NEAR_SQ);
+        scheduler.beginFrame(light(30, 0), true);
+        assertEquals(-1, scheduler.poll());
+    }
+
+    @Test
+    void staticScenesTestFarLessThanTheOldStride() {
+        var sim = new Simulation(4096, Integer.MAX_VALUE);
+        for (int frame = 0; frame < 1024; frame++) {
+            sim.frame(light(30, 0));
+        }
+        //The old stride retested one in 16 every frame
+        assertTrue(sim.tests < 1024 * 4096 / 16 / 4, sim.tests + " tests");
+        for (int i = 0; i < sim.count; i++) {
+            var factor = 1 + sim.distanceSq[i] / FAR_SQ;
+            assertTrue(sim.maxStaleness[i] <= Math.ceil(64 * factor), "renderer " + i);
+        }
+    }
+
+    @Test
+    void tightBudgetsFavourNearbyRenderers() {
+        var budget = 64;
+        var sim = new Simulation(4096, budget);
+        var angle = 30F;
+        for (int frame = 0; frame < 1024; frame++) {
+            sim.frame(light(angle, 0));
+            angle += 0.05F;
+            //More renderers become due every frame than the budget allows, once the first full test wore off
+            if (frame >= 256) {
+                assertEquals(budget, sim.testedLastFrame, "frame " + frame);
+            }
+        }
+        var nearMax = 0;
+        var farMax = 0;
+        for (int i = 0; i < sim.count; i++) {
+            if (sim.distanceSq[i] < 64 * 64) {
+                nearMax = Math.max(nearMax, sim.maxStaleness[i]);
+            } else if (sim.distanceSq[i] > 192 * 192) {
+                farMax = Math.max(farMax, sim.maxStaleness[i]);
+            }
+            //Nobody starves
+            assertTrue(sim.maxStaleness[i] < 512, "renderer " + i);
+        }
+        assertTrue(nearMax < farMax, nearMax + " near, " + farMax + " far");
+    }
+
+    /**
+     * Shadow camera 100 blocks from the origin, tilted by {@code sunAngle} degrees and moved along X.
+     */
+    private static Matrix4f light(float sunAngle, float offset) {
+        return new Matrix4f().translate(0, 0, -100)
+                             .rotateX((float) Math.toRadians(90))
+                             .rotateZ((float) Math.toRadians(sunAngle))
+                             .translate(-0.5F - offset, -64.25F, -0.75F);
+    }
+
+    private static List<Integer> pollAll(ShadowRecullScheduler scheduler) {
+        var polled = new ArrayList<Integer>();
+        for (var i = scheduler.poll(); i >= 0; i = scheduler.poll()) {
+            polled.add(i);
+        }
+        return polled;
+    }
+
+    /**
+     * Visible renderers spread evenly from 0 to 256 blocks away, which stay visible, so every test is a retest.
+     */
+    private static final class Simulation {
+        private final ShadowRecullScheduler scheduler = new ShadowRecullScheduler();
+        private final int count;
+        private final int budget;
+        private final float[] distanceSq;
+        private final double[] stamps;
+        private final int[] lastTested;
+        private final int[] maxStaleness;
+        private int frame;
+        private long tests;
+        private int testedLastFrame;
+
+        private Simulation(int count, int budget) {
+            this.count = count;
+            this.budget = budget;
+            distanceSq = new float[count];
+            stamps = new double[count];
+            lastTested = new int[count];
+            maxStaleness = new int[count];
+            for (int i = 0; i < count; i++) {
+                var distance = 256F * i / count;
+                distanceSq[i] = distance * distance;
+            }
+        }
+
+        private void frame(Matrix4f light) {
+            testedLastFrame = 0;
+            if (scheduler.beginFrame(light, true)) {
+                for (int i = 0; i < count; i++) {
+                    test(i);
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    scheduler.offer(i, stamps[i], distanceSq[i]);
+                }
+                for (int n = 0; n < budget; n++) {
+                    var i = scheduler.poll();
+                    if (i < 0) {
+                        break;
+                    }
+                    test(i);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                maxStaleness[i] = Math.max(maxStaleness[i], frame - lastTested[i]);
+            }
+            frame++;
+        }
+
+        private void test(int i) {
+            stamps[i] = scheduler.clock();
+            lastTested[i] = frame;
+            tests++;
+            testedLastFrame++;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.loader;
+
+import com.ventooth.swansong.shader.preprocessor.Option;
+import com.ventooth.swansong.shader.preprocessor.SamplePack;
+import com.ventooth.swansong.shader.preprocessor.ShaderPreprocessor;
+import com.ventooth.swansong.shader.preprocessor.util.IncludeCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PreprocessorPoolTest {
+    @Test
+    void parallelOutputIsByteIdenticalToSequential() {
+        for (var config : configs()) {
+            List<byte[]> sequential;
+            try (var pool = new PreprocessorPool(0)) {
+                sequential = preprocessAll(pool, config);
+            }
+            List<byte[]> parallel;
+            try (var pool = new PreprocessorPool(4)) {
+                assertTrue(pool.isParallel());
+                parallel = preprocessAll(pool, config);
+            }
+            assertEquals(sequential.size(), parallel.size());
+            for (int i = 0; i < sequential.size(); i++) {
+                assertNotNull(sequential.get(i), files().get(i));
+                assertArrayEquals(sequential.get(i), parallel.get(i), files().get(i));
+            }
+        }
+    }
+
+    @Test
+    void resultsKeepInputOrder() {
+        var inputs = new ArrayList<Integer>();
+        for (int i = 0; i < 500; i++) {
+            inputs.add(i);
+        }
+        try (var pool = new PreprocessorPool(4)) {
+            var results = pool.map(inputs, i -> {
+                if (i % 7 == 0) {
+                    Thread.yield();
+                }
+                return i * 2;
+            });
+            for (int i = 0; i < inputs.size(); i++) {
+                assertEquals(i * 2, (int) results.get(i));
+            }
+        }
+    }
+
+    @Test
+    void taskExceptionsAreRethrown() {
+        try (var pool = new PreprocessorPool(4)) {
+            assertThrows(IllegalArgumentException.class, () -> pool.map(Collections.nCopies(8, 0), i -> {
+                throw new IllegalArgumentException();
+            }));
+        }
+    }
+
+    @Test
+    void singleThreadRunsInline() {
+        try (var pool = new PreprocessorPool(1)) {
+            var caller = Thread.currentThread();
+            var threads = pool.map(Collections.nCopies(4, 0), i -> Thread.currentThread());
+            for (var thread : threads) {
+                assertEquals(caller, thread);
+            }
+        }
+    }
+
+    private static List<byte[]> preprocessAll(PreprocessorPool pool, Map<String, Option.Value> config) {
+        //Shared between the workers, the same way a resolved pack shares it
+        var preprocessor = new ShaderPreprocessor(new SamplePack(new IncludeCache()));
+        return pool.map(files(), path -> SamplePack.preprocess(preprocessor, path, config));
+    }
+
+    private static List<String> files() {
+        var files = new ArrayList<String>();
+        for (var program : SamplePack.PROGRAMS) {
+            files.add(program + ".vsh");
+            files.add(program + ".fsh");
+        }
+        return files;
+    }
+
+    private static List<Map<String, Option.Value>> configs() {
+        var changed = new HashMap<String, Option.Value>();
+        changed.put("SHADOW_QUALITY", Option.Value.detect("4"));
+        changed.put("WAVING_LEAVES", Option.Value.Bool.True);
+        changed.put("DEBUG_VIEW", Option.Value.Bool.True);
+        changed.put("shadowMapResolution", Option.Value.detect("4096"));
+        var configs = new ArrayList<Map<String, Option.Value>>();
+        configs.add(Collections.emptyMap());
+        configs.add(changed);
+        return configs;
+    }
+}
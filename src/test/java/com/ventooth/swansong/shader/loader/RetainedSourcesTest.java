@@ -0,0 +1,268 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.loader;
+
+import com.ventooth.swansong.shader.preprocessor.FSProvider;
+import com.ventooth.swansong.shader.preprocessor.MemoryFSProvider;
+import com.ventooth.swansong.shader.preprocessor.Option;
+import com.ventooth.swansong.shader.preprocessor.SamplePack;
+import com.ventooth.swansong.shader.preprocessor.ShaderPreprocessor;
+import com.ventooth.swansong.shader.preprocessor.ShaderStage2Meta;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetainedSourcesTest {
+    private static final String PATH = "/main.fsh";
+
+    @Test
+    void recordsOnlyReachedOptions() {
+        var stage2 = stage1(pack(), new HashMap<>(), 10710).runStage2(consts(new HashMap<>()));
+        var dependencies = stage2.dependencies();
+        assertNotNull(dependencies);
+        assertEquals(new HashSet<>(Arrays.asList("SHADOWS",
+                                                 "BLOOM",
+                                                 "QUALITY",
+                                                 "SHADOW_RES",
+                                                 "strength",
+                                                 "shadowDistance")), dependencies.names());
+        assertEquals(Arrays.asList("strength", "shadowDistance"), dependencies.constNames());
+    }
+
+    @Test
+    void unchangedInputsAreRestored() {
+        var retained = new RetainedSources();
+        var fs = pack();
+        var config = new HashMap<String, Option.Value>();
+        var first = load(retained, fs, config, 10710);
+        assertNotNull(first.dependencies());
+        assertEquals(1, retained.size());
+
+        var second = load(retained, fs, config, 10710);
+        assertNull(second.dependencies(), "restored");
+        assertArrayEquals(first.pinnedSource(), second.pinnedSource());
+        assertArrayEquals(fresh(fs, config), second.getBytes());
+    }
+
+    @Test
+    void unreachedOptionChangesAreRestored() {
+        var retained = new RetainedSources();
+        var fs = pack();
+        var config = new HashMap<String, Option.Value>();
+        load(retained, fs, config, 10710);
+
+        //Only appears inside #ifdef BLOOM, which is off
+        config.put("BLOOM_RADIUS", Option.Value.detect("8"));
+        //Not in the file at all
+        config.put("unrelated", Option.Value.detect("1.0"));
+        var restored = load(retained, fs, config, 10710);
+        assertNull(restored.dependencies(), "restored");
+        assertArrayEquals(fresh(fs, config), restored.getBytes());
+    }
+
+    @Test
+    void reachedOptionChangesAreInterpreted() {
+        var retained = new RetainedSources();
+        var fs = pack();
+        var config = new HashMap<String, Option.Value>();
+        var before = load(retained, fs, config, 10710).getBytes();
+
+        for (var change : new String[][]{{"QUALITY", "2"},
+                                         {"SHADOW_RES", "2048"},
+                                         {"SHADOWS", "false"},
+                                         {"BLOOM", "true"},
+                                         {"strength", "1.0"}}) {
+            config.clear();
+            config.put(change[0], Option.Value.detect(change[1]));
+            var changed = load(retained, fs, config, 10710);
+            assertNotNull(changed.dependencies(), change[0]);
+            var bytes = changed.getBytes();
+            assertArrayEquals(fresh(fs, config), bytes, change[0]);
+            assertFalse(Arrays.equals(before, bytes), change[0]);
+
+            //The entry now follows the new values
+            assertNull(load(retained, fs, config, 10710).dependencies(), change[0]);
+        }
+    }
+
+    @Test
+    void optionsBehindChangedBranchesBecomeDependencies() {
+        var retained = new RetainedSources();
+        var fs = pack();
+        var config = new HashMap<String, Option.Value>();
+        config.put("BLOOM", Option.Value.Bool.True);
+        var stage2 = load(retained, fs, config, 10710);
+        assertNotNull(stage2.dependencies());
+        assertTrue(stage2.dependencies()
+                         .names()
+                         .contains("BLOOM_RADIUS"));
+
+        config.put("BLOOM_RADIUS", Option.Value.detect("8"));
+        var changed = load(retained, fs, config, 10710);
+        assertNotNull(changed.dependencies(), "interpreted");
+        assertArrayEquals(fresh(fs, config), changed.getBytes());
+    }
+
+    @Test
+    void contentAndMacroChangesAreInterpreted() {
+        var retained = new RetainedSources();
+        var fs = pack();
+        var config = new HashMap<String, Option.Value>();
+        load(retained, fs, config, 10710);
+
+        assertNotNull(load(retained, fs, config, 10800).dependencies(), "macro");
+        assertNull(load(retained, fs, config, 10800).dependencies(), "macro");
+
+        fs.put("/lib.glsl", "float lib() { return 2.0; }");
+        assertNotNull(load(retained, fs, config, 10800).dependencies(), "include");
+        assertNull(load(retained, fs, config, 10800).dependencies(), "include");
+    }
+
+    @Test
+    void matchesSamplePackOutput() {
+        var retained = new RetainedSources();
+        var fs = new SamplePack(null);
+        var config = new HashMap<String, Option.Value>();
+        config.put("SHADOW_QUALITY", Option.Value.detect("4"));
+        for (int round = 0; round < 2; round++) {
+            for (var program : SamplePack.PROGRAMS) {
+                for (var ext : new String[]{".vsh", ".fsh"}) {
+                    var path = program + ext;
+                    var stage2 = load(retained, fs, path, config, 10710);
+                    assertEquals(round == 0, stage2.dependencies() != null, path);
+                    assertArrayEquals(SamplePack.preprocess(new ShaderPreprocessor(fs), path, config),
+                                      stage2.getBytes(),
+                                      path);
+                }
+            }
+        }
+    }
+
+    @Test
+    void unusedEntriesExpire() {
+        var retained = new RetainedSources();
+        var fs = pack();
+        var config = new HashMap<String, Option.Value>();
+        load(retained, fs, config, 10710);
+        load(retained, fs, "/other.fsh", config, 10710);
+        assertEquals(2, retained.size());
+        for (int i = 0; i < 4; i++) {
+            retained.endReload();
+            assertNull(load(retained, fs, config, 10710).dependencies(), "restored");
+        }
+        assertEquals(2, retained.size());
+        retained.endReload();
+        assertEquals(1, retained.size());
+
+        retained.clear();
+        assertEquals(0, retained.size());
+    }
+
+    private static MemoryFSProvider pack() {
+        return new MemoryFSProvider(null).put(PATH,
+                                              "#version 120",
+                                              "#define SHADOWS",
+                                              "//#define BLOOM",
+                                              "#define QUALITY 1 // [1 2 3]",
+                                              "const float strength = 0.5; // [0.5 1.0]",
+                                              "#ifdef BLOOM",
+                                              "#define BLOOM_RADIUS 4 // [2 4 8]",
+                                              "#endif",
+                                              "#ifdef SHADOWS",
+                                              "#define SHADOW_RES 1024 // [512 1024 2048]",
+                                              "const float shadowDistance = 128.0; // [64.0 128.0]",
+                                              "#endif",
+                                              "#include \"lib.glsl\"",
+                                              "void main() {",
+                                              "#if QUALITY > 1",
+                                              "    float q = 2.0;",
+                                              "#endif",
+                                              "}")
+                                         .put("/other.fsh", "#version 120", "void main() {}")
+                                         .put("/lib.glsl", "float lib() { return 1.0; }");
+    }
+
+    /**
+     * Same steps as the shader loader.
+     */
+    private static ShaderPreprocessor.PreprocessorStage2Suspend load(RetainedSources retained,
+                                                                     FSProvider fs,
+                                                                     String path,
+                                                                     Map<String, Option.Value> config,
+                                                                     int mcVersion) {
+        var stage1 = stage1(fs, path, config, mcVersion);
+        var inputs = RetainedSources.inputs(path, stage1);
+        var restored = retained.restore(path, inputs, stage1, config, consts(config));
+        if (restored != null) {
+            return restored;
+        }
+        var stage2 = stage1.runStage2(consts(config));
+        retained.retain(path, inputs, stage2, config);
+        return stage2;
+    }
+
+    private static ShaderPreprocessor.PreprocessorStage2Suspend load(RetainedSources retained,
+                                                                     FSProvider fs,
+                                                                     Map<String, Option.Value> config,
+                                                                     int mcVersion) {
+        return load(retained, fs, PATH, config, mcVersion);
+    }
+
+    private static byte[] fresh(FSProvider fs, Map<String, Option.Value> config) {
+        return stage1(fs, config, 10710).runStage2(consts(config))
+                                        .getBytes();
+    }
+
+    private static ShaderPreprocessor.PreprocessorStage1Suspend stage1(FSProvider fs,
+                                                                       Map<String, Option.Value> config,
+                                                                       int mcVersion) {
+        return stage1(fs, PATH, config, mcVersion);
+    }
+
+    private static ShaderPreprocessor.PreprocessorStage1Suspend stage1(FSProvider fs,
+                                                                       String path,
+                                                                       Map<String, Option.Value> config,
+                                                                       int mcVersion) {
+        return new ShaderPreprocessor(fs).runStage1(path, true, meta -> {
+            meta.extraMacros.add("MC_VERSION", mcVersion);
+            meta.extraMacros.add("MC_GL_VERSION", 210);
+            meta.extraMacros.add("IS_SWANSONG");
+            for (var opt : meta.defines) {
+                var value = config.get(opt.name);
+                if (value != null) {
+                    opt.setCurrentValue(value);
+                }
+            }
+        });
+    }
+
+    private static Consumer<ShaderStage2Meta> consts(Map<String, Option.Value> config) {
+        return meta -> {
+            for (var opt : meta.consts) {
+                var value = config.get(opt.name);
+                if (value != null) {
+                    opt.setCurrentValue(value);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.loader;
+
+import com.ventooth.swansong.shader.preprocessor.FSProvider;
+import com.ventooth.swansong.shader.preprocessor.MemoryFSProvider;
+import com.ventooth.swansong.shader.preprocessor.Option;
+import com.ventooth.swansong.shader.preprocessor.SamplePack;
+import com.ventooth.swansong.shader.preprocessor.ShaderPreprocessor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShaderSourceCacheTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void sameInputsGiveSameKey() {
+        var cache = new ShaderSourceCache(dir);
+        var config = Collections.<String, Option.Value>emptyMap();
+        var first = cache.key("/main.fsh", stage1(pack(), "/main.fsh", config), config);
+        var second = cache.key("/main.fsh", stage1(pack(), "/main.fsh", config), config);
+        assertEquals(first, second);
+    }
+
+    @Test
+    void keyFollowsIncludedContents() {
+        var cache = new ShaderSourceCache(dir);
+        var config = Collections.<String, Option.Value>emptyMap();
+        var fs = pack();
+        var before = cache.key("/main.fsh", stage1(fs, "/main.fsh", config), config);
+
+        //Not included by main.fsh
+        fs.put("/other.glsl", "float other;");
+        assertEquals(before, cache.key("/main.fsh", stage1(fs, "/main.fsh", config), config));
+
+        //Same size as before, a size and timestamp check would miss this
+        fs.put("/lib.glsl", "const float strength = 0.7;", "#define QUALITY 1 // [1 2]");
+        assertNotEquals(before, cache.key("/main.fsh", stage1(fs, "/main.fsh", config), config));
+    }
+
+    @Test
+    void keyFollowsPathMacrosAndOptions() {
+        var cache = new ShaderSourceCache(dir);
+        var config = Collections.<String, Option.Value>emptyMap();
+        var base = cache.key("/main.fsh", stage1(pack(), "/main.fsh", config), config);
+
+        assertNotEquals(base, cache.key("/world-1/main.fsh", stage1(pack(), "/main.fsh", config), config));
+
+        var define = Collections.<String, Option.Value>singletonMap("QUALITY", Option.Value.detect("2"));
+        assertNotEquals(base, cache.key("/main.fsh", stage1(pack(), "/main.fsh", define), config));
+
+        var constant = Collections.<String, Option.Value>singletonMap("strength", Option.Value.detect("0.8"));
+        assertNotEquals(base, cache.key("/main.fsh", stage1(pack(), "/main.fsh", config), constant));
+
+        var macro = new ShaderPreprocessor(pack()).runStage1("/main.fsh", true, meta -> {
+            meta.extraMacros.add("MC_VERSION", 10710);
+            meta.extraMacros.add("MC_RENDER_QUALITY", 0.5);
+        });
+        assertNotEquals(base, cache.key("/main.fsh", macro, config));
+    }
+
+    @Test
+    void restoredOutputMatchesInterpretedOutput() {
+        var cache = new ShaderSourceCache(dir);
+        var config = Collections.<String, Option.Value>emptyMap();
+        for (var program : SamplePack.PROGRAMS) {
+            var path = program + ".fsh";
+            var expected = stage1(new SamplePack(null), path, config).runStage2(meta -> {})
+                                                                     .getBytes();
+            var stage1 = stage1(new SamplePack(null), path, config);
+            var key = cache.key(path, stage1, config);
+            assertNull(cache.read(key));
+            cache.write(key, stage1.runStage2(meta -> {})
+                                   .toCached());
+
+            var cached = cache.read(key);
+            assertNotNull(cached, path);
+            var restored = stage1(new SamplePack(null), path, config).restoreStage2(cached, meta -> {});
+            assertArrayEquals(expected, restored.getBytes(), path);
+        }
+    }
+
+    @Test
+    void corruptEntriesAreDeleted() throws IOException {
+        var cache = new ShaderSourceCache(dir);
+        var config = Collections.<String, Option.Value>emptyMap();
+        var stage1 = stage1(pack(), "/main.fsh", config);
+        var key = cache.key("/main.fsh", stage1, config);
+        cache.write(key, stage1.runStage2(meta -> {})
+                               .toCached());
+        var file = dir.resolve(key + ".bin");
+        var data = Files.readAllBytes(file);
+        data[data.length / 2] ^= 1;
+        Files.write(file, data);
+
+        assertNull(cache.read(key));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void entriesStoredUnderAnotherKeyAreRejected() throws IOException {
+        var cache = new ShaderSourceCache(dir);
+        var config = Collections.<String, Option.Value>emptyMap();
+        var stage1 = stage1(pack(), "/main.fsh", config);
+        var key = cache.key("/main.fsh", stage1, config);
+        cache.write(key, stage1.runStage2(meta -> {})
+                               .toCached());
+        var otherKey = cache.key("/other.fsh", stage1, config);
+        Files.copy(dir.resolve(key + ".bin"), dir.resolve(otherKey + ".bin"));
+
+        assertNull(cache.read(otherKey));
+        assertNotNull(cache.read(key));
+    }
+
+    @Test
+    void pruneDropsLeastRecentlyUsedEntries() throws IOException {
+        var cache = new ShaderSourceCache(dir);
+        var config = Collections.<String, Option.Value>emptyMap();
+        var cached = stage1(pack(), "/main.fsh", config).runStage2(meta -> {})
+                                                      .toCached();
+        var count = 1024 + 8;
+        for (int i = 0; i < count; i++) {
+            var key = String.format("%040x", i);
+            cache.write(key, cached);
+            Files.setLastModifiedTime(dir.resolve(key + ".bin"), FileTime.fromMillis(1_000_000L + i * 1000L));
+        }
+        Files.write(dir.resolve("leftover.tmp"), new byte[1]);
+
+        cache.prune();
+        try (var files = Files.list(dir)) {
+            assertEquals(1024, files.count());
+        }
+        for (int i = 0; i < 8; i++) {
+            assertFalse(Files.exists(dir.resolve(String.format("%040x", i) + ".bin")));
+        }
+        assertTrue(Files.exists(dir.resolve(String.format("%040x", count - 1) + ".bin")));
+    }
+
+    private static MemoryFSProvider pack() {
+        return new MemoryFSProvider(null).put("/main.fsh", "#version 120", "#include \"lib.glsl\"", "void main() {}")
+                                         .put("/lib.glsl",
+                                              "const float strength = 0.5;",
+                                              "#define QUALITY 1 // [1 2]");
+    }
+
+    private static ShaderPreprocessor.PreprocessorStage1Suspend stage1(FSProvider fs,
+                                                                       String path,
+                                                                       Map<String, Option.Value> config) {
+        return new ShaderPreprocessor(fs).runStage1(path, true, meta -> {
+            meta.extraMacros.add("MC_VERSION", 10710);
+            for (var opt : meta.defines) {
+                var value = config.get(opt.name);
+                if (value != null) {
+                    opt.setCurrentValue(value);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.mappings;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Loads block.properties fixtures with numeric block IDs, which resolve without a block registry.
+ */
+class BlockIDRemapperTest {
+    private static final String[] FIXTURE = {"# Comments and unrelated keys are skipped",
+                                             "layer.translucent=1",
+                                             "block.10=1 2:3 4:0,2 5:1-3,8",
+                                             "block.11=6",
+                                             "block.12=70000 70001:1 65535:15 65536",
+                                             "block.13=7:4",
+                                             "block.14=7 8:20",
+                                             "15=9:0",
+                                             "block.16=6 9:0"};
+
+    @Test
+    void wildcardsMatchEveryMeta() {
+        var remapper = remapper(FIXTURE);
+        for (int meta = 0; meta < 16; meta++) {
+            assertEquals(10, remapper.remap(1, meta), "meta " + meta);
+            assertEquals(11, remapper.remap(6, meta), "meta " + meta);
+        }
+        //Outside the table, but still a wildcard
+        assertEquals(10, remapper.remap(1, 16));
+        assertEquals(10, remapper.remap(1, -1));
+    }
+
+    @Test
+    void metadataRulesOnlyMatchTheirMetas() {
+        var remapper = remapper(FIXTURE);
+        assertEquals(10, remapper.remap(2, 3));
+        assertEquals(2, remapper.remap(2, 2));
+        assertEquals(10, remapper.remap(4, 0));
+        assertEquals(4, remapper.remap(4, 1));
+        assertEquals(10, remapper.remap(4, 2));
+        for (int meta : new int[]{1, 2, 3, 8}) {
+            assertEquals(10, remapper.remap(5, meta), "meta " + meta);
+        }
+        for (int meta : new int[]{0, 4, 7, 9, 15}) {
+            assertEquals(5, remapper.remap(5, meta), "meta " + meta);
+        }
+        //Metadata above 15 goes around the table
+        assertEquals(14, remapper.remap(8, 20));
+        assertEquals(8, remapper.remap(8, 4));
+    }
+
+    @Test
+    void earlierRulesWin() {
+        var remapper = remapper(FIXTURE);
+        //7:4 comes before the wildcard on 7
+        assertEquals(13, remapper.remap(7, 4));
+        assertEquals(14, remapper.remap(7, 0));
+        assertEquals(14, remapper.remap(7, 15));
+        //Keys without the prefix count as well, and 9:0 was taken by them first
+        assertEquals(15, remapper.remap(9, 0));
+        assertEquals(9, remapper.remap(9, 1));
+        //A second wildcard on 6 is dropped with a warning
+        assertEquals(11, remapper.remap(6, 0));
+    }
+
+    @Test
+    void idsPastTheTableAreRemapped() {
+        var remapper = remapper(FIXTURE);
+        assertEquals(12, remapper.remap(65535, 15));
+        assertEquals(65535, remapper.remap(65535, 14));
+        for (int meta = 0; meta < 16; meta++) {
+            assertEquals(12, remapper.remap(65536, meta), "meta " + meta);
+            assertEquals(12, remapper.remap(70000, meta), "meta " + meta);
+        }
+        assertEquals(12, remapper.remap(70001, 1));
+        assertEquals(70001, remapper.remap(70001, 0));
+        assertEquals(69999, remapper.remap(69999, 0));
+        assertEquals(70002, remapper.remap(70002, 0));
+        assertEquals(1_000_000, remapper.remap(1_000_000, 3));
+    }
+
+    @Test
+    void unmappedIdsMapToThemselves() {
+        var remapper = remapper(FIXTURE);
+        assertEquals(0, remapper.remap(0, 0));
+        assertEquals(3, remapper.remap(3, 5));
+        assertEquals(-1, remapper.remap(-1, 0));
+        assertEquals(100, remapper.remap(100, 16));
+    }
+
+    @Test
+    void rebuildKeepsTheMapping() {
+        var remapper = remapper(FIXTURE);
+        remapper.rebuild();
+        assertEquals(10, remapper.remap(1, 0));
+        assertEquals(10, remapper.remap(5, 8));
+        assertEquals(12, remapper.remap(70000, 0));
+        assertEquals(13, remapper.remap(7, 4));
+    }
+
+    @Test
+    void packsWithoutRulesHaveNoRemapper() {
+        assertNull(BlockIDRemapper.createRemapper(new MemoryShaderPack()));
+        assertNull(BlockIDRemapper.createRemapper(new MemoryShaderPack().put("block.properties",
+                                                                             "layer.solid=1",
+                                                                             "block.foo=2")));
+    }
+
+    private static BlockIDRemapper remapper(String... lines) {
+        var remapper = BlockIDRemapper.createRemapper(new MemoryShaderPack().put("block.properties", lines));
+        assertNotNull(remapper);
+        return remapper;
+    }
+}
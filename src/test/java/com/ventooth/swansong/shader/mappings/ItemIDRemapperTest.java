@@ -0,0 +1,111 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.mappings;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Loads item.properties fixtures with numeric item IDs, which resolve without an item registry.
+ */
+class ItemIDRemapperTest {
+    private static final String[] FIXTURE = {"item.10=256 35:14 36:1-3,5",
+                                             "item.11=257 35",
+                                             "item.12=256 36:4",
+                                             "item.13=300-302 70000",
+                                             "item.14=36:1x 37:2",
+                                             "block.15=258",
+                                             "item.16=37"};
+
+    @Test
+    void wildcardsMatchEveryDamageValue() {
+        var remapper = remapper(FIXTURE);
+        for (int meta : new int[]{0, 1, 15, 16, 1000}) {
+            assertEquals(10, remapper.remap(256, meta), "meta " + meta);
+            assertEquals(11, remapper.remap(257, meta), "meta " + meta);
+            assertEquals(13, remapper.remap(301, meta), "meta " + meta);
+        }
+    }
+
+    @Test
+    void damageValuesOnlyMatchTheirRules() {
+        var remapper = remapper(FIXTURE);
+        assertEquals(10, remapper.remap(35, 14));
+        //The wildcard comes after 35:14
+        assertEquals(11, remapper.remap(35, 0));
+        assertEquals(11, remapper.remap(35, 13));
+        for (int meta : new int[]{1, 2, 3, 5}) {
+            assertEquals(10, remapper.remap(36, meta), "meta " + meta);
+        }
+        assertEquals(12, remapper.remap(36, 4));
+        assertEquals(36, remapper.remap(36, 0));
+        assertEquals(36, remapper.remap(36, 6));
+    }
+
+    @Test
+    void earlierRulesWin() {
+        var remapper = remapper(FIXTURE);
+        //256 was mapped to 10 first
+        assertEquals(10, remapper.remap(256, 0));
+        //37:2 before the wildcard on 37, the invalid 36:1x next to it is skipped on its own
+        assertEquals(14, remapper.remap(37, 2));
+        assertEquals(16, remapper.remap(37, 0));
+    }
+
+    @Test
+    void unmappedIdsMapToThemselves() {
+        var remapper = remapper(FIXTURE);
+        assertEquals(0, remapper.remap(0, 0));
+        assertEquals(258, remapper.remap(258, 0));
+        assertEquals(303, remapper.remap(303, 0));
+        assertEquals(-1, remapper.remap(-1, 0));
+        //Past the table
+        assertEquals(70000, remapper.remap(70000, 0));
+        assertEquals(1_000_000, remapper.remap(1_000_000, 0));
+    }
+
+    @Test
+    void rebuildKeepsTheMapping() {
+        var remapper = remapper(FIXTURE);
+        remapper.rebuild();
+        assertEquals(10, remapper.remap(35, 14));
+        assertEquals(11, remapper.remap(35, 0));
+        assertEquals(13, remapper.remap(300, 0));
+    }
+
+    @Test
+    void packsWithoutRulesHaveNoRemapper() {
+        assertNull(ItemIDRemapper.createRemapper(new MemoryShaderPack()));
+        assertNull(ItemIDRemapper.createRemapper(new MemoryShaderPack().put("item.properties",
+                                                                            "block.1=2",
+                                                                            "item.x=3",
+                                                                            "item.4=wool:1x")));
+    }
+
+    /**
+     * Entities have no damage values, so entries with one are skipped before looking anything up.
+     */
+    @Test
+    void entitiesWithMetaAreSkipped() {
+        assertNull(EntityIDRemapper.createRemapper(new MemoryShaderPack().put("entity.properties",
+                                                                              "entity.1=minecraft:creeper:1 Zombie:0",
+                                                                              "entity.2=mymod:thing:3-4")));
+    }
+
+    private static ItemIDRemapper remapper(String... lines) {
+        var remapper = ItemIDRemapper.createRemapper(new MemoryShaderPack().put("item.properties", lines));
+        assertNotNull(remapper);
+        return remapper;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.mappings;
+
+import com.ventooth.swansong.resources.pack.ShaderPack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import net.minecraft.world.WorldProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A shader pack holding nothing but the given files, for the property based remappers.
+ */
+final class MemoryShaderPack extends ShaderPack {
+    private final Map<String, byte[]> files = new HashMap<>();
+
+    MemoryShaderPack() {
+        super("memory");
+    }
+
+    /**
+     * @param fileName relative to the shaders directory
+     */
+    MemoryShaderPack put(String fileName, String... lines) {
+        files.put("/shaders/" + fileName, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    @Override
+    public @NotNull InputStream get(String path) throws FileNotFoundException {
+        var file = files.get(path);
+        if (file == null) {
+            throw new FileNotFoundException(path);
+        }
+        return new ByteArrayInputStream(file);
+    }
+
+    @Override
+    public boolean has(String path) {
+        return files.containsKey(path);
+    }
+
+    @Override
+    public @Nullable String getWorldSpecialization(@Nullable WorldProvider dimension) {
+        return null;
+    }
+}
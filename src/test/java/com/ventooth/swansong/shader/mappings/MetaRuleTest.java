@@ -0,0 +1,61 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.mappings;
+
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetaRuleTest {
+    @Test
+    void namesWithMeta() {
+        assertRule("minecraft:wool:14", "minecraft", "wool", IntSet.of(14));
+        assertRule("wool:14", "minecraft", "wool", IntSet.of(14));
+        assertRule("mymod:thing:1-3,5", "mymod", "thing", IntSet.of(1, 2, 3, 5));
+        assertRule("wool", "minecraft", "wool", null);
+        assertRule("mymod:thing", "mymod", "thing", null);
+    }
+
+    @Test
+    void numbersWithMeta() {
+        var rule = assertRule("35:14", "minecraft", "35", IntSet.of(14));
+        assertTrue(rule.isNumeric());
+        assertEquals(IntList.of(35), rule.numericIds());
+
+        rule = assertRule("35-37", "minecraft", "35-37", null);
+        assertEquals(IntList.of(35, 36, 37), rule.numericIds());
+        assertFalse(assertRule("wool", "minecraft", "wool", null).isNumeric());
+    }
+
+    @Test
+    void invalidEntriesAreSkipped() {
+        assertNull(MetaRule.parse("test.properties", 1, "wool:1x"));
+        assertNull(MetaRule.parse("test.properties", 1, "minecraft:wool:x"));
+        assertNull(MetaRule.parse("test.properties", 1, "wool:1-x"));
+        assertNull(MetaRule.parse("test.properties", 1, ":"));
+    }
+
+    private static MetaRule assertRule(String pattern, String modId, String name, IntSet metas) {
+        var rule = MetaRule.parse("test.properties", 7, pattern);
+        assertNotNull(rule, pattern);
+        assertEquals(7, rule.outputId(), pattern);
+        assertEquals(modId, rule.modId(), pattern);
+        assertEquals(name, rule.name(), pattern);
+        assertEquals(metas, rule.metas(), pattern);
+        return rule;
+    }
+}
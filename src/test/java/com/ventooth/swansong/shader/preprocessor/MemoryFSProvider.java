@@ -0,0 +1,74 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.preprocessor;
+
+import com.ventooth.swansong.shader.preprocessor.util.IncludeCache;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Editable in-memory files, counting how often they are opened.
+ */
+public final class MemoryFSProvider implements FSProvider {
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final AtomicInteger reads = new AtomicInteger();
+    private final @Nullable IncludeCache includeCache;
+
+    public MemoryFSProvider(@Nullable IncludeCache includeCache) {
+        this.includeCache = includeCache;
+    }
+
+    public MemoryFSProvider put(String path, String... lines) {
+        files.put(path, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    public void remove(String path) {
+        files.remove(path);
+    }
+
+    public int reads() {
+        return reads.get();
+    }
+
+    @Override
+    public @NotNull InputStream get(String path) throws FileNotFoundException {
+        reads.incrementAndGet();
+        var file = files.get(path);
+        if (file == null) {
+            throw new FileNotFoundException(path);
+        }
+        return new ByteArrayInputStream(file);
+    }
+
+    @Override
+    public boolean has(String path) {
+        return files.containsKey(path);
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public @Nullable IncludeCache includeCache() {
+        return includeCache;
+    }
+}
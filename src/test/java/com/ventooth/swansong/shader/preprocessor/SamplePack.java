@@ -0,0 +1,99 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.preprocessor;
+
+import com.ventooth.swansong.shader.preprocessor.util.IncludeCache;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The shader pack under {@code src/test/resources/shaderpacks/sample}, read from the classpath.
+ */
+public final class SamplePack implements FSProvider {
+    public static final List<String> PROGRAMS = Collections.unmodifiableList(Arrays.asList("/gbuffers_terrain",
+                                                                                           "/gbuffers_water",
+                                                                                           "/shadow",
+                                                                                           "/composite",
+                                                                                           "/world-1/composite",
+                                                                                           "/final"));
+
+    private static final String ROOT = "/shaderpacks/sample/shaders";
+
+    private final @Nullable IncludeCache includeCache;
+
+    public SamplePack(@Nullable IncludeCache includeCache) {
+        this.includeCache = includeCache;
+    }
+
+    /**
+     * Runs both stages the way the shader loader does, with the given option values.
+     *
+     * @return null if the file does not exist
+     */
+    public static byte @Nullable [] preprocess(ShaderPreprocessor preprocessor,
+                                               String path,
+                                               Map<String, Option.Value> config) {
+        var stage1 = preprocessor.runStage1(path, true, meta -> {
+            meta.extraMacros.add("MC_VERSION", 10710);
+            meta.extraMacros.add("MC_GL_VERSION", 210);
+            meta.extraMacros.add("IS_SWANSONG");
+            for (var opt : meta.defines) {
+                var value = config.get(opt.name);
+                if (value != null) {
+                    opt.setCurrentValue(value);
+                }
+            }
+        });
+        if (stage1 == null) {
+            return null;
+        }
+        return stage1.runStage2(meta -> {
+                         for (var opt : meta.consts) {
+                             var value = config.get(opt.name);
+                             if (value != null) {
+                                 opt.setCurrentValue(value);
+                             }
+                         }
+                     })
+                     .getBytes();
+    }
+
+    @Override
+    public @NotNull InputStream get(String path) throws FileNotFoundException {
+        var input = SamplePack.class.getResourceAsStream(ROOT + path);
+        if (input == null) {
+            throw new FileNotFoundException(path);
+        }
+        return input;
+    }
+
+    @Override
+    public boolean has(String path) {
+        return SamplePack.class.getResource(ROOT + path) != null;
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public @Nullable IncludeCache includeCache() {
+        return includeCache;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.preprocessor.macro;
+
+import com.ventooth.swansong.mathparser.ParserException;
+
+/**
+ * Evaluates the {@link MacroExpressionInterpreterTest#CORPUS} with the reference and the compiled interpreter, the way
+ * a shader pack load does: many {@code #if} lines against one set of defines.
+ * <p>
+ * Not a test, run the main method by hand. Pass the number of rounds as the first argument.
+ */
+public final class MacroExpressionBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) throws ParserException {
+        var iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            reference(iterations / 10);
+            compiled(iterations / 10);
+        }
+        var referenceNanos = reference(iterations);
+        var compiledNanos = compiled(iterations);
+        var evaluations = (double) iterations * MacroExpressionInterpreterTest.CORPUS.size();
+        System.out.printf("reference: %.1f ns/expression%n", referenceNanos / evaluations);
+        System.out.printf("compiled:  %.1f ns/expression%n", compiledNanos / evaluations);
+        System.out.printf("speedup:   %.2fx%n", (double) referenceNanos / compiledNanos);
+    }
+
+    private static long reference(int iterations) throws ParserException {
+        var defines = MacroExpressionInterpreterTest.defines();
+        var sink = 0;
+        var start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (var code : MacroExpressionInterpreterTest.CORPUS) {
+                sink += ReferenceExpressionInterpreter.interpret(code, defines)
+                                                      .asBool() ? 1 : 0;
+            }
+        }
+        var time = System.nanoTime() - start;
+        consume(sink);
+        return time;
+    }
+
+    /**
+     * One cache for the whole run and one scope per iteration, like one preprocessor running over many files.
+     */
+    private static long compiled(int iterations) throws ParserException {
+        var defines = MacroExpressionInterpreterTest.defines();
+        var cache = new MacroExpressionInterpreter.ExpressionCache();
+        var sink = 0;
+        var start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            var scope = new MacroExpressionInterpreter.Scope(defines, cache);
+            for (var code : MacroExpressionInterpreterTest.CORPUS) {
+                sink += MacroExpressionInterpreter.interpret(code, scope)
+                                                  .asBool() ? 1 : 0;
+            }
+        }
+        var time = System.nanoTime() - start;
+        consume(sink);
+        return time;
+    }
+
+    private static void consume(int sink) {
+        if (sink == Integer.MIN_VALUE) {
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.preprocessor.macro;
+
+import com.ventooth.swansong.mathparser.ParserException;
+import com.ventooth.swansong.shader.preprocessor.Option;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MacroExpressionInterpreterTest {
+    static final List<String> CORPUS = List.of("1",
+                                               "0",
+                                               "-3",
+                                               "2.5",
+                                               "true",
+                                               "false",
+                                               "1 + 2 * 3",
+                                               "(1 + 2) * 3",
+                                               "10 / 3",
+                                               "10 % 3",
+                                               "10.0 / 4",
+                                               "7 / 2.0",
+                                               "-A",
+                                               "--A",
+                                               "!A",
+                                               "!!C",
+                                               "!B",
+                                               "A == 1",
+                                               "A != 1",
+                                               "C > 2",
+                                               "C >= 2.5",
+                                               "C < A",
+                                               "C <= 2.5",
+                                               "SHADOW_QUALITY >= 2 && SHADOW_QUALITY < 4",
+                                               "A && B",
+                                               "A || B",
+                                               "B || B",
+                                               "A && C && SHADOW_QUALITY",
+                                               "!A || C == 2.5",
+                                               "1 + 2 == 3 && 4 * 2 > 7",
+                                               "NESTED",
+                                               "NESTED * 2",
+                                               "DEEP",
+                                               "DEEP - NESTED == NESTED",
+                                               "NEGATIVE + A",
+                                               "FLAG",
+                                               "OFF",
+                                               "FLAG && !OFF",
+                                               "UNDEFINED",
+                                               "UNDEFINED + 1",
+                                               "defined A",
+                                               "defined UNDEFINED",
+                                               "defined OFF && !OFF",
+                                               "!defined UNDEFINED",
+                                               "defined A && defined NESTED",
+                                               "A // trailing comment",
+                                               "  A  +  C  ",
+                                               "WORD",
+                                               "WORD + 1");
+
+    static final List<String> BROKEN = List.of("",
+                                               "1 +",
+                                               "(1",
+                                               "f(1)",
+                                               "A.x",
+                                               "BROKEN",
+                                               "BROKEN + 1");
+
+    static Map<String, Option.Value> defines() {
+        var defines = new HashMap<String, Option.Value>();
+        defines.put("A", Option.Value.detect("1"));
+        defines.put("B", Option.Value.detect("0"));
+        defines.put("C", Option.Value.detect("2.5"));
+        defines.put("SHADOW_QUALITY", Option.Value.detect("3"));
+        defines.put("NESTED", Option.Value.detect("A + C"));
+        defines.put("DEEP", Option.Value.detect("NESTED * 2"));
+        defines.put("NEGATIVE", Option.Value.detect("-4"));
+        defines.put("FLAG", Option.Value.Bool.True);
+        defines.put("OFF", Option.Value.Bool.False);
+        defines.put("WORD", Option.Value.detect("something"));
+        defines.put("BROKEN", Option.Value.detect("1 +"));
+        return defines;
+    }
+
+    @Test
+    void matchesReferenceInterpreter() throws ParserException {
+        var defines = defines();
+        var cache = new MacroExpressionInterpreter.ExpressionCache();
+        var scope = new MacroExpressionInterpreter.Scope(defines, cache);
+        //Second round evaluates the cached trees and expansions
+        for (int round = 0; round < 2; round++) {
+            for (var code : CORPUS) {
+                var expected = ReferenceExpressionInterpreter.interpret(code, defines);
+                assertEquals(expected, MacroExpressionInterpreter.interpret(code, scope), code);
+                assertEquals(expected, MacroExpressionInterpreter.interpret(code, defines), code);
+            }
+        }
+    }
+
+    @Test
+    void rejectsWhatReferenceRejects() {
+        var defines = defines();
+        var scope = new MacroExpressionInterpreter.Scope(defines, new MacroExpressionInterpreter.ExpressionCache());
+        for (int round = 0; round < 2; round++) {
+            for (var code : BROKEN) {
+                assertThrows(ParserException.class,
+                             () -> ReferenceExpressionInterpreter.interpret(code, defines),
+                             code);
+                assertThrows(ParserException.class, () -> MacroExpressionInterpreter.interpret(code, scope), code);
+            }
+        }
+    }
+
+    @Test
+    void shortCircuitSkipsUnevaluatedDefines() throws ParserException {
+        var defines = defines();
+        var scope = new MacroExpressionInterpreter.Scope(defines, new MacroExpressionInterpreter.ExpressionCache());
+        //The reference expanded both sides while parsing, so the broken define failed either way
+        assertThrows(ParserException.class, () -> ReferenceExpressionInterpreter.interpret("B && BROKEN", defines));
+        assertEquals(new InterpreterValue.IntValue(0), MacroExpressionInterpreter.interpret("B && BROKEN", scope));
+        assertEquals(new InterpreterValue.IntValue(1), MacroExpressionInterpreter.interpret("A || BROKEN", scope));
+        assertThrows(ParserException.class, () -> MacroExpressionInterpreter.interpret("A && BROKEN", scope));
+    }
+
+    @Test
+    void followsChangedDefines() throws ParserException {
+        var defines = defines();
+        var cache = new MacroExpressionInterpreter.ExpressionCache();
+        var scope = new MacroExpressionInterpreter.Scope(defines, cache);
+        for (var code : CORPUS) {
+            MacroExpressionInterpreter.interpret(code, scope);
+        }
+        var size = cache.size();
+
+        defines.put("A", Option.Value.detect("5"));
+        defines.put("C", Option.Value.detect("0.5"));
+        defines.remove("SHADOW_QUALITY");
+        defines.put("UNDEFINED", Option.Value.detect("NESTED"));
+        scope.definesChanged();
+        for (var code : CORPUS) {
+            assertEquals(ReferenceExpressionInterpreter.interpret(code, defines),
+                         MacroExpressionInterpreter.interpret(code, scope),
+                         code);
+        }
+        //Only the values of A and C are new, UNDEFINED expands to an expression that was compiled before
+        assertEquals(size + 2, cache.size());
+    }
+
+    @Test
+    void cacheIgnoresTrailingComments() throws ParserException {
+        var cache = new MacroExpressionInterpreter.ExpressionCache();
+        var scope = new MacroExpressionInterpreter.Scope(defines(), cache);
+        MacroExpressionInterpreter.interpret("A + 1", scope);
+        MacroExpressionInterpreter.interpret("A + 1// one", scope);
+        MacroExpressionInterpreter.interpret("A + 1// two", scope);
+        assertEquals(2, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(new InterpreterValue.IntValue(2), MacroExpressionInterpreter.interpret("A + 1", scope));
+    }
+}
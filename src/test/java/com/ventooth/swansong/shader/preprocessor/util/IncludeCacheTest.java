@@ -0,0 +1,130 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.preprocessor.util;
+
+import com.ventooth.swansong.shader.preprocessor.MemoryFSProvider;
+import com.ventooth.swansong.shader.preprocessor.SamplePack;
+import com.ventooth.swansong.shader.preprocessor.ShaderPreprocessor;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IncludeCacheTest {
+    @Test
+    void expansionIsIdenticalWithAndWithoutCache() {
+        var uncached = new ShaderPreprocessor(new SamplePack(null));
+        var cache = new IncludeCache();
+        var cached = new ShaderPreprocessor(new SamplePack(cache));
+        //Second round runs on a warm cache, third one after revalidating it
+        for (int round = 0; round < 3; round++) {
+            if (round == 2) {
+                cache.revalidate();
+            }
+            for (var program : SamplePack.PROGRAMS) {
+                for (var ext : new String[]{".vsh", ".fsh"}) {
+                    var path = program + ext;
+                    var expected = SamplePack.preprocess(uncached, path, Collections.emptyMap());
+                    assertNotNull(expected, path);
+                    assertArrayEquals(expected,
+                                      SamplePack.preprocess(cached, path, Collections.emptyMap()),
+                                      path);
+                }
+            }
+        }
+    }
+
+    @Test
+    void includerLinesAreIdenticalWithAndWithoutCache() {
+        var cache = new IncludeCache();
+        for (var program : SamplePack.PROGRAMS) {
+            var path = program + ".fsh";
+            var uncached = new RecursiveIncluder(new SamplePack(null));
+            var cached = new RecursiveIncluder(new SamplePack(cache));
+            assertTrue(uncached.read(path), path);
+            assertTrue(cached.read(path), path);
+            assertEquals(uncached.sourceIndices(), cached.sourceIndices(), path);
+            assertEquals(uncached.lines(), cached.lines(), path);
+        }
+    }
+
+    @Test
+    void readsEachFileOncePerGeneration() throws IOException {
+        var cache = new IncludeCache();
+        var fs = new MemoryFSProvider(cache).put("/a.glsl", "float a;");
+        var first = cache.get(fs, "/a.glsl");
+        assertSame(first, cache.get(fs, "/a.glsl"));
+        assertEquals(1, fs.reads());
+
+        cache.revalidate();
+        //Unchanged contents are read, but not parsed again
+        assertSame(first, cache.get(fs, "/a.glsl"));
+        assertSame(first, cache.get(fs, "/a.glsl"));
+        assertEquals(2, fs.reads());
+    }
+
+    @Test
+    void revalidatePicksUpEditedFiles() throws IOException {
+        var cache = new IncludeCache();
+        var fs = new MemoryFSProvider(cache).put("/a.glsl", "#define A 1");
+        var first = cache.get(fs, "/a.glsl");
+
+        //Same size, only the contents differ
+        fs.put("/a.glsl", "#define A 2");
+        assertSame(first, cache.get(fs, "/a.glsl"));
+
+        cache.revalidate();
+        var second = cache.get(fs, "/a.glsl");
+        assertNotSame(first, second);
+        assertEquals("#define A 2",
+                     second.get(0)
+                           .text());
+    }
+
+    @Test
+    void revalidateFollowsAddedAndRemovedFiles() throws IOException {
+        var cache = new IncludeCache();
+        var fs = new MemoryFSProvider(cache);
+        assertNull(cache.get(fs, "/a.glsl"));
+
+        fs.put("/a.glsl", "float a;");
+        assertNull(cache.get(fs, "/a.glsl"));
+        cache.revalidate();
+        assertNotNull(cache.get(fs, "/a.glsl"));
+
+        fs.remove("/a.glsl");
+        cache.revalidate();
+        assertNull(cache.get(fs, "/a.glsl"));
+    }
+
+    @Test
+    void editedIncludeChangesOutputAfterRevalidate() {
+        var cache = new IncludeCache();
+        var fs = new MemoryFSProvider(cache).put("/main.fsh", "#version 120", "#include \"lib.glsl\"", "void main() {}")
+                                            .put("/lib.glsl", "#define QUALITY 1 // [1 2]");
+        var preprocessor = new ShaderPreprocessor(fs);
+        var before = new String(SamplePack.preprocess(preprocessor, "/main.fsh", Collections.emptyMap()));
+        assertTrue(before.contains("#define QUALITY 1"));
+
+        fs.put("/lib.glsl", "#define QUALITY 2 // [1 2]");
+        cache.revalidate();
+        var after = new String(SamplePack.preprocess(preprocessor, "/main.fsh", Collections.emptyMap()));
+        assertTrue(after.contains("#define QUALITY 2"));
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.preprocessor.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the scanner and the regular expressions it replaced over the same lines.
+ */
+class OptionScannerTest {
+    //The definitions Option used before the scanner
+    private static final String REGEX_NAME = "(\\w+)";
+    private static final String REGEX_VALUE = "([\\w.-]+)";
+    private static final String REGEX_ALLOWED = "\\s*(?://(?:.*?\\[(.*?)])?.*)?$";
+    private static final Pattern CONST_REGEX = Pattern.compile("^\\s*const\\s+" +
+                                                               REGEX_NAME +
+                                                               "\\s+" +
+                                                               REGEX_NAME +
+                                                               "\\s*=\\s*" +
+                                                               REGEX_VALUE +
+                                                               "\\s*;" +
+                                                               REGEX_ALLOWED);
+    private static final Pattern DEFINE_REGEX = Pattern.compile("^\\s*(//)?\\s*#define\\s+" +
+                                                                REGEX_NAME +
+                                                                "(?:\\s+" +
+                                                                REGEX_VALUE +
+                                                                ")?" +
+                                                                REGEX_ALLOWED);
+
+    private static final List<String> DEFINES = List.of("#define SHADOWS",
+                                                        "//#define SHADOWS",
+                                                        "// #define SHADOWS",
+                                                        "  //\t#define SHADOWS  ",
+                                                        "#define SHADOW_QUALITY 2",
+                                                        "#define SHADOW_QUALITY 2 //[1 2 3 4]",
+                                                        "#define SHADOW_QUALITY 2//[1 2 3 4]",
+                                                        "#define SHADOW_QUALITY 2 // Quality [1 2 3 4] of shadows",
+                                                        "#define SHADOW_QUALITY 2 // [1 2 3 4] [5 6]",
+                                                        "#define SHADOW_QUALITY 2 // [1 2 3 4",
+                                                        "#define SHADOW_QUALITY 2 // 1 2 3 4]",
+                                                        "#define SHADOW_QUALITY 2 // []",
+                                                        "#define SHADOW_QUALITY 2 // [[1 2] 3]",
+                                                        "#define SHADOW_QUALITY 2 //",
+                                                        "#define SHADOW_QUALITY 2 /",
+                                                        "#define SHADOW_QUALITY 2 /* [1 2] */",
+                                                        "//#define SHADOW_QUALITY 2 //[1 2 3 4]",
+                                                        "#define SUN_ANGLE -40.0 //[-60.0 -40.0 0.0]",
+                                                        "#define SUN_ANGLE -40.0f",
+                                                        "#define VERSION 1.2.3",
+                                                        "#define STRENGTH .5",
+                                                        "#define MODE -",
+                                                        "#define FLAG true // [false true]",
+                                                        "#define SHADOWS//comment",
+                                                        "#define SHADOWS //comment [a b]",
+                                                        "#define SHADOWS\t",
+                                                        "\t #define\tSHADOWS\t2\t",
+                                                        "#define SHADOWS 2 3",
+                                                        "#define SHADOWS (2)",
+                                                        "#define SHADOWS bar+1",
+                                                        "#define SHADOWS 2;",
+                                                        "#define MIX(a, b) a",
+                                                        "#define",
+                                                        "#define ",
+                                                        "#defineSHADOWS",
+                                                        "#define\u00a0SHADOWS",
+                                                        "# define SHADOWS",
+                                                        "#undef SHADOWS",
+                                                        "///#define SHADOWS",
+                                                        "/ /#define SHADOWS",
+                                                        "x #define SHADOWS",
+                                                        "#define SHADOWS\n",
+                                                        "#define SHADOWS 2\r",
+                                                        "#define SHADOWS 2 // [1 2]\r",
+                                                        "#define SHADOWS 2 // [1\u2028 2]",
+                                                        "#define SHADOWS 2 // [1\u0085 2]",
+                                                        "#define \u00e9t\u00e9 2",
+                                                        "#define SHADOWS \u00e9",
+                                                        "",
+                                                        "   ",
+                                                        "//",
+                                                        "// just a comment");
+
+    private static final List<String> CONSTS = List.of("const int shadowMapResolution = 2048;",
+                                                       "const int shadowMapResolution = 2048; //[1024 2048 4096]",
+                                                       "const int shadowMapResolution=2048;//[1024 2048 4096]",
+                                                       "  const\tfloat\tsunPathRotation\t=\t-40.0\t;\t",
+                                                       "const float sunPathRotation = -40.0 ; // Angle [-60.0 0.0]",
+                                                       "const float sunPathRotation = -40.0f;",
+                                                       "const float shadowDistance = 128.0; // [64.0 128.0",
+                                                       "const float shadowDistance = 128.0; // 64.0 128.0]",
+                                                       "const float shadowDistance = 128.0; // []",
+                                                       "const float shadowDistance = 128.0; //",
+                                                       "const float shadowDistance = 128.0; /",
+                                                       "const bool shadowHardwareFiltering = true;",
+                                                       "const bool shadowHardwareFiltering = false; //[false true]",
+                                                       "const float a = .5;",
+                                                       "const float a = 1.2.3;",
+                                                       "const vec3 color = vec3(1.0);",
+                                                       "const float a = 1.0 + 2.0;",
+                                                       "const float a = 1;;",
+                                                       "const float a = 1; foo",
+                                                       "const float a = ;",
+                                                       "const float a 1.0;",
+                                                       "const float = 1.0;",
+                                                       "const a = 1.0;",
+                                                       "constfloat a = 1.0;",
+                                                       "const floata = 1.0;",
+                                                       "const float a = 1.0",
+                                                       "const in float a = 1.0;",
+                                                       "uniform float a = 1.0;",
+                                                       "// const float a = 1.0;",
+                                                       "const float a = 1.0;\n",
+                                                       "const float a = 1.0; // [1.0 2.0]\r",
+                                                       "const float a = 1.0; // [1.0\u2029 2.0]",
+                                                       "const float \u00e9 = 1.0;",
+                                                       "const",
+                                                       "const ",
+                                                       "");
+
+    @Test
+    void definesMatchRegex() {
+        var scanner = new OptionScanner();
+        for (var line : DEFINES) {
+            assertSameDefine(scanner, line);
+        }
+    }
+
+    @Test
+    void constsMatchRegex() {
+        var scanner = new OptionScanner();
+        for (var line : CONSTS) {
+            assertSameConst(scanner, line);
+        }
+    }
+
+    @Test
+    void corpusCoversMatchesAndRejections() {
+        var defines = DEFINES.stream()
+                             .filter(line -> DEFINE_REGEX.matcher(line)
+                                                         .matches())
+                             .count();
+        var consts = CONSTS.stream()
+                           .filter(line -> CONST_REGEX.matcher(line)
+                                                      .matches())
+                           .count();
+        assertTrue(defines > 10 && defines < DEFINES.size() - 10, "defines matched: " + defines);
+        assertTrue(consts > 10 && consts < CONSTS.size() - 10, "consts matched: " + consts);
+    }
+
+    /**
+     * Lines glued together from option fragments, so the odd combinations are covered as well.
+     */
+    @Test
+    void randomLinesMatchRegex() {
+        var fragments = new String[]{"#define",
+                                     "//",
+                                     "/",
+                                     "const",
+                                     "float",
+                                     "NAME",
+                                     "2",
+                                     "-1.5",
+                                     ".",
+                                     "=",
+                                     ";",
+                                     "[",
+                                     "]",
+                                     "[1 2]",
+                                     " ",
+                                     "  ",
+                                     "\t",
+                                     "\r",
+                                     "\n",
+                                     "(",
+                                     "+",
+                                     "\u00e9",
+                                     "\u0085"};
+        var random = new Random(0x5EED);
+        var scanner = new OptionScanner();
+        var lines = new ArrayList<String>();
+        for (int i = 0; i < 50_000; i++) {
+            var line = new StringBuilder();
+            var count = 1 + random.nextInt(10);
+            for (int j = 0; j < count; j++) {
+                line.append(fragments[random.nextInt(fragments.length)]);
+            }
+            lines.add(line.toString());
+        }
+        //Mostly rejections otherwise
+        for (int i = 0; i < 10_000; i++) {
+            lines.add(mutate(random, DEFINES.get(random.nextInt(DEFINES.size())), fragments));
+            lines.add(mutate(random, CONSTS.get(random.nextInt(CONSTS.size())), fragments));
+        }
+        for (var line : lines) {
+            assertSameDefine(scanner, line);
+            assertSameConst(scanner, line);
+        }
+    }
+
+    private static String mutate(Random random, String line, String[] fragments) {
+        var at = random.nextInt(line.length() + 1);
+        var fragment = fragments[random.nextInt(fragments.length)];
+        return line.substring(0, at) + fragment + line.substring(at);
+    }
+
+    private static void assertSameDefine(OptionScanner scanner, String line) {
+        Matcher match = DEFINE_REGEX.matcher(line);
+        var matches = match.matches();
+        assertEquals(matches, scanner.scanDefine(line), () -> "define: " + escape(line));
+        if (matches) {
+            assertEquals(match.group(1) != null, scanner.disabled(), () -> "disabled: " + escape(line));
+            assertEquals(match.group(2), scanner.name(), () -> "name: " + escape(line));
+            assertEquals(match.group(3), scanner.value(), () -> "value: " + escape(line));
+            assertEquals(match.group(4), scanner.allowed(), () -> "allowed: " + escape(line));
+        }
+    }
+
+    private static void assertSameConst(OptionScanner scanner, String line) {
+        Matcher match = CONST_REGEX.matcher(line);
+        var matches = match.matches();
+        assertEquals(matches, scanner.scanConst(line), () -> "const: " + escape(line));
+        if (matches) {
+            assertEquals(match.group(1), scanner.type(), () -> "type: " + escape(line));
+            assertEquals(match.group(2), scanner.name(), () -> "name: " + escape(line));
+            assertEquals(match.group(3), scanner.value(), () -> "value: " + escape(line));
+            assertEquals(match.group(4), scanner.allowed(), () -> "allowed: " + escape(line));
+        }
+    }
+
+    private static String escape(String line) {
+        var result = new StringBuilder("\"");
+        for (int i = 0; i < line.length(); i++) {
+            var c = line.charAt(i);
+            if (c < 0x20 || c > 0x7e) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"')
+                     .toString();
+    }
+}
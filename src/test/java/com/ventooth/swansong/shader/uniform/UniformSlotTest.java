@@ -0,0 +1,204 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.shader.uniform;
+
+import org.joml.Matrix4d;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Binds uniforms to slots the way {@code ManagedShader} does, with setters that record the uploads instead of making
+ * GL calls.
+ */
+class UniformSlotTest {
+    private final List<String> uploads = new ArrayList<>();
+
+    private int intValue;
+    private double doubleValue;
+    private final Vector3d vector = new Vector3d();
+    private final Matrix4d matrix = new Matrix4d();
+
+    @BeforeEach
+    void setUp() {
+        Uniform.nextGeneration();
+    }
+
+    @Test
+    void unchangedValuesAreNotUploadedAgain() {
+        var uniform = new Uniform.OfInt("frame", () -> intValue, (location, v) -> record(location, v));
+        var slot = new Uniform.Slot(3);
+        intValue = 7;
+        uniform.load(slot);
+        uniform.load(slot);
+        assertUploads("3=7");
+
+        intValue = 8;
+        uniform.load(slot);
+        uniform.load(slot);
+        assertUploads("3=8");
+    }
+
+    @Test
+    void nextGenerationForcesUpload() {
+        var uniform = new Uniform.OfInt("frame", () -> intValue, (location, v) -> record(location, v));
+        var slot = new Uniform.Slot(3);
+        intValue = 7;
+        uniform.load(slot);
+        assertUploads("3=7");
+
+        Uniform.nextGeneration();
+        uniform.load(slot);
+        uniform.load(slot);
+        assertUploads("3=7");
+    }
+
+    @Test
+    void everyProgramHasItsOwnSlots() {
+        var uniform = new Uniform.OfInt("frame", () -> intValue, (location, v) -> record(location, v));
+        var first = new Uniform.Slot(0);
+        var second = new Uniform.Slot(0);
+        intValue = 1;
+        begin(uniform, first);
+        begin(uniform, second);
+        assertUploads("0=1", "0=1");
+
+        begin(uniform, first);
+        begin(uniform, second);
+        assertUploads();
+
+        intValue = 2;
+        begin(uniform, first);
+        assertUploads("0=2");
+        intValue = 1;
+        begin(uniform, second);
+        assertUploads();
+        begin(uniform, first);
+        assertUploads("0=1");
+    }
+
+    @Test
+    void updatesWhileBoundGoToTheBoundSlot() {
+        var uniform = new Uniform.OfInt("frame", () -> intValue, (location, v) -> record(location, v));
+        var slot = new Uniform.Slot(5);
+        intValue = 1;
+        uniform.load(slot);
+        uniform.update();
+        assertUploads("5=1");
+
+        intValue = 2;
+        uniform.update();
+        assertUploads("5=2");
+
+        //Unbound, nothing to update
+        uniform.reset();
+        intValue = 3;
+        uniform.update();
+        assertUploads();
+
+        uniform.load(slot);
+        assertUploads("5=3");
+    }
+
+    @Test
+    void doublesAreComparedAsUploaded() {
+        var uniform = new Uniform.OfDouble("time", () -> doubleValue, (location, v) -> record(location, (float) v));
+        var slot = new Uniform.Slot(1);
+        doubleValue = 1;
+        uniform.load(slot);
+        //Same float
+        doubleValue = 1 + 1e-12;
+        uniform.load(slot);
+        assertUploads("1=1.0");
+
+        doubleValue = 1 + 1e-6;
+        uniform.load(slot);
+        assertUploads("1=" + (float) (1 + 1e-6));
+
+        //Compared by bits
+        doubleValue = 0;
+        uniform.load(slot);
+        doubleValue = -0.0;
+        uniform.load(slot);
+        doubleValue = Double.NaN;
+        uniform.load(slot);
+        uniform.load(slot);
+        assertUploads("1=0.0", "1=-0.0", "1=NaN");
+    }
+
+    @Test
+    void vectorsAreComparedByValue() {
+        var uniform = new Uniform.Of<Vector3dc>("cameraPosition", () -> vector, (location, v) -> record(location, v));
+        var slot = new Uniform.Slot(2);
+        vector.set(1, 2, 3);
+        uniform.load(slot);
+        uniform.load(slot);
+        assertUploads("2=(1.0,2.0,3.0)");
+
+        //Same instance, modified in place
+        vector.z = 4;
+        uniform.load(slot);
+        assertUploads("2=(1.0,2.0,4.0)");
+    }
+
+    @Test
+    void matricesAreComparedByValue() {
+        var uniform = new Uniform.Of<>("gbufferModelView", () -> matrix, (location, m) -> record(location, m.m30()));
+        var slot = new Uniform.Slot(4);
+        uniform.load(slot);
+        uniform.load(slot);
+        assertUploads("4=0.0");
+
+        matrix.translate(5, 0, 0);
+        uniform.load(slot);
+        uniform.load(slot);
+        assertUploads("4=5.0");
+
+        Uniform.nextGeneration();
+        uniform.load(slot);
+        assertUploads("4=5.0");
+    }
+
+    @Test
+    void unknownTypesAreAlwaysUploaded() {
+        var uniform = new Uniform.Of<>("name", () -> "value", (location, v) -> record(location, v));
+        var slot = new Uniform.Slot(6);
+        uniform.load(slot);
+        uniform.load(slot);
+        assertUploads("6=value", "6=value");
+    }
+
+    /**
+     * Same steps as {@code ManagedShader.begin} and {@code ManagedShader.end}.
+     */
+    private static void begin(Uniform<?> uniform, Uniform.Slot slot) {
+        uniform.load(slot);
+        uniform.reset();
+    }
+
+    private void record(int location, Object value) {
+        if (value instanceof Vector3dc v) {
+            value = "(" + v.x() + "," + v.y() + "," + v.z() + ")";
+        }
+        uploads.add(location + "=" + value);
+    }
+
+    private void assertUploads(String... expected) {
+        assertEquals(List.of(expected), uploads);
+        uploads.clear();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.tessellator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Sorts random quads and compares the result against the vanilla {@code QuadComparator} math, run through a stable
+ * sort so quads at equal distance have a well defined order.
+ */
+class QuadSorterTest {
+    private static final int[] STRIDES = {8, ShaderVert.COMPACT_STRIDE_INTS, ShaderVert.STRIDE_INTS};
+
+    @Test
+    void matchesTheComparator() {
+        var random = new Random(42);
+        var sorter = new QuadSorter();
+        for (var stride : STRIDES) {
+            for (int round = 0; round < 50; round++) {
+                var count = random.nextInt(600);
+                var buffer = new int[count * stride * 4];
+                for (int quad = 0; quad < count; quad++) {
+                    var x = random.nextFloat() * 64 - 32;
+                    var y = random.nextFloat() * 64 - 32;
+                    var z = random.nextFloat() * 64 - 32;
+                    fillQuad(random, buffer, quad, stride, x, y, z, random.nextFloat());
+                }
+                assertSorted(sorter, buffer, stride, random.nextFloat() * 8 - 4, 0, random.nextFloat() * 8 - 4);
+            }
+        }
+    }
+
+    @Test
+    void equalDistancesKeepTheirOrder() {
+        var random = new Random(7);
+        var sorter = new QuadSorter();
+        for (var stride : STRIDES) {
+            //A handful of distinct distances, mirrored around the camera, so most quads tie
+            var count = 300;
+            var buffer = new int[count * stride * 4];
+            for (int quad = 0; quad < count; quad++) {
+                var distance = random.nextInt(5) * 2F;
+                var sign = random.nextBoolean() ? 1 : -1;
+                switch (random.nextInt(3)) {
+                    case 0 -> fillQuad(random, buffer, quad, stride, sign * distance, 0, 0, 0);
+                    case 1 -> fillQuad(random, buffer, quad, stride, 0, sign * distance, 0, 0);
+                    default -> fillQuad(random, buffer, quad, stride, 0, 0, sign * distance, 0);
+                }
+            }
+            assertSorted(sorter, buffer, stride, 0, 0, 0);
+        }
+    }
+
+    @Test
+    void negativeOffsetsSortByDistance() {
+        var stride = ShaderVert.STRIDE_INTS;
+        var buffer = new int[3 * stride * 4];
+        //Below and behind the camera, and one right on it
+        fillQuad(null, buffer, 0, stride, -10, -10, -10, 0);
+        fillQuad(null, buffer, 1, stride, -1000, -2, -3, 0);
+        fillQuad(null, buffer, 2, stride, -5, -5, -5, 0);
+        var sorted = assertSorted(new QuadSorter(), buffer, stride, -5, -5, -5);
+        assertEquals(-1000, positionX(sorted, 0, stride));
+        assertEquals(-10, positionX(sorted, 1, stride));
+        assertEquals(-5, positionX(sorted, 2, stride));
+    }
+
+    @Test
+    void nanAndInfiniteDistancesSortLikeTheComparator() {
+        var stride = ShaderVert.STRIDE_INTS;
+        var buffer = new int[6 * stride * 4];
+        fillQuad(null, buffer, 0, stride, 1, 0, 0, 0);
+        fillQuad(null, buffer, 1, stride, Float.NaN, 0, 0, 0);
+        //Squares past the float range
+        fillQuad(null, buffer, 2, stride, 1e30F, 0, 0, 0);
+        fillQuad(null, buffer, 3, stride, 0, 0, 0, 0);
+        fillQuad(null, buffer, 4, stride, 0, Float.intBitsToFloat(0x7fc0_1234), 0, 0);
+        //Squares below the smallest float, so a distance of 0
+        fillQuad(null, buffer, 5, stride, 1e-30F, 0, 0, 0);
+        var sorted = assertSorted(new QuadSorter(), buffer, stride, 0, 0, 0);
+        assertEquals(Float.NaN, positionX(sorted, 0, stride));
+        assertEquals(Float.intBitsToFloat(0x7fc0_1234), Float.intBitsToFloat(sorted[stride * 4 + 1]));
+        assertEquals(1e30F, positionX(sorted, 2, stride));
+        assertEquals(1, positionX(sorted, 3, stride));
+        assertEquals(0, positionX(sorted, 4, stride));
+        assertEquals(1e-30F, positionX(sorted, 5, stride));
+    }
+
+    @Test
+    void trailingIntsAreCopied() {
+        var random = new Random(3);
+        var stride = ShaderVert.COMPACT_STRIDE_INTS;
+        var quadInts = stride * 4;
+        var buffer = new int[3 * quadInts + 5];
+        for (int quad = 0; quad < 3; quad++) {
+            fillQuad(random, buffer, quad, stride, quad, 0, 0, 0);
+        }
+        for (int i = 0; i < 5; i++) {
+            buffer[3 * quadInts + i] = 100 + i;
+        }
+        //Longer than the input, the rest is left alone
+        var dst = new int[buffer.length + 4];
+        dst[buffer.length] = -1;
+        new QuadSorter().sort(buffer, buffer.length, stride, 0, 0, 0, dst);
+        assertEquals(2, positionX(dst, 0, stride));
+        assertEquals(0, positionX(dst, 2, stride));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(100 + i, dst[3 * quadInts + i]);
+        }
+        assertEquals(-1, dst[buffer.length]);
+    }
+
+    /**
+     * Sorts with a fresh and a reused sorter, and checks both against {@link #reference}.
+     *
+     * @return the sorted buffer
+     */
+    private static int[] assertSorted(QuadSorter sorter, int[] buffer, int stride, float x, float y, float z) {
+        var original = buffer.clone();
+        var expected = reference(buffer, stride, x, y, z);
+        var actual = new int[buffer.length];
+        sorter.sort(buffer, buffer.length, stride, x, y, z, actual);
+        assertArrayEquals(expected, actual, "stride " + stride);
+        var fresh = new int[buffer.length];
+        new QuadSorter().sort(buffer, buffer.length, stride, x, y, z, fresh);
+        assertArrayEquals(expected, fresh, "stride " + stride);
+        assertArrayEquals(original, buffer, "source modified");
+        return actual;
+    }
+
+    /**
+     * Boxed quad offsets ordered with the distance math and the {@code Float.compare} of vanilla
+     * {@code QuadComparator}, with the stride taken as a parameter like {@code QuadComparatorMixin} does.
+     */
+    private static int[] reference(int[] buffer, int stride, float x, float y, float z) {
+        var quadInts = stride * 4;
+        var offsets = new ArrayList<Integer>();
+        for (int offset = 0; offset < buffer.length; offset += quadInts) {
+            offsets.add(offset);
+        }
+        offsets.sort((a, b) -> Float.compare(vanillaDistance(buffer, b, stride, x, y, z),
+                                             vanillaDistance(buffer, a, stride, x, y, z)));
+        var sorted = new int[buffer.length];
+        for (int i = 0; i < offsets.size(); i++) {
+            System.arraycopy(buffer, offsets.get(i), sorted, i * quadInts, quadInts);
+        }
+        return sorted;
+    }
+
+    private static float vanillaDistance(int[] buffer, int offset, int stride, float x, float y, float z) {
+        var f = Float.intBitsToFloat(buffer[offset]) - x;
+        var f1 = Float.intBitsToFloat(buffer[offset + 1]) - y;
+        var f2 = Float.intBitsToFloat(buffer[offset + 2]) - z;
+        var f3 = Float.intBitsToFloat(buffer[offset + stride]) - x;
+        var f4 = Float.intBitsToFloat(buffer[offset + stride + 1]) - y;
+        var f5 = Float.intBitsToFloat(buffer[offset + stride + 2]) - z;
+        var f6 = Float.intBitsToFloat(buffer[offset + stride * 2]) - x;
+        var f7 = Float.intBitsToFloat(buffer[offset + stride * 2 + 1]) - y;
+        var f8 = Float.intBitsToFloat(buffer[offset + stride * 2 + 2]) - z;
+        var f9 = Float.intBitsToFloat(buffer[offset + stride * 3]) - x;
+        var f10 = Float.intBitsToFloat(buffer[offset + stride * 3 + 1]) - y;
+        var f11 = Float.intBitsToFloat(buffer[offset + stride * 3 + 2]) - z;
+        var f12 = (f + f3 + f6 + f9) * 0.25F;
+        var f13 = (f1 + f4 + f7 + f10) * 0.25F;
+        var f14 = (f2 + f5 + f8 + f11) * 0.25F;
+        return f12 * f12 + f13 * f13 + f14 * f14;
+    }
+
+    /**
+     * Puts the four corners of a quad symmetrically around the given center, spread out by up to {@code size}, and
+     * fills the other ints of every vertex with random data, or the quad index without a random.
+     */
+    private static void fillQuad(Random random,
+                                 int[] buffer,
+                                 int quad,
+                                 int stride,
+                                 float x,
+                                 float y,
+                                 float z,
+                                 float size) {
+        for (int corner = 0; corner < 4; corner++) {
+            var vertex = (quad * 4 + corner) * stride;
+            for (int i = 3; i < stride; i++) {
+                buffer[vertex + i] = random != null ? random.nextInt() : quad;
+            }
+            var dx = (corner & 1) == 0 ? -size : size;
+            var dz = (corner & 2) == 0 ? -size : size;
+            buffer[vertex] = Float.floatToRawIntBits(x + dx);
+            buffer[vertex + 1] = Float.floatToRawIntBits(y);
+            buffer[vertex + 2] = Float.floatToRawIntBits(z + dz);
+        }
+    }
+
+    private static float positionX(int[] buffer, int quad, int stride) {
+        return Float.intBitsToFloat(buffer[quad * stride * 4]);
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.tessellator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the values generated for a whole buffer against the per vertex math the tessellator used to run while
+ * adding each primitive, which is kept here as {@link Baseline}.
+ */
+class ShaderPrimitivesTest {
+    private static final int PRIMITIVES = 2000;
+
+    @Test
+    void quadsMatchTheBaseline() {
+        compare(true, ShaderVert.STRIDE_INTS);
+    }
+
+    @Test
+    void trianglesMatchTheBaseline() {
+        compare(false, ShaderVert.STRIDE_INTS);
+    }
+
+    @Test
+    void compactQuadsMatchTheBaseline() {
+        compare(true, ShaderVert.COMPACT_STRIDE_INTS);
+    }
+
+    @Test
+    void compactTrianglesMatchTheBaseline() {
+        compare(false, ShaderVert.COMPACT_STRIDE_INTS);
+    }
+
+    @Test
+    void onlyCompletePrimitivesInRangeAreWritten() {
+        var stride = ShaderVert.STRIDE_INTS;
+        var random = new Random(3);
+        var verts = new ShaderVert[11];
+        for (int i = 0; i < verts.length; i++) {
+            verts[i] = randomVert(random, i);
+        }
+        //One vertex before the range, two quads, and two vertices of a third one
+        var buffer = new int[verts.length * stride];
+        for (int i = 0; i < verts.length; i++) {
+            verts[i].toIntArrayBase(i * stride, buffer);
+        }
+        var untouched = buffer.clone();
+        ShaderPrimitives.generate(buffer, stride, buffer.length, true, stride);
+        for (int i : new int[]{0, 9, 10}) {
+            for (int j = 0; j < stride; j++) {
+                assertEquals(untouched[i * stride + j], buffer[i * stride + j], "vertex " + i + ", int " + j);
+            }
+        }
+    }
+
+    private static void compare(boolean quads, int stride) {
+        var random = new Random(quads ? 17 : 19);
+        var size = quads ? 4 : 3;
+        var expected = new int[PRIMITIVES * size * stride];
+        var actual = new int[expected.length];
+        var baseline = new Baseline();
+        for (int p = 0; p < PRIMITIVES; p++) {
+            var verts = new ShaderVert[size];
+            for (int i = 0; i < size; i++) {
+                verts[i] = randomVert(random, p);
+            }
+            baseline.generate(verts);
+            for (int i = 0; i < size; i++) {
+                var index = (p * size + i) * stride;
+                if (stride == ShaderVert.COMPACT_STRIDE_INTS) {
+                    verts[i].toIntArrayCompact(index, expected);
+                } else {
+                    verts[i].toIntArray(index, expected);
+                }
+                verts[i].toIntArrayBase(index, actual);
+            }
+        }
+        ShaderPrimitives.generate(actual, 0, actual.length, quads, stride);
+        assertArrayEquals(expected, actual);
+    }
+
+    /**
+     * Mostly regular geometry, with every so often a degenerate primitive: collapsed positions, repeated texture
+     * coordinates, or both.
+     */
+    private static ShaderVert randomVert(Random random, int primitive) {
+        var vert = new ShaderVert();
+        vert.positionX = random.nextFloat() * 32 - 16;
+        vert.positionY = random.nextFloat() * 32 - 16;
+        vert.positionZ = random.nextFloat() * 32 - 16;
+        vert.textureU = random.nextFloat();
+        vert.textureV = random.nextFloat();
+        vert.colorARGB = random.nextInt();
+        vert.lightMapUV = random.nextInt();
+        vert.entityData = random.nextInt();
+        vert.entityData2 = random.nextInt();
+        switch (primitive % 16) {
+            case 1 -> {
+                vert.positionX = 1;
+                vert.positionY = 2;
+                vert.positionZ = 3;
+            }
+            case 2 -> {
+                vert.textureU = 0.5F;
+                vert.textureV = 0.25F;
+            }
+            case 3 -> {
+                vert.positionX = 0;
+                vert.positionY = 0;
+                vert.positionZ = 0;
+                vert.textureU = 0;
+                vert.textureV = 0;
+            }
+            case 4 -> {
+                //Flat along an axis, like most block faces
+                vert.positionY = 8;
+                vert.textureU = (float) Math.floor(vert.textureU * 16) / 16;
+                vert.textureV = (float) Math.floor(vert.textureV * 16) / 16;
+            }
+            default -> {
+            }
+        }
+        return vert;
+    }
+
+    /**
+     * The per vertex generation from before {@link ShaderPrimitives}, operation for operation.
+     */
+    private static final class Baseline {
+        private ShaderVert vertA;
+        private ShaderVert vertB;
+        private ShaderVert vertC;
+        private ShaderVert vertD;
+
+        private void generate(ShaderVert[] verts) {
+            vertA = verts[0];
+            vertB = verts[1];
+            vertC = verts[2];
+            if (verts.length == 4) {
+                vertD = verts[3];
+                calculateQuadNormal();
+                calculateTangent(verts);
+                calculateQuadMidAndEdgeTexUV();
+            } else {
+                vertD = null;
+                calculateTriangleNormal();
+                calculateTangent(verts);
+                calculateTriangleMidAndEdgeTexUV();
+            }
+        }
+
+        private void calculateTriangleNormal() {
+            var length_AC_X = vertC.positionX - vertA.positionX;
+            var length_AC_Y = vertC.positionY - vertA.positionY;
+            var length_AC_Z = vertC.positionZ - vertA.positionZ;
+
+            var length_AB_X = vertA.positionX - vertB.positionX;
+            var length_AB_Y = vertA.positionY - vertB.positionY;
+            var length_AB_Z = vertA.positionZ - vertB.positionZ;
+
+            var normalX = (length_AC_Y * length_AB_Z) - (length_AC_Z * length_AB_Y);
+            var normalY = (length_AC_Z * length_AB_X) - (length_AC_X * length_AB_Z);
+            var normalZ = (length_AC_X * length_AB_Y) - (length_AC_Y * length_AB_X);
+
+            var length = safeSqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+            normalX /= length;
+            normalY /= length;
+            normalZ /= length;
+
+            for (var vert : new ShaderVert[]{vertA, vertB, vertC}) {
+                vert.normalX = normalX;
+                vert.normalY = normalY;
+                vert.normalZ = normalZ;
+            }
+        }
+
+        private void calculateQuadNormal() {
+            var length_AC_X = vertC.positionX - vertA.positionX;
+            var length_AC_Y = vertC.positionY - vertA.positionY;
+            var length_AC_Z = vertC.positionZ - vertA.positionZ;
+
+            var length_DB_X = vertD.positionX - vertB.positionX;
+            var length_DB_Y = vertD.positionY - vertB.positionY;
+            var length_DB_Z = vertD.positionZ - vertB.positionZ;
+
+            var normalX = (length_AC_Y * length_DB_Z) - (length_AC_Z * length_DB_Y);
+            var normalY = (length_AC_Z * length_DB_X) - (length_AC_X * length_DB_Z);
+            var normalZ = (length_AC_X * length_DB_Y) - (length_AC_Y * length_DB_X);
+
+            var length = safeSqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+            normalX /= length;
+            normalY /= length;
+            normalZ /= length;
+
+            for (var vert : new ShaderVert[]{vertA, vertB, vertC, vertD}) {
+                vert.normalX = normalX;
+                vert.normalY = normalY;
+                vert.normalZ = normalZ;
+            }
+        }
+
+        private void calculateTangent(ShaderVert[] verts) {
+            var length_AB_X = vertB.positionX - vertA.positionX;
+            var length_AB_Y = vertB.positionY - vertA.positionY;
+            var length_AB_Z = vertB.positionZ - vertA.positionZ;
+
+            var length_AC_X = vertC.positionX - vertA.positionX;
+            var length_AC_Y = vertC.positionY - vertA.positionY;
+            var length_AC_Z = vertC.positionZ - vertA.positionZ;
+
+            var length_AB_U = vertB.textureU - vertA.textureU;
+            var length_AB_V = vertB.textureV - vertA.textureV;
+
+            var length_AC_U = vertC.textureU - vertA.textureU;
+            var length_AC_V = vertC.textureV - vertA.textureV;
+
+            var lengthSq_UV = length_AB_U * length_AC_V - length_AC_U * length_AB_V;
+
+            final float deltaFactor;
+            if (lengthSq_UV == 0.0) {
+                deltaFactor = 1.0f;
+            } else {
+                deltaFactor = 1.0f / lengthSq_UV;
+            }
+
+            var tangentXUnscaled = deltaFactor * (length_AC_V * length_AB_X - length_AB_V * length_AC_X);
+            var tangentYUnscaled = deltaFactor * (length_AC_V * length_AB_Y - length_AB_V * length_AC_Y);
+            var tangentZUnscaled = deltaFactor * (length_AC_V * length_AB_Z - length_AB_V * length_AC_Z);
+
+            var tangentLength = safeSqrt(tangentXUnscaled * tangentXUnscaled +
+                                         tangentYUnscaled * tangentYUnscaled +
+                                         tangentZUnscaled * tangentZUnscaled);
+            var tangentX = tangentXUnscaled / tangentLength;
+            var tangentY = tangentYUnscaled / tangentLength;
+            var tangentZ = tangentZUnscaled / tangentLength;
+
+            var biTangentXUnscaled = deltaFactor * (-length_AC_U * length_AB_X + length_AB_U * length_AC_X);
+            var biTangentYUnscaled = deltaFactor * (-length_AC_U * length_AB_Y + length_AB_U * length_AC_Y);
+            var biTangentZUnscaled = deltaFactor * (-length_AC_U * length_AB_Z + length_AB_U * length_AC_Z);
+
+            var biTangentLength = safeSqrt(biTangentXUnscaled * biTangentXUnscaled +
+                                           biTangentYUnscaled * biTangentYUnscaled +
+                                           biTangentZUnscaled * biTangentZUnscaled);
+            var biTangentX = biTangentXUnscaled / biTangentLength;
+            var biTangentY = biTangentYUnscaled / biTangentLength;
+            var biTangentZ = biTangentZUnscaled / biTangentLength;
+
+            var otherBiTangentX = tangentY * vertA.normalZ - tangentZ * vertA.normalY;
+            var otherBiTangentY = tangentZ * vertA.normalX - tangentX * vertA.normalZ;
+            var otherBiTangentZ = tangentX * vertA.normalY - tangentY * vertA.normalX;
+
+            var tangentDotProduct = (biTangentX * otherBiTangentX) +
+                                    (biTangentY * otherBiTangentY) +
+                                    (biTangentZ * otherBiTangentZ);
+
+            var tangentW = tangentDotProduct < 0 ? -1.0F : 1.0F;
+
+            for (var vert : verts) {
+                vert.tangentX = tangentX;
+                vert.tangentY = tangentY;
+                vert.tangentZ = tangentZ;
+                vert.tangentW = tangentW;
+            }
+        }
+
+        private void calculateTriangleMidAndEdgeTexUV() {
+            var minU = Math.min(Math.min(vertA.textureU, vertB.textureU), vertC.textureU);
+            var minV = Math.min(Math.min(vertA.textureV, vertB.textureV), vertC.textureV);
+            var maxU = Math.max(Math.max(vertA.textureU, vertB.textureU), vertC.textureU);
+            var maxV = Math.max(Math.max(vertA.textureV, vertB.textureV), vertC.textureV);
+            setEdgeAndMid(new ShaderVert[]{vertA, vertB, vertC}, minU, minV, maxU, maxV);
+        }
+
+        private void calculateQuadMidAndEdgeTexUV() {
+            var minU = Math.min(Math.min(vertA.textureU, vertB.textureU), Math.min(vertC.textureU, vertD.textureU));
+            var minV = Math.min(Math.min(vertA.textureV, vertB.textureV), Math.min(vertC.textureV, vertD.textureV));
+            var maxU = Math.max(Math.max(vertA.textureU, vertB.textureU), Math.max(vertC.textureU, vertD.textureU));
+            var maxV = Math.max(Math.max(vertA.textureV, vertB.textureV), Math.max(vertC.textureV, vertD.textureV));
+            setEdgeAndMid(new ShaderVert[]{vertA, vertB, vertC, vertD}, minU, minV, maxU, maxV);
+        }
+
+        private static void setEdgeAndMid(ShaderVert[] verts, float minU, float minV, float maxU, float maxV) {
+            var midU = (minU + maxU) / 2;
+            var midV = (minV + maxV) / 2;
+            for (var vert : verts) {
+                vert.edgeTextureU = minU;
+                vert.edgeTextureV = minV;
+                vert.midTextureU = midU;
+                vert.midTextureV = midV;
+            }
+        }
+
+        private static float safeSqrt(float value) {
+            return value != 0F ? (float) Math.sqrt(value) : 1F;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.tessellator;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writes vertices in the compact layout and reads them back the way the GL does, from the bytes in memory, with the
+ * conversion rules for normalised integers.
+ */
+class ShaderVertTest {
+    private static final float SNORM8_ERROR = 0.5F / 127 + 1e-6F;
+    private static final float UNORM16_ERROR = 0.5F / 65535 + 1e-7F;
+
+    @Test
+    void unitVectorsRoundTrip() {
+        var random = new Random(5);
+        var vert = new ShaderVert();
+        for (int i = 0; i < 10000; i++) {
+            setUnit(random, vert);
+            var memory = compact(vert);
+            assertEquals(vert.normalX, snorm8(memory, ShaderVert.COMPACT_NORMAL_STRIDE_OFFSET, 0), SNORM8_ERROR);
+            assertEquals(vert.normalY, snorm8(memory, ShaderVert.COMPACT_NORMAL_STRIDE_OFFSET, 1), SNORM8_ERROR);
+            assertEquals(vert.normalZ, snorm8(memory, ShaderVert.COMPACT_NORMAL_STRIDE_OFFSET, 2), SNORM8_ERROR);
+            //Padding
+            assertEquals(0, memory.get(ShaderVert.COMPACT_NORMAL_STRIDE_OFFSET * Integer.BYTES + 3));
+            assertEquals(vert.tangentX, snorm8(memory, ShaderVert.COMPACT_TANGENT_STRIDE_OFFSET, 0), SNORM8_ERROR);
+            assertEquals(vert.tangentY, snorm8(memory, ShaderVert.COMPACT_TANGENT_STRIDE_OFFSET, 1), SNORM8_ERROR);
+            assertEquals(vert.tangentZ, snorm8(memory, ShaderVert.COMPACT_TANGENT_STRIDE_OFFSET, 2), SNORM8_ERROR);
+            assertEquals(vert.tangentW, snorm8(memory, ShaderVert.COMPACT_TANGENT_STRIDE_OFFSET, 3));
+        }
+    }
+
+    @Test
+    void snormEndpointsAreExact() {
+        var vert = new ShaderVert();
+        vert.normalX = -1;
+        vert.normalY = 0;
+        vert.normalZ = 1;
+        vert.tangentX = -0.0F;
+        //Clamped, and -128 is never written
+        vert.tangentY = -2;
+        vert.tangentZ = 3;
+        vert.tangentW = Float.NEGATIVE_INFINITY;
+        var memory = compact(vert);
+        assertEquals(-1F, snorm8(memory, ShaderVert.COMPACT_NORMAL_STRIDE_OFFSET, 0));
+        assertEquals(0F, snorm8(memory, ShaderVert.COMPACT_NORMAL_STRIDE_OFFSET, 1));
+        assertEquals(1F, snorm8(memory, ShaderVert.COMPACT_NORMAL_STRIDE_OFFSET, 2));
+        assertEquals(0F, snorm8(memory, ShaderVert.COMPACT_TANGENT_STRIDE_OFFSET, 0));
+        assertEquals(-127, memory.get(ShaderVert.COMPACT_TANGENT_STRIDE_OFFSET * Integer.BYTES + 1));
+        assertEquals(127, memory.get(ShaderVert.COMPACT_TANGENT_STRIDE_OFFSET * Integer.BYTES + 2));
+        assertEquals(-127, memory.get(ShaderVert.COMPACT_TANGENT_STRIDE_OFFSET * Integer.BYTES + 3));
+    }
+
+    @Test
+    void textureCoordinatesRoundTrip() {
+        var random = new Random(9);
+        var vert = new ShaderVert();
+        for (int i = 0; i < 10000; i++) {
+            vert.midTextureU = random.nextFloat();
+            vert.midTextureV = random.nextFloat();
+            vert.edgeTextureU = random.nextFloat();
+            vert.edgeTextureV = random.nextFloat();
+            var memory = compact(vert);
+            assertEquals(vert.midTextureU,
+                         unorm16(memory, ShaderVert.COMPACT_MID_TEXTURE_STRIDE_OFFSET, 0),
+                         UNORM16_ERROR);
+            assertEquals(vert.midTextureV,
+                         unorm16(memory, ShaderVert.COMPACT_MID_TEXTURE_STRIDE_OFFSET, 1),
+                         UNORM16_ERROR);
+            assertEquals(vert.edgeTextureU,
+                         unorm16(memory, ShaderVert.COMPACT_EDGE_TEXTURE_STRIDE_OFFSET, 0),
+                         UNORM16_ERROR);
+            assertEquals(vert.edgeTextureV,
+                         unorm16(memory, ShaderVert.COMPACT_EDGE_TEXTURE_STRIDE_OFFSET, 1),
+                         UNORM16_ERROR);
+        }
+    }
+
+    @Test
+    void unormEndpointsAreExact() {
+        var vert = new ShaderVert();
+        vert.midTextureU = 0;
+        vert.midTextureV = 1;
+        vert.edgeTextureU = -0.5F;
+        vert.edgeTextureV = 1.5F;
+        var memory = compact(vert);
+        assertEquals(0F, unorm16(memory, ShaderVert.COMPACT_MID_TEXTURE_STRIDE_OFFSET, 0));
+        assertEquals(1F, unorm16(memory, ShaderVert.COMPACT_MID_TEXTURE_STRIDE_OFFSET, 1));
+        assertEquals(0F, unorm16(memory, ShaderVert.COMPACT_EDGE_TEXTURE_STRIDE_OFFSET, 0));
+        assertEquals(1F, unorm16(memory, ShaderVert.COMPACT_EDGE_TEXTURE_STRIDE_OFFSET, 1));
+    }
+
+    @Test
+    void sharedPartMatchesTheFullLayout() {
+        var random = new Random(13);
+        var vert = new ShaderVert();
+        vert.positionX = random.nextFloat();
+        vert.positionY = -random.nextFloat();
+        vert.positionZ = Float.NaN;
+        vert.textureU = random.nextFloat();
+        vert.textureV = random.nextFloat();
+        vert.colorARGB = random.nextInt();
+        vert.lightMapUV = random.nextInt();
+        vert.entityData = random.nextInt();
+        vert.entityData2 = random.nextInt();
+        setUnit(random, vert);
+        var full = new int[ShaderVert.STRIDE_INTS + 3];
+        var compact = new int[ShaderVert.COMPACT_STRIDE_INTS + 3];
+        vert.toIntArray(3, full);
+        vert.toIntArrayCompact(3, compact);
+        for (int i = 0; i <= ShaderVert.ENTITY_DATA_1_STRIDE_OFFSET + 3; i++) {
+            assertEquals(full[i], compact[i], "int " + i);
+        }
+    }
+
+    private static void setUnit(Random random, ShaderVert vert) {
+        var normal = unit(random);
+        vert.normalX = normal[0];
+        vert.normalY = normal[1];
+        vert.normalZ = normal[2];
+        var tangent = unit(random);
+        vert.tangentX = tangent[0];
+        vert.tangentY = tangent[1];
+        vert.tangentZ = tangent[2];
+        vert.tangentW = random.nextBoolean() ? 1 : -1;
+    }
+
+    private static float[] unit(Random random) {
+        var x = (float) random.nextGaussian();
+        var y = (float) random.nextGaussian();
+        var z = (float) random.nextGaussian();
+        var length = (float) Math.sqrt(x * x + y * y + z * z);
+        assertTrue(length > 0);
+        return new float[]{x / length, y / length, z / length};
+    }
+
+    /**
+     * @return the vertex as it sits in memory when uploaded
+     */
+    private static ByteBuffer compact(ShaderVert vert) {
+        var ints = new int[ShaderVert.COMPACT_STRIDE_INTS];
+        vert.toIntArrayCompact(0, ints);
+        var memory = ByteBuffer.allocate(ints.length * Integer.BYTES)
+                               .order(ByteOrder.nativeOrder());
+        memory.asIntBuffer()
+              .put(ints);
+        return memory;
+    }
+
+    /**
+     * Signed normalised bytes map -127 to -1 and 127 to 1, -128 gets clamped to -1.
+     */
+    private static float snorm8(ByteBuffer memory, int offset, int component) {
+        return Math.max(memory.get(offset * Integer.BYTES + component) / 127F, -1F);
+    }
+
+    private static float unorm16(ByteBuffer memory, int offset, int component) {
+        return (memory.getShort(offset * Integer.BYTES + component * Short.BYTES) & 0xFFFF) / 65535F;
+    }
+}
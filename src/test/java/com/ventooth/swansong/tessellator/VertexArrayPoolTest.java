@@ -0,0 +1,138 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.tessellator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Every test runs on a thread of its own, so it starts out with an empty pool.
+ */
+class VertexArrayPoolTest {
+    private static final int MIN = ShaderTess.MIN_BUFFER_SIZE_INTS;
+
+    @Test
+    void sizesRoundUpToPowersOfTwo() {
+        assertEquals(MIN, VertexArrayPool.sizeFor(0));
+        assertEquals(MIN, VertexArrayPool.sizeFor(1));
+        assertEquals(MIN, VertexArrayPool.sizeFor(MIN));
+        assertEquals(MIN * 2, VertexArrayPool.sizeFor(MIN + 1));
+        assertEquals(MIN * 2, VertexArrayPool.sizeFor(MIN * 2));
+        assertEquals(0x40000000, VertexArrayPool.sizeFor(0x30000000));
+        assertThrows(IllegalArgumentException.class, () -> VertexArrayPool.sizeFor(0x40000001));
+        assertThrows(IllegalArgumentException.class, () -> VertexArrayPool.sizeFor(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void releasedArraysAreReused() throws InterruptedException {
+        onFreshThread(() -> {
+            var reused = VertexArrayPool.reusedArrays();
+            var array = VertexArrayPool.acquire(MIN * 2);
+            assertEquals(MIN * 2, array.length);
+            VertexArrayPool.release(array);
+            //Only for the same size class
+            assertNotSame(array, VertexArrayPool.acquire(MIN));
+            assertNotSame(array, VertexArrayPool.acquire(MIN * 4));
+            assertSame(array, VertexArrayPool.acquire(MIN * 2));
+            assertEquals(reused + 1, VertexArrayPool.reusedArrays());
+            //Taken out of the pool
+            assertNotSame(array, VertexArrayPool.acquire(MIN * 2));
+        });
+    }
+
+    @Test
+    void onlyTwoArraysPerSizeClassAreRetained() throws InterruptedException {
+        onFreshThread(() -> {
+            var first = VertexArrayPool.acquire(MIN);
+            var second = VertexArrayPool.acquire(MIN);
+            var third = VertexArrayPool.acquire(MIN);
+            VertexArrayPool.release(first);
+            VertexArrayPool.release(second);
+            VertexArrayPool.release(third);
+            var allocated = VertexArrayPool.allocatedArrays();
+            var a = VertexArrayPool.acquire(MIN);
+            var b = VertexArrayPool.acquire(MIN);
+            assertEquals(allocated, VertexArrayPool.allocatedArrays());
+            assertNotSame(third, a);
+            assertNotSame(third, b);
+            VertexArrayPool.acquire(MIN);
+            assertEquals(allocated + 1, VertexArrayPool.allocatedArrays());
+        });
+    }
+
+    @Test
+    void retainedIntsAreCapped() throws InterruptedException {
+        onFreshThread(() -> {
+            //Two of these reach the cap of 4M ints exactly
+            var large = MIN * 32;
+            var first = VertexArrayPool.acquire(large);
+            var second = VertexArrayPool.acquire(large);
+            var small = VertexArrayPool.acquire(MIN);
+            VertexArrayPool.release(first);
+            VertexArrayPool.release(second);
+            VertexArrayPool.release(small);
+            assertNotSame(small, VertexArrayPool.acquire(MIN));
+            assertSame(first, VertexArrayPool.acquire(large));
+            //Room again
+            VertexArrayPool.release(small);
+            assertSame(small, VertexArrayPool.acquire(MIN));
+        });
+    }
+
+    @Test
+    void arraysOutsideTheSizeClassesAreDropped() throws InterruptedException {
+        onFreshThread(() -> {
+            var odd = new int[MIN + 1];
+            var tiny = new int[MIN / 2];
+            VertexArrayPool.release(odd);
+            VertexArrayPool.release(tiny);
+            var allocated = VertexArrayPool.allocatedArrays();
+            assertEquals(MIN, VertexArrayPool.acquire(MIN).length);
+            assertEquals(MIN * 2, VertexArrayPool.acquire(MIN * 2).length);
+            assertEquals(allocated + 2, VertexArrayPool.allocatedArrays());
+        });
+    }
+
+    @Test
+    void poolsArePerThread() throws InterruptedException {
+        var released = new AtomicReference<int[]>();
+        onFreshThread(() -> {
+            var array = VertexArrayPool.acquire(MIN);
+            VertexArrayPool.release(array);
+            released.set(array);
+        });
+        onFreshThread(() -> assertNotSame(released.get(), VertexArrayPool.acquire(MIN)));
+    }
+
+    private static void onFreshThread(Runnable test) throws InterruptedException {
+        var failure = new AtomicReference<Throwable>();
+        var thread = new Thread(() -> {
+            try {
+                test.run();
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        thread.start();
+        thread.join();
+        if (failure.get() instanceof Error e) {
+            throw e;
+        } else if (failure.get() instanceof RuntimeException e) {
+            throw e;
+        }
+    }
+}
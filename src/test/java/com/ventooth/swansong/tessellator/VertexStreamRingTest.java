@@ -0,0 +1,114 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.tessellator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives the ring with a {@link VertexStreamRing.Target} that records the segment events instead of fencing.
+ */
+class VertexStreamRingTest {
+    private final List<String> events = new ArrayList<>();
+    private final VertexStreamRing.Target target = new VertexStreamRing.Target() {
+        @Override
+        public void beginSegment(int segment) {
+            events.add("begin " + segment);
+        }
+
+        @Override
+        public void endSegment(int segment) {
+            events.add("end " + segment);
+        }
+    };
+
+    @Test
+    void segmentsEndBeforeTheNextBeginsAndWrapAround() {
+        var ring = new VertexStreamRing(target, 100, 3);
+        assertEquals(0, ring.allocate(60));
+        assertEquals(60, ring.allocate(40));
+        assertEvents();
+
+        assertEquals(100, ring.allocate(1));
+        assertEvents("end 0", "begin 1");
+        assertEquals(200, ring.allocate(100));
+        assertEvents("end 1", "begin 2");
+        assertEquals(0, ring.allocate(50));
+        assertEvents("end 2", "begin 0");
+        assertEquals(50, ring.allocate(50));
+        assertEvents();
+    }
+
+    @Test
+    void rangesNeverStraddleSegments() {
+        var random = new Random(21);
+        var segmentSize = 1000;
+        var ring = new VertexStreamRing(target, segmentSize, 4);
+        var segment = 0;
+        for (int i = 0; i < 10000; i++) {
+            var size = random.nextInt(segmentSize + 1);
+            var offset = ring.allocate(size);
+            assertTrue(offset >= 0 && offset + size <= ring.capacity(), "range " + offset + " + " + size);
+            if (size > 0) {
+                assertEquals(offset / segmentSize, (offset + size - 1) / segmentSize, "range " + offset + " + " + size);
+                var next = offset / segmentSize;
+                if (next != segment) {
+                    //Exactly one segment further, after ending the previous one
+                    assertEquals((segment + 1) % 4, next);
+                    assertEvents("end " + segment, "begin " + next);
+                    segment = next;
+                }
+            }
+            assertEvents();
+        }
+    }
+
+    @Test
+    void oversizedRangesAreRejected() {
+        var ring = new VertexStreamRing(target, 100, 2);
+        assertThrows(IllegalArgumentException.class, () -> ring.allocate(101));
+        assertThrows(IllegalArgumentException.class, () -> ring.allocate(-1));
+        //Nothing changed
+        assertEquals(0, ring.allocate(100));
+        assertEvents();
+        assertThrows(IllegalArgumentException.class, () -> new VertexStreamRing(target, 0, 2));
+        assertThrows(IllegalArgumentException.class, () -> new VertexStreamRing(target, 100, 0));
+    }
+
+    @Test
+    void emptyRangesAtTheBoundaryKeepTheSegment() {
+        var ring = new VertexStreamRing(target, 100, 2);
+        ring.allocate(100);
+        assertEquals(100, ring.allocate(0));
+        assertEvents();
+        //The next real range moves on
+        assertEquals(100, ring.allocate(10));
+        assertEvents("end 0", "begin 1");
+
+        ring.allocate(90);
+        assertEquals(200, ring.allocate(0));
+        assertEvents();
+        assertEquals(0, ring.allocate(1));
+        assertEvents("end 1", "begin 0");
+    }
+
+    private void assertEvents(String... expected) {
+        assertEquals(List.of(expected), events);
+        events.clear();
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.uniforms.compiler.backend;
+
+import com.ventooth.swansong.uniforms.Builtins;
+import com.ventooth.swansong.uniforms.Type;
+import com.ventooth.swansong.uniforms.UniformFunctionRegistry;
+import com.ventooth.swansong.uniforms.compiler.UniformCompiler;
+import com.ventooth.swansong.uniforms.compiler.frontend.Optimizer;
+import com.ventooth.swansong.uniforms.compiler.frontend.TypeResolver;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Compiles vector expressions the way custom uniforms do, and checks the generated update methods for allocations.
+ */
+class CodeGeneratorTest {
+    private static final String SOURCES = org.objectweb.asm.Type.getInternalName(Sources.class);
+    private static final String GENERATED = "com/ventooth/swansong/uniforms/compiler/backend/Generated";
+    private static final String TARGET_DESC = org.objectweb.asm.Type.getDescriptor(Vector3d.class);
+
+    /**
+     * Vector expressions and what they should compute, given {@link Sources}.
+     */
+    private static final List<Case> VECTORS = List.of(new Case("camPos * 2.0 + vec3(1.0, 2.0, 3.0)",
+                                                               c -> new Vector3d(c).mul(2)
+                                                                                   .add(1, 2, 3)),
+                                                      new Case("clamp(-camPos, vec3(0.0), vec3(time))",
+                                                               c -> new Vector3d(clamp(-c.x(), 0, Sources.time),
+                                                                                 clamp(-c.y(), 0, Sources.time),
+                                                                                 clamp(-c.z(), 0, Sources.time))),
+                                                      new Case("if(time > 1.0, floor(camPos), ceil(camPos / 3.0))",
+                                                               c -> Sources.time > 1
+                                                                    ? new Vector3d(c).floor()
+                                                                    : new Vector3d(c).div(3)
+                                                                                     .ceil()),
+                                                      new Case("abs(min(camPos, max(vec3(time), camPos - 1.0)))",
+                                                               c -> new Vector3d(c).sub(1, 1, 1)
+                                                                                   .max(new Vector3d(Sources.time))
+                                                                                   .min(c)
+                                                                                   .absolute()),
+                                                      new Case("vec3(camPos.z, time, camPos.x % 2.0) - camPos",
+                                                               c -> new Vector3d(c.z(), Sources.time, c.x() % 2)
+                                                                       .sub(c)));
+
+    @Test
+    void vectorUpdatesDoNotAllocate() {
+        for (var vector : VECTORS) {
+            var method = vectorUpdate(vector.source);
+            assertEquals(List.of(), allocations(method.instructions), vector.source);
+        }
+    }
+
+    @Test
+    void scalarsReadFromVectorsDoNotAllocate() {
+        for (var source : new String[]{"camPos.x * time + camPos.z",
+                                       "clamp(camPos.y, 0.0, time)",
+                                       "if(time > 1.0, camPos.y, -camPos.x)"}) {
+            var method = scalarUpdate(source);
+            assertEquals(List.of(), allocations(method.instructions), source);
+        }
+    }
+
+    /**
+     * A vector pushed as a value needs an object, so the check has something to find.
+     */
+    @Test
+    void pushedVectorsAreFound() {
+        var method = compiler().compile(Type.Vec3,
+                                        "camPos + 1.0",
+                                        desc -> new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                                                               "value",
+                                                               desc,
+                                                               null,
+                                                               null));
+        assertFalse(allocations(method.instructions).isEmpty());
+    }
+
+    @Test
+    void vectorUpdatesComputeTheSameValues() throws ReflectiveOperationException {
+        var inputs = new double[][]{{1.5, -2.25, 7}, {-0.5, 0, 3.75}, {100, -100, 0.125}};
+        for (var vector : VECTORS) {
+            var generated = load(vector.source);
+            var update = generated.getMethod("update");
+            var target = (Vector3d) generated.getField("target")
+                                             .get(null);
+            for (var input : inputs) {
+                for (var time : new double[]{0.5, 2}) {
+                    Sources.camPos.set(input[0], input[1], input[2]);
+                    Sources.time = time;
+                    update.invoke(null);
+                    var expected = vector.expected.apply(Sources.camPos);
+                    assertEquals(expected.x, target.x, 1e-12, vector.source);
+                    assertEquals(expected.y, target.y, 1e-12, vector.source);
+                    assertEquals(expected.z, target.z, 1e-12, vector.source);
+                }
+            }
+            //Updates write into the same vector
+            assertSame(target,
+                       generated.getField("target")
+                                .get(null),
+                       vector.source);
+        }
+    }
+
+    private static UniformCompiler compiler() {
+        var registry = new UniformFunctionRegistry.Multi();
+        registry.add(Builtins.REGISTRY);
+        var sources = new UniformFunctionRegistry.Single();
+        try {
+            sources.impure(Sources.class.getMethod("camPos"));
+            sources.impure(Sources.class.getMethod("time"));
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+        registry.add(sources);
+        //Same flags as the custom uniforms
+        return new UniformCompiler(new UniformCompiler.Flags(new TypeResolver.Flags(true),
+                                                             new Optimizer.Flags(true, true, true),
+                                                             new CodeGenerator.Flags(true, true),
+                                                             new BytecodeOptimizer.Flags(true)), registry);
+    }
+
+    private static MethodNode vectorUpdate(String source) {
+        var method = new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "update", "()V", null, null);
+        compiler().compileInto(Type.Vec3,
+                               source,
+                               new FieldInsnNode(Opcodes.GETSTATIC, GENERATED, "target", TARGET_DESC),
+                               method.instructions,
+                               true);
+        method.instructions.add(new InsnNode(Opcodes.RETURN));
+        return method;
+    }
+
+    private static MethodNode scalarUpdate(String source) {
+        var method = new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "value", "()D", null, null);
+        compiler().compile(Type.Float, source, method.instructions, true);
+        method.instructions.add(new InsnNode(Opcodes.DRETURN));
+        return method;
+    }
+
+    /**
+     * @return the instructions that create objects: NEW and friends, and calls that return a vector which is not just
+     * read from a source
+     */
+    private static List<String> allocations(InsnList insns) {
+        var found = new ArrayList<String>();
+        for (var insn : insns) {
+            switch (insn.getOpcode()) {
+                case Opcodes.NEW, Opcodes.ANEWARRAY -> found.add("NEW " + ((TypeInsnNode) insn).desc);
+                case Opcodes.NEWARRAY, Opcodes.MULTIANEWARRAY -> found.add("NEWARRAY");
+                case Opcodes.INVOKEDYNAMIC -> found.add("INVOKEDYNAMIC " + ((InvokeDynamicInsnNode) insn).name);
+                default -> {
+                    if (insn instanceof MethodInsnNode call &&
+                        !SOURCES.equals(call.owner) &&
+                        !"set".equals(call.name) &&
+                        org.objectweb.asm.Type.getReturnType(call.desc)
+                                              .getSort() == org.objectweb.asm.Type.OBJECT) {
+                        found.add(call.owner + "." + call.name + call.desc);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private static Class<?> load(String source) throws ReflectiveOperationException {
+        var node = new ClassNode();
+        node.version = Opcodes.V1_8;
+        node.access = Opcodes.ACC_PUBLIC;
+        node.name = GENERATED;
+        node.superName = "java/lang/Object";
+        node.fields.add(new FieldNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "target", TARGET_DESC, null, null));
+        var clinit = new MethodNode(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        var target = org.objectweb.asm.Type.getInternalName(Vector3d.class);
+        clinit.instructions.add(new TypeInsnNode(Opcodes.NEW, target));
+        clinit.instructions.add(new InsnNode(Opcodes.DUP));
+        clinit.instructions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, target, "<init>", "()V", false));
+        clinit.instructions.add(new FieldInsnNode(Opcodes.PUTSTATIC, GENERATED, "target", TARGET_DESC));
+        clinit.instructions.add(new InsnNode(Opcodes.RETURN));
+        node.methods.add(clinit);
+        node.methods.add(vectorUpdate(source));
+        var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        node.accept(writer);
+        var bytes = writer.toByteArray();
+        return new ClassLoader(CodeGeneratorTest.class.getClassLoader()) {
+            Class<?> define() {
+                return defineClass(null, bytes, 0, bytes.length);
+            }
+        }.define();
+    }
+
+    private static double clamp(double x, double min, double max) {
+        return Math.min(Math.max(x, min), max);
+    }
+
+    private static final class Case {
+        private final String source;
+        private final Function<Vector3dc, Vector3d> expected;
+
+        private Case(String source, Function<Vector3dc, Vector3d> expected) {
+            this.source = source;
+            this.expected = expected;
+        }
+    }
+
+    /**
+     * Opaque sources, like the ones Minecraft provides.
+     */
+    public static final class Sources {
+        private static final Vector3d camPos = new Vector3d();
+        private static double time;
+
+        public static Vector3dc camPos() {
+            return camPos;
+        }
+
+        public static double time() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Swansong
+ *
+ * Copyright 2025 Ven, FalsePattern
+ *
+ * This software is licensed under the Open Software License version
+ * 3.0. The full text of this license can be found in https://opensource.org/licenses/OSL-3.0
+ * or in the LICENSES directory which is distributed along with the software.
+ */
+
+package com.ventooth.swansong.uniforms.compiler.frontend;
+
+import com.ventooth.swansong.uniforms.Builtins;
+import com.ventooth.swansong.uniforms.Type;
+import com.ventooth.swansong.uniforms.UniformFunction;
+import com.ventooth.swansong.uniforms.UniformFunctionRegistry;
+import com.ventooth.swansong.uniforms.compiler.UniformCompiler;
+import com.ventooth.swansong.uniforms.compiler.ast.TypedNode;
+import com.ventooth.swansong.uniforms.compiler.ast.typed.TypedFunctionNode;
+import com.ventooth.swansong.uniforms.compiler.backend.BytecodeOptimizer;
+import com.ventooth.swansong.uniforms.compiler.backend.CodeGenerator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compiles the same variables with and without shared subexpressions, and runs both over the same frames.
+ */
+class CommonSubexpressionsTest {
+    private static final String GENERATED = "com/ventooth/swansong/uniforms/compiler/frontend/Generated";
+
+    private static final List<String> VARS = List.of("noise(time) * 2.0 + accumulate(0, time)",
+                                                     "noise(time) * 2.0 - 1.0",
+                                                     "if(time > 1.0, noise(time + 1.0), 0.0)",
+                                                     "if(time > 1.0, noise(time + 1.0), -1.0) + " +
+                                                     "accumulate(0, time) * accumulate(0, time)",
+                                                     "accumulate(0, noise(time))");
+    private static final double[] TIMES = {0.5, 2, 3, 0.25, 1.5};
+
+    private int generation;
+
+    @BeforeEach
+    void setUp() {
+        Sources.reset();
+    }
+
+    @Test
+    void sharedSubexpressionsComputeTheSameValues() throws ReflectiveOperationException {
+        var plain = run(false);
+        Sources.reset();
+        var shared = run(true);
+        for (int frame = 0; frame < TIMES.length; frame++) {
+            for (int i = 0; i < VARS.size(); i++) {
+                assertEquals(plain.values[frame][i], shared.values[frame][i], "frame " + frame + ": " + VARS.get(i));
+            }
+        }
+    }
+
+    @Test
+    void impureCallsWithTheSameArgumentsAreEvaluatedOnce() throws ReflectiveOperationException {
+        var plain = run(false);
+        Sources.reset();
+        var shared = run(true);
+        for (int frame = 0; frame < TIMES.length; frame++) {
+            //noise(time + 1.0) only ever appears in branches, so it is not shared
+            var conditional = TIMES[frame] > 1 ? 2 : 0;
+            assertEquals(3 + conditional, plain.noiseCalls[frame], "frame " + frame);
+            assertEquals(1 + conditional, shared.noiseCalls[frame], "frame " + frame);
+        }
+        //noise(time), noise(time) * 2.0 and time > 1.0
+        assertEquals(3, shared.slots);
+    }
+
+    @Test
+    void statefulCallsAreNeverShared() throws ReflectiveOperationException {
+        var plain = run(false);
+        var plainState = Sources.sums.clone();
+        Sources.reset();
+        var shared = run(true);
+        for (int frame = 0; frame < TIMES.length; frame++) {
+            assertEquals(4, plain.accumulateCalls[frame], "frame " + frame);
+            assertEquals(4, shared.accumulateCalls[frame], "frame " + frame);
+        }
+        //Every call site keeps its own state, even the ones that look the same
+        var total = 0.0;
+        for (var time : TIMES) {
+            total += time;
+        }
+        for (int index = 0; index < 4; index++) {
+            assertEquals(plainState[index], Sources.sums[index], "index " + index);
+        }
+        for (int index = 0; index < 3; index++) {
+            assertEquals(total, Sources.sums[index], "index " + index);
+        }
+    }
+
+    @Test
+    void conditionalUsesDoNotCauseSlots() {
+        var slots = new ArrayList<TypedNode>();
+        var cse = new CommonSubexpressions(value -> {
+            slots.add(value);
+            return value;
+        });
+        var compiler = compiler();
+        var exprs = new ArrayList<TypedNode>();
+        for (var source : new String[]{"if(time > 1.0, noise(time), 0.0)",
+                                       "if(time > 2.0 && noise(time) > 0.5, 1.0, 0.0)",
+                                       "if(time < 0.5, 1.0, noise(time))"}) {
+            exprs.add(compiler.frontend(Type.Float, compiler.parse(source)));
+        }
+        for (var expr : exprs) {
+            cse.scan(expr);
+        }
+        for (var expr : exprs) {
+            cse.rewrite(expr);
+        }
+        assertEquals(List.of(), slots);
+
+        //One unconditional use is enough, the branches then read the slot
+        var unconditional = compiler.frontend(Type.Float, compiler.parse("noise(time) + 1.0"));
+        var withUnconditional = new CommonSubexpressions(value -> {
+            slots.add(value);
+            return value;
+        });
+        for (var expr : exprs) {
+            withUnconditional.scan(expr);
+        }
+        withUnconditional.scan(unconditional);
+        for (var expr : exprs) {
+            withUnconditional.rewrite(expr);
+        }
+        assertEquals(1, slots.size());
+    }
+
+    /**
+     * Compiles {@link #VARS} into one update method, then runs it once per {@link #TIMES frame}.
+     */
+    private Run run(boolean share) throws ReflectiveOperationException {
+        var node = new ClassNode();
+        node.version = Opcodes.V1_8;
+        node.access = Opcodes.ACC_PUBLIC;
+        node.name = GENERATED + generation++;
+        node.superName = "java/lang/Object";
+        var update = new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "update", "()V", null, null);
+        node.methods.add(update);
+
+        //A fresh compiler numbers the stateful call sites the same way every time
+        var compiler = compiler();
+        var typed = new ArrayList<TypedNode>();
+        for (var source : VARS) {
+            typed.add(compiler.frontend(Type.Float, compiler.parse(source)));
+        }
+        var slots = new Slots(compiler, node, update.instructions);
+        var cse = new CommonSubexpressions(slots);
+        if (share) {
+            for (var expr : typed) {
+                cse.scan(expr);
+            }
+        }
+        for (int i = 0; i < typed.size(); i++) {
+            var expr = share ? cse.rewrite(typed.get(i)) : typed.get(i);
+            node.fields.add(new FieldNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "v" + i, "D", null, null));
+            compiler.compile(expr, update.instructions, true);
+            update.instructions.add(new FieldInsnNode(Opcodes.PUTSTATIC, node.name, "v" + i, "D"));
+        }
+        update.instructions.add(new InsnNode(Opcodes.RETURN));
+
+        var generated = load(node);
+        var run = new Run(cse.slotCount());
+        for (int frame = 0; frame < TIMES.length; frame++) {
+            Sources.time = TIMES[frame];
+            Sources.frame = frame;
+            Sources.noiseCalls = 0;
+            Sources.accumulateCalls = 0;
+            generated.getMethod("update")
+                     .invoke(null);
+            run.noiseCalls[frame] = Sources.noiseCalls;
+            run.accumulateCalls[frame] = Sources.accumulateCalls;
+            for (int i = 0; i < VARS.size(); i++) {
+                run.values[frame][i] = generated.getField("v" + i)
+                                                .getDouble(null);
+            }
+        }
+        return run;
+    }
+
+    private static UniformCompiler compiler() {
+        var registry = new UniformFunctionRegistry.Multi();
+        registry.add(Builtins.REGISTRY);
+        var sources = new UniformFunctionRegistry.Single();
+        try {
+            sources.impure(Sources.class.getMethod("time"));
+            sources.impure(Sources.class.getMethod("noise", double.class));
+            sources.statefulIndexed(Sources.class.getMethod("accumulate", int.class, double.class));
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+        registry.add(sources);
+        //Same flags as the custom uniforms
+        return new UniformCompiler(new UniformCompiler.Flags(new TypeResolver.Flags(true),
+                                                             new Optimizer.Flags(true, true, true),
+                                                             new CodeGenerator.Flags(true, true),
+                                                             new BytecodeOptimizer.Flags(true)), registry);
+    }
+
+    private static Class<?> load(ClassNode node) {
+        var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        node.accept(writer);
+        var bytes = writer.toByteArray();
+        return new ClassLoader(CommonSubexpressionsTest.class.getClassLoader()) {
+            Class<?> define() {
+                return defineClass(null, bytes, 0, bytes.length);
+            }
+        }.define();
+    }
+
+    /**
+     * Static slots, updated right before the first expression that reads them.
+     */
+    private static final class Slots implements CommonSubexpressions.SlotAllocator {
+        private final UniformCompiler compiler;
+        private final ClassNode node;
+        private final InsnList update;
+        private int count;
+
+        private Slots(UniformCompiler compiler, ClassNode node, InsnList update) {
+            this.compiler = compiler;
+            this.node = node;
+            this.update = update;
+        }
+
+        @Override
+        public TypedNode allocate(TypedNode value) {
+            var name = "slot" + count++;
+            var type = value.outputType();
+            node.fields.add(new FieldNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                                          name,
+                                          type.descriptor(),
+                                          null,
+                                          null));
+            compiler.compile(value, update, true);
+            update.add(new FieldInsnNode(Opcodes.PUTSTATIC, node.name, name, type.descriptor()));
+
+            var get = new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                                     name + "$get",
+                                     "()" + type.descriptor(),
+                                     null,
+                                     null);
+            get.instructions.add(new FieldInsnNode(Opcodes.GETSTATIC, node.name, name, type.descriptor()));
+            get.instructions.add(new InsnNode(type.returnOpcode()));
+            node.methods.add(get);
+            return new TypedFunctionNode(new UniformFunction(null,
+                                                             node.name,
+                                                             name + "$get",
+                                                             type,
+                                                             Collections.emptyList(),
+                                                             false), Collections.emptyList());
+        }
+    }
+
+    private static final class Run {
+        private final int slots;
+        private final double[][] values = new double[TIMES.length][VARS.size()];
+        private final int[] noiseCalls = new int[TIMES.length];
+        private final int[] accumulateCalls = new int[TIMES.length];
+
+        private Run(int slots) {
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * Opaque sources, counting how often they get called.
+     */
+    public static final class Sources {
+        private static double time;
+        private static int frame;
+        private static int noiseCalls;
+        private static int accumulateCalls;
+        private static double[] sums = new double[8];
+
+        private static void reset() {
+            sums = new double[8];
+        }
+
+        public static double time() {
+            return time;
+        }
+
+        /**
+         * The same value for the same argument within a frame, which is all an impure function promises.
+         */
+        public static double noise(double x) {
+            noiseCalls++;
+            return Math.sin(x * 12.9898 + frame * 78.233);
+        }
+
+        /**
+         * A running sum per call site, like the stateful builtins keep.
+         */
+        public static double accumulate(int index, double value) {
+            accumulateCalls++;
+            sums[index] += value;
+            return sums[index];
+        }
+    }
+}
@@ -0,0 +1,16 @@
+#include "settings.glsl"
+
+/*
+ * Shared helpers, included by every program
+ */
+float luminance(vec3 color) {
+    return dot(color, vec3(0.2126, 0.7152, 0.0722));
+}
+
+#if SHADOW_QUALITY > 2 && defined WAVING_GRASS
+const float shadowBias = 0.0005;
+#elif SHADOW_QUALITY == 2 || defined WAVING_LEAVES
+const float shadowBias = 0.001;
+#else
+const float shadowBias = 0.002;
+#endif
@@ -0,0 +1,9 @@
+#define SHADOW_QUALITY 2 // [1 2 3 4]
+#define WAVING_GRASS
+//#define WAVING_LEAVES
+#define WATER_STYLE 1 // [0 1 2] Looks of the water
+//#define DEBUG_VIEW // Shows the raw buffers
+
+const int shadowMapResolution = 2048; // [1024 2048 4096]
+const float sunPathRotation = -30.0; // [-45.0 -30.0 0.0 30.0]
+const bool colortex3MipmapEnabled = true;
@@ -0,0 +1,11 @@
+#include "/lib/common.glsl"
+
+vec3 wave(vec3 pos, float time) {
+#ifdef WAVING_GRASS
+    pos.x += sin(time + pos.z) * 0.05;
+#endif
+#ifdef WAVING_LEAVES
+    pos.z += cos(time + pos.x) * 0.05;
+#endif
+    return pos;
+}